@@ -0,0 +1,96 @@
+package com.andrea.lsm.bench;
+
+import com.andrea.lsm.manifest.Manifest;
+import com.andrea.lsm.memtable.Memtable;
+import com.andrea.lsm.sstable.SSTable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Shared helpers for building benchmark fixtures: keys, values and on-disk layouts.
+ */
+final class BenchmarkData {
+
+  private BenchmarkData() {}
+
+  /**
+   * Builds {@code count} distinct keys of exactly {@code keySize} characters.
+   * <p>
+   * Keys are zero-padded so that their lexicographic order matches their index,
+   * which keeps {@link KeyDistribution#SEQUENTIAL} truly sequential on disk.
+   */
+  static String[] keys(String prefix, int count, int keySize) {
+    int digits = Math.max(String.valueOf(count).length(), keySize - prefix.length());
+    String[] keys = new String[count];
+    for (int i = 0; i < count; i++) {
+      String number = String.valueOf(i);
+      StringBuilder sb = new StringBuilder(prefix.length() + digits);
+      sb.append(prefix);
+      for (int pad = number.length(); pad < digits; pad++) {
+        sb.append('0');
+      }
+      sb.append(number);
+      keys[i] = sb.toString();
+    }
+    return keys;
+  }
+
+  /**
+   * Builds a printable, pseudo-random value of {@code valueSize} characters.
+   */
+  static String value(int valueSize, long seed) {
+    Random random = new Random(seed);
+    char[] chars = new char[valueSize];
+    for (int i = 0; i < valueSize; i++) {
+      chars[i] = (char) ('a' + random.nextInt(26));
+    }
+    return new String(chars);
+  }
+
+  /**
+   * Number of entries that fit in a single memtable without triggering a flush.
+   */
+  static int memtableCapacity(int keySize, int valueSize, int maxBytes) {
+    // Memtable accounts 4 bytes of length prefix for both key and value, plus the
+    // 8-byte sequence number.
+    long perEntry = keySize + valueSize + 16L;
+    return (int) Math.max(1, maxBytes / perEntry);
+  }
+
+  /**
+   * Writes the given keys into one SSTable and registers it at {@code level}.
+   */
+  static SSTable writeTable(Manifest manifest, int level, String[] keys, int from, int to,
+      String value) throws IOException {
+    Memtable memtable = new Memtable();
+    for (int i = from; i < to; i++) {
+      memtable.put(keys[i], value);
+    }
+    SSTable sstable = SSTable.createSSTableFromMemtable(memtable, manifest.getRootPath());
+    manifest.applyFlush(level, sstable);
+    return sstable;
+  }
+
+  static Path createTempDir() throws IOException {
+    return Files.createTempDirectory("lsm-bench-");
+  }
+
+  static void deleteRecursively(Path dir) throws IOException {
+    if (dir == null || !Files.exists(dir)) {
+      return;
+    }
+    try (Stream<Path> files = Files.walk(dir)) {
+      files.sorted(Comparator.reverseOrder()).forEach(path -> {
+        try {
+          Files.deleteIfExists(path);
+        } catch (IOException e) {
+          System.err.println("Failed to delete benchmark file: " + path);
+        }
+      });
+    }
+  }
+}
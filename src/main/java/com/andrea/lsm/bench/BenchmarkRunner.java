@@ -0,0 +1,16 @@
+package com.andrea.lsm.bench;
+
+/**
+ * Entry point for running the benchmark suite.
+ * <p>
+ * All arguments are passed through to JMH, so the usual options apply, e.g.
+ * {@code -t 8} for thread count, {@code -p distribution=ZIPFIAN} to pin a parameter,
+ * {@code DBReadBenchmark} to run a single class or {@code -rf json -rff baseline.json}
+ * to keep a baseline to compare later changes against.
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    org.openjdk.jmh.Main.main(args);
+  }
+}
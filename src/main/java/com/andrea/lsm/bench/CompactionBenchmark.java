@@ -0,0 +1,100 @@
+package com.andrea.lsm.bench;
+
+import com.andrea.lsm.memtable.Memtable;
+import com.andrea.lsm.sstable.Compactor;
+import com.andrea.lsm.sstable.SSTable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Compactor#compact(List, Path)} merging several overlapping SSTables.
+ * <p>
+ * The key distribution controls how much the inputs overlap: {@code SEQUENTIAL}
+ * produces disjoint runs, {@code UNIFORM} scattered overlaps and {@code ZIPFIAN}
+ * many duplicates of the same hot keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CompactionBenchmark {
+  @Param({"UNIFORM", "ZIPFIAN", "SEQUENTIAL"})
+  KeyDistribution distribution;
+
+  @Param({"16"})
+  int keySize;
+
+  @Param({"100"})
+  int valueSize;
+
+  @Param({"100000"})
+  int keyCount;
+
+  @Param({"4"})
+  int tableCount;
+
+  @Param({"5000"})
+  int entriesPerTable;
+
+  private Path dataDir;
+  private Compactor compactor;
+  private List<SSTable> inputs;
+  private Path outputPath;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() throws IOException {
+    dataDir = BenchmarkData.createTempDir();
+    compactor = new Compactor();
+
+    String[] keys = BenchmarkData.keys("key", keyCount, keySize);
+    KeyGenerator generator = new KeyGenerator(distribution, keyCount, 7L);
+    inputs = new ArrayList<>();
+    for (int t = 0; t < tableCount; t++) {
+      String value = BenchmarkData.value(valueSize, t);
+      Memtable memtable = new Memtable();
+      for (int i = 0; i < entriesPerTable; i++) {
+        memtable.put(keys[generator.nextIndex()], value);
+      }
+      inputs.add(SSTable.createSSTableFromMemtable(memtable, dataDir));
+    }
+  }
+
+  @Setup(Level.Invocation)
+  public void setUpInvocation() {
+    outputPath = SSTable.generateSSTablePath(dataDir);
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDownInvocation() throws IOException {
+    Files.deleteIfExists(outputPath);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDownTrial() throws IOException {
+    BenchmarkData.deleteRecursively(dataDir);
+  }
+
+  @Benchmark
+  public SSTable compact() throws IOException {
+    return compactor.compact(inputs, outputPath);
+  }
+}
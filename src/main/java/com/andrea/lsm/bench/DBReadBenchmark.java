@@ -0,0 +1,140 @@
+package com.andrea.lsm.bench;
+
+import com.andrea.lsm.core.DB;
+import com.andrea.lsm.manifest.Manifest;
+import com.andrea.lsm.sstable.SSTable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import util.Constants;
+import util.Options;
+
+/**
+ * Measures {@link DB#get(String)} against each tier of the tree.
+ * <ul>
+ *   <li>{@code MEMTABLE}: every key lives in the active memtable.</li>
+ *   <li>{@code L0}: every key lives in level-0 SSTables.</li>
+ *   <li>{@code DEEP}: every key lives in the last level.</li>
+ *   <li>{@code MISS}: keys fall inside the stored key range but were never written.</li>
+ * </ul>
+ * The on-disk tiers run under every {@link SSTable.ReadMode}; the memtable tier never
+ * touches SSTables, so {@code readMode} has no effect there.
+ * Use {@code -t} on the command line to change the number of reader threads.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DBReadBenchmark {
+
+  public enum Tier { MEMTABLE, L0, DEEP, MISS }
+
+  /** Number of SSTables the on-disk tiers are spread across. */
+  private static final int TABLES_PER_TIER = 3;
+
+  @State(Scope.Benchmark)
+  public static class DBState {
+    @Param({"MEMTABLE", "L0", "DEEP", "MISS"})
+    Tier tier;
+
+    @Param({"PREAD", "MMAP"})
+    SSTable.ReadMode readMode;
+
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100"})
+    int valueSize;
+
+    @Param({"10000"})
+    int keyCount;
+
+    Path dataDir;
+    DB db;
+    String[] keys;
+    int readableKeys;
+    final AtomicLong seeds = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      dataDir = BenchmarkData.createTempDir();
+      String value = BenchmarkData.value(valueSize, 42L);
+      keys = BenchmarkData.keys("key", keyCount, keySize);
+
+      if (tier == Tier.MEMTABLE) {
+        db = new DB(dataDir.toString());
+        readableKeys = Math.min(keyCount,
+            BenchmarkData.memtableCapacity(keySize, valueSize, Constants.MAXSIZE_MEMTABLE));
+        for (int i = 0; i < readableKeys; i++) {
+          db.put(keys[i], value);
+        }
+        return;
+      }
+
+      // Lay the SSTables out directly through the Manifest so that the data lands
+      // exactly on the requested level instead of wherever compaction moves it.
+      // The manifest is closed before the DB opens its own on the same directory.
+      Manifest manifest = new Manifest(dataDir.toString());
+      try {
+        int level = (tier == Tier.DEEP) ? Constants.MAX_LEVEL - 1 : 0;
+        int perTable = (keyCount + TABLES_PER_TIER - 1) / TABLES_PER_TIER;
+        for (int from = 0; from < keyCount; from += perTable) {
+          BenchmarkData.writeTable(manifest, level, keys, from, Math.min(keyCount, from + perTable), value);
+        }
+      } finally {
+        manifest.close();
+      }
+      db = new DB(dataDir.toString(), new Options().setReadMode(readMode));
+      readableKeys = keyCount;
+
+      if (tier == Tier.MISS) {
+        // Same prefix and width as the stored keys, but never written.
+        String[] missing = BenchmarkData.keys("key", keyCount, keySize);
+        for (int i = 0; i < missing.length; i++) {
+          missing[i] = missing[i] + "~";
+        }
+        keys = missing;
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      db.close();
+      BenchmarkData.deleteRecursively(dataDir);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class KeyState {
+    @Param({"UNIFORM", "ZIPFIAN", "SEQUENTIAL"})
+    KeyDistribution distribution;
+
+    KeyGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp(DBState state) {
+      generator = new KeyGenerator(distribution, state.readableKeys, state.seeds.incrementAndGet());
+    }
+  }
+
+  @Benchmark
+  public void get(DBState state, KeyState keyState, Blackhole bh) {
+    bh.consume(state.db.get(state.keys[keyState.generator.nextIndex()]));
+  }
+}
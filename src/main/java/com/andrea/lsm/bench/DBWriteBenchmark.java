@@ -0,0 +1,90 @@
+package com.andrea.lsm.bench;
+
+import com.andrea.lsm.core.DB;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the write path: {@link DB#put(String, String)} and {@link DB#remove(String)}.
+ * <p>
+ * Both operations go through the WAL and the memtable and periodically pay for a
+ * flush (and any compaction it triggers), so the numbers include that amortized cost.
+ * Use {@code -t} on the command line to change the number of writer threads.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DBWriteBenchmark {
+
+  @State(Scope.Benchmark)
+  public static class DBState {
+    @Param({"16"})
+    int keySize;
+
+    @Param({"100"})
+    int valueSize;
+
+    @Param({"100000"})
+    int keyCount;
+
+    Path dataDir;
+    DB db;
+    String[] keys;
+    String value;
+    final AtomicLong seeds = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+      dataDir = BenchmarkData.createTempDir();
+      db = new DB(dataDir.toString());
+      keys = BenchmarkData.keys("key", keyCount, keySize);
+      value = BenchmarkData.value(valueSize, 42L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+      db.close();
+      BenchmarkData.deleteRecursively(dataDir);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class KeyState {
+    @Param({"UNIFORM", "ZIPFIAN", "SEQUENTIAL"})
+    KeyDistribution distribution;
+
+    KeyGenerator generator;
+
+    @Setup(Level.Trial)
+    public void setUp(DBState state) {
+      generator = new KeyGenerator(distribution, state.keyCount, state.seeds.incrementAndGet());
+    }
+  }
+
+  @Benchmark
+  public void put(DBState state, KeyState keyState) throws IOException {
+    state.db.put(state.keys[keyState.generator.nextIndex()], state.value);
+  }
+
+  @Benchmark
+  public void remove(DBState state, KeyState keyState) throws IOException {
+    state.db.remove(state.keys[keyState.generator.nextIndex()]);
+  }
+}
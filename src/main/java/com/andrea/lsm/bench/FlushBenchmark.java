@@ -0,0 +1,82 @@
+package com.andrea.lsm.bench;
+
+import com.andrea.lsm.manifest.Manifest;
+import com.andrea.lsm.memtable.Memtable;
+import com.andrea.lsm.sstable.SSTableService;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link SSTableService#flush(Memtable)}, i.e. turning a full memtable into a
+ * level-0 SSTable and registering it in the {@link Manifest}.
+ * <p>
+ * The same memtable is flushed on every invocation. Compactions triggered by the
+ * flushes run on the background scheduler and are not part of the measured time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class FlushBenchmark {
+  @Param({"UNIFORM", "ZIPFIAN", "SEQUENTIAL"})
+  KeyDistribution distribution;
+
+  @Param({"16"})
+  int keySize;
+
+  @Param({"100"})
+  int valueSize;
+
+  @Param({"100000"})
+  int keyCount;
+
+  @Param({"1000"})
+  int entriesPerMemtable;
+
+  private Path dataDir;
+  private SSTableService sstableService;
+  private Memtable memtable;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dataDir = BenchmarkData.createTempDir();
+    sstableService = new SSTableService(new Manifest(dataDir.toString()));
+
+    String[] keys = BenchmarkData.keys("key", keyCount, keySize);
+    String value = BenchmarkData.value(valueSize, 42L);
+    KeyGenerator generator = new KeyGenerator(distribution, keyCount, 7L);
+    memtable = new Memtable();
+    for (int i = 0; i < entriesPerMemtable; i++) {
+      memtable.put(keys[generator.nextIndex()], value);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    sstableService.close();
+    BenchmarkData.deleteRecursively(dataDir);
+  }
+
+  @Benchmark
+  public void flush() throws IOException {
+    sstableService.flush(memtable);
+  }
+}
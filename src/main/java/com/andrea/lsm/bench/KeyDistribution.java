@@ -0,0 +1,13 @@
+package com.andrea.lsm.bench;
+
+/**
+ * Access patterns used by the benchmarks to pick which key to touch next.
+ */
+public enum KeyDistribution {
+  /** Every key is equally likely. */
+  UNIFORM,
+  /** A small set of hot keys receives most of the traffic (YCSB-style, theta = 0.99). */
+  ZIPFIAN,
+  /** Keys are visited in ascending order, wrapping around at the end. */
+  SEQUENTIAL
+}
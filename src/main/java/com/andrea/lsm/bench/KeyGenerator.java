@@ -0,0 +1,41 @@
+package com.andrea.lsm.bench;
+
+import java.util.Random;
+
+/**
+ * Picks key indexes according to a {@link KeyDistribution}.
+ * <p>
+ * Instances are not thread-safe; every benchmark thread owns its own generator.
+ */
+class KeyGenerator {
+  private final KeyDistribution distribution;
+  private final int keyCount;
+  private final Random random;
+  private final ZipfianGenerator zipfian;
+  private int cursor;
+
+  KeyGenerator(KeyDistribution distribution, int keyCount, long seed) {
+    this.distribution = distribution;
+    this.keyCount = keyCount;
+    this.random = new Random(seed);
+    this.zipfian = distribution == KeyDistribution.ZIPFIAN
+        ? new ZipfianGenerator(keyCount, random)
+        : null;
+    this.cursor = random.nextInt(keyCount);
+  }
+
+  int nextIndex() {
+    switch (distribution) {
+      case UNIFORM:
+        return random.nextInt(keyCount);
+      case ZIPFIAN:
+        return (int) zipfian.next();
+      case SEQUENTIAL:
+        int index = cursor;
+        cursor = (cursor + 1) % keyCount;
+        return index;
+      default:
+        throw new IllegalStateException("Unknown distribution: " + distribution);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package com.andrea.lsm.bench;
+
+import java.util.Random;
+
+/**
+ * Generates integers in {@code [0, items)} following a Zipfian distribution.
+ * <p>
+ * This is the algorithm from "Quickly Generating Billion-Record Synthetic Databases"
+ * (Gray et al.), the same one YCSB uses. Item 0 is the most popular one.
+ */
+class ZipfianGenerator {
+  static final double DEFAULT_THETA = 0.99;
+
+  private final long items;
+  private final double theta;
+  private final double alpha;
+  private final double zetan;
+  private final double eta;
+  private final Random random;
+
+  ZipfianGenerator(long items, Random random) {
+    this(items, DEFAULT_THETA, random);
+  }
+
+  ZipfianGenerator(long items, double theta, Random random) {
+    if (items <= 0) {
+      throw new IllegalArgumentException("items must be positive: " + items);
+    }
+    this.items = items;
+    this.theta = theta;
+    this.random = random;
+    this.alpha = 1.0 / (1.0 - theta);
+    this.zetan = zeta(items, theta);
+    double zeta2 = zeta(2, theta);
+    this.eta = (1 - Math.pow(2.0 / items, 1 - theta)) / (1 - zeta2 / zetan);
+  }
+
+  long next() {
+    double u = random.nextDouble();
+    double uz = u * zetan;
+    if (uz < 1.0) {
+      return 0;
+    }
+    if (uz < 1.0 + Math.pow(0.5, theta)) {
+      return Math.min(1, items - 1);
+    }
+    long ret = (long) (items * Math.pow(eta * u - eta + 1, alpha));
+    return Math.min(ret, items - 1);
+  }
+
+  private static double zeta(long n, double theta) {
+    double sum = 0;
+    for (long i = 1; i <= n; i++) {
+      sum += 1.0 / Math.pow(i, theta);
+    }
+    return sum;
+  }
+}
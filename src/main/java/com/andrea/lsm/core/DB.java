@@ -1,44 +1,389 @@
 package com.andrea.lsm.core;
 
+import com.andrea.lsm.iterator.MergingIterator;
+import com.andrea.lsm.iterator.RangeTombstone;
+import com.andrea.lsm.iterator.SeekingIterator;
 import com.andrea.lsm.manifest.Manifest;
+import com.andrea.lsm.manifest.Snapshot;
 import com.andrea.lsm.memtable.MemtableService;
+import com.andrea.lsm.sstable.SSTable;
 import com.andrea.lsm.sstable.SSTableService;
+import com.andrea.lsm.statistics.Statistics;
+import com.andrea.lsm.statistics.StatisticsMXBean;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import util.Bytes;
 import util.Constants;
+import util.Options;
 
+/**
+ * A key-value store of binary keys and values, kept in the order of
+ * {@link Options#getComparator()}.
+ * <p>
+ * Arrays and buffers passed in are copied. Arrays returned are shared with the database
+ * and must not be modified. The {@code String} methods store keys and values in UTF-8.
+ * Any value can be stored except the bytes of {@link util.Constants#TOMBSTONE}, which
+ * mark deletions; puts of it throw {@link IllegalArgumentException}.
+ * <p>
+ * Activity is counted in {@link #getStatistics()}, which is also published over JMX as
+ * {@code com.andrea.lsm:type=Statistics,path=<dir>} while the database is open; a second
+ * open database on the same directory adds {@code ,instance=<n>}.
+ */
 public class DB implements AutoCloseable {
+  private final Options options;
   private final Manifest manifest;
   private final MemtableService memtableService;
   private final SSTableService sstableService;
+  private final Statistics statistics;
+  /** Null if the statistics could not be registered. */
+  private final ObjectName statisticsName;
 
   public DB() throws IOException {
     this(Constants.DEFAULT_DATA_DIR);
   }
 
   public DB(String dataDir) throws IOException {
-    manifest = new Manifest(dataDir);
-    sstableService = new SSTableService(manifest);
-    memtableService = new MemtableService(manifest, sstableService);
+    this(dataDir, new Options());
+  }
+
+  public DB(String dataDir, Options options) throws IOException {
+    this.options = options;
+    manifest = new Manifest(dataDir, options);
+    sstableService = new SSTableService(manifest, options);
+    memtableService = new MemtableService(manifest, sstableService, options);
+    statistics = options.getStatistics();
+    statisticsName = registerStatistics(manifest.getRootPath(), statistics);
+  }
+
+  private static ObjectName registerStatistics(Path rootPath, Statistics statistics) {
+    String baseName = "com.andrea.lsm:type=Statistics,path="
+        + ObjectName.quote(rootPath.toAbsolutePath().normalize().toString());
+    try {
+      // A wrapper per registration, as databases sharing Options share their statistics.
+      StandardMBean mbean = new StandardMBean(statistics, StatisticsMXBean.class, true);
+      // Another instance on the same directory, e.g. one abandoned without close(), keeps
+      // its name; this one is told apart by an instance number.
+      for (int instance = 1; ; instance++) {
+        ObjectName name = new ObjectName(instance == 1 ? baseName
+            : baseName + ",instance=" + instance);
+        try {
+          ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, name);
+          return name;
+        } catch (InstanceAlreadyExistsException e) {
+          // Try the next instance number.
+        }
+      }
+    } catch (JMException e) {
+      System.err.println("Failed to register statistics MBean: " + e.getMessage());
+      return null;
+    }
+  }
+
+  /**
+   * @return The counters and latency histograms of this database, shared with every
+   *         database opened with the same {@link Options}.
+   */
+  public Statistics getStatistics() {
+    return statistics;
+  }
+
+  public void put(byte[] key, byte[] value) throws IOException {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("key and value must not be null");
+    }
+    Bytes.checkValue(value);
+    put(key.clone(), value.clone(), Statistics.HistogramType.DB_PUT);
+  }
+
+  /**
+   * Stores the remaining bytes of {@code key} and {@code value}, whose positions are left
+   * as they are.
+   */
+  public void put(ByteBuffer key, ByteBuffer value) throws IOException {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("key and value must not be null");
+    }
+    byte[] bytes = Bytes.copyOf(value);
+    Bytes.checkValue(bytes);
+    put(Bytes.copyOf(key), bytes, Statistics.HistogramType.DB_PUT);
   }
 
   public void put(String key, String value) throws IOException {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("key and value must not be null");
+    }
+    byte[] bytes = Bytes.of(value);
+    Bytes.checkValue(bytes);
+    put(Bytes.of(key), bytes, Statistics.HistogramType.DB_PUT);
+  }
+
+  private void put(byte[] key, byte[] value, Statistics.HistogramType type) throws IOException {
+    long start = System.nanoTime();
     memtableService.put(key, value);
+    recordWrite(key, value);
+    statistics.recordSince(type, start);
+  }
+
+  private void recordWrite(byte[] key, byte[] value) {
+    statistics.record(Statistics.Ticker.KEYS_WRITTEN);
+    statistics.record(Statistics.Ticker.BYTES_WRITTEN,
+        key.length + (Bytes.isTombstone(value) ? 0 : value.length));
+  }
+
+  /**
+   * Applies every operation of {@code batch} atomically. The batch can be reused.
+   */
+  public void write(WriteBatch batch) throws IOException {
+    long start = System.nanoTime();
+    List<Map.Entry<byte[], byte[]>> entries = batch.entries();
+    for (Map.Entry<byte[], byte[]> entry : entries) {
+      if (entry instanceof RangeTombstone) {
+        checkRange(entry.getKey(), entry.getValue());
+      }
+    }
+    memtableService.write(entries);
+    for (Map.Entry<byte[], byte[]> entry : entries) {
+      recordWrite(entry.getKey(), entry.getValue());
+    }
+    statistics.recordSince(Statistics.HistogramType.DB_WRITE, start);
+  }
+
+  /**
+   * Bulk-loads SSTables built with {@link com.andrea.lsm.sstable.SSTableWriter}, without
+   * going through the WAL, the Memtable or compaction. The files are moved into the
+   * database directory and become visible together, as one write that is newer than
+   * every write before it. Each is placed on the deepest level where it overlaps no
+   * data, so loading an empty key range ends up on the last level without rewrites.
+   * @param files Files with non-overlapping key ranges. They are left where they were
+   *              if the ingestion fails.
+   * @throws IllegalArgumentException If a file was not built for ingestion or the key
+   *         ranges of the files overlap.
+   */
+  public void ingest(List<Path> files) throws IOException {
+    if (files.isEmpty()) {
+      return;
+    }
+    List<SSTable> tables = sstableService.prepareIngest(files);
+    try {
+      memtableService.ingest(tables);
+    } catch (IOException | RuntimeException e) {
+      sstableService.abortIngest(tables, files);
+      throw e;
+    }
+  }
+
+  /**
+   * @return The value of {@code key}, or null if it does not exist.
+   */
+  public byte[] get(byte[] key) {
+    // Reads at the last published sequence rather than past every write, so that a
+    // batch still being inserted into the Memtable is seen whole or not at all.
+    return get(key, manifest.getLastSequence());
+  }
+
+  /**
+   * @return The value of {@code key} as of {@code snapshot}, or null if it did not exist.
+   */
+  public byte[] get(byte[] key, Snapshot snapshot) {
+    return get(key, snapshot.getSequence());
+  }
+
+  /**
+   * @param key The remaining bytes are the key; its position is left as it is.
+   * @return A read-only buffer over the value, or null if the key does not exist.
+   */
+  public ByteBuffer get(ByteBuffer key) {
+    byte[] value = get(Bytes.copyOf(key));
+    return value == null ? null : ByteBuffer.wrap(value).asReadOnlyBuffer();
   }
 
   public String get(String key) {
-    String value = memtableService.get(key);
-    if (value == null) {
-      value = sstableService.get(key);
+    return Bytes.string(get(Bytes.of(key)));
+  }
+
+  public String get(String key, Snapshot snapshot) {
+    return Bytes.string(get(Bytes.of(key), snapshot));
+  }
+
+  private byte[] get(byte[] key, long sequence) {
+    long start = System.nanoTime();
+    byte[] value = memtableService.get(key, sequence);
+    if (value != null) {
+      statistics.record(Statistics.Ticker.MEMTABLE_HIT);
+    } else {
+      statistics.record(Statistics.Ticker.MEMTABLE_MISS);
+      value = sstableService.get(key, sequence);
+    }
+    if (value != null && Bytes.isTombstone(value)) {
+      value = null;
+    }
+    statistics.record(Statistics.Ticker.KEYS_READ);
+    if (value != null) {
+      statistics.record(Statistics.Ticker.BYTES_READ, value.length);
     }
-    return (value == null || value.equals(Constants.TOMBSTONE)) ? null : value;
+    statistics.recordSince(Statistics.HistogramType.DB_GET, start);
+    return value;
+  }
+
+  public void remove(byte[] key) throws IOException {
+    if (key == null) {
+      throw new IllegalArgumentException("key must not be null");
+    }
+    put(key.clone(), Bytes.tombstone(), Statistics.HistogramType.DB_REMOVE);
+  }
+
+  public void remove(ByteBuffer key) throws IOException {
+    if (key == null) {
+      throw new IllegalArgumentException("key must not be null");
+    }
+    put(Bytes.copyOf(key), Bytes.tombstone(), Statistics.HistogramType.DB_REMOVE);
   }
 
   public void remove(String key) throws IOException {
-    memtableService.put(key, Constants.TOMBSTONE);
+    if (key == null) {
+      throw new IllegalArgumentException("key must not be null");
+    }
+    put(Bytes.of(key), Bytes.tombstone(), Statistics.HistogramType.DB_REMOVE);
+  }
+
+  /**
+   * Deletes every key in {@code [startKey, endKey)} with a single write, however many
+   * keys the range holds. Keys written to the range afterwards are not affected.
+   * <p>
+   * The deletion is kept as a range: reads and scans skip the keys it covers, and
+   * compactions drop them once no snapshot can see them.
+   * @throws IllegalArgumentException If {@code startKey} does not come before
+   *         {@code endKey}.
+   */
+  public void deleteRange(byte[] startKey, byte[] endKey) throws IOException {
+    if (startKey == null || endKey == null) {
+      throw new IllegalArgumentException("startKey and endKey must not be null");
+    }
+    deleteRange(new RangeTombstone(startKey.clone(), 0L, endKey.clone()));
+  }
+
+  public void deleteRange(String startKey, String endKey) throws IOException {
+    if (startKey == null || endKey == null) {
+      throw new IllegalArgumentException("startKey and endKey must not be null");
+    }
+    deleteRange(new RangeTombstone(Bytes.of(startKey), 0L, Bytes.of(endKey)));
+  }
+
+  private void deleteRange(RangeTombstone tombstone) throws IOException {
+    checkRange(tombstone.getStart(), tombstone.getEnd());
+    long start = System.nanoTime();
+    memtableService.write(List.of(tombstone));
+    recordWrite(tombstone.getStart(), tombstone.getEnd());
+    statistics.recordSince(Statistics.HistogramType.DB_DELETE_RANGE, start);
+  }
+
+  private void checkRange(byte[] startKey, byte[] endKey) {
+    if (options.getComparator().compare(startKey, endKey) >= 0) {
+      throw new IllegalArgumentException("startKey must come before endKey");
+    }
+  }
+
+  /**
+   * Opens a consistent point-in-time view for {@link #get(byte[], Snapshot)} and
+   * {@link #scan(byte[], byte[], Snapshot)}. It must be closed, since compactions keep every
+   * version it can see until then.
+   */
+  public Snapshot getSnapshot() {
+    return manifest.acquireSnapshot();
+  }
+
+  /**
+   * @return An iterator over every live entry as of now, positioned at the smallest key.
+   *         It must be closed.
+   */
+  public DBIterator<String, String> newIterator() {
+    return scan((String) null, null);
+  }
+
+  /**
+   * @return An iterator over every live entry as of {@code snapshot}, positioned at the
+   *         smallest key. It must be closed; the snapshot stays open.
+   */
+  public DBIterator<String, String> newIterator(Snapshot snapshot) {
+    return scan((String) null, null, snapshot);
+  }
+
+  /**
+   * Like {@link #scan(byte[], byte[])}, with keys and values decoded from UTF-8.
+   */
+  public DBIterator<String, String> scan(String startKey, String endKey) {
+    return DBIterator.utf8(scan(Bytes.of(startKey), Bytes.of(endKey)));
+  }
+
+  /**
+   * Like {@link #scan(byte[], byte[], Snapshot)}, with keys and values decoded from UTF-8.
+   */
+  public DBIterator<String, String> scan(String startKey, String endKey, Snapshot snapshot) {
+    return DBIterator.utf8(scan(Bytes.of(startKey), Bytes.of(endKey), snapshot));
+  }
+
+  /**
+   * @param startKey Inclusive lower bound, or null to start at the smallest key.
+   * @param endKey Exclusive upper bound, or null to run to the largest key.
+   * @return An iterator over the live entries in {@code [startKey, endKey)} as of now. It
+   *         must be closed.
+   */
+  public DBIterator<byte[], byte[]> scan(byte[] startKey, byte[] endKey) {
+    // The iterator owns an implicit snapshot, released when it is closed.
+    Snapshot snapshot = manifest.acquireSnapshot();
+    try {
+      return scan(startKey, endKey, snapshot, snapshot::close);
+    } catch (RuntimeException e) {
+      snapshot.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Like {@link #scan(byte[], byte[])}, but reads as of {@code snapshot}, which stays open.
+   */
+  public DBIterator<byte[], byte[]> scan(byte[] startKey, byte[] endKey, Snapshot snapshot) {
+    return scan(startKey, endKey, snapshot, () -> { });
+  }
+
+  private DBIterator<byte[], byte[]> scan(byte[] startKey, byte[] endKey, Snapshot snapshot,
+      Runnable onClose) {
+    long sequence = snapshot.getSequence();
+    // Memtables before SSTables: a Memtable flushed in between is then seen twice,
+    // which the merge resolves, rather than not at all.
+    List<SeekingIterator> sources = new ArrayList<>();
+    List<SeekingIterator> memtables = memtableService.newIterators();
+    sources.add(sstableService.newIterator(sequence));
+    sources.addAll(memtables);
+    DBIterator<byte[], byte[]> iterator = DBIterator.binary(
+        new MergingIterator(sources, options.getComparator(), sequence, true, onClose),
+        options.getComparator(), endKey == null ? null : endKey.clone());
+    if (startKey != null) {
+      iterator.seek(startKey);
+    }
+    return iterator;
   }
 
   @Override
   public void close() throws IOException {
+    if (statisticsName != null) {
+      try {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(statisticsName);
+      } catch (JMException e) {
+        System.err.println("Failed to unregister statistics MBean: " + e.getMessage());
+      }
+    }
     memtableService.close();
+    sstableService.close();
+    manifest.close();
   }
 }
@@ -0,0 +1,83 @@
+package com.andrea.lsm.core;
+
+import com.andrea.lsm.iterator.InternalEntry;
+import com.andrea.lsm.iterator.MergingIterator;
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+import util.Bytes;
+
+/**
+ * Iterator over the live entries of a {@link DB} in ascending key order, merged from the
+ * Memtables and every SSTable level. Deleted keys are skipped.
+ * <p>
+ * Keys and values are either returned as stored ({@code byte[]}), in which case they
+ * must not be modified, or decoded from UTF-8 ({@code String}).
+ * <p>
+ * The iterator reads at a snapshot: writes made after it was opened are not seen. It
+ * keeps the SSTables that were current when it was created from being deleted, so it
+ * must be closed.
+ */
+public class DBIterator<K, V> implements Iterator<Entry<K, V>>, AutoCloseable {
+  private final MergingIterator merged;
+  private final Comparator<byte[]> comparator;
+  private final byte[] endKey;
+  private final Function<K, byte[]> keyEncoder;
+  private final Function<InternalEntry, Entry<K, V>> entryDecoder;
+
+  private DBIterator(MergingIterator merged, Comparator<byte[]> comparator, byte[] endKey,
+      Function<K, byte[]> keyEncoder, Function<InternalEntry, Entry<K, V>> entryDecoder) {
+    this.merged = merged;
+    this.comparator = comparator;
+    this.endKey = endKey;
+    this.keyEncoder = keyEncoder;
+    this.entryDecoder = entryDecoder;
+  }
+
+  /**
+   * @param endKey Exclusive upper bound, or null for none.
+   */
+  static DBIterator<byte[], byte[]> binary(MergingIterator merged, Comparator<byte[]> comparator,
+      byte[] endKey) {
+    return new DBIterator<>(merged, comparator, endKey, key -> key, entry -> entry);
+  }
+
+  /**
+   * @return An iterator that takes over {@code binary}'s position and decodes its entries
+   *         from UTF-8.
+   */
+  static DBIterator<String, String> utf8(DBIterator<byte[], byte[]> binary) {
+    return new DBIterator<>(binary.merged, binary.comparator, binary.endKey, Bytes::of,
+        entry -> new AbstractMap.SimpleImmutableEntry<>(Bytes.string(entry.getKey()),
+            Bytes.string(entry.getValue())));
+  }
+
+  /**
+   * Repositions the iterator at the first live key greater than or equal to {@code key}.
+   */
+  public void seek(K key) {
+    merged.seek(keyEncoder.apply(key));
+  }
+
+  @Override
+  public boolean hasNext() {
+    InternalEntry entry = merged.peek();
+    return entry != null && (endKey == null || comparator.compare(entry.getKey(), endKey) < 0);
+  }
+
+  @Override
+  public Entry<K, V> next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return entryDecoder.apply(merged.next());
+  }
+
+  @Override
+  public void close() {
+    merged.close();
+  }
+}
@@ -0,0 +1,132 @@
+package com.andrea.lsm.core;
+
+import com.andrea.lsm.iterator.RangeTombstone;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import util.Bytes;
+
+/**
+ * A group of puts, removals and range deletions applied atomically by {@link DB#write(WriteBatch)}: after
+ * a crash either all of them are recovered or none, and readers never see some without
+ * the others.
+ * <p>
+ * Operations are applied in the order they were added, so a later one on the same key
+ * wins. Methods return {@code this} so that operations can be chained:
+ * <pre>{@code
+ * db.write(new WriteBatch()
+ *     .put("from", "90")
+ *     .put("to", "110"));
+ * }</pre>
+ * Strings are stored in UTF-8; arrays and buffers are copied when they are added. A put of
+ * the bytes of {@link util.Constants#TOMBSTONE}, which mark deletions, is rejected with
+ * {@link IllegalArgumentException}.
+ * A batch is not thread-safe and may be reused after {@link #clear()}.
+ */
+public class WriteBatch {
+  private final List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>();
+
+  public WriteBatch put(String key, String value) {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("key and value must not be null");
+    }
+    byte[] bytes = Bytes.of(value);
+    Bytes.checkValue(bytes);
+    return add(Bytes.of(key), bytes);
+  }
+
+  public WriteBatch put(byte[] key, byte[] value) {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("key and value must not be null");
+    }
+    Bytes.checkValue(value);
+    return add(key.clone(), value.clone());
+  }
+
+  /**
+   * Adds a put of the remaining bytes of {@code key} and {@code value}, whose positions
+   * are left as they are.
+   */
+  public WriteBatch put(ByteBuffer key, ByteBuffer value) {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("key and value must not be null");
+    }
+    byte[] bytes = Bytes.copyOf(value);
+    Bytes.checkValue(bytes);
+    return add(Bytes.copyOf(key), bytes);
+  }
+
+  public WriteBatch remove(String key) {
+    if (key == null) {
+      throw new IllegalArgumentException("key must not be null");
+    }
+    return add(Bytes.of(key), Bytes.tombstone());
+  }
+
+  public WriteBatch remove(byte[] key) {
+    if (key == null) {
+      throw new IllegalArgumentException("key must not be null");
+    }
+    return add(key.clone(), Bytes.tombstone());
+  }
+
+  public WriteBatch remove(ByteBuffer key) {
+    if (key == null) {
+      throw new IllegalArgumentException("key must not be null");
+    }
+    return add(Bytes.copyOf(key), Bytes.tombstone());
+  }
+
+  /**
+   * Adds a deletion of every key in {@code [startKey, endKey)}; see
+   * {@link DB#deleteRange(byte[], byte[])}. Later operations of the batch on keys in the
+   * range are not affected.
+   */
+  public WriteBatch deleteRange(String startKey, String endKey) {
+    if (startKey == null || endKey == null) {
+      throw new IllegalArgumentException("startKey and endKey must not be null");
+    }
+    entries.add(new RangeTombstone(Bytes.of(startKey), 0L, Bytes.of(endKey)));
+    return this;
+  }
+
+  public WriteBatch deleteRange(byte[] startKey, byte[] endKey) {
+    if (startKey == null || endKey == null) {
+      throw new IllegalArgumentException("startKey and endKey must not be null");
+    }
+    entries.add(new RangeTombstone(startKey.clone(), 0L, endKey.clone()));
+    return this;
+  }
+
+  private WriteBatch add(byte[] key, byte[] value) {
+    entries.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+    return this;
+  }
+
+  /**
+   * @return The number of operations in the batch.
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  public boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  public WriteBatch clear() {
+    entries.clear();
+    return this;
+  }
+
+  /**
+   * @return The operations in order, with {@link Bytes#tombstone()} as the value of
+   *         removals and a {@link RangeTombstone} for every range deletion.
+   */
+  List<Map.Entry<byte[], byte[]>> entries() {
+    return Collections.unmodifiableList(entries);
+  }
+}
@@ -0,0 +1,162 @@
+package com.andrea.lsm.iterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Range deletions cut into non-overlapping fragments, each with the sequence numbers of
+ * the deletions covering it, so that the deletions of a key are found by a binary search
+ * instead of a scan of every deletion.
+ * <p>
+ * Instances are immutable and built once per table, or per set of Memtable deletions; a
+ * merge walks them with a {@link Cursor}, in amortized constant time per key.
+ */
+public final class FragmentedRangeTombstones {
+  private static final long[] NONE = new long[0];
+
+  private final Comparator<byte[]> comparator;
+  /** Fragment {@code i} covers {@code [starts[i], ends[i])}; fragments are in key order. */
+  private final byte[][] starts;
+  private final byte[][] ends;
+  /** Sequence numbers of the deletions covering each fragment, in ascending order. */
+  private final long[][] sequences;
+
+  public FragmentedRangeTombstones(Collection<RangeTombstone> tombstones,
+      Comparator<byte[]> comparator) {
+    this.comparator = comparator;
+    List<RangeTombstone> sorted = new ArrayList<>(tombstones);
+    sorted.sort((a, b) -> comparator.compare(a.getStart(), b.getStart()));
+    List<byte[]> bounds = new ArrayList<>(2 * sorted.size());
+    for (RangeTombstone tombstone : sorted) {
+      bounds.add(tombstone.getStart());
+      bounds.add(tombstone.getEnd());
+    }
+    bounds.sort(comparator);
+
+    // Sweep the bounds in order, with the deletions that have started and not yet ended.
+    List<byte[]> fragmentStarts = new ArrayList<>();
+    List<byte[]> fragmentEnds = new ArrayList<>();
+    List<long[]> fragmentSequences = new ArrayList<>();
+    PriorityQueue<RangeTombstone> active =
+        new PriorityQueue<>((a, b) -> comparator.compare(a.getEnd(), b.getEnd()));
+    int next = 0;
+    for (int i = 0; i < bounds.size(); i++) {
+      byte[] start = bounds.get(i);
+      if (i > 0 && comparator.compare(start, bounds.get(i - 1)) == 0) {
+        continue;
+      }
+      while (!active.isEmpty() && comparator.compare(active.peek().getEnd(), start) <= 0) {
+        active.poll();
+      }
+      while (next < sorted.size() && comparator.compare(sorted.get(next).getStart(), start) <= 0) {
+        active.add(sorted.get(next++));
+      }
+      if (active.isEmpty()) {
+        continue;
+      }
+      int end = i + 1;
+      while (comparator.compare(bounds.get(end), start) == 0) {
+        end++;
+      }
+      long[] covering = new long[active.size()];
+      int count = 0;
+      for (RangeTombstone tombstone : active) {
+        covering[count++] = tombstone.getSequence();
+      }
+      Arrays.sort(covering);
+      fragmentStarts.add(start);
+      fragmentEnds.add(bounds.get(end));
+      fragmentSequences.add(covering);
+    }
+    this.starts = fragmentStarts.toArray(new byte[0][]);
+    this.ends = fragmentEnds.toArray(new byte[0][]);
+    this.sequences = fragmentSequences.toArray(new long[0][]);
+  }
+
+  public boolean isEmpty() {
+    return starts.length == 0;
+  }
+
+  /**
+   * @return The sequence number of the newest deletion written at or before
+   *         {@code readSequence} that covers {@code key}, or -1 if there is none.
+   */
+  public long newestCovering(byte[] key, long readSequence) {
+    int index = fragmentAtOrAfter(key);
+    if (index == starts.length || comparator.compare(starts[index], key) > 0) {
+      return -1L;
+    }
+    long[] covering = sequences[index];
+    int newer = firstAbove(covering, readSequence);
+    return newer == 0 ? -1L : covering[newer - 1];
+  }
+
+  /**
+   * @return The index of the first fragment that ends after {@code key}.
+   */
+  private int fragmentAtOrAfter(byte[] key) {
+    int low = 0;
+    int high = ends.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (comparator.compare(ends[mid], key) <= 0) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * @return The index of the first element of {@code ascending} above {@code sequence}.
+   */
+  static int firstAbove(long[] ascending, long sequence) {
+    int low = 0;
+    int high = ascending.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (ascending[mid] <= sequence) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * A position for looking up keys in ascending order, as a merge does; it only moves
+   * forward until {@link #seek(byte[])} places it again.
+   */
+  public final class Cursor {
+    private int index;
+
+    public void seek(byte[] key) {
+      index = fragmentAtOrAfter(key);
+    }
+
+    /**
+     * @param key A key no smaller than the one looked up before, or sought.
+     * @return The sequence numbers of the deletions covering {@code key}, in ascending
+     *         order. The array is shared and must not be modified.
+     */
+    public long[] covering(byte[] key) {
+      while (index < ends.length && comparator.compare(ends[index], key) <= 0) {
+        index++;
+      }
+      if (index < starts.length && comparator.compare(starts[index], key) <= 0) {
+        return sequences[index];
+      }
+      return NONE;
+    }
+  }
+
+  public Cursor cursor() {
+    return new Cursor();
+  }
+}
@@ -0,0 +1,25 @@
+package com.andrea.lsm.iterator;
+
+import java.util.AbstractMap;
+
+/**
+ * A key-value entry together with the sequence number of the write that produced it.
+ * Key and value arrays are shared and must not be modified.
+ * <p>
+ * Equality follows {@link java.util.Map.Entry}, which compares arrays by identity; the
+ * sequence number is not compared.
+ */
+public class InternalEntry extends AbstractMap.SimpleImmutableEntry<byte[], byte[]> {
+  private static final long serialVersionUID = 1L;
+
+  private final long sequence;
+
+  public InternalEntry(byte[] key, long sequence, byte[] value) {
+    super(key, value);
+    this.sequence = sequence;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+}
@@ -0,0 +1,65 @@
+package com.andrea.lsm.iterator;
+
+import java.util.Arrays;
+import util.Bytes;
+
+/**
+ * A user key tagged with the sequence number of the write that produced it.
+ * <p>
+ * Internal keys are ordered by user key ascending and then by sequence number
+ * descending, so that the newest version of a key comes first and a reader at
+ * sequence {@code s} finds its version as the first entry at or after
+ * {@code (key, s)}. User keys are ordered by an {@link InternalKeyComparator}.
+ */
+public final class InternalKey {
+  /** Sequence number reading past every write; also the smallest internal key of a user key. */
+  public static final long MAX_SEQUENCE = Long.MAX_VALUE;
+
+  private final byte[] userKey;
+  private final long sequence;
+
+  public InternalKey(byte[] userKey, long sequence) {
+    this.userKey = userKey;
+    this.sequence = sequence;
+  }
+
+  /**
+   * @return The user key. It is shared and must not be modified.
+   */
+  public byte[] getUserKey() {
+    return userKey;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return The user key followed by the sequence number as 8 big-endian bytes.
+   */
+  public static byte[] encode(byte[] userKey, long sequence) {
+    byte[] encoded = Arrays.copyOf(userKey, userKey.length + Long.BYTES);
+    for (int i = 0; i < Long.BYTES; i++) {
+      encoded[userKey.length + i] = (byte) (sequence >>> (56 - 8 * i));
+    }
+    return encoded;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof InternalKey)) return false;
+    InternalKey other = (InternalKey) o;
+    return sequence == other.sequence && Arrays.equals(userKey, other.userKey);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(userKey) + Long.hashCode(sequence);
+  }
+
+  @Override
+  public String toString() {
+    return Bytes.string(userKey) + "@" + sequence;
+  }
+}
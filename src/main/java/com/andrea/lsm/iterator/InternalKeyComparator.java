@@ -0,0 +1,38 @@
+package com.andrea.lsm.iterator;
+
+import java.util.Comparator;
+
+/**
+ * Orders {@link InternalKey}s by user key, as ordered by the database's
+ * {@link util.Options#getComparator() comparator}, and then by sequence number descending.
+ */
+public final class InternalKeyComparator implements Comparator<InternalKey> {
+  private final Comparator<byte[]> userComparator;
+
+  public InternalKeyComparator(Comparator<byte[]> userComparator) {
+    this.userComparator = userComparator;
+  }
+
+  /**
+   * @return The order of user keys.
+   */
+  public Comparator<byte[]> userComparator() {
+    return userComparator;
+  }
+
+  /**
+   * Compares two internal keys given as their parts.
+   */
+  public int compare(byte[] userKeyA, long sequenceA, byte[] userKeyB, long sequenceB) {
+    int res = userComparator.compare(userKeyA, userKeyB);
+    if (res == 0) {
+      return Long.compare(sequenceB, sequenceA);
+    }
+    return res;
+  }
+
+  @Override
+  public int compare(InternalKey a, InternalKey b) {
+    return compare(a.getUserKey(), a.getSequence(), b.getUserKey(), b.getSequence());
+  }
+}
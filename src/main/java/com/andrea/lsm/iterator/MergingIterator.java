@@ -0,0 +1,260 @@
+package com.andrea.lsm.iterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import util.Bytes;
+
+/**
+ * Merges several sorted sources into one stream in {@link InternalKey} order.
+ * <p>
+ * A reader sees, for every key, the newest version at or below its snapshot sequence.
+ * A compaction instead keeps the newest version of every key plus, for each live
+ * snapshot, the newest version that snapshot can see; every other version is shadowed
+ * by a newer one visible to exactly the same snapshots and is dropped.
+ * <p>
+ * The {@link RangeTombstone}s of all sources apply to the merged stream: a version is
+ * skipped if a newer range deletion covers it and no snapshot sees the version without
+ * the deletion.
+ * <p>
+ * Sources are ordered from oldest to newest: entries of the same key with the same
+ * sequence number, as written by tables built outside a database, are resolved in
+ * favour of the source with the highest index. Each source is advanced only as far as
+ * the merged stream needs it, so the merge streams in memory proportional to the
+ * number of sources.
+ */
+public class MergingIterator implements SeekingIterator {
+  private final List<? extends SeekingIterator> sources;
+  private final Comparator<byte[]> comparator;
+  /** Versions above this sequence are invisible. */
+  private final long readSequence;
+  /** Live snapshot sequences in ascending order; empty when reading. */
+  private final long[] snapshots;
+  private final boolean dropTombstones;
+  /** Range deletions of the sources visible at {@link #readSequence}, by start key. */
+  private final List<RangeTombstone> rangeTombstones;
+  /** The same deletions as fragments, looked up as the merged keys ascend. */
+  private final FragmentedRangeTombstones.Cursor rangeDeletions;
+  private final Runnable onClose;
+  private final PriorityQueue<MergeElement> heap;
+  private InternalEntry nextEntry;
+  private byte[] lastKey;
+  private int lastStripe;
+  private boolean closed;
+
+  private static class MergeElement {
+    final int indexOfSource;
+    final InternalEntry entry;
+
+    MergeElement(int indexOfSource, InternalEntry entry) {
+      this.indexOfSource = indexOfSource;
+      this.entry = entry;
+    }
+  }
+
+  /**
+   * @param sources Sorted sources, oldest first. They are closed with this iterator.
+   * @param comparator The order of user keys in the sources.
+   * @param dropTombstones Whether keys whose newest entry is a tombstone are skipped.
+   */
+  public MergingIterator(List<? extends SeekingIterator> sources, Comparator<byte[]> comparator,
+      boolean dropTombstones) {
+    this(sources, comparator, dropTombstones, () -> { });
+  }
+
+  /**
+   * @param onClose Runs once after the sources are closed, e.g. to unpin the files they read.
+   */
+  public MergingIterator(List<? extends SeekingIterator> sources, Comparator<byte[]> comparator,
+      boolean dropTombstones, Runnable onClose) {
+    this(sources, comparator, InternalKey.MAX_SEQUENCE, dropTombstones, onClose);
+  }
+
+  /**
+   * @param readSequence Snapshot to read at: newer versions are skipped.
+   */
+  public MergingIterator(List<? extends SeekingIterator> sources, Comparator<byte[]> comparator,
+      long readSequence, boolean dropTombstones, Runnable onClose) {
+    this(sources, comparator, readSequence, new long[0], dropTombstones, onClose);
+  }
+
+  private MergingIterator(List<? extends SeekingIterator> sources, Comparator<byte[]> comparator,
+      long readSequence, long[] snapshots, boolean dropTombstones, Runnable onClose) {
+    this.sources = sources;
+    this.comparator = comparator;
+    this.readSequence = readSequence;
+    this.snapshots = snapshots;
+    this.dropTombstones = dropTombstones;
+    this.onClose = onClose;
+    this.rangeTombstones = new ArrayList<>();
+    for (SeekingIterator source : sources) {
+      for (RangeTombstone tombstone : source.rangeTombstones()) {
+        if (tombstone.getSequence() <= readSequence) {
+          rangeTombstones.add(tombstone);
+        }
+      }
+    }
+    rangeTombstones.sort((a, b) -> comparator.compare(a.getStart(), b.getStart()));
+    this.rangeDeletions = new FragmentedRangeTombstones(rangeTombstones, comparator).cursor();
+    InternalKeyComparator internalComparator = new InternalKeyComparator(comparator);
+    this.heap = new PriorityQueue<>((a, b) -> {
+      int res = internalComparator.compare(a.entry.getKey(), a.entry.getSequence(),
+          b.entry.getKey(), b.entry.getSequence());
+      if (res == 0) {return Integer.compare(b.indexOfSource, a.indexOfSource);}
+      return res;
+    });
+    fillHeap();
+    advance();
+  }
+
+  /**
+   * Creates the merge of a compaction, which keeps every version a live snapshot can see.
+   * @param snapshots Sequence numbers of the live snapshots, in any order.
+   * @param dropTombstones Whether deletions can be discarded, i.e. no older data for the
+   *                       merged key range exists outside the sources. A tombstone is
+   *                       still kept while a snapshot older than it is alive.
+   */
+  public static MergingIterator forCompaction(List<? extends SeekingIterator> sources,
+      Comparator<byte[]> comparator, long[] snapshots, boolean dropTombstones) {
+    long[] sorted = snapshots.clone();
+    Arrays.sort(sorted);
+    return new MergingIterator(sources, comparator, InternalKey.MAX_SEQUENCE, sorted,
+        dropTombstones, () -> { });
+  }
+
+  private void fillHeap() {
+    heap.clear();
+    for (int i = 0; i < sources.size(); i++) {
+      pull(i);
+    }
+    lastKey = null;
+  }
+
+  private void pull(int indexOfSource) {
+    SeekingIterator source = sources.get(indexOfSource);
+    if (source.hasNext()) {
+      heap.offer(new MergeElement(indexOfSource, source.next()));
+    }
+  }
+
+  /**
+   * @return The index of the oldest snapshot that can see {@code sequence}, or the
+   *         number of snapshots if only the latest state can.
+   */
+  private int stripe(long sequence) {
+    int index = Arrays.binarySearch(snapshots, sequence);
+    return index >= 0 ? index : -index - 1;
+  }
+
+  private void advance() {
+    while (true) {
+      if (heap.isEmpty()) {
+        nextEntry = null;
+        return;
+      }
+      MergeElement currentMin = heap.poll();
+      InternalEntry entry = currentMin.entry;
+      pull(currentMin.indexOfSource);
+      if (entry.getSequence() > readSequence) {
+        continue;
+      }
+
+      // A version is shadowed by the newer one already returned (or dropped) for its key
+      // if no snapshot sees one without the other.
+      int stripe = stripe(entry.getSequence());
+      if (lastKey != null && comparator.compare(entry.getKey(), lastKey) == 0
+          && stripe == lastStripe) {
+        continue;
+      }
+      lastKey = entry.getKey();
+      lastStripe = stripe;
+
+      if (isRangeDeleted(entry, stripe)) {
+        continue;
+      }
+
+      // A tombstone must stay while an older snapshot could otherwise see older versions.
+      if (dropTombstones && stripe == 0 && Bytes.isTombstone(entry.getValue())) {
+        continue;
+      }
+      nextEntry = entry;
+      return;
+    }
+  }
+
+  /**
+   * @return Whether a newer range deletion in the same stripe covers {@code entry}, so
+   *         that no snapshot can see the entry.
+   */
+  private boolean isRangeDeleted(InternalEntry entry, int stripe) {
+    long[] covering = rangeDeletions.covering(entry.getKey());
+    // Newer deletions are in the same stripe or later ones, so the oldest decides.
+    int newer = FragmentedRangeTombstones.firstAbove(covering, entry.getSequence());
+    return newer < covering.length && stripe(covering[newer]) == stripe;
+  }
+
+  /**
+   * The range deletions that still matter beyond this merge, by start key. A compaction
+   * writes them to its outputs; like a point tombstone, a range deletion that every
+   * snapshot sees is dropped when {@code dropTombstones} is set, since the merge has
+   * already removed everything it covers.
+   */
+  @Override
+  public List<RangeTombstone> rangeTombstones() {
+    List<RangeTombstone> kept = new ArrayList<>();
+    for (RangeTombstone tombstone : rangeTombstones) {
+      if (!dropTombstones || stripe(tombstone.getSequence()) != 0) {
+        kept.add(tombstone);
+      }
+    }
+    return kept;
+  }
+
+  @Override
+  public void seek(byte[] target) {
+    for (SeekingIterator source : sources) {
+      source.seek(target);
+    }
+    rangeDeletions.seek(target);
+    fillHeap();
+    advance();
+  }
+
+  /**
+   * @return The entry {@link #next()} would return, or null at the end.
+   */
+  public InternalEntry peek() {
+    return nextEntry;
+  }
+
+  @Override
+  public boolean hasNext() { return nextEntry != null;}
+
+  @Override
+  public InternalEntry next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    InternalEntry result = nextEntry;
+    advance();
+    return result;
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      for (SeekingIterator source : sources) {
+        source.close();
+      }
+    } finally {
+      onClose.run();
+    }
+  }
+}
@@ -0,0 +1,62 @@
+package com.andrea.lsm.iterator;
+
+import java.util.AbstractMap;
+import java.util.Comparator;
+import util.Bytes;
+
+/**
+ * A deletion of every key in {@code [start, end)}, as written by
+ * {@link com.andrea.lsm.core.DB#deleteRange(byte[], byte[])}. It hides the versions of
+ * those keys written before it, i.e. with a smaller sequence number; later writes are
+ * not affected.
+ * <p>
+ * The start key is the entry's key and the end key its value, so that a range deletion
+ * can travel in the same lists as puts and removals, e.g. in a
+ * {@link com.andrea.lsm.core.WriteBatch}, where its position gives its sequence number.
+ * Key arrays are shared and must not be modified.
+ */
+public class RangeTombstone extends AbstractMap.SimpleImmutableEntry<byte[], byte[]> {
+  private static final long serialVersionUID = 1L;
+
+  private final long sequence;
+
+  /**
+   * @param start The first deleted key.
+   * @param end The first key after the deleted range.
+   */
+  public RangeTombstone(byte[] start, long sequence, byte[] end) {
+    super(start, end);
+    this.sequence = sequence;
+  }
+
+  public byte[] getStart() {
+    return getKey();
+  }
+
+  public byte[] getEnd() {
+    return getValue();
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  /**
+   * @return Whether {@code key} lies in {@code [start, end)}.
+   */
+  public boolean covers(byte[] key, Comparator<byte[]> comparator) {
+    return comparator.compare(getStart(), key) <= 0 && comparator.compare(key, getEnd()) < 0;
+  }
+
+  /**
+   * @return Whether any key of {@code [minKey, maxKey]} lies in {@code [start, end)}.
+   */
+  public boolean overlaps(byte[] minKey, byte[] maxKey, Comparator<byte[]> comparator) {
+    return comparator.compare(getStart(), maxKey) <= 0 && comparator.compare(minKey, getEnd()) < 0;
+  }
+
+  @Override
+  public String toString() {
+    return "[" + Bytes.string(getStart()) + ", " + Bytes.string(getEnd()) + ")@" + sequence;
+  }
+}
@@ -0,0 +1,35 @@
+package com.andrea.lsm.iterator;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Iterator over key-value entries in ascending {@link InternalKey} order that can be
+ * repositioned: by key, and for versions of the same key from newest to oldest.
+ * <p>
+ * Values are returned raw, so they may be {@link util.Bytes#tombstone()}, and entries
+ * hidden by a {@link RangeTombstone} of the source are returned too; a
+ * {@link MergingIterator} applies both.
+ */
+public interface SeekingIterator extends Iterator<InternalEntry>, AutoCloseable {
+
+  /**
+   * Repositions the iterator so that the next entry returned is the newest version of
+   * the first key greater than or equal to {@code target}.
+   */
+  void seek(byte[] target);
+
+  /**
+   * @return The range deletions stored with the entries of this source, in no particular
+   *         order. They do not move with the iterator.
+   */
+  default List<RangeTombstone> rangeTombstones() {
+    return List.of();
+  }
+
+  /**
+   * Releases what the iterator holds on to. Further calls have no effect.
+   */
+  @Override
+  void close();
+}
@@ -4,126 +4,357 @@
   import java.io.IOException;
   import java.io.InputStream;
   import java.io.ObjectInputStream;
-  import java.io.ObjectOutputStream;
-  import java.io.OutputStream;
   import java.nio.file.Files;
   import java.nio.file.Path;
   import java.util.ArrayList;
   import java.util.HashMap;
   import java.util.List;
   import java.util.Map;
+  import java.util.TreeMap;
+  import java.util.stream.Stream;
+  import java.util.concurrent.atomic.AtomicLong;
   import util.Constants;
+  import util.Options;
 
   public class Manifest {
     private final Path rootPath;
-    private final Map<Integer, List<SSTable>> levelMap;
+    private final Options options;
+    private volatile Version current;
+
+    /**
+     * Number of live Versions referencing each SSTable. A table whose count drops to
+     * zero is no longer reachable by any reader and its file is deleted.
+     */
+    private final Map<SSTable, Integer> tableRefs;
+
+    /** Sequence number of the newest write visible to readers. */
+    private final AtomicLong lastSequence;
+
+    /** Number of the next SSTable file; numbers are never reused. */
+    private final AtomicLong nextFileNumber;
+
+    /** Where layout changes are recorded. Guarded by this. */
+    private ManifestLog log;
+
+    /** Number of open {@link Snapshot}s per sequence number. Guarded by itself. */
+    private final TreeMap<Long, Integer> snapshots;
 
     public Manifest(String dataDir) throws IOException {
+      this(dataDir, new Options());
+    }
+
+    public Manifest(String dataDir, Options options) throws IOException {
       this.rootPath = Path.of(dataDir).toAbsolutePath();
-      this.levelMap = new HashMap<>();
+      this.options = options;
+      this.tableRefs = new HashMap<>();
+      this.lastSequence = new AtomicLong();
+      this.nextFileNumber = new AtomicLong(1L);
+      this.snapshots = new TreeMap<>();
       if (!Files.exists(rootPath)) Files.createDirectories(rootPath);
 
       recover();
     }
 
+    /**
+     * Rebuilds the layout from the log named by {@code CURRENT}, or from a manifest of the
+     * older serialized format, and starts a fresh log holding a snapshot of it.
+     */
     private void recover() throws IOException {
       Path currentFilePath = rootPath.resolve(Constants.CURRENT_FILENAME);
+      Map<Integer, List<String>> fileNames = new HashMap<>();
+      long loggedSequence = 0L;
 
-      // New database.
-      if (!Files.exists(currentFilePath)) {
-        return;
+      if (Files.exists(currentFilePath)) {
+        // trim() to remove potential newlines from readString
+        String manifestFileName = Files.readString(currentFilePath).trim();
+        Path manifestPath = rootPath.resolve(manifestFileName);
+        if (!Files.exists(manifestPath)) {
+          throw new IOException("Manifest file pointed by CURRENT does not exist: " + manifestFileName);
+        }
+        if (ManifestLog.isLog(manifestPath)) {
+          for (VersionEdit edit : ManifestLog.read(manifestPath)) {
+            edit.applyTo(fileNames);
+            loggedSequence = Math.max(loggedSequence, edit.getLastSequence());
+            nextFileNumber.accumulateAndGet(edit.getNextFileNumber(), Math::max);
+          }
+        } else {
+          fileNames = readLegacyManifest(manifestPath);
+        }
+      }
+
+      Map<Integer, List<SSTable>> levelMap = new HashMap<>();
+      for (Map.Entry<Integer, List<String>> entry : fileNames.entrySet()) {
+        for (String fileName : entry.getValue()) {
+          innerAdd(levelMap, entry.getKey(), new SSTable(rootPath.resolve(fileName), options));
+        }
+      }
+      installVersion(levelMap);
+      // Writes still in a WAL are newer still; the MemtableService raises this on replay.
+      setLastSequence(loggedSequence);
+      for (SSTable table : current.allTables()) {
+        setLastSequence(table.getMaxSequence());
       }
-      // Existing database (Recovery)
-      // 1. Read filename referenced by CURRENT
-      // trim() to remove potential newlines from readString
-      String manifestFileName = Files.readString(currentFilePath).trim();
-      Path manifestPath = rootPath.resolve(manifestFileName);
-      if (!Files.exists(manifestPath)) {
-        throw new IOException("Manifest file pointed by CURRENT does not exist: " + manifestFileName);
+      // A table written but not yet logged when the process stopped may still be there.
+      try (Stream<Path> files = Files.list(rootPath)) {
+        files.mapToLong(SSTable::fileNumber)
+            .forEach(number -> nextFileNumber.accumulateAndGet(number + 1, Math::max));
       }
+      this.log = ManifestLog.create(rootPath, snapshotEdit());
+    }
 
+    /**
+     * Reads a manifest written before the log: a Java-serialized map from level to file names.
+     */
+    private static Map<Integer, List<String>> readLegacyManifest(Path manifestPath) throws IOException {
       try (InputStream is = Files.newInputStream(manifestPath);
            ObjectInputStream ois = new ObjectInputStream(is)) {
         @SuppressWarnings("unchecked")
         Map<Integer, List<String>> diskData = (Map<Integer, List<String>>)ois.readObject();
+        Map<Integer, List<String>> fileNames = new HashMap<>();
         for (Map.Entry<Integer, List<String>> entry : diskData.entrySet()) {
-          int level = entry.getKey();
-          List<String> levelData = entry.getValue();
-          List<SSTable> levelSstables = new ArrayList<>();
-          for (String partOfPath : levelData) {
-            levelSstables.add(new SSTable(rootPath.resolve(partOfPath)));
-          }
-          this.levelMap.put(level, levelSstables);
+          fileNames.put(entry.getKey(), new ArrayList<>(entry.getValue()));
         }
+        return fileNames;
       } catch (ClassNotFoundException e) {
         throw new IOException("Failed to deserialize manifest", e);
       }
     }
 
-    private synchronized void persist() throws IOException {
-      Map<Integer, List<String>> diskData = new HashMap<>();
-      for (Map.Entry<Integer, List<SSTable>> entry : this.levelMap.entrySet()) {
-        int level = entry.getKey();
-        List<SSTable> levelSSTs = entry.getValue();
-
-        List<String> levelData = new ArrayList<>();
-        for (SSTable sst : levelSSTs) {
-          levelData.add(String.valueOf(sst.getFilePath().getFileName()));
+    /**
+     * @return An edit that rebuilds the current layout from nothing.
+     */
+    private VersionEdit snapshotEdit() {
+      VersionEdit edit = new VersionEdit();
+      for (int level = 0; level < Constants.MAX_LEVEL; level++) {
+        for (SSTable table : current.getSSTable(level)) {
+          edit.addFile(level, fileName(table));
         }
-        diskData.put(level, levelData);
       }
+      return edit.setLastSequence(lastSequence.get()).setNextFileNumber(nextFileNumber.get());
+    }
 
-      Path newManifestPath = generateMenifestPath();
+    private static String fileName(SSTable table) {
+      return table.getFilePath().getFileName().toString();
+    }
 
-      try (OutputStream os = Files.newOutputStream(newManifestPath);
-           ObjectOutputStream oos = new ObjectOutputStream(os)) {
-        oos.writeObject(diskData);
+    /**
+     * Durably records {@code edit} and then makes {@code levelMap} the current Version.
+     * Rolls the log over once it exceeds {@link Options#getMaxManifestFileSize()}.
+     */
+    private synchronized void logAndApply(VersionEdit edit, Map<Integer, List<SSTable>> levelMap)
+        throws IOException {
+      log.append(edit.setLastSequence(lastSequence.get()).setNextFileNumber(nextFileNumber.get()));
+      installVersion(levelMap);
+      if (log.size() > options.getMaxManifestFileSize()) {
+        ManifestLog previous = log;
+        this.log = ManifestLog.create(rootPath, snapshotEdit());
+        previous.close();
       }
-
-      Path pathOfCurrentManifestFile = rootPath.resolve(Constants.CURRENT_FILENAME);
-      Files.writeString(pathOfCurrentManifestFile, newManifestPath.getFileName().toString());
     }
 
     public synchronized void applyFlush(int level, SSTable sstable) throws IOException {
-      innerAdd(level, sstable);
-      persist();
+      Map<Integer, List<SSTable>> levelMap = current.copyLevels();
+      innerAdd(levelMap, level, sstable);
+      logAndApply(new VersionEdit().addFile(level, fileName(sstable)), levelMap);
     }
 
     public synchronized void applyCompact(int sourceLevel, List<SSTable> oldTables,
         int targetLevel, SSTable newTable) throws IOException {
-      innerRemove(sourceLevel, oldTables);
-      innerAdd(targetLevel, newTable);
-      persist();
+      applyCompact(sourceLevel, oldTables, targetLevel, List.of(), List.of(newTable));
+    }
+
+    /**
+     * Atomically replaces the compaction inputs of both levels with its outputs.
+     * @param sourceLevel The level the compaction picked its files from.
+     * @param sourceTables The inputs taken from {@code sourceLevel}.
+     * @param targetLevel The level receiving the outputs.
+     * @param targetTables The overlapping inputs taken from {@code targetLevel}.
+     * @param newTables The SSTables written by the compaction.
+     */
+    public synchronized void applyCompact(int sourceLevel, List<SSTable> sourceTables,
+        int targetLevel, List<SSTable> targetTables, List<SSTable> newTables) throws IOException {
+      Map<Integer, List<SSTable>> levelMap = current.copyLevels();
+      VersionEdit edit = new VersionEdit();
+      innerRemove(levelMap, sourceLevel, sourceTables);
+      innerRemove(levelMap, targetLevel, targetTables);
+      for (SSTable table : sourceTables) {
+        edit.removeFile(sourceLevel, fileName(table));
+      }
+      for (SSTable table : targetTables) {
+        edit.removeFile(targetLevel, fileName(table));
+      }
+      for (SSTable newTable : newTables) {
+        innerAdd(levelMap, targetLevel, newTable);
+        edit.addFile(targetLevel, fileName(newTable));
+      }
+      logAndApply(edit, levelMap);
+    }
+
+    /**
+     * Atomically adds ingested SSTables, each to the level chosen for it.
+     */
+    public synchronized void applyIngest(Map<SSTable, Integer> levelOfTable) throws IOException {
+      Map<Integer, List<SSTable>> levelMap = current.copyLevels();
+      VersionEdit edit = new VersionEdit();
+      for (Map.Entry<SSTable, Integer> entry : levelOfTable.entrySet()) {
+        innerAdd(levelMap, entry.getValue(), entry.getKey());
+        edit.addFile(entry.getValue(), fileName(entry.getKey()));
+      }
+      logAndApply(edit, levelMap);
     }
 
-    private void innerAdd(int level, SSTable sstable) throws IOException {
+    private void innerAdd(Map<Integer, List<SSTable>> levelMap, int level, SSTable sstable) {
       levelMap.putIfAbsent(level, new ArrayList<>());
-      levelMap.get(level).add(sstable);
+      List<SSTable> levelTables = levelMap.get(level);
+      if (level == 0 || sstable.getMinKey() == null) {
+        // Level 0 is ordered by age, oldest first.
+        levelTables.add(sstable);
+        return;
+      }
+      // Deeper levels hold non-overlapping tables ordered by key range.
+      int index = 0;
+      while (index < levelTables.size() && levelTables.get(index).getMinKey() != null
+          && options.getComparator().compare(levelTables.get(index).getMinKey(),
+              sstable.getMinKey()) < 0) {
+        index++;
+      }
+      levelTables.add(index, sstable);
     }
 
-    private void innerRemove(int level, List<SSTable> sstables) throws IOException {
+    private void innerRemove(Map<Integer, List<SSTable>> levelMap, int level, List<SSTable> sstables) {
       List<SSTable> levelTables = levelMap.get(level);
-      if (levelTables.isEmpty() || sstables.isEmpty()) {
+      if (levelTables == null || levelTables.isEmpty() || sstables.isEmpty()) {
         return;
       }
       levelTables.removeAll(sstables);
     }
 
+    /**
+     * Makes {@code levelMap} the current Version and drops the Manifest's reference to
+     * the previous one.
+     */
+    private synchronized void installVersion(Map<Integer, List<SSTable>> levelMap) {
+      Version next = new Version(levelMap);
+      for (SSTable table : next.allTables()) {
+        tableRefs.merge(table, 1, Integer::sum);
+      }
+      Version previous = this.current;
+      this.current = next;
+      if (previous != null) {
+        releaseVersion(previous);
+      }
+    }
+
+    /**
+     * Pins the current Version so that none of its SSTable files are deleted until
+     * {@link #releaseVersion(Version)} is called.
+     */
+    public Version acquireVersion() {
+      while (true) {
+        Version version = this.current;
+        if (version.tryRef()) {
+          return version;
+        }
+        // Lost a race with installVersion(); the new current Version is live.
+      }
+    }
+
+    public void releaseVersion(Version version) {
+      if (version.unref() > 0) {
+        return;
+      }
+      List<SSTable> deadTables = new ArrayList<>();
+      synchronized (this) {
+        for (SSTable table : version.allTables()) {
+          if (tableRefs.merge(table, -1, Integer::sum) == 0) {
+            tableRefs.remove(table);
+            deadTables.add(table);
+          }
+        }
+      }
+      for (SSTable table : deadTables) {
+        table.close();
+        try {
+          Files.deleteIfExists(table.getFilePath());
+        } catch (IOException e) {
+          System.err.println("Failed to delete obsolete SSTable: " + table.getFilePath());
+        }
+      }
+    }
+
+    /**
+     * @return The SSTables currently on {@code level}. The list is not pinned; use
+     * {@link #acquireVersion()} when the files must stay readable.
+     */
     public List<SSTable> getSSTable(int level) {
-      List<SSTable> levelList = levelMap.get(level);
-      if (levelList == null) {
-        return new ArrayList<>();
+      return new ArrayList<>(current.getSSTable(level));
+    }
+
+    /**
+     * @return The sequence number of the newest write visible to readers.
+     */
+    public long getLastSequence() {
+      return lastSequence.get();
+    }
+
+    /**
+     * Makes writes up to {@code sequence} visible; never moves backwards.
+     */
+    public void setLastSequence(long sequence) {
+      lastSequence.accumulateAndGet(sequence, Math::max);
+    }
+
+    /**
+     * Opens a snapshot of the writes visible now.
+     */
+    public Snapshot acquireSnapshot() {
+      synchronized (snapshots) {
+        // Read under the lock, so that a compaction listing the snapshots either sees
+        // this one or only has inputs it could not see anyway.
+        long sequence = lastSequence.get();
+        snapshots.merge(sequence, 1, Integer::sum);
+        return new Snapshot(this, sequence);
+      }
+    }
+
+    void releaseSnapshot(Snapshot snapshot) {
+      synchronized (snapshots) {
+        snapshots.computeIfPresent(snapshot.getSequence(), (sequence, count) -> count == 1 ? null : count - 1);
+      }
+    }
+
+    /**
+     * @return The sequence numbers of the open snapshots in ascending order.
+     */
+    public long[] getSnapshotSequences() {
+      synchronized (snapshots) {
+        return snapshots.keySet().stream().mapToLong(Long::longValue).toArray();
       }
-      return new ArrayList<>(levelList);
     }
 
-    private Path generateMenifestPath() {
-      String fileName = Constants.MANIFEST_PREFIX + System.nanoTime();
-      return rootPath.resolve(fileName);
+    /**
+     * Allocates the path of a new SSTable file. Numbers only grow, across restarts too:
+     * the log records the next one and recovery skips past any file already on disk.
+     */
+    public Path newSSTablePath() {
+      while (true) {
+        Path path = SSTable.sstablePath(rootPath, nextFileNumber.getAndIncrement());
+        // A table written outside the Manifest may already hold the number.
+        if (!Files.exists(path)) {
+          return path;
+        }
+      }
     }
 
     public Path getRootPath() {
       return rootPath;
     }
 
+    /**
+     * Closes the manifest log. Called once nothing changes the layout anymore.
+     */
+    public synchronized void close() throws IOException {
+      log.close();
+    }
+
   }
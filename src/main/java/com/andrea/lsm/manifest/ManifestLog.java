@@ -0,0 +1,202 @@
+package com.andrea.lsm.manifest;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import util.Constants;
+
+/**
+ * The on-disk form of the {@link Manifest}: an append-only log of {@link VersionEdit}s.
+ * <p>
+ * A log file starts with {@link #MAGIC}, followed by {@code length(4) crc32c(4) edit}
+ * records. The first record is a snapshot of the whole layout and every later one
+ * describes a single flush, compaction or ingestion, so a metadata commit is one small
+ * append and an fsync. Replaying the log stops at the first torn or corrupt record,
+ * which can only be an append that was never acknowledged.
+ * <p>
+ * When the log grows too large it is rolled over to a new file holding just a snapshot.
+ * {@code CURRENT} names the live log and is replaced atomically by renaming a temporary
+ * file over it, so a crash leaves it pointing at either the old or the new log.
+ */
+final class ManifestLog implements AutoCloseable {
+  static final long MAGIC = 0x4c534d4d414e3031L; // "LSMMAN01"
+  private static final int RECORD_HEADER_SIZE = 4 + 4;
+  private static final String CURRENT_TEMP_SUFFIX = ".tmp";
+
+  private final FileChannel channel;
+  private long size;
+
+  private ManifestLog(FileChannel channel, long size) {
+    this.channel = channel;
+    this.size = size;
+  }
+
+  /**
+   * Starts a new log holding {@code snapshot}, points {@code CURRENT} at it and deletes
+   * every other manifest file.
+   */
+  static ManifestLog create(Path rootPath, VersionEdit snapshot) throws IOException {
+    Path filePath = rootPath.resolve(Constants.MANIFEST_PREFIX + System.nanoTime());
+    FileChannel channel = FileChannel.open(filePath,
+        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    ManifestLog log;
+    try {
+      writeFully(channel, ByteBuffer.allocate(Long.BYTES).putLong(MAGIC).flip());
+      log = new ManifestLog(channel, Long.BYTES);
+      log.append(snapshot);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      Files.deleteIfExists(filePath);
+      throw e;
+    }
+    setCurrent(rootPath, filePath.getFileName().toString());
+    deleteObsoleteManifests(rootPath, filePath);
+    return log;
+  }
+
+  /**
+   * Appends {@code edit} and forces it to disk.
+   */
+  void append(VersionEdit edit) throws IOException {
+    byte[] payload = edit.encode();
+    CRC32C crc = new CRC32C();
+    crc.update(payload);
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+    record.putInt(payload.length);
+    record.putInt((int) crc.getValue());
+    record.put(payload);
+    writeFully(channel, record.flip());
+    channel.force(false);
+    size += record.limit();
+  }
+
+  /**
+   * @return Bytes written to this log file so far.
+   */
+  long size() {
+    return size;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * @return Whether {@code path} is a log rather than a manifest of the older format,
+   *         which held one Java-serialized level map.
+   */
+  static boolean isLog(Path path) throws IOException {
+    try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+      return in.readLong() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return The intact edits of the log at {@code path}, in order.
+   */
+  static List<VersionEdit> read(Path path) throws IOException {
+    List<VersionEdit> edits = new ArrayList<>();
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readLong() != MAGIC) {
+        throw new IOException("Not a manifest log: " + path);
+      }
+      while (true) {
+        byte[] payload = readRecord(in);
+        if (payload == null) {
+          break;
+        }
+        edits.add(VersionEdit.decode(payload));
+      }
+    }
+    return edits;
+  }
+
+  /**
+   * @return The payload of the next record, or null at the end of the log or at a torn
+   *         or corrupt record.
+   */
+  private static byte[] readRecord(InputStream in) throws IOException {
+    byte[] header = in.readNBytes(RECORD_HEADER_SIZE);
+    if (header.length < RECORD_HEADER_SIZE) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(header);
+    int length = buffer.getInt();
+    int expectedCrc = buffer.getInt();
+    if (length < 0) {
+      return null;
+    }
+    byte[] payload = in.readNBytes(length);
+    if (payload.length < length) {
+      return null;
+    }
+    CRC32C crc = new CRC32C();
+    crc.update(payload);
+    return (int) crc.getValue() == expectedCrc ? payload : null;
+  }
+
+  /**
+   * Points {@code CURRENT} at {@code manifestFileName} by writing a temporary file, forcing
+   * it to disk and renaming it over {@code CURRENT}.
+   */
+  private static void setCurrent(Path rootPath, String manifestFileName) throws IOException {
+    Path current = rootPath.resolve(Constants.CURRENT_FILENAME);
+    Path temp = rootPath.resolve(Constants.CURRENT_FILENAME + CURRENT_TEMP_SUFFIX);
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      writeFully(channel, ByteBuffer.wrap((manifestFileName + "\n").getBytes(StandardCharsets.UTF_8)));
+      channel.force(true);
+    }
+    Files.move(temp, current, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    syncDirectory(rootPath);
+  }
+
+  /**
+   * Makes the rename durable. Not every platform can open a directory for this, in which
+   * case the rename is left to the file system.
+   */
+  private static void syncDirectory(Path dir) {
+    try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // Unsupported here, e.g. on Windows.
+    }
+  }
+
+  private static void deleteObsoleteManifests(Path rootPath, Path live) throws IOException {
+    try (Stream<Path> files = Files.list(rootPath)) {
+      files.filter(path -> path.getFileName().toString().startsWith(Constants.MANIFEST_PREFIX))
+          .filter(path -> !path.equals(live))
+          .forEach(path -> {
+            try {
+              Files.deleteIfExists(path);
+            } catch (IOException e) {
+              System.err.println("Failed to delete obsolete manifest: " + path);
+            }
+          });
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.andrea.lsm.manifest;
+
+/**
+ * A consistent point-in-time view of the database, taken through
+ * {@link com.andrea.lsm.core.DB#getSnapshot()}.
+ * <p>
+ * Reads at a snapshot see every write with a sequence number up to
+ * {@link #getSequence()} and none after it. While the snapshot is open, compactions
+ * keep the versions it can see; it must be closed to let them go.
+ */
+public final class Snapshot implements AutoCloseable {
+  private final Manifest manifest;
+  private final long sequence;
+  private boolean closed;
+
+  Snapshot(Manifest manifest, long sequence) {
+    this.manifest = manifest;
+    this.sequence = sequence;
+  }
+
+  public long getSequence() {
+    return sequence;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!closed) {
+      closed = true;
+      manifest.releaseSnapshot(this);
+    }
+  }
+}
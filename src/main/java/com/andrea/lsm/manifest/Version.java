@@ -0,0 +1,87 @@
+package com.andrea.lsm.manifest;
+
+import com.andrea.lsm.sstable.SSTable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable snapshot of which SSTables make up each level.
+ * <p>
+ * The {@link Manifest} installs a new Version on every flush and compaction. Readers
+ * pin the Version they work with through {@link Manifest#acquireVersion()}, and the
+ * files of a Version are only deleted once no pinned Version references them anymore.
+ */
+public class Version {
+  private final Map<Integer, List<SSTable>> levels;
+  private final AtomicInteger refs;
+
+  Version(Map<Integer, List<SSTable>> levels) {
+    Map<Integer, List<SSTable>> copy = new HashMap<>();
+    for (Map.Entry<Integer, List<SSTable>> entry : levels.entrySet()) {
+      copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+    }
+    this.levels = Collections.unmodifiableMap(copy);
+    // The Manifest holds the first reference while the Version is current.
+    this.refs = new AtomicInteger(1);
+  }
+
+  /**
+   * @return The SSTables of the given level, in the order the Manifest keeps them.
+   */
+  public List<SSTable> getSSTable(int level) {
+    List<SSTable> levelList = levels.get(level);
+    return levelList == null ? Collections.emptyList() : levelList;
+  }
+
+  /**
+   * @return A mutable copy of the level layout, for building the next Version.
+   */
+  Map<Integer, List<SSTable>> copyLevels() {
+    Map<Integer, List<SSTable>> copy = new HashMap<>();
+    for (Map.Entry<Integer, List<SSTable>> entry : levels.entrySet()) {
+      copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+    }
+    return copy;
+  }
+
+  Map<Integer, List<SSTable>> levels() {
+    return levels;
+  }
+
+  /**
+   * @return Every SSTable of this Version, level by level.
+   */
+  public List<SSTable> allTables() {
+    List<SSTable> all = new ArrayList<>();
+    for (List<SSTable> levelList : levels.values()) {
+      all.addAll(levelList);
+    }
+    return all;
+  }
+
+  /**
+   * Takes a reference unless the Version has already been released for good.
+   */
+  boolean tryRef() {
+    while (true) {
+      int current = refs.get();
+      if (current <= 0) {
+        return false;
+      }
+      if (refs.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @return The number of references left.
+   */
+  int unref() {
+    return refs.decrementAndGet();
+  }
+}
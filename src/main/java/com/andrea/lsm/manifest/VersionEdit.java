@@ -0,0 +1,144 @@
+package com.andrea.lsm.manifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One record of the manifest log: the difference between two Versions.
+ * <p>
+ * An edit is encoded as a sequence of tagged fields, so that fields can be added later
+ * without breaking older logs:
+ * <pre>
+ * ADD_FILE(1)      level(4) fileName(UTF)
+ * REMOVE_FILE(2)   level(4) fileName(UTF)
+ * LAST_SEQUENCE(3) sequence(8)
+ * NEXT_FILE_NUMBER(4) fileNumber(8)
+ * </pre>
+ * File names are relative to the database directory.
+ */
+final class VersionEdit {
+  private static final int ADD_FILE = 1;
+  private static final int REMOVE_FILE = 2;
+  private static final int LAST_SEQUENCE = 3;
+  private static final int NEXT_FILE_NUMBER = 4;
+
+  private static final class FileEntry {
+    final int level;
+    final String fileName;
+
+    FileEntry(int level, String fileName) {
+      this.level = level;
+      this.fileName = fileName;
+    }
+  }
+
+  private final List<FileEntry> addedFiles = new ArrayList<>();
+  private final List<FileEntry> removedFiles = new ArrayList<>();
+  /** -1 if the edit does not record it. */
+  private long lastSequence = -1L;
+  /** -1 if the edit does not record it. */
+  private long nextFileNumber = -1L;
+
+  VersionEdit addFile(int level, String fileName) {
+    addedFiles.add(new FileEntry(level, fileName));
+    return this;
+  }
+
+  VersionEdit removeFile(int level, String fileName) {
+    removedFiles.add(new FileEntry(level, fileName));
+    return this;
+  }
+
+  VersionEdit setLastSequence(long lastSequence) {
+    this.lastSequence = lastSequence;
+    return this;
+  }
+
+  long getLastSequence() {
+    return lastSequence;
+  }
+
+  VersionEdit setNextFileNumber(long nextFileNumber) {
+    this.nextFileNumber = nextFileNumber;
+    return this;
+  }
+
+  long getNextFileNumber() {
+    return nextFileNumber;
+  }
+
+  /**
+   * Applies the edit to a level layout of file names. Removals come first, so that a
+   * trivial move, which removes and adds the same file, leaves it on its new level.
+   * Added files are appended, which keeps level 0 in age order.
+   */
+  void applyTo(Map<Integer, List<String>> levels) {
+    for (FileEntry removed : removedFiles) {
+      List<String> files = levels.get(removed.level);
+      if (files != null) {
+        files.remove(removed.fileName);
+      }
+    }
+    for (FileEntry added : addedFiles) {
+      levels.computeIfAbsent(added.level, level -> new ArrayList<>()).add(added.fileName);
+    }
+  }
+
+  byte[] encode() {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(buffer)) {
+      for (FileEntry removed : removedFiles) {
+        out.writeByte(REMOVE_FILE);
+        out.writeInt(removed.level);
+        out.writeUTF(removed.fileName);
+      }
+      for (FileEntry added : addedFiles) {
+        out.writeByte(ADD_FILE);
+        out.writeInt(added.level);
+        out.writeUTF(added.fileName);
+      }
+      if (lastSequence >= 0) {
+        out.writeByte(LAST_SEQUENCE);
+        out.writeLong(lastSequence);
+      }
+      if (nextFileNumber >= 0) {
+        out.writeByte(NEXT_FILE_NUMBER);
+        out.writeLong(nextFileNumber);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("In-memory write failed", e);
+    }
+    return buffer.toByteArray();
+  }
+
+  static VersionEdit decode(byte[] bytes) throws IOException {
+    VersionEdit edit = new VersionEdit();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+    while (in.available() > 0) {
+      int tag = in.readUnsignedByte();
+      switch (tag) {
+        case ADD_FILE:
+          edit.addFile(in.readInt(), in.readUTF());
+          break;
+        case REMOVE_FILE:
+          edit.removeFile(in.readInt(), in.readUTF());
+          break;
+        case LAST_SEQUENCE:
+          edit.setLastSequence(in.readLong());
+          break;
+        case NEXT_FILE_NUMBER:
+          edit.setNextFileNumber(in.readLong());
+          break;
+        default:
+          throw new IOException("Unknown version edit field " + tag);
+      }
+    }
+    return edit;
+  }
+}
@@ -0,0 +1,113 @@
+package com.andrea.lsm.memtable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free bump allocator over off-heap chunks (direct {@link ByteBuffer}s).
+ * <p>
+ * Allocations are never freed one by one: the memory of every chunk is released at once
+ * when the arena becomes unreachable. An allocation is identified by an address packing
+ * the chunk index in the upper 32 bits and the offset in the chunk in the lower 32 bits.
+ * Addresses are 8-byte aligned, and no allocation ever has address {@link #NULL}.
+ * <p>
+ * The contents of a chunk are accessed with the absolute methods of the buffer returned
+ * by {@link #chunk(long)}, which may be called from any thread.
+ */
+final class Arena {
+  static final long NULL = 0L;
+
+  static final int MIN_CHUNK_SIZE = 4 * 1024;
+  static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+
+  private static final int ALIGNMENT = Long.BYTES;
+
+  private final int chunkSize;
+  /**
+   * Chunks by index. A slot is written before any address into its chunk is handed out,
+   * so every thread that was passed such an address also sees the slot.
+   */
+  private volatile ByteBuffer[] chunks;
+  /** Guarded by {@code this}. */
+  private int chunkCount;
+  /** Address of the next free byte in the current chunk. */
+  private final AtomicLong cursor;
+
+  /**
+   * @param chunkSize Size of the chunks small allocations are carved from; allocations
+   *                  larger than a quarter of it get a chunk of their own.
+   */
+  Arena(int chunkSize) {
+    if (chunkSize < MIN_CHUNK_SIZE) {
+      throw new IllegalArgumentException("chunkSize must be at least " + MIN_CHUNK_SIZE + ": " + chunkSize);
+    }
+    this.chunkSize = chunkSize;
+    this.chunks = new ByteBuffer[8];
+    // Skip the first word so that no allocation starts at NULL.
+    this.cursor = new AtomicLong(addChunk(chunkSize) + ALIGNMENT);
+  }
+
+  /**
+   * @return A chunk size for an arena that will hold about {@code capacity} bytes.
+   */
+  static int chunkSizeFor(long capacity) {
+    return (int) Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, capacity / 4));
+  }
+
+  /**
+   * @return {@code size} rounded up to the alignment of allocations.
+   */
+  static int align(int size) {
+    return (size + ALIGNMENT - 1) & -ALIGNMENT;
+  }
+
+  /**
+   * @return The address of {@code size} zeroed bytes.
+   */
+  long allocate(int size) {
+    if (size < 0 || size > Integer.MAX_VALUE - ALIGNMENT) {
+      throw new IllegalArgumentException("Allocation size out of range: " + size);
+    }
+    int aligned = align(size);
+    if (aligned > chunkSize / 4) {
+      // Rather than wasting the rest of the current chunk.
+      return addChunk(aligned);
+    }
+    while (true) {
+      long address = cursor.get();
+      if (offset(address) + aligned <= chunkSize) {
+        if (cursor.compareAndSet(address, address + aligned)) {
+          return address;
+        }
+      } else {
+        synchronized (this) {
+          // Only one of the threads that found the chunk full adds the next one.
+          if (cursor.get() == address) {
+            cursor.set(addChunk(chunkSize));
+          }
+        }
+      }
+    }
+  }
+
+  private synchronized long addChunk(int size) {
+    ByteBuffer chunk = ByteBuffer.allocateDirect(size + ALIGNMENT - 1).alignedSlice(ALIGNMENT);
+    if (chunkCount == chunks.length) {
+      chunks = Arrays.copyOf(chunks, chunkCount * 2);
+    }
+    chunks[chunkCount] = chunk;
+    return (long) chunkCount++ << 32;
+  }
+
+  /**
+   * @return The chunk holding {@code address}, to be indexed with {@link #offset(long)}.
+   */
+  ByteBuffer chunk(long address) {
+    return chunks[(int) (address >>> 32)];
+  }
+
+  static int offset(long address) {
+    return (int) address;
+  }
+}
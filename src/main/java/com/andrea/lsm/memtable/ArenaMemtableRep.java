@@ -0,0 +1,258 @@
+package com.andrea.lsm.memtable;
+
+import com.andrea.lsm.iterator.InternalEntry;
+import com.andrea.lsm.iterator.InternalKey;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import util.Bytes;
+
+/**
+ * Keeps the entries of a {@link Memtable} off-heap; see {@link Memtable.Storage#OFF_HEAP}.
+ * <p>
+ * Entries are indexed by a lock-free skip list whose nodes live in an {@link Arena}
+ * together with their key and value, and link to each other by arena address. A node is
+ * laid out as:
+ * <pre>
+ * height (int) | key length (int) | sequence (long) | value length (int) | padding (int)
+ * next pointer per level (long[height]) | key | value
+ * </pre>
+ * A node is linked bottom-up, one CAS per level, and is visible once linked on level 0.
+ * Nodes are never unlinked.
+ * <p>
+ * A version inserted again is linked in front of the existing one, which hides it. This
+ * only keeps the skip list consistent if the same version is not inserted by two threads
+ * at once; a database never does, as every write has its own sequence number.
+ */
+final class ArenaMemtableRep implements MemtableRep {
+  private static final int MAX_HEIGHT = 12;
+  /** One node in {@code BRANCHING} on a level is also linked on the level above. */
+  private static final int BRANCHING = 4;
+
+  private static final int HEIGHT = 0;
+  private static final int KEY_LENGTH = 4;
+  private static final int SEQUENCE = 8;
+  private static final int VALUE_LENGTH = 16;
+  private static final int NEXT = 24;
+
+  private static final VarHandle POINTER =
+      MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  /** Reads 8 bytes of a key in the byte order of {@link ByteBuffer#getLong(int)}. */
+  private static final VarHandle KEY_WORD =
+      MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+  private final Arena arena;
+  private final Comparator<byte[]> comparator;
+  /** Whether keys are compared in place rather than copied out for the comparator. */
+  private final boolean bytewise;
+  private final long head;
+  private final AtomicInteger maxHeight;
+
+  ArenaMemtableRep(Comparator<byte[]> comparator, int chunkSize) {
+    this.arena = new Arena(chunkSize);
+    this.comparator = comparator;
+    this.bytewise = comparator == Bytes.BYTEWISE_COMPARATOR;
+    this.head = arena.allocate(NEXT + MAX_HEIGHT * Long.BYTES);
+    arena.chunk(head).putInt(Arena.offset(head) + HEIGHT, MAX_HEIGHT);
+    this.maxHeight = new AtomicInteger(1);
+  }
+
+  @Override
+  public long put(byte[] key, long sequence, byte[] value) {
+    int height = randomHeight();
+    int size = NEXT + height * Long.BYTES + key.length + value.length;
+    long node = arena.allocate(size);
+    ByteBuffer chunk = arena.chunk(node);
+    int offset = Arena.offset(node);
+    chunk.putInt(offset + HEIGHT, height);
+    chunk.putInt(offset + KEY_LENGTH, key.length);
+    chunk.putLong(offset + SEQUENCE, sequence);
+    chunk.putInt(offset + VALUE_LENGTH, value.length);
+    int keyOffset = keyOffset(chunk, offset);
+    chunk.put(keyOffset, key);
+    chunk.put(keyOffset + key.length, value);
+
+    int currentHeight = maxHeight.get();
+    while (height > currentHeight && !maxHeight.compareAndSet(currentHeight, height)) {
+      currentHeight = maxHeight.get();
+    }
+    long[] prevs = new long[height];
+    long prev = head;
+    for (int level = Math.max(currentHeight, height) - 1; level >= 0; level--) {
+      prev = findPrev(prev, level, key, sequence);
+      if (level < height) {
+        prevs[level] = prev;
+      }
+    }
+    for (int level = 0; level < height; level++) {
+      while (true) {
+        // Nodes may have been linked after prev meanwhile; the CAS fails if that happens
+        // between finding next and linking.
+        prev = prevs[level];
+        long next = loadNext(prev, level);
+        while (next != Arena.NULL && compare(next, key, sequence) < 0) {
+          prev = next;
+          next = loadNext(prev, level);
+        }
+        prevs[level] = prev;
+        POINTER.set(chunk, nextOffset(node, level), next);
+        if (POINTER.compareAndSet(arena.chunk(prev), nextOffset(prev, level), next, node)) {
+          break;
+        }
+      }
+    }
+    return Arena.align(size);
+  }
+
+  private static int randomHeight() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int height = 1;
+    while (height < MAX_HEIGHT && random.nextInt(BRANCHING) == 0) {
+      height++;
+    }
+    return height;
+  }
+
+  @Override
+  public InternalEntry get(byte[] key, long sequence) {
+    long node = seek(key, sequence);
+    if (node == Arena.NULL || compareUserKey(node, key) != 0) {
+      return null;
+    }
+    ByteBuffer chunk = arena.chunk(node);
+    int offset = Arena.offset(node);
+    byte[] value = new byte[chunk.getInt(offset + VALUE_LENGTH)];
+    chunk.get(keyOffset(chunk, offset) + chunk.getInt(offset + KEY_LENGTH), value);
+    return new InternalEntry(key, chunk.getLong(offset + SEQUENCE), value);
+  }
+
+  @Override
+  public boolean hasKeyInRange(byte[] minKey, byte[] maxKey) {
+    long node = seek(minKey, InternalKey.MAX_SEQUENCE);
+    return node != Arena.NULL && compareUserKey(node, maxKey) <= 0;
+  }
+
+  @Override
+  public Iterator<InternalEntry> iterator(byte[] from) {
+    long first = from == null ? loadNext(head, 0) : seek(from, InternalKey.MAX_SEQUENCE);
+    return new Iterator<InternalEntry>() {
+      private long node = first;
+
+      @Override
+      public boolean hasNext() {
+        return node != Arena.NULL;
+      }
+
+      @Override
+      public InternalEntry next() {
+        if (node == Arena.NULL) {
+          throw new NoSuchElementException();
+        }
+        InternalEntry entry = entry(node);
+        // Skip the older copies of a version inserted again.
+        do {
+          node = loadNext(node, 0);
+        } while (node != Arena.NULL && compare(node, entry.getKey(), entry.getSequence()) == 0);
+        return entry;
+      }
+    };
+  }
+
+  private InternalEntry entry(long node) {
+    ByteBuffer chunk = arena.chunk(node);
+    int offset = Arena.offset(node);
+    int keyOffset = keyOffset(chunk, offset);
+    byte[] key = new byte[chunk.getInt(offset + KEY_LENGTH)];
+    byte[] value = new byte[chunk.getInt(offset + VALUE_LENGTH)];
+    chunk.get(keyOffset, key);
+    chunk.get(keyOffset + key.length, value);
+    return new InternalEntry(key, chunk.getLong(offset + SEQUENCE), value);
+  }
+
+  /**
+   * @return The first node at or after {@code (key, sequence)}, or {@link Arena#NULL}.
+   */
+  private long seek(byte[] key, long sequence) {
+    long prev = head;
+    for (int level = maxHeight.get() - 1; level > 0; level--) {
+      prev = findPrev(prev, level, key, sequence);
+    }
+    // Not loadNext(findPrev(...)): a smaller node may be linked after prev in between.
+    long node = loadNext(prev, 0);
+    while (node != Arena.NULL && compare(node, key, sequence) < 0) {
+      node = loadNext(node, 0);
+    }
+    return node;
+  }
+
+  /**
+   * @return The last node on {@code level}, starting from {@code start}, that comes before
+   *         {@code (key, sequence)}.
+   */
+  private long findPrev(long start, int level, byte[] key, long sequence) {
+    long prev = start;
+    long next = loadNext(prev, level);
+    while (next != Arena.NULL && compare(next, key, sequence) < 0) {
+      prev = next;
+      next = loadNext(prev, level);
+    }
+    return prev;
+  }
+
+  private long loadNext(long node, int level) {
+    return (long) POINTER.getAcquire(arena.chunk(node), nextOffset(node, level));
+  }
+
+  private static int nextOffset(long node, int level) {
+    return Arena.offset(node) + NEXT + level * Long.BYTES;
+  }
+
+  private static int keyOffset(ByteBuffer chunk, int offset) {
+    return offset + NEXT + chunk.getInt(offset + HEIGHT) * Long.BYTES;
+  }
+
+  /**
+   * Compares the internal key of {@code node} with {@code (key, sequence)}.
+   */
+  private int compare(long node, byte[] key, long sequence) {
+    int res = compareUserKey(node, key);
+    if (res != 0) {
+      return res;
+    }
+    return Long.compare(sequence, arena.chunk(node).getLong(Arena.offset(node) + SEQUENCE));
+  }
+
+  private int compareUserKey(long node, byte[] key) {
+    ByteBuffer chunk = arena.chunk(node);
+    int offset = Arena.offset(node);
+    int length = chunk.getInt(offset + KEY_LENGTH);
+    int keyOffset = keyOffset(chunk, offset);
+    if (!bytewise) {
+      byte[] stored = new byte[length];
+      chunk.get(keyOffset, stored);
+      return comparator.compare(stored, key);
+    }
+    int common = Math.min(length, key.length);
+    int i = 0;
+    for (; i + Long.BYTES <= common; i += Long.BYTES) {
+      long a = chunk.getLong(keyOffset + i);
+      long b = (long) KEY_WORD.get(key, i);
+      if (a != b) {
+        return Long.compareUnsigned(a, b);
+      }
+    }
+    for (; i < common; i++) {
+      int res = Byte.compareUnsigned(chunk.get(keyOffset + i), key[i]);
+      if (res != 0) {
+        return res;
+      }
+    }
+    return Integer.compare(length, key.length);
+  }
+}
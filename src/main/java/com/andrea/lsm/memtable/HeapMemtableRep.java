@@ -0,0 +1,80 @@
+package com.andrea.lsm.memtable;
+
+import com.andrea.lsm.iterator.InternalEntry;
+import com.andrea.lsm.iterator.InternalKey;
+import com.andrea.lsm.iterator.InternalKeyComparator;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps the entries of a {@link Memtable} as Java objects in a
+ * {@link ConcurrentSkipListMap}; see {@link Memtable.Storage#HEAP}.
+ */
+final class HeapMemtableRep implements MemtableRep {
+  private final ConcurrentSkipListMap<InternalKey, byte[]> table;
+  private final Comparator<byte[]> comparator;
+
+  HeapMemtableRep(Comparator<byte[]> comparator) {
+    this.comparator = comparator;
+    this.table = new ConcurrentSkipListMap<>(new InternalKeyComparator(comparator));
+  }
+
+  @Override
+  public long put(byte[] key, long sequence, byte[] value) {
+    byte[] oldValue = table.put(new InternalKey(key, sequence), value);
+    long delta = estimateSize(value);
+    if (oldValue != null) {
+      delta -= estimateSize(oldValue);
+    } else {
+      delta += estimateSize(key) + Long.BYTES;
+    }
+    return delta;
+  }
+
+  /**
+   * Estimates the size of a key or value in bytes for storage calculations.
+   * <p>
+   * The calculation adds a 4-byte overhead to account for the length prefix
+   * used in the binary file format.
+   */
+  private static long estimateSize(byte[] bytes) {
+    return bytes.length + 4;
+  }
+
+  @Override
+  public InternalEntry get(byte[] key, long sequence) {
+    Entry<InternalKey, byte[]> entry = table.ceilingEntry(new InternalKey(key, sequence));
+    if (entry == null || comparator.compare(entry.getKey().getUserKey(), key) != 0) {
+      return null;
+    }
+    return new InternalEntry(key, entry.getKey().getSequence(), entry.getValue());
+  }
+
+  @Override
+  public boolean hasKeyInRange(byte[] minKey, byte[] maxKey) {
+    InternalKey first = table.ceilingKey(new InternalKey(minKey, InternalKey.MAX_SEQUENCE));
+    return first != null && comparator.compare(first.getUserKey(), maxKey) <= 0;
+  }
+
+  @Override
+  public Iterator<InternalEntry> iterator(byte[] from) {
+    Iterator<Entry<InternalKey, byte[]>> entries = from == null
+        ? table.entrySet().iterator()
+        : table.tailMap(new InternalKey(from, InternalKey.MAX_SEQUENCE), true).entrySet().iterator();
+    return new Iterator<InternalEntry>() {
+      @Override
+      public boolean hasNext() {
+        return entries.hasNext();
+      }
+
+      @Override
+      public InternalEntry next() {
+        Entry<InternalKey, byte[]> entry = entries.next();
+        return new InternalEntry(entry.getKey().getUserKey(), entry.getKey().getSequence(),
+            entry.getValue());
+      }
+    };
+  }
+}
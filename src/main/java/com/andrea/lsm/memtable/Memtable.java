@@ -1,50 +1,179 @@
 package com.andrea.lsm.memtable;
 
-import java.nio.charset.StandardCharsets;
+import com.andrea.lsm.iterator.FragmentedRangeTombstones;
+import com.andrea.lsm.iterator.InternalEntry;
+import com.andrea.lsm.iterator.InternalKey;
+import com.andrea.lsm.iterator.RangeTombstone;
+import com.andrea.lsm.iterator.SeekingIterator;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.Map.Entry;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import util.Bytes;
+import util.Constants;
+import util.Options;
 
 /**
  * An in-memory storage component for the LSM Tree architecture.
  * <p>
- * Data is stored in a TreeMap (an automatically sorted data structure) in memory,
- * and will be flushed to SSTables on disk when its size reaches 4kb.
+ * Data is stored in a concurrent skip list (an automatically sorted data structure)
+ * in memory, and will be flushed to SSTables on disk when its size reaches
+ * {@link Options#getWriteBufferSize()}. The skip list either holds Java objects or lives
+ * off-heap, see {@link Storage}.
  * <p>
+ * Every write is stored under its {@link InternalKey}, so older versions of a key stay
+ * readable for snapshots until the Memtable is flushed. Range deletions are kept apart
+ * from the keys, as a list of {@link RangeTombstone}s that point reads look up in
+ * fragments, rebuilt on the first read after a deletion is added.
+ * <p>
+ * All operations are thread-safe and lock-free: any number of writer and reader
+ * threads may use the same Memtable at once.
  */
 public class Memtable {
 
   /**
-   * Underlying storage in memory using a Red-Black tree to keep keys sorted.
+   * Where a Memtable keeps its entries.
+   */
+  public enum Storage {
+    /** Java objects in a {@link java.util.concurrent.ConcurrentSkipListMap}. */
+    HEAP,
+    /**
+     * Keys and values are copied into direct {@code ByteBuffer} chunks, and indexed by a skip
+     * list whose nodes live in the same chunks, so that a Memtable of hundreds of MB is a
+     * handful of heap objects for the garbage collector. The chunks are released together
+     * once the flushed Memtable is no longer referenced. Reads return copies.
+     */
+    OFF_HEAP
+  }
+
+  private final Comparator<byte[]> comparator;
+  private final Storage storage;
+  private final long writeBufferSize;
+
+  /**
+   * Underlying sorted storage, replaced as a whole by {@link #clear()}.
+   */
+  private volatile MemtableRep table;
+
+  /**
+   * Range deletions written to this Memtable, replaced together with {@link #table}.
    */
-  private TreeMap<String, String> table;
+  private volatile RangeDeletions rangeDeletions;
 
   /**
    * Tracks the estimated size of the data in bytes when flushed to SSTables.
    */
-  private long sizeOfBytes;
+  private final AtomicLong sizeOfBytes;
 
   /**
-   * Create an empty Memtable for buffering incoming writes.
+   * Create an empty Memtable for buffering incoming writes, with keys in unsigned
+   * lexicographic byte order.
    */
   public Memtable() {
-    this.table = new TreeMap<>();
-    this.sizeOfBytes = 0L;
+    this(Bytes.BYTEWISE_COMPARATOR);
   }
 
   /**
-   * Inserts or updates a key-value pair in the Memtable.
+   * Create an empty Memtable on the heap whose keys are ordered by {@code comparator}.
+   */
+  public Memtable(Comparator<byte[]> comparator) {
+    this(comparator, Storage.HEAP, Constants.MAXSIZE_MEMTABLE);
+  }
+
+  /**
+   * Create an empty Memtable with the comparator, storage and write buffer size of
+   * {@code options}.
+   */
+  public Memtable(Options options) {
+    this(options.getComparator(), options.getMemtableStorage(), options.getWriteBufferSize());
+  }
+
+  private Memtable(Comparator<byte[]> comparator, Storage storage, long writeBufferSize) {
+    this.comparator = comparator;
+    this.storage = storage;
+    this.writeBufferSize = writeBufferSize;
+    this.table = newTable();
+    this.rangeDeletions = new RangeDeletions();
+    this.sizeOfBytes = new AtomicLong();
+  }
+
+  /**
+   * The range deletions of one generation of the Memtable.
+   */
+  private static final class RangeDeletions {
+    final Queue<RangeTombstone> tombstones = new ConcurrentLinkedQueue<>();
+    /** Deletions added so far; incremented once a deletion is in {@link #tombstones}. */
+    final AtomicInteger count = new AtomicInteger();
+    /** Fragments of the deletions, or null until the first read needs them. */
+    volatile Fragments fragments;
+  }
+
+  private static final class Fragments {
+    /** The {@link RangeDeletions#count} the fragments include every deletion of. */
+    final int count;
+    final FragmentedRangeTombstones tombstones;
+
+    Fragments(int count, FragmentedRangeTombstones tombstones) {
+      this.count = count;
+      this.tombstones = tombstones;
+    }
+  }
+
+  private MemtableRep newTable() {
+    if (storage == Storage.OFF_HEAP) {
+      return new ArenaMemtableRep(comparator, Arena.chunkSizeFor(writeBufferSize));
+    }
+    return new HeapMemtableRep(comparator);
+  }
+
+  /**
+   * Inserts or updates a key-value pair without a sequence number, as done when building
+   * SSTables outside a database. Such writes all carry sequence 0 and replace one another.
+   * The strings are stored in UTF-8.
    * @param key The key to insert (must not be null).
    * @param value The value associated with the key.
    */
   public void put(String key, String value) {
-    String oldValue = table.put(key, value);
-    if (oldValue != null) {
-      sizeOfBytes -= estimateSize(oldValue);
+    put(Bytes.of(key), 0L, Bytes.of(value));
+  }
+
+  /**
+   * Inserts a new version of a key. The arrays are stored as they are and must not be
+   * modified afterwards.
+   * @param key The key to insert (must not be null).
+   * @param sequence The sequence number of the write.
+   * @param value The value associated with the key.
+   */
+  public void put(byte[] key, long sequence, byte[] value) {
+    sizeOfBytes.addAndGet(table.put(key, sequence, value));
+  }
+
+  /**
+   * Deletes every key in {@code [start, end)} written before {@code sequence}. The arrays
+   * are stored as they are and must not be modified afterwards.
+   */
+  public void deleteRange(byte[] start, long sequence, byte[] end) {
+    RangeDeletions deletions = rangeDeletions;
+    deletions.tombstones.add(new RangeTombstone(start, sequence, end));
+    deletions.count.incrementAndGet();
+    sizeOfBytes.addAndGet(start.length + 4 + end.length + 4 + Long.BYTES);
+  }
+
+  /**
+   * Applies one entry of a logged batch: a {@link RangeTombstone} is added as a range
+   * deletion, any other entry as a put.
+   */
+  public void apply(Map.Entry<byte[], byte[]> entry, long sequence) {
+    if (entry instanceof RangeTombstone) {
+      deleteRange(entry.getKey(), sequence, entry.getValue());
     } else {
-      sizeOfBytes += estimateSize(key);
+      put(entry.getKey(), sequence, entry.getValue());
     }
-    sizeOfBytes += estimateSize(value);
   }
 
   /**
@@ -55,55 +184,129 @@ public class Memtable {
    * (DB layer) is responsible for interpreting this marker as a logical
    * delete-operation.
    * <p>
-   * @param key The key whose associated value is to be returned.
+   * @param key The key whose associated value is to be returned, as UTF-8.
    * @return The value associated with the key, or null if key does not exist.
    */
   public String get(String key) {
-    String value = table.get(key);
-    return value;
+    return Bytes.string(get(Bytes.of(key), InternalKey.MAX_SEQUENCE));
   }
 
   /**
-   * @return The estimated size in bytes when flushed to SSTables.
+   * Retrieve the newest version of the key written at or before {@code sequence}.
+   * @return The raw value, which is {@link Bytes#tombstone()} if a range deletion of this
+   *         Memtable hides the key, or null if no such version exists. It is shared and
+   *         must not be modified.
+   */
+  public byte[] get(byte[] key, long sequence) {
+    InternalEntry entry = table.get(key, sequence);
+    RangeDeletions deletions = rangeDeletions;
+    int count = deletions.count.get();
+    if (count > 0) {
+      Fragments fragments = deletions.fragments;
+      if (fragments == null || fragments.count != count) {
+        // Every deletion counted is in the queue by now; later ones may be included too.
+        fragments = new Fragments(count,
+            new FragmentedRangeTombstones(deletions.tombstones, comparator));
+        deletions.fragments = fragments;
+      }
+      long deletedAt = fragments.tombstones.newestCovering(key, sequence);
+      if (deletedAt >= 0 && (entry == null || entry.getSequence() < deletedAt)) {
+        return Bytes.tombstone();
+      }
+    }
+    return entry == null ? null : entry.getValue();
+  }
+
+  /**
+   * @return Whether any version of a key in {@code [minKey, maxKey]} is stored, or a range
+   *         deletion overlaps it.
+   */
+  public boolean hasKeyInRange(byte[] minKey, byte[] maxKey) {
+    for (RangeTombstone tombstone : rangeDeletions.tombstones) {
+      if (tombstone.overlaps(minKey, maxKey, comparator)) {
+        return true;
+      }
+    }
+    return table.hasKeyInRange(minKey, maxKey);
+  }
+
+  /**
+   * @return The range deletions written to this Memtable so far, in no particular order.
+   */
+  public List<RangeTombstone> rangeTombstones() {
+    return new ArrayList<>(rangeDeletions.tombstones);
+  }
+
+  /**
+   * @return The estimated size in bytes when flushed to SSTables. For
+   *         {@link Storage#OFF_HEAP} it is the arena space taken by the entries, including
+   *         the skip list links.
    */
   public long getSize() {
-    return sizeOfBytes;
+    return sizeOfBytes.get();
   }
 
   /**
    * Clears all data from Memtable and reset the size counter to zero.
    * <p>
    * This method is typically called after successfully flushing data from
-   * Memtable to SSTables (disk).
+   * Memtable to SSTables (disk). Iterators opened before keep reading the old data.
    */
   public void clear() {
-    table.clear();
-    sizeOfBytes = 0L;
+    table = newTable();
+    rangeDeletions = new RangeDeletions();
+    sizeOfBytes.set(0L);
   }
 
   /**
-   * Estimates the size of a string in bytes for storage calculations.
+   * Returns an iterator over the entries in this Memtable.
+   * <p>
+   * The iterator traverses every version in ascending {@link InternalKey} order. This is primarily
+   * used during the flush process to write data sequentially to disk, together with
+   * {@link #rangeTombstones()}. It is weakly consistent and never throws
+   * {@link java.util.ConcurrentModificationException}.
    * <p>
-   * The calculation assumes UTF-8 encoding and adds a 4-byte overhead
-   * to account for the length prefix used in the binary file format.
-   * <P>
-   * @param str The string to measure.
-   * @return The estimated size in bytes.
+   * @return An iterator over the map entries.
    */
-  private long estimateSize(String str) {
-    return str.getBytes(StandardCharsets.UTF_8).length + 4;
+  public Iterator<InternalEntry> iterator() {
+    return table.iterator(null);
   }
 
   /**
-   * Returns an iterator over the entries in this Memtable.
-   * <p>
-   * The iterator traverses the entries in ascending key order. This is primarily
-   * used during the flush process to write data sequentially to disk.
-   * <p>
-   * @return An iterator over the map entries.
+   * Returns a weakly consistent iterator in ascending key order that supports
+   * {@link SeekingIterator#seek(byte[])}. Tombstones are returned as they are, and range
+   * deletions through {@link SeekingIterator#rangeTombstones()}.
    */
-  public Iterator<Entry<String, String>> iterator() {
-    return table.entrySet().iterator();
+  public SeekingIterator newIterator() {
+    MemtableRep table = this.table;
+    Queue<RangeTombstone> tombstones = this.rangeDeletions.tombstones;
+    return new SeekingIterator() {
+      private Iterator<InternalEntry> current = table.iterator(null);
+
+      @Override
+      public void seek(byte[] target) {
+        current = table.iterator(target);
+      }
+
+      @Override
+      public List<RangeTombstone> rangeTombstones() {
+        return new ArrayList<>(tombstones);
+      }
+
+      @Override
+      public boolean hasNext() {
+        return current.hasNext();
+      }
+
+      @Override
+      public InternalEntry next() {
+        return current.next();
+      }
+
+      @Override
+      public void close() {
+      }
+    };
   }
 }
 
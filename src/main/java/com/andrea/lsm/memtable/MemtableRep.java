@@ -0,0 +1,37 @@
+package com.andrea.lsm.memtable;
+
+import com.andrea.lsm.iterator.InternalEntry;
+import java.util.Iterator;
+
+/**
+ * The sorted storage behind a {@link Memtable}, ordered by
+ * {@link com.andrea.lsm.iterator.InternalKey}. Implementations are thread-safe and
+ * lock-free.
+ */
+interface MemtableRep {
+
+  /**
+   * Inserts a version of {@code key}. Inserting the same key and sequence number again
+   * replaces the value.
+   * @return The number of bytes the write adds to the Memtable's size, negative if it
+   *         replaced a larger value.
+   */
+  long put(byte[] key, long sequence, byte[] value);
+
+  /**
+   * @return The first version at or after {@code (key, sequence)} if it is a version of
+   *         {@code key}, else null.
+   */
+  InternalEntry get(byte[] key, long sequence);
+
+  /**
+   * @return Whether any version of a key in {@code [minKey, maxKey]} is stored.
+   */
+  boolean hasKeyInRange(byte[] minKey, byte[] maxKey);
+
+  /**
+   * @param from The user key to start at, or null to start at the first entry.
+   * @return A weakly consistent iterator over the versions in ascending internal key order.
+   */
+  Iterator<InternalEntry> iterator(byte[] from);
+}
@@ -1,62 +1,395 @@
 package com.andrea.lsm.memtable;
 
+import com.andrea.lsm.iterator.InternalKey;
+import com.andrea.lsm.iterator.SeekingIterator;
 import com.andrea.lsm.manifest.Manifest;
+import com.andrea.lsm.sstable.SSTable;
 import com.andrea.lsm.sstable.SSTableService;
+import com.andrea.lsm.statistics.Statistics;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Stream;
+import util.Bytes;
 import util.Constants;
+import util.Options;
 import util.WAL;
 
+/**
+ * Owns the active Memtable, the queue of immutable Memtables waiting to be flushed,
+ * and their WALs.
+ * <p>
+ * Writers share a read lock, so any number of them can append to the WAL and insert
+ * into the active Memtable concurrently. Rotation takes the write lock, which
+ * guarantees that every record in a retired WAL is also in the retired Memtable.
+ * A full Memtable is pushed onto the immutable queue and written to an SSTable by a
+ * background flusher thread; writers only block (write stall) when the queue already
+ * holds {@link Options#getMaxImmutableMemtables()} Memtables.
+ * Readers take no lock at all and consult the active Memtable and then the immutable
+ * ones, newest first.
+ * <p>
+ * Every write is tagged with the next sequence number, and a batch with a contiguous range
+ * of them. Concurrent writers may finish in any order, so a write only becomes visible to
+ * readers through {@link Manifest#setLastSequence(long)} once every write before it has
+ * finished too.
+ */
 public class MemtableService {
   private final Manifest manifest;
   private final SSTableService sstableService;
-  private Memtable activeMemtable;
-  private WAL activeWal;
+  private volatile Memtable activeMemtable;
+  private volatile WAL activeWal;
   private final Path rootPath;
+  private final Options options;
+  private final ReentrantReadWriteLock rotationLock;
+
+  /** Memtables waiting to be flushed. Newest at the head, oldest at the tail. */
+  private final ConcurrentLinkedDeque<ImmutableMemtable> immutableMemtables;
+  private final ExecutorService flushExecutor;
+  private final ReentrantLock flushStateLock;
+  private final Condition flushProgress;
+  private volatile IOException backgroundError;
+
+  /** Last sequence number handed out to a writer. */
+  private final AtomicLong nextSequence;
+  /**
+   * Sequence ranges {@code {first, last}} of finished writes that wait for an earlier one
+   * before they become visible. Guarded by itself.
+   */
+  private final PriorityQueue<long[]> finishedSequences;
+
+  private static class ImmutableMemtable {
+    final Memtable memtable;
+    final WAL wal;
+
+    ImmutableMemtable(Memtable memtable, WAL wal) {
+      this.memtable = memtable;
+      this.wal = wal;
+    }
+  }
 
   public MemtableService(Manifest manifest, SSTableService sstableService) throws IOException {
+    this(manifest, sstableService, new Options());
+  }
+
+  public MemtableService(Manifest manifest, SSTableService sstableService, Options options)
+      throws IOException {
     this.manifest = manifest;
+    this.options = options;
     this.sstableService = sstableService;
-    this.activeMemtable = new Memtable();
+    this.activeMemtable = new Memtable(options);
     this.rootPath = manifest.getRootPath();
+    this.rotationLock = new ReentrantReadWriteLock();
+    this.immutableMemtables = new ConcurrentLinkedDeque<>();
+    this.flushStateLock = new ReentrantLock();
+    this.flushProgress = flushStateLock.newCondition();
+    this.backgroundError = null;
 
-    util.WAL.recoverAll(rootPath, activeMemtable);
+    long recoveredSequence = util.WAL.recoverAll(rootPath, activeMemtable);
+    manifest.setLastSequence(recoveredSequence);
+    this.nextSequence = new AtomicLong(manifest.getLastSequence());
+    this.finishedSequences = new PriorityQueue<>(Comparator.comparingLong(range -> range[0]));
     if (activeMemtable.getSize() > 0) {
       sstableService.flush(activeMemtable);
       cleanOldWals();
-      this.activeMemtable = new Memtable();
+      this.activeMemtable = new Memtable(options);
     }
 
-    this.activeWal = new WAL(WAL.generateWALPath(rootPath));
+    this.activeWal = openNewWal();
+    this.flushExecutor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "memtable-flusher-" + rootPath.getFileName());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Writes one version of {@code key}. The arrays are stored as they are and must not be
+   * modified afterwards.
+   */
+  public void put(byte[] key, byte[] value) throws IOException {
+    write(List.of(new AbstractMap.SimpleImmutableEntry<>(key, value)));
   }
 
-  public void put(String key, String value) throws IOException {
-    activeWal.writeEntry(key, value);
-    this.activeMemtable.put(key, value);
-    if (activeMemtable.getSize() > Constants.MAXSIZE_MEMTABLE) {
-      rotateAndFlush();
+  /**
+   * Writes {@code entries} atomically: they are logged as one WAL record and become
+   * visible together. Later entries of the same key take precedence. The arrays are
+   * stored as they are and must not be modified afterwards.
+   * @param entries Raw values, i.e. {@link Bytes#tombstone()} for deletions, and
+   *                {@link com.andrea.lsm.iterator.RangeTombstone}s for range deletions.
+   */
+  public void write(List<? extends Map.Entry<byte[], byte[]>> entries) throws IOException {
+    if (entries.isEmpty()) {
+      return;
+    }
+    checkBackgroundError();
+    rotationLock.readLock().lock();
+    // Taken under the lock, so that every sequence number in a retired WAL is smaller
+    // than those in the next one.
+    long lastSequence = nextSequence.addAndGet(entries.size());
+    long firstSequence = lastSequence - entries.size() + 1;
+    try {
+      activeWal.writeBatch(firstSequence, entries);
+      Memtable memtable = this.activeMemtable;
+      long sequence = firstSequence;
+      for (Map.Entry<byte[], byte[]> entry : entries) {
+        memtable.apply(entry, sequence++);
+      }
+    } finally {
+      try {
+        publish(firstSequence, lastSequence);
+      } finally {
+        rotationLock.readLock().unlock();
+      }
+    }
+    if (activeMemtable.getSize() > options.getWriteBufferSize()) {
+      rotate();
     }
   }
 
-  private synchronized void rotateAndFlush() throws IOException {
-      Memtable memtableToFlush = this.activeMemtable;
-      this.activeMemtable = new Memtable();
-      WAL fullWal = this.activeWal;
-      this.activeWal = new WAL(manifest.getRootPath().resolve(
-          Constants.WAL_PREFIX + System.nanoTime() + Constants.WAL_FILE_EXTENSION));
+  /**
+   * Marks the write of sequences {@code first} to {@code last} as finished and waits
+   * until it is visible, i.e. every earlier write has finished as well. A failed write
+   * is published too, so that later ones do not wait for it forever.
+   */
+  private void publish(long first, long last) {
+    boolean interrupted = false;
+    synchronized (finishedSequences) {
+      finishedSequences.add(new long[] {first, last});
+      long visible = manifest.getLastSequence();
+      while (!finishedSequences.isEmpty() && finishedSequences.peek()[0] == visible + 1) {
+        visible = finishedSequences.poll()[1];
+      }
+      if (visible > manifest.getLastSequence()) {
+        manifest.setLastSequence(visible);
+        finishedSequences.notifyAll();
+      }
+      // Earlier writers hold the read lock too and are past their WAL write or about to
+      // fail it, so the wait is short and cannot deadlock with rotation.
+      while (manifest.getLastSequence() < last) {
+        try {
+          finishedSequences.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Adds SSTables prepared by {@link SSTableService#prepareIngest(List)} as if they were
+   * written by a single write now. Writers are blocked meanwhile, and Memtables holding
+   * keys of the tables' ranges are flushed first: reads consult Memtables before
+   * SSTables, so an older Memtable entry would otherwise hide the ingested one.
+   */
+  public void ingest(List<SSTable> tables) throws IOException {
+    checkBackgroundError();
+    rotationLock.writeLock().lock();
+    try {
+      if (memtablesOverlap(tables)) {
+        rotate(true);
+        awaitPendingFlushes();
+      }
+      long sequence = nextSequence.incrementAndGet();
       try {
-        sstableService.flush(memtableToFlush);
-        fullWal.delete();
-      } catch (Exception e) {
-        System.err.println("Flush failed! Data saved in WAL but not SSTable.");
-        throw e;
+        sstableService.ingest(tables, sequence);
+      } finally {
+        // No writer is in flight, so this does not wait.
+        publish(sequence, sequence);
+      }
+    } finally {
+      rotationLock.writeLock().unlock();
+    }
+  }
+
+  private boolean memtablesOverlap(List<SSTable> tables) {
+    for (SSTable table : tables) {
+      if (activeMemtable.hasKeyInRange(table.getMinKey(), table.getMaxKey())) {
+        return true;
+      }
+      for (ImmutableMemtable immutable : immutableMemtables) {
+        if (immutable.memtable.hasKeyInRange(table.getMinKey(), table.getMaxKey())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private void rotate() throws IOException {
+    rotate(false);
+  }
+
+  /**
+   * Retires the active Memtable onto the immutable queue and schedules its flush.
+   * Blocks while the queue is full.
+   * @param force Whether to retire the Memtable even if it is not full yet.
+   */
+  private void rotate(boolean force) throws IOException {
+    rotationLock.writeLock().lock();
+    try {
+      // Another writer may have rotated while we were waiting for the lock.
+      long size = activeMemtable.getSize();
+      if (force ? size == 0 : size <= options.getWriteBufferSize()) {
+        return;
       }
+      awaitImmutableSlot();
+
+      WAL fullWal = this.activeWal;
+      WAL newWal = openNewWal();
+      // Publish to readers before swapping so that the data is never invisible.
+      immutableMemtables.addFirst(new ImmutableMemtable(this.activeMemtable, fullWal));
+      this.activeMemtable = new Memtable(options);
+      this.activeWal = newWal;
+      // No writer can reach the retired WAL anymore; stop its writer thread.
+      fullWal.close();
+      flushExecutor.execute(this::flushOldest);
+    } finally {
+      rotationLock.writeLock().unlock();
+    }
+  }
+
+  private void awaitImmutableSlot() throws IOException {
+    long start = System.nanoTime();
+    boolean stalled = false;
+    flushStateLock.lock();
+    try {
+      while (immutableMemtables.size() >= options.getMaxImmutableMemtables()) {
+        stalled = true;
+        checkBackgroundError();
+        flushProgress.await();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted during write stall");
+    } finally {
+      flushStateLock.unlock();
+      if (stalled) {
+        Statistics statistics = options.getStatistics();
+        statistics.record(Statistics.Ticker.WRITE_STALLS);
+        statistics.record(Statistics.Ticker.WRITE_STALL_NANOS, System.nanoTime() - start);
+      }
+    }
+  }
+
+  /**
+   * Runs on the flusher thread: writes the oldest immutable Memtable to an SSTable,
+   * then drops it from the queue and deletes its WAL.
+   */
+  private void flushOldest() {
+    ImmutableMemtable oldest = immutableMemtables.peekLast();
+    if (oldest == null || backgroundError != null) {
+      return;
+    }
+    try {
+      // The SSTable is registered before the Memtable leaves the queue, so readers
+      // always find the data in one of the two places.
+      sstableService.flush(oldest.memtable);
+      immutableMemtables.removeLast();
+      oldest.wal.delete();
+    } catch (IOException e) {
+      System.err.println("Flush failed! Data saved in WAL but not SSTable.");
+      backgroundError = e;
+    } finally {
+      signalFlushProgress();
+    }
   }
 
-  public String get(String key) {
-    return this.activeMemtable.get(key);
+  private void signalFlushProgress() {
+    flushStateLock.lock();
+    try {
+      flushProgress.signalAll();
+    } finally {
+      flushStateLock.unlock();
+    }
+  }
+
+  private void checkBackgroundError() throws IOException {
+    IOException error = backgroundError;
+    if (error != null) {
+      throw new IOException("Background flush failed", error);
+    }
+  }
+
+  /**
+   * Blocks until every immutable Memtable queued so far has been flushed.
+   */
+  public void awaitPendingFlushes() throws IOException {
+    flushStateLock.lock();
+    try {
+      while (!immutableMemtables.isEmpty()) {
+        checkBackgroundError();
+        flushProgress.await();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for flushes");
+    } finally {
+      flushStateLock.unlock();
+    }
+  }
+
+  private WAL openNewWal() throws IOException {
+    return new WAL(WAL.generateWALPath(rootPath),
+        options.getWalSyncPolicy(), options.getWalSyncIntervalMillis());
+  }
+
+  public byte[] get(byte[] key) {
+    return get(key, InternalKey.MAX_SEQUENCE);
+  }
+
+  /**
+   * @return The raw value of the newest version of {@code key} written at or before
+   *         {@code sequence}, or null if no Memtable holds one.
+   */
+  public byte[] get(byte[] key, long sequence) {
+    byte[] value = this.activeMemtable.get(key, sequence);
+    if (value != null) {
+      return value;
+    }
+    // Iterates from the head, i.e. newest first.
+    for (ImmutableMemtable immutable : immutableMemtables) {
+      value = immutable.memtable.get(key, sequence);
+      if (value != null) {
+        return value;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns iterators over every version in the active and immutable Memtables, oldest
+   * Memtable first, as expected by {@link com.andrea.lsm.iterator.MergingIterator}.
+   */
+  public List<SeekingIterator> newIterators() {
+    // Read the active Memtable first: if it rotates meanwhile it is also found in the
+    // queue, which is harmless, whereas the other order could miss it entirely.
+    Memtable active = this.activeMemtable;
+    List<SeekingIterator> iterators = new ArrayList<>();
+    Iterator<ImmutableMemtable> oldestFirst = immutableMemtables.descendingIterator();
+    while (oldestFirst.hasNext()) {
+      iterators.add(oldestFirst.next().memtable.newIterator());
+    }
+    iterators.add(active.newIterator());
+    return iterators;
   }
 
   private void cleanOldWals() throws IOException {
@@ -74,7 +407,20 @@ public class MemtableService {
   }
 
   public void close() throws IOException {
-    sstableService.flush(activeMemtable);
-    activeWal.close();
+    rotationLock.writeLock().lock();
+    try {
+      awaitPendingFlushes();
+      sstableService.flush(activeMemtable);
+      activeWal.close();
+    } finally {
+      flushExecutor.shutdown();
+      rotationLock.writeLock().unlock();
+    }
+    try {
+      flushExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while stopping the flusher");
+    }
   }
 }
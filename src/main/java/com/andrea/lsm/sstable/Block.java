@@ -0,0 +1,237 @@
+package com.andrea.lsm.sstable;
+
+import com.andrea.lsm.iterator.InternalKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import util.Bytes;
+
+/**
+ * Read-only view of a data block written by {@link BlockBuilder}.
+ * <p>
+ * Files written before restart points existed hold blocks of plain
+ * {@code keyLen(int32) key valueLen(int32) value} entries; these are read as a block with
+ * a single restart point at its start.
+ * <p>
+ * In files with a {@link Footer} every key is an encoded {@link InternalKey}: the user
+ * key followed by an 8-byte sequence number. Keys of older files are plain user keys and
+ * read with sequence 0.
+ */
+final class Block {
+  private final ByteBuffer data;
+  private final boolean legacy;
+  private final boolean sequenced;
+  private final Comparator<byte[]> comparator;
+  /** End of the entries and start of the restart array. */
+  private final int restartsOffset;
+  private final int restartCount;
+
+  /**
+   * @param data The block, positioned at its first byte; not modified.
+   * @param legacy Whether the block uses the pre-restart-point layout.
+   */
+  Block(ByteBuffer data, boolean legacy) throws IOException {
+    this(data, legacy, false);
+  }
+
+  /**
+   * @param sequenced Whether keys carry a sequence number.
+   */
+  Block(ByteBuffer data, boolean legacy, boolean sequenced) throws IOException {
+    this(data, legacy, sequenced, Bytes.BYTEWISE_COMPARATOR);
+  }
+
+  /**
+   * @param comparator The order of the user keys.
+   */
+  Block(ByteBuffer data, boolean legacy, boolean sequenced, Comparator<byte[]> comparator)
+      throws IOException {
+    this.data = data;
+    this.legacy = legacy;
+    this.sequenced = sequenced;
+    this.comparator = comparator;
+    int limit = data.limit();
+    if (legacy) {
+      this.restartCount = limit == 0 ? 0 : 1;
+      this.restartsOffset = limit;
+      return;
+    }
+    if (limit < Integer.BYTES) {
+      throw new IOException("Corrupted block: " + limit + " bytes");
+    }
+    this.restartCount = data.getInt(limit - Integer.BYTES);
+    this.restartsOffset = limit - (restartCount + 1) * Integer.BYTES;
+    if (restartCount < 0 || restartsOffset < 0) {
+      throw new IOException("Corrupted block: bad restart count " + restartCount);
+    }
+  }
+
+  private int restartPoint(int i) {
+    return legacy ? 0 : data.getInt(restartsOffset + i * Integer.BYTES);
+  }
+
+  /**
+   * Looks the newest version of a key up by binary search over the restart points
+   * followed by a short scan.
+   * @return The value bytes, or null if the block does not contain the key.
+   */
+  byte[] get(byte[] key) {
+    Cursor cursor = new Cursor();
+    if (cursor.seek(key, InternalKey.MAX_SEQUENCE) && cursor.keyEquals(key)) {
+      return cursor.value();
+    }
+    return null;
+  }
+
+  Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * Walks the entries of the block in order. A fresh cursor is positioned before the
+   * first entry.
+   */
+  final class Cursor {
+    private int offset;
+    private byte[] key = new byte[32];
+    private int keyLength;
+    private int valueOffset;
+    private int valueLength;
+
+    void seekToRestart(int i) {
+      offset = restartPoint(i);
+      keyLength = 0;
+    }
+
+    /**
+     * Positions the cursor on the newest version of the first key that is at least
+     * {@code target}.
+     * @return False if every key of the block is smaller than {@code target}.
+     */
+    boolean seek(byte[] target) {
+      return seek(target, InternalKey.MAX_SEQUENCE);
+    }
+
+    /**
+     * Positions the cursor on the first entry at or after {@code (target, sequence)} in
+     * {@link InternalKey} order.
+     * @return False if every entry of the block comes before it.
+     */
+    boolean seek(byte[] target, long sequence) {
+      int lo = 0;
+      int hi = restartCount - 1;
+      int start = 0;
+      while (lo <= hi) {
+        int mid = (lo + hi) >>> 1;
+        seekToRestart(mid);
+        next();
+        if (compareTo(target, sequence) < 0) {
+          start = mid;
+          lo = mid + 1;
+        } else {
+          hi = mid - 1;
+        }
+      }
+      // The entry may lie past the end of the interval, in the next one.
+      seekToRestart(start);
+      while (next()) {
+        if (compareTo(target, sequence) >= 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private int compareTo(byte[] target, long sequence) {
+      // The default order needs no copy of the key.
+      int res = comparator == Bytes.BYTEWISE_COMPARATOR
+          ? Arrays.compareUnsigned(key, 0, userKeyLength(), target, 0, target.length)
+          : comparator.compare(key(), target);
+      return res != 0 ? res : Long.compare(sequence, sequence());
+    }
+
+    /**
+     * Advances to the next entry.
+     * @return False once the block is exhausted.
+     */
+    boolean next() {
+      if (offset >= restartsOffset) {
+        return false;
+      }
+      int shared;
+      int unshared;
+      if (legacy) {
+        shared = 0;
+        unshared = data.getInt(offset);
+        offset += Integer.BYTES;
+      } else {
+        shared = readVarint();
+        unshared = readVarint();
+        valueLength = readVarint();
+      }
+      if (shared + unshared > key.length) {
+        key = Arrays.copyOf(key, Math.max(shared + unshared, key.length * 2));
+      }
+      data.get(offset, key, shared, unshared);
+      offset += unshared;
+      keyLength = shared + unshared;
+      if (legacy) {
+        valueLength = data.getInt(offset);
+        offset += Integer.BYTES;
+      }
+      valueOffset = offset;
+      offset += valueLength;
+      return true;
+    }
+
+    private int readVarint() {
+      int result = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = data.get(offset++);
+        result |= (b & 0x7F) << shift;
+        if (b >= 0) {
+          return result;
+        }
+      }
+    }
+
+    private int userKeyLength() {
+      return sequenced ? keyLength - Long.BYTES : keyLength;
+    }
+
+    /**
+     * @return Whether the user key of the current entry equals {@code other}.
+     */
+    boolean keyEquals(byte[] other) {
+      return Arrays.equals(key, 0, userKeyLength(), other, 0, other.length);
+    }
+
+    /**
+     * @return A copy of the user key of the current entry.
+     */
+    byte[] key() {
+      return Arrays.copyOf(key, userKeyLength());
+    }
+
+    /**
+     * @return The sequence number of the current entry; 0 in files that predate them.
+     */
+    long sequence() {
+      if (!sequenced) {
+        return 0L;
+      }
+      long sequence = 0L;
+      for (int i = keyLength - Long.BYTES; i < keyLength; i++) {
+        sequence = (sequence << 8) | (key[i] & 0xFF);
+      }
+      return sequence;
+    }
+
+    byte[] value() {
+      byte[] value = new byte[valueLength];
+      data.get(valueOffset, value);
+      return value;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+package com.andrea.lsm.sstable;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Builds a data block with shared-prefix key compression.
+ * <pre>
+ * entry:   shared(varint) unshared(varint) valueLen(varint) keyDelta value
+ * trailer: restart(int32)... numRestarts(int32)
+ * </pre>
+ * Each key stores only the bytes it does not share with the previous key, except every
+ * {@code restartInterval}-th key, which is stored in full. The offsets of these restart
+ * points let {@link Block} binary-search the block instead of decoding it from the start.
+ */
+final class BlockBuilder {
+  private final int restartInterval;
+  private final ByteArrayOutputStream buffer;
+  private int[] restarts;
+  private int restartCount;
+  private int entriesSinceRestart;
+  private byte[] lastKey;
+
+  BlockBuilder(int restartInterval) {
+    this.restartInterval = restartInterval;
+    this.buffer = new ByteArrayOutputStream(SSTable.MAX_BLOCK_SIZE);
+    this.restarts = new int[16];
+    reset();
+  }
+
+  void reset() {
+    buffer.reset();
+    restartCount = 0;
+    entriesSinceRestart = restartInterval;
+    lastKey = new byte[0];
+  }
+
+  boolean isEmpty() {
+    return buffer.size() == 0;
+  }
+
+  void add(byte[] key, byte[] value) {
+    int shared = 0;
+    if (entriesSinceRestart < restartInterval) {
+      int max = Math.min(lastKey.length, key.length);
+      while (shared < max && lastKey[shared] == key[shared]) {
+        shared++;
+      }
+    } else {
+      if (restartCount == restarts.length) {
+        restarts = Arrays.copyOf(restarts, restarts.length * 2);
+      }
+      restarts[restartCount++] = buffer.size();
+      entriesSinceRestart = 0;
+    }
+    putVarint(shared);
+    putVarint(key.length - shared);
+    putVarint(value.length);
+    buffer.write(key, shared, key.length - shared);
+    buffer.write(value, 0, value.length);
+    lastKey = key;
+    entriesSinceRestart++;
+  }
+
+  /**
+   * @return Size of the block if it were finished now.
+   */
+  int estimatedSize() {
+    return buffer.size() + (restartCount + 1) * Integer.BYTES;
+  }
+
+  /**
+   * Upper bound of the bytes {@link #add} appends for an entry, before prefix sharing.
+   */
+  static int maxEntrySize(int keyLength, int valueLength) {
+    return 3 * 5 + keyLength + valueLength + Integer.BYTES;
+  }
+
+  /**
+   * Appends the restart array and returns the block. The builder must be
+   * {@link #reset()} before it is reused.
+   */
+  byte[] finish() {
+    for (int i = 0; i < restartCount; i++) {
+      putInt(restarts[i]);
+    }
+    putInt(restartCount);
+    return buffer.toByteArray();
+  }
+
+  private void putInt(int v) {
+    buffer.write(v >>> 24);
+    buffer.write(v >>> 16);
+    buffer.write(v >>> 8);
+    buffer.write(v);
+  }
+
+  private void putVarint(int v) {
+    while ((v & ~0x7F) != 0) {
+      buffer.write((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    buffer.write(v);
+  }
+}
@@ -0,0 +1,264 @@
+package com.andrea.lsm.sstable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import util.Constants;
+
+/**
+ * A byte-bounded cache of SSTable data blocks, keyed by (file id, block offset).
+ * <p>
+ * The cache is split into independently locked shards so that concurrent readers
+ * rarely contend. Each shard uses segmented LRU eviction: a block enters the
+ * probationary segment and is promoted to the protected segment on its second hit.
+ * One-off reads (e.g. a large scan) therefore only churn the probationary segment
+ * and cannot flush out the hot blocks that live in the protected one.
+ * <p>
+ * A single cache is usually shared by every SSTable of the process; see
+ * {@link #shared()}.
+ */
+public class BlockCache {
+  /** Share of each shard's capacity reserved for blocks that were hit at least twice. */
+  private static final double PROTECTED_RATIO = 0.8;
+  /** Rough per-entry bookkeeping cost (key object, map node, array header). */
+  private static final int ENTRY_OVERHEAD = 96;
+
+  private static final BlockCache SHARED =
+      new BlockCache(Constants.DEFAULT_BLOCK_CACHE_CAPACITY, Constants.DEFAULT_BLOCK_CACHE_SHARDS);
+
+  private final Shard[] shards;
+  private final LongAdder hits;
+  private final LongAdder misses;
+  private volatile long capacity;
+
+  /**
+   * @return The process-wide cache used by SSTables unless configured otherwise.
+   */
+  public static BlockCache shared() {
+    return SHARED;
+  }
+
+  public BlockCache(long capacityBytes) {
+    this(capacityBytes, Constants.DEFAULT_BLOCK_CACHE_SHARDS);
+  }
+
+  /**
+   * @param capacityBytes Total bytes of blocks the cache may hold.
+   * @param shardCount Number of independently locked shards; rounded up to a power of two.
+   */
+  public BlockCache(long capacityBytes, int shardCount) {
+    if (capacityBytes < 0) {
+      throw new IllegalArgumentException("capacityBytes must not be negative: " + capacityBytes);
+    }
+    int count = 1;
+    while (count < shardCount) {
+      count <<= 1;
+    }
+    this.shards = new Shard[count];
+    for (int i = 0; i < count; i++) {
+      shards[i] = new Shard();
+    }
+    this.hits = new LongAdder();
+    this.misses = new LongAdder();
+    setCapacity(capacityBytes);
+  }
+
+  /**
+   * @return The cached block, or null if it is not cached.
+   */
+  public byte[] get(long fileId, long offset) {
+    BlockKey key = new BlockKey(fileId, offset);
+    byte[] block = shardFor(key).get(key);
+    if (block == null) {
+      misses.increment();
+    } else {
+      hits.increment();
+    }
+    return block;
+  }
+
+  public void put(long fileId, long offset, byte[] block) {
+    BlockKey key = new BlockKey(fileId, offset);
+    shardFor(key).put(key, block);
+  }
+
+  /**
+   * Drops every block of a file, e.g. once the file has been deleted.
+   */
+  public void evictFile(long fileId) {
+    for (Shard shard : shards) {
+      shard.evictFile(fileId);
+    }
+  }
+
+  /**
+   * Changes the capacity, evicting blocks right away if the cache is now too large.
+   */
+  public void setCapacity(long capacityBytes) {
+    if (capacityBytes < 0) {
+      throw new IllegalArgumentException("capacityBytes must not be negative: " + capacityBytes);
+    }
+    this.capacity = capacityBytes;
+    long perShard = capacityBytes / shards.length;
+    for (Shard shard : shards) {
+      shard.setCapacity(perShard);
+    }
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return The bytes currently charged to cached blocks.
+   */
+  public long getUsage() {
+    long usage = 0;
+    for (Shard shard : shards) {
+      usage += shard.usage();
+    }
+    return usage;
+  }
+
+  public long getHitCount() {
+    return hits.sum();
+  }
+
+  public long getMissCount() {
+    return misses.sum();
+  }
+
+  private Shard shardFor(BlockKey key) {
+    int h = key.hashCode();
+    h ^= (h >>> 16);
+    return shards[h & (shards.length - 1)];
+  }
+
+  private static long charge(byte[] block) {
+    return block.length + ENTRY_OVERHEAD;
+  }
+
+  private static final class BlockKey {
+    final long fileId;
+    final long offset;
+
+    BlockKey(long fileId, long offset) {
+      this.fileId = fileId;
+      this.offset = offset;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof BlockKey)) return false;
+      BlockKey other = (BlockKey) o;
+      return fileId == other.fileId && offset == other.offset;
+    }
+
+    @Override
+    public int hashCode() {
+      return Long.hashCode(fileId * 31 + offset);
+    }
+  }
+
+  /**
+   * One segmented-LRU partition. Both segments are kept in LRU order, least recently
+   * used first.
+   */
+  private static final class Shard {
+    private final LinkedHashMap<BlockKey, byte[]> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<BlockKey, byte[]> protectedSegment = new LinkedHashMap<>(16, 0.75f, true);
+    private long probationUsage;
+    private long protectedUsage;
+    private long capacity;
+
+    synchronized byte[] get(BlockKey key) {
+      byte[] block = protectedSegment.get(key);
+      if (block != null) {
+        return block;
+      }
+      block = probation.remove(key);
+      if (block == null) {
+        return null;
+      }
+      // Second hit: promote, demoting protected blocks back to probation if needed.
+      probationUsage -= charge(block);
+      protectedSegment.put(key, block);
+      protectedUsage += charge(block);
+      long protectedCapacity = (long) (capacity * PROTECTED_RATIO);
+      Iterator<Map.Entry<BlockKey, byte[]>> it = protectedSegment.entrySet().iterator();
+      while (protectedUsage > protectedCapacity && it.hasNext()) {
+        Map.Entry<BlockKey, byte[]> eldest = it.next();
+        if (eldest.getKey().equals(key)) {
+          break;
+        }
+        it.remove();
+        protectedUsage -= charge(eldest.getValue());
+        probation.put(eldest.getKey(), eldest.getValue());
+        probationUsage += charge(eldest.getValue());
+      }
+      evict();
+      return block;
+    }
+
+    synchronized void put(BlockKey key, byte[] block) {
+      if (charge(block) > capacity) {
+        return;
+      }
+      byte[] previous = protectedSegment.get(key);
+      if (previous != null) {
+        protectedSegment.put(key, block);
+        protectedUsage += charge(block) - charge(previous);
+      } else {
+        previous = probation.put(key, block);
+        probationUsage += charge(block) - (previous == null ? 0 : charge(previous));
+      }
+      evict();
+    }
+
+    synchronized void evictFile(long fileId) {
+      probation.entrySet().removeIf(e -> {
+        if (e.getKey().fileId == fileId) {
+          probationUsage -= charge(e.getValue());
+          return true;
+        }
+        return false;
+      });
+      protectedSegment.entrySet().removeIf(e -> {
+        if (e.getKey().fileId == fileId) {
+          protectedUsage -= charge(e.getValue());
+          return true;
+        }
+        return false;
+      });
+    }
+
+    synchronized void setCapacity(long capacity) {
+      this.capacity = capacity;
+      evict();
+    }
+
+    synchronized long usage() {
+      return probationUsage + protectedUsage;
+    }
+
+    /**
+     * Evicts from the probationary segment first, then from the protected one.
+     */
+    private void evict() {
+      Iterator<Map.Entry<BlockKey, byte[]>> it = probation.entrySet().iterator();
+      while (probationUsage + protectedUsage > capacity && it.hasNext()) {
+        Map.Entry<BlockKey, byte[]> eldest = it.next();
+        it.remove();
+        probationUsage -= charge(eldest.getValue());
+      }
+      it = protectedSegment.entrySet().iterator();
+      while (probationUsage + protectedUsage > capacity && it.hasNext()) {
+        Map.Entry<BlockKey, byte[]> eldest = it.next();
+        it.remove();
+        protectedUsage -= charge(eldest.getValue());
+      }
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.andrea.lsm.sstable;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter over a {@code long[]} in which all probes for a key fall into one 512-bit
+ * block, the size of a cache line. A lookup therefore costs a single cache miss instead of
+ * one per hash function, for a slightly higher false positive rate than a classic filter
+ * with the same number of bits.
+ * <p>
+ * The filter is sized from the number of keys actually written and the configured bits
+ * per key; at 10 bits per key the false positive rate is about 1%.
+ */
+final class BlockedBloomFilter {
+  private static final int BLOCK_BITS = 512;
+  private static final int LONGS_PER_BLOCK = BLOCK_BITS / Long.SIZE;
+  private static final int MAX_HASHES = 30;
+
+  private final long[] bits;
+  private final int numHashes;
+
+  private BlockedBloomFilter(long[] bits, int numHashes) {
+    this.bits = bits;
+    this.numHashes = numHashes;
+  }
+
+  /**
+   * Builds a filter holding the given keys.
+   * @param keyHashes Hashes of the keys, computed with {@link #hash(byte[])}.
+   * @param count Number of valid entries at the front of {@code keyHashes}.
+   * @param bitsPerKey Filter bits spent per key; must be positive.
+   */
+  static BlockedBloomFilter create(long[] keyHashes, int count, int bitsPerKey) {
+    long totalBits = Math.max(BLOCK_BITS, (long) count * bitsPerKey);
+    long numBlocks = (totalBits + BLOCK_BITS - 1) / BLOCK_BITS;
+    if (numBlocks * LONGS_PER_BLOCK > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Bloom filter too large for " + count + " keys");
+    }
+    // k = ln(2) * bits per key minimises the false positive rate.
+    int numHashes = (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bitsPerKey * 0.69)));
+    BlockedBloomFilter filter = new BlockedBloomFilter(new long[(int) numBlocks * LONGS_PER_BLOCK], numHashes);
+    for (int i = 0; i < count; i++) {
+      filter.add(keyHashes[i]);
+    }
+    return filter;
+  }
+
+  private void add(long hash) {
+    int blockStart = blockStart(hash);
+    int h = (int) hash;
+    int delta = Integer.rotateRight(h, 17);
+    for (int i = 0; i < numHashes; i++) {
+      int bit = h & (BLOCK_BITS - 1);
+      bits[blockStart + (bit >>> 6)] |= 1L << bit;
+      h += delta;
+    }
+  }
+
+  /**
+   * @param hash Hash of the key, computed with {@link #hash(byte[])}.
+   * @return False if the key is definitely absent.
+   */
+  boolean mightContain(long hash) {
+    int blockStart = blockStart(hash);
+    int h = (int) hash;
+    int delta = Integer.rotateRight(h, 17);
+    for (int i = 0; i < numHashes; i++) {
+      int bit = h & (BLOCK_BITS - 1);
+      if ((bits[blockStart + (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+      h += delta;
+    }
+    return true;
+  }
+
+  /**
+   * Maps the upper half of the hash onto a block without a modulo.
+   */
+  private int blockStart(long hash) {
+    long numBlocks = bits.length / LONGS_PER_BLOCK;
+    return (int) (((hash >>> 32) * numBlocks) >>> 32) * LONGS_PER_BLOCK;
+  }
+
+  /**
+   * @return Size of the serialized filter in bytes.
+   */
+  int sizeInBytes() {
+    return 2 * Integer.BYTES + bits.length * Long.BYTES;
+  }
+
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeInt(numHashes);
+    out.writeInt(bits.length);
+    for (long word : bits) {
+      out.writeLong(word);
+    }
+  }
+
+  static BlockedBloomFilter readFrom(ByteBuffer buf) throws IOException {
+    int numHashes = buf.getInt();
+    int length = buf.getInt();
+    if (numHashes < 1 || numHashes > MAX_HASHES || length <= 0 || length % LONGS_PER_BLOCK != 0
+        || length > buf.remaining() / Long.BYTES) {
+      throw new IOException("Corrupted bloom filter block");
+    }
+    long[] bits = new long[length];
+    buf.asLongBuffer().get(bits);
+    return new BlockedBloomFilter(bits, numHashes);
+  }
+
+  /**
+   * 64-bit MurmurHash2 (MurmurHash64A) of the key bytes.
+   */
+  static long hash(byte[] key) {
+    final long m = 0xc6a4a7935bd1e995L;
+    final int r = 47;
+    long h = 0x9747b28cL ^ (key.length * m);
+
+    int i = 0;
+    for (; i + Long.BYTES <= key.length; i += Long.BYTES) {
+      long k = (key[i] & 0xffL) | (key[i + 1] & 0xffL) << 8 | (key[i + 2] & 0xffL) << 16
+          | (key[i + 3] & 0xffL) << 24 | (key[i + 4] & 0xffL) << 32 | (key[i + 5] & 0xffL) << 40
+          | (key[i + 6] & 0xffL) << 48 | (key[i + 7] & 0xffL) << 56;
+      k *= m;
+      k ^= k >>> r;
+      k *= m;
+      h ^= k;
+      h *= m;
+    }
+    int remaining = key.length - i;
+    if (remaining > 0) {
+      for (int j = remaining - 1; j >= 0; j--) {
+        h ^= (key[i + j] & 0xffL) << (8 * j);
+      }
+      h *= m;
+    }
+    h ^= h >>> r;
+    h *= m;
+    h ^= h >>> r;
+    return h;
+  }
+}
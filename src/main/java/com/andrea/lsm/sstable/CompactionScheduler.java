@@ -0,0 +1,442 @@
+package com.andrea.lsm.sstable;
+
+import com.andrea.lsm.manifest.Manifest;
+import com.andrea.lsm.manifest.Version;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import util.Constants;
+import util.Options;
+
+/**
+ * Runs leveled compactions on a background thread pool, off the flush path.
+ * <p>
+ * Level 0 holds the freshly flushed, possibly overlapping tables. Level 1 and deeper
+ * hold non-overlapping tables of about {@link Options#getTargetFileSize()} bytes each,
+ * and level {@code n} has a byte budget of
+ * {@code maxBytesForLevelBase * levelSizeMultiplier^(n-1)}.
+ * <p>
+ * Every level gets a score: the number of files over
+ * {@link Constants#L0_COMPACTION_TRIGGER} for level 0, and the level's bytes over its
+ * budget for level 1 and below. Levels scoring at least 1 are compacted, highest score
+ * first. A compaction takes all of level 0, or one file of a deeper level (round-robin
+ * through the key space), plus only the overlapping files of the next level, and
+ * writes its output split at the target file size. Two compactions may run at the
+ * same time as long as they share no input files and, where they touch a common
+ * level, their key ranges do not overlap. Results are committed through
+ * {@link Manifest#applyCompact}.
+ * <p>
+ * A failed compaction is retried with exponential backoff: no compaction starts until
+ * the delay has passed, and the next successful one clears the failure.
+ */
+public class CompactionScheduler {
+  private static final long INITIAL_RETRY_DELAY_MILLIS = 100;
+  private static final long MAX_RETRY_DELAY_MILLIS = 10_000;
+
+  private final Manifest manifest;
+  private final Compactor compactor;
+  private final Options options;
+  private final ExecutorService pool;
+
+  // Guarded by this.
+  private final List<Compaction> running;
+  private final Set<SSTable> busyTables;
+  /** Largest key compacted so far per level, so that picks rotate through the key space. */
+  private final byte[][] compactPointers;
+  private boolean closed;
+  /** The last compaction failure, or null once a compaction has succeeded since. */
+  private IOException backgroundError;
+  /** Backoff after the last failure, doubled by every further one. */
+  private long retryDelayMillis;
+  /** {@link System#nanoTime()} before which no compaction starts after a failure. */
+  private long retryAtNanos;
+
+  /**
+   * One unit of compaction work: merge {@code inputs} of {@code level} with the
+   * overlapping {@code outputLevelInputs} into new SSTables on {@code outputLevel}.
+   */
+  static class Compaction {
+    final Comparator<byte[]> comparator;
+    final int level;
+    final int outputLevel;
+    final List<SSTable> inputs;
+    final List<SSTable> outputLevelInputs;
+    final byte[] minKey;
+    final byte[] maxKey;
+    boolean dropTombstones;
+
+    Compaction(Comparator<byte[]> comparator, int level, List<SSTable> inputs,
+        List<SSTable> outputLevelInputs) {
+      this.comparator = comparator;
+      this.level = level;
+      this.outputLevel = level + 1;
+      this.inputs = inputs;
+      this.outputLevelInputs = outputLevelInputs;
+      List<SSTable> all = allInputs();
+      this.minKey = minKey(comparator, all);
+      this.maxKey = maxKey(comparator, all);
+    }
+
+    /**
+     * @return Every input table, older ones first, as the {@link Compactor} expects.
+     */
+    List<SSTable> allInputs() {
+      List<SSTable> all = new ArrayList<>(outputLevelInputs);
+      all.addAll(inputs);
+      return all;
+    }
+
+    /**
+     * A single file with nothing to merge against can simply change levels.
+     */
+    boolean isTrivialMove() {
+      return level > 0 && inputs.size() == 1 && outputLevelInputs.isEmpty();
+    }
+
+    boolean touchesLevel(int l) {
+      return level == l || outputLevel == l;
+    }
+
+    boolean overlaps(Compaction other) {
+      return rangesOverlap(comparator, minKey, maxKey, other.minKey, other.maxKey);
+    }
+  }
+
+  public CompactionScheduler(Manifest manifest, Compactor compactor, Options options) {
+    this.manifest = manifest;
+    this.compactor = compactor;
+    this.options = options;
+    this.running = new ArrayList<>();
+    this.busyTables = new HashSet<>();
+    this.compactPointers = new byte[Constants.MAX_LEVEL][];
+    this.closed = false;
+    AtomicInteger threadIds = new AtomicInteger();
+    this.pool = Executors.newFixedThreadPool(options.getCompactionThreads(), runnable -> {
+      Thread thread = new Thread(runnable,
+          "compaction-" + manifest.getRootPath().getFileName() + "-" + threadIds.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Looks for levels that need compaction and starts every compaction that does not
+   * conflict with one already running. Cheap to call; never blocks on compaction work.
+   */
+  public synchronized void maybeScheduleCompaction() {
+    if (closed || (backgroundError != null && System.nanoTime() - retryAtNanos < 0)) {
+      return;
+    }
+    Version version = manifest.acquireVersion();
+    try {
+      List<Integer> levels = new ArrayList<>();
+      double[] scores = new double[Constants.MAX_LEVEL];
+      // The last level has nowhere to compact into.
+      for (int level = 0; level < Constants.MAX_LEVEL - 1; level++) {
+        scores[level] = score(version, level);
+        if (scores[level] >= 1.0) {
+          levels.add(level);
+        }
+      }
+      levels.sort(Comparator.comparingDouble((Integer level) -> scores[level]).reversed());
+
+      for (int level : levels) {
+        Compaction compaction = pickCompaction(version, level);
+        if (compaction != null) {
+          compaction.dropTombstones = isBottommost(version, compaction);
+          start(compaction);
+        }
+      }
+    } finally {
+      manifest.releaseVersion(version);
+    }
+  }
+
+  /**
+   * Registers ingested tables in one {@link Manifest} edit, each on the deepest level
+   * that neither it nor any level above holds keys of its range. The tables are newer
+   * than everything in the database, so older data may only remain below them.
+   * <p>
+   * A level that a running compaction writes into over the same range is avoided too,
+   * as its outputs could otherwise overlap the table. Holding the lock keeps new
+   * compactions from starting until the tables are registered.
+   */
+  synchronized void ingest(List<SSTable> tables) throws IOException {
+    if (closed) {
+      throw new IOException("Compaction scheduler is closed");
+    }
+    Version version = manifest.acquireVersion();
+    try {
+      Map<SSTable, Integer> levelOfTable = new LinkedHashMap<>();
+      for (SSTable table : tables) {
+        levelOfTable.put(table, pickIngestLevel(version, table));
+      }
+      manifest.applyIngest(levelOfTable);
+    } finally {
+      manifest.releaseVersion(version);
+    }
+    maybeScheduleCompaction();
+  }
+
+  private int pickIngestLevel(Version version, SSTable table) {
+    Comparator<byte[]> comparator = options.getComparator();
+    byte[] min = table.getMinKey();
+    byte[] max = table.getMaxKey();
+    int target = 0;
+    for (int level = 0; level < Constants.MAX_LEVEL; level++) {
+      for (SSTable other : version.getSSTable(level)) {
+        if (rangesOverlap(comparator, min, max, other.getMinKey(), other.getMaxKey())) {
+          return target;
+        }
+      }
+      for (Compaction compaction : running) {
+        if (compaction.outputLevel == level
+            && rangesOverlap(comparator, min, max, compaction.minKey, compaction.maxKey)) {
+          return target;
+        }
+      }
+      target = level;
+    }
+    return target;
+  }
+
+  double score(Version version, int level) {
+    List<SSTable> tables = version.getSSTable(level);
+    if (level == 0) {
+      return (double) tables.size() / Constants.L0_COMPACTION_TRIGGER;
+    }
+    long bytes = 0;
+    for (SSTable table : tables) {
+      bytes += table.getFileSize();
+    }
+    return (double) bytes / options.getMaxBytesForLevel(level);
+  }
+
+  private Compaction pickCompaction(Version version, int level) {
+    List<SSTable> tables = version.getSSTable(level);
+    if (tables.isEmpty()) {
+      return null;
+    }
+    if (level == 0) {
+      // Level-0 tables overlap each other, so all of them move down together.
+      for (SSTable table : tables) {
+        if (busyTables.contains(table)) {
+          return null;
+        }
+      }
+      return withOutputLevelInputs(version, level, new ArrayList<>(tables));
+    }
+
+    // Resume after the last compacted key so that every part of the level gets its turn.
+    int start = 0;
+    byte[] pointer = compactPointers[level];
+    if (pointer != null) {
+      while (start < tables.size() && tables.get(start).getMaxKey() != null
+          && options.getComparator().compare(tables.get(start).getMaxKey(), pointer) <= 0) {
+        start++;
+      }
+    }
+    for (int i = 0; i < tables.size(); i++) {
+      SSTable candidate = tables.get((start + i) % tables.size());
+      if (busyTables.contains(candidate)) {
+        continue;
+      }
+      Compaction compaction = withOutputLevelInputs(version, level, List.of(candidate));
+      if (compaction != null) {
+        return compaction;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Completes a compaction of {@code inputs} with the overlapping tables of the next
+   * level. Returns null if any of them is busy or the result conflicts with a
+   * running compaction.
+   */
+  private Compaction withOutputLevelInputs(Version version, int level, List<SSTable> inputs) {
+    Comparator<byte[]> comparator = options.getComparator();
+    byte[] min = minKey(comparator, inputs);
+    byte[] max = maxKey(comparator, inputs);
+    List<SSTable> outputLevelInputs = new ArrayList<>();
+    if (min != null) {
+      for (SSTable table : version.getSSTable(level + 1)) {
+        if (rangesOverlap(comparator, min, max, table.getMinKey(), table.getMaxKey())) {
+          if (busyTables.contains(table)) {
+            return null;
+          }
+          outputLevelInputs.add(table);
+        }
+      }
+    }
+    Compaction compaction = new Compaction(comparator, level, inputs, outputLevelInputs);
+    return conflictsWithRunning(compaction) ? null : compaction;
+  }
+
+  /**
+   * Tombstones can only be dropped if no level below the output holds older data
+   * for the compacted key range.
+   */
+  private static boolean isBottommost(Version version, Compaction compaction) {
+    for (int level = compaction.outputLevel + 1; level < Constants.MAX_LEVEL; level++) {
+      for (SSTable table : version.getSSTable(level)) {
+        if (rangesOverlap(compaction.comparator, compaction.minKey, compaction.maxKey,
+            table.getMinKey(), table.getMaxKey())) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean conflictsWithRunning(Compaction candidate) {
+    for (Compaction other : running) {
+      if (candidate.level == 0 && other.level == 0) {
+        // Level-0 files overlap each other; one level-0 compaction at a time.
+        return true;
+      }
+      boolean sharesLevel = other.touchesLevel(candidate.level)
+          || other.touchesLevel(candidate.outputLevel);
+      if (sharesLevel && candidate.overlaps(other)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void start(Compaction compaction) {
+    running.add(compaction);
+    busyTables.addAll(compaction.inputs);
+    busyTables.addAll(compaction.outputLevelInputs);
+    if (compaction.level > 0) {
+      compactPointers[compaction.level] = maxKey(compaction.comparator, compaction.inputs);
+    }
+    pool.execute(() -> run(compaction));
+  }
+
+  private void run(Compaction compaction) {
+    try {
+      if (compaction.isTrivialMove()) {
+        manifest.applyCompact(compaction.level, compaction.inputs, compaction.outputLevel,
+            List.of(), compaction.inputs);
+        succeeded();
+        return;
+      }
+      // Listed after the inputs were picked: a snapshot opened since is newer than every
+      // input entry and only needs the newest versions, which are always kept.
+      long[] snapshots = manifest.getSnapshotSequences();
+      List<SSTable> outputs = compactor.compact(compaction.allInputs(), manifest::newSSTablePath,
+          compaction.outputLevel, options.getTargetFileSize(), compaction.dropTombstones, snapshots);
+      // Input files are deleted by the Manifest once no reader pins them.
+      manifest.applyCompact(compaction.level, compaction.inputs, compaction.outputLevel,
+          compaction.outputLevelInputs, outputs);
+      succeeded();
+    } catch (IOException | RuntimeException e) {
+      long delayMillis;
+      synchronized (this) {
+        backgroundError = (e instanceof IOException)
+            ? (IOException) e
+            : new IOException("Compaction failed", e);
+        retryDelayMillis = retryDelayMillis == 0 ? INITIAL_RETRY_DELAY_MILLIS
+            : Math.min(2 * retryDelayMillis, MAX_RETRY_DELAY_MILLIS);
+        retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryDelayMillis);
+        delayMillis = retryDelayMillis;
+      }
+      System.err.println("Compaction of level " + compaction.level + " failed: " + e.getMessage()
+          + "; retrying in " + delayMillis + " ms");
+      // Nothing else may call back once writes stop, so the retry schedules itself.
+      CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS)
+          .execute(this::maybeScheduleCompaction);
+    } finally {
+      synchronized (this) {
+        running.remove(compaction);
+        busyTables.removeAll(compaction.inputs);
+        busyTables.removeAll(compaction.outputLevelInputs);
+        // The new layout may make more work eligible (e.g. cascading into the next level).
+        maybeScheduleCompaction();
+        notifyAll();
+      }
+    }
+  }
+
+  private synchronized void succeeded() {
+    backgroundError = null;
+    retryDelayMillis = 0;
+  }
+
+  static boolean rangesOverlap(Comparator<byte[]> comparator, byte[] minA, byte[] maxA,
+      byte[] minB, byte[] maxB) {
+    if (minA == null || minB == null) {
+      return false;
+    }
+    return comparator.compare(minA, maxB) <= 0 && comparator.compare(minB, maxA) <= 0;
+  }
+
+  private static byte[] minKey(Comparator<byte[]> comparator, List<SSTable> tables) {
+    byte[] min = null;
+    for (SSTable table : tables) {
+      if (table.getMinKey() != null
+          && (min == null || comparator.compare(table.getMinKey(), min) < 0)) {
+        min = table.getMinKey();
+      }
+    }
+    return min;
+  }
+
+  private static byte[] maxKey(Comparator<byte[]> comparator, List<SSTable> tables) {
+    byte[] max = null;
+    for (SSTable table : tables) {
+      if (table.getMaxKey() != null
+          && (max == null || comparator.compare(table.getMaxKey(), max) > 0)) {
+        max = table.getMaxKey();
+      }
+    }
+    return max;
+  }
+  /**
+   * Blocks until no compaction is running and none is needed anymore.
+   * @throws IOException If the last compaction failed and has not been retried successfully.
+   */
+  public synchronized void awaitIdle() throws IOException {
+    maybeScheduleCompaction();
+    try {
+      while (!running.isEmpty()) {
+        wait();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for compactions");
+    }
+    if (backgroundError != null) {
+      throw new IOException("Background compaction failed", backgroundError);
+    }
+  }
+
+  /**
+   * Stops scheduling new compactions and waits for the running ones to finish.
+   */
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+    }
+    pool.shutdown();
+    try {
+      pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while stopping compactions");
+    }
+  }
+}
@@ -1,107 +1,418 @@
 package com.andrea.lsm.sstable;
 
+import com.andrea.lsm.iterator.InternalEntry;
+import com.andrea.lsm.iterator.InternalKey;
+import com.andrea.lsm.iterator.MergingIterator;
+import com.andrea.lsm.iterator.RangeTombstone;
+import com.andrea.lsm.statistics.Statistics;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.NoSuchElementException;
-import java.util.PriorityQueue;
-import util.Constants;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import util.Options;
 
+/**
+ * Merges SSTables into new ones.
+ * <p>
+ * A large compaction is split into up to {@link Options#getMaxSubcompactions()} key
+ * ranges that are merged at the same time: the first on the calling thread, the others on
+ * a fork-join pool of this compactor. Each range writes its own output tables, and the
+ * caller commits them all together.
+ */
 public class Compactor{
-  private static class MergeElement {
-    int indexOfSourceSSTable;
-    Entry<String, String> entry;
+  private final Options options;
+  /** Runs sub-compactions; null if compactions are never split. */
+  private final ForkJoinPool subcompactionPool;
 
-    public MergeElement(int indexOfSourceSSTable, Entry<String, String> entry) {
-      this.indexOfSourceSSTable = indexOfSourceSSTable;
-      this.entry = entry;
+  public Compactor() {
+    this(new Options());
+  }
+
+  public Compactor(Options options) {
+    this.options = options;
+    int extraThreads = options.getMaxSubcompactions() - 1;
+    if (extraThreads > 0) {
+      // Every concurrent compaction may run its ranges at once. Workers are daemons,
+      // started on demand and retired when idle, so the pool needs no shutdown.
+      AtomicInteger threadIds = new AtomicInteger();
+      this.subcompactionPool = new ForkJoinPool(extraThreads * options.getCompactionThreads(),
+          pool -> {
+            ForkJoinWorkerThread thread =
+                ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("subcompaction-" + threadIds.incrementAndGet());
+            return thread;
+          }, null, false);
+    } else {
+      this.subcompactionPool = null;
     }
   }
 
+  /**
+   * Merges the given SSTables into a single new SSTable, dropping tombstones and the keys
+   * that range deletions cover.
+   * @param listOfSStable Input tables, oldest first; newer tables win on duplicate keys.
+   * @param outFilePath Where to write the merged table.
+   */
   public SSTable compact(List<SSTable> listOfSStable, Path outFilePath) throws IOException {
+    long start = System.nanoTime();
     List<SSTableIterator> list = new ArrayList<>();
     try {
       for (SSTable ssTable : listOfSStable) {
         list.add(new SSTableIterator(ssTable));
       }
-      Iterator<Entry<String, String>> iterators = new MergedIterator(list);
-      return SSTable.createSSTableFromIterator(iterators, outFilePath);
+      Iterator<InternalEntry> iterators = new MergingIterator(list, options.getComparator(), true);
+      SSTable output = SSTable.createSSTableFromIterator(iterators, outFilePath, options);
+      recordCompaction(listOfSStable, List.of(output), start);
+      return output;
     } finally {
-      for (SSTableIterator it : list) {
+      closeAll(list);
+    }
+  }
+
+  /**
+   * Merges the given SSTables into new SSTables of about {@code targetFileSize} bytes each,
+   * split into sub-compactions over disjoint key ranges if the inputs are large enough.
+   * Versions covered by a range deletion are dropped unless a snapshot still sees them;
+   * range deletions are carried over to the output table holding their range, or dropped
+   * together with point tombstones.
+   * @param listOfSStable Input tables, oldest first; newer tables win on duplicate keys.
+   * @param rootPath Directory receiving the output tables, named by
+   *                 {@link SSTable#generateSSTablePath(Path)}.
+   * @param outputLevel Level the output tables are written for.
+   * @param targetFileSize Output is cut into a new table once this many bytes are written.
+   * @param dropTombstones Whether deletions can be discarded, i.e. no older data for the
+   *                       compacted key range exists below the output level.
+   * @param snapshots Sequence numbers of the live snapshots, whose versions are kept.
+   * @return The output tables in key order; empty if every entry and range deletion was
+   *         dropped.
+   */
+  public List<SSTable> compact(List<SSTable> listOfSStable, Path rootPath, int outputLevel,
+      long targetFileSize, boolean dropTombstones, long[] snapshots) throws IOException {
+    return compact(listOfSStable, () -> SSTable.generateSSTablePath(rootPath), outputLevel,
+        targetFileSize, dropTombstones, snapshots);
+  }
+
+  /**
+   * Like {@link #compact(List, Path, int, long, boolean, long[])}, with each output table
+   * written to a new path from {@code newTablePath}, which is called concurrently by the
+   * sub-compactions.
+   */
+  public List<SSTable> compact(List<SSTable> listOfSStable, Supplier<Path> newTablePath,
+      int outputLevel, long targetFileSize, boolean dropTombstones, long[] snapshots)
+      throws IOException {
+    long start = System.nanoTime();
+    long inputBytes = 0;
+    for (SSTable ssTable : listOfSStable) {
+      inputBytes += ssTable.getFileSize();
+    }
+    // A range of less than an output table is not worth a thread of its own.
+    int ranges = (int) Math.min(options.getMaxSubcompactions(), inputBytes / targetFileSize);
+    List<byte[]> boundaries = subcompactionBoundaries(listOfSStable, ranges);
+
+    List<ForkJoinTask<List<SSTable>>> tasks = new ArrayList<>();
+    for (int i = 0; i < boundaries.size(); i++) {
+      byte[] from = boundaries.get(i);
+      byte[] to = i + 1 < boundaries.size() ? boundaries.get(i + 1) : null;
+      tasks.add(subcompactionPool.submit(() -> {
         try {
-          it.close();
+          return compactRange(listOfSStable, from, to, newTablePath, outputLevel, targetFileSize,
+              dropTombstones, snapshots);
         } catch (IOException e) {
-          System.err.println("Error closing SSTableIterator: " + e.getMessage());
+          throw new UncheckedIOException(e);
         }
+      }));
+    }
+    List<SSTable> outputs = new ArrayList<>();
+    Exception failure = null;
+    try {
+      outputs.addAll(compactRange(listOfSStable, null,
+          boundaries.isEmpty() ? null : boundaries.get(0), newTablePath, outputLevel, targetFileSize,
+          dropTombstones, snapshots));
+    } catch (IOException | RuntimeException e) {
+      failure = e;
+    }
+    // Wait for every range, even after a failure, so that no output is left behind.
+    for (ForkJoinTask<List<SSTable>> task : tasks) {
+      task.quietlyJoin();
+      if (task.isCompletedNormally()) {
+        outputs.addAll(task.getRawResult());
+        continue;
+      }
+      Throwable error = task.getException();
+      if (error instanceof UncheckedIOException) {
+        error = error.getCause();
+      }
+      if (failure == null) {
+        failure = error instanceof IOException || error instanceof RuntimeException
+            ? (Exception) error : new RuntimeException(error);
+      } else {
+        failure.addSuppressed(error);
+      }
+    }
+    if (failure != null) {
+      for (SSTable output : outputs) {
+        Files.deleteIfExists(output.getFilePath());
+      }
+      if (failure instanceof IOException) {
+        throw (IOException) failure;
       }
+      throw (RuntimeException) failure;
     }
+    recordCompaction(listOfSStable, outputs, start);
+    return outputs;
   }
 
-  private static class MergedIterator implements Iterator<Entry<String, String>> {
-    private final List<SSTableIterator> list;
-    private final PriorityQueue<MergeElement> heap;
-    private Entry<String, String> nextEntry;
-
-    public MergedIterator(List<SSTableIterator> list) {
-      this.list = list;
-      this.heap = new PriorityQueue<>((a, b) -> {
-        int res = a.entry.getKey().compareTo(b.entry.getKey());
-        if (res == 0) {return Integer.compare(b.indexOfSourceSSTable, a.indexOfSourceSSTable);}
-        return res;
-      });
-      this.nextEntry = null;
-
-      for (int i = 0; i < list.size(); i++) {
-        if (list.get(i).hasNext()) {
-          heap.offer(new MergeElement(i, list.get(i).next()));
-        }
+  /**
+   * Picks the keys at which the inputs are split into up to {@code ranges} key ranges of
+   * about the same size, using the first keys of their data blocks, which hold about the
+   * same number of bytes each, or the starts of their range deletions if they hold no
+   * data blocks. A range deletion is never split.
+   * @return The first key of every range but the first, in key order; empty if the
+   *         inputs are not split.
+   */
+  List<byte[]> subcompactionBoundaries(List<SSTable> inputs, int ranges) {
+    if (ranges < 2 || subcompactionPool == null) {
+      return List.of();
+    }
+    Comparator<byte[]> comparator = options.getComparator();
+    List<RangeTombstone> tombstones = new ArrayList<>();
+    List<byte[]> candidates = new ArrayList<>();
+    for (SSTable input : inputs) {
+      tombstones.addAll(input.rangeTombstones());
+      for (InternalKey key : input.blockKeys()) {
+        candidates.add(key.getUserKey());
+      }
+    }
+    if (candidates.isEmpty()) {
+      for (RangeTombstone tombstone : tombstones) {
+        candidates.add(tombstone.getStart());
+      }
+      if (candidates.isEmpty()) {
+        return List.of();
+      }
+    }
+    candidates.sort(comparator);
+    List<byte[]> boundaries = new ArrayList<>();
+    for (int i = 1; i < ranges; i++) {
+      byte[] candidate = candidates.get((int) ((long) i * candidates.size() / ranges));
+      candidate = beforeRangeTombstones(tombstones, candidate, comparator);
+      byte[] previous = boundaries.isEmpty() ? candidates.get(0)
+          : boundaries.get(boundaries.size() - 1);
+      if (comparator.compare(candidate, previous) > 0) {
+        boundaries.add(candidate);
       }
-      advance();
     }
+    return boundaries;
+  }
 
-    public void advance() {
-      while (true) {
-        if (heap.isEmpty()) {
-          nextEntry = null;
-          return;
+  /**
+   * @return {@code key}, or the start of the range deletions that would be split at it.
+   */
+  private static byte[] beforeRangeTombstones(List<RangeTombstone> tombstones, byte[] key,
+      Comparator<byte[]> comparator) {
+    boolean moved;
+    do {
+      moved = false;
+      for (RangeTombstone tombstone : tombstones) {
+        if (comparator.compare(tombstone.getStart(), key) < 0
+            && comparator.compare(tombstone.getEnd(), key) >= 0) {
+          key = tombstone.getStart();
+          moved = true;
         }
-        MergeElement currentMin = heap.poll();
-        int indexOfSourceSSTable = currentMin.indexOfSourceSSTable;
-        nextEntry = currentMin.entry;
-        String curKey = nextEntry.getKey();
+      }
+    } while (moved);
+    return key;
+  }
 
-        if (list.get(indexOfSourceSSTable).hasNext()) {
-          heap.offer(new MergeElement(indexOfSourceSSTable, list.get(indexOfSourceSSTable).next()));
+  /**
+   * Merges the entries of the inputs in {@code [from, to)}, and the range deletions that
+   * start there, into output tables of about {@code targetFileSize} bytes each.
+   * @param from The first key, or null to start at the smallest.
+   * @param to The key after the range, or null to run to the largest.
+   */
+  private List<SSTable> compactRange(List<SSTable> inputs, byte[] from, byte[] to,
+      Supplier<Path> newTablePath, int outputLevel, long targetFileSize,
+      boolean dropTombstones, long[] snapshots) throws IOException {
+    Comparator<byte[]> comparator = options.getComparator();
+    List<SSTableIterator> list = new ArrayList<>();
+    List<SSTable> outputs = new ArrayList<>();
+    try {
+      for (SSTable ssTable : inputs) {
+        SSTableIterator iterator = new SSTableIterator(ssTable);
+        if (from != null) {
+          iterator.seek(from);
         }
-
-        while (!heap.isEmpty() && heap.peek().entry.getKey().equals(curKey)) {
-          int duplicateTableIndex = heap.poll().indexOfSourceSSTable;
-          if (list.get(duplicateTableIndex).hasNext()) {
-            heap.offer(new MergeElement(duplicateTableIndex, list.get(duplicateTableIndex).next()));
-          }
+        list.add(iterator);
+      }
+      MergingIterator merged = MergingIterator.forCompaction(list, comparator, snapshots,
+          dropTombstones);
+      Deque<RangeTombstone> rangeTombstones = new ArrayDeque<>();
+      for (RangeTombstone tombstone : merged.rangeTombstones()) {
+        if ((from == null || comparator.compare(tombstone.getStart(), from) >= 0)
+            && (to == null || comparator.compare(tombstone.getStart(), to) < 0)) {
+          rangeTombstones.add(tombstone);
         }
-
-        if (nextEntry.getValue().equals(Constants.TOMBSTONE)) {
-          continue;
+      }
+      SizeLimitedIterator part;
+      do {
+        part = new SizeLimitedIterator(merged, to, targetFileSize, rangeTombstones, comparator);
+        if (!part.hasRemaining()) {
+          break;
         }
-        break;
+        outputs.add(writeOutput(part, newTablePath.get(), outputLevel));
+      } while (true);
+      return outputs;
+    } catch (IOException | RuntimeException e) {
+      for (SSTable output : outputs) {
+        Files.deleteIfExists(output.getFilePath());
       }
+      throw e;
+    } finally {
+      closeAll(list);
+    }
+  }
+
+  private SSTable writeOutput(SizeLimitedIterator part, Path filePath, int outputLevel)
+      throws IOException {
+    SSTableWriter writer = new SSTableWriter(filePath, outputLevel, options);
+    try {
+      while (part.hasNext()) {
+        InternalEntry entry = part.next();
+        writer.add(entry.getKey(), entry.getSequence(), entry.getValue());
+      }
+      for (RangeTombstone tombstone : part.takeRangeTombstones()) {
+        writer.addRangeTombstone(tombstone);
+      }
+    } catch (IOException | RuntimeException e) {
+      writer.abort();
+      throw e;
+    }
+    return writer.finish();
+  }
+
+  private void recordCompaction(List<SSTable> inputs, List<SSTable> outputs, long startNanos) {
+    Statistics statistics = options.getStatistics();
+    for (SSTable input : inputs) {
+      statistics.record(Statistics.Ticker.COMPACTION_BYTES_READ, input.getFileSize());
+    }
+    for (SSTable output : outputs) {
+      statistics.record(Statistics.Ticker.COMPACTION_BYTES_WRITTEN, output.getFileSize());
+    }
+    statistics.recordSince(Statistics.HistogramType.COMPACTION, startNanos);
+  }
+
+  private static void closeAll(List<SSTableIterator> list) {
+    for (SSTableIterator it : list) {
+      it.close();
+    }
+  }
+
+  /**
+   * Passes entries before {@code end} through until roughly {@code limit} bytes of entries
+   * have been returned. The versions of one key are never split, and neither is the range
+   * of a range deletion, so that output tables do not overlap.
+   */
+  private static class SizeLimitedIterator implements Iterator<InternalEntry> {
+    private final MergingIterator source;
+    /** The key the range ends before, or null. */
+    private final byte[] end;
+    private final long limit;
+    /** Range deletions not yet written to a table, by start key; shared by all parts. */
+    private final Deque<RangeTombstone> rangeTombstones;
+    private final Comparator<byte[]> comparator;
+    private long returnedBytes;
+    private byte[] lastKey;
+
+    SizeLimitedIterator(MergingIterator source, byte[] end, long limit,
+        Deque<RangeTombstone> rangeTombstones, Comparator<byte[]> comparator) {
+      this.source = source;
+      this.end = end;
+      this.limit = limit;
+      this.rangeTombstones = rangeTombstones;
+      this.comparator = comparator;
+      this.returnedBytes = 0L;
+    }
+
+    /**
+     * @return The key of the next entry of the range, or null at its end.
+     */
+    private byte[] peekKey() {
+      if (!source.hasNext()) {
+        return null;
+      }
+      byte[] key = source.peek().getKey();
+      return end == null || comparator.compare(key, end) < 0 ? key : null;
+    }
+
+    /**
+     * @return Whether the range holds anything more to write, entries or range deletions.
+     */
+    boolean hasRemaining() {
+      return peekKey() != null || !rangeTombstones.isEmpty();
     }
 
     @Override
-    public boolean hasNext() { return nextEntry != null;}
+    public boolean hasNext() {
+      byte[] key = peekKey();
+      if (key == null) {
+        return false;
+      }
+      return returnedBytes < limit || Arrays.equals(key, lastKey) || splitsRangeTombstone(key);
+    }
+
+    /**
+     * @return Whether a table ending before {@code key} would cut a range deletion, whose
+     *         range, end key included, must lie within one table.
+     */
+    private boolean splitsRangeTombstone(byte[] key) {
+      for (RangeTombstone tombstone : rangeTombstones) {
+        if (comparator.compare(tombstone.getStart(), key) >= 0) {
+          return false;
+        }
+        if (comparator.compare(tombstone.getEnd(), key) >= 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Called once the part is exhausted.
+     * @return The range deletions that start before the next part, or all that are left
+     *         if there is none.
+     */
+    List<RangeTombstone> takeRangeTombstones() {
+      byte[] next = peekKey();
+      List<RangeTombstone> taken = new ArrayList<>();
+      while (!rangeTombstones.isEmpty() && (next == null
+          || comparator.compare(rangeTombstones.peekFirst().getStart(), next) < 0)) {
+        taken.add(rangeTombstones.pollFirst());
+      }
+      return taken;
+    }
 
     @Override
-    public Entry<String, String> next() {
+    public InternalEntry next() {
       if (!hasNext()) {
         throw new NoSuchElementException();
       }
-      Entry<String, String> result = nextEntry;
-      advance();
-      return result;
+      InternalEntry entry = source.next();
+      returnedBytes += 4 + entry.getKey().length + Long.BYTES + 4 + entry.getValue().length;
+      lastKey = entry.getKey();
+      return entry;
     }
   }
 }
@@ -0,0 +1,102 @@
+package com.andrea.lsm.sstable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec applied to SSTable data blocks. Each stored block starts with the id of its codec,
+ * so tables written with different settings, and blocks that did not compress well
+ * enough and were stored raw, can be read side by side.
+ * <p>
+ * All codecs are implemented in Java and need no native libraries.
+ */
+public enum CompressionType {
+  NONE(0),
+  /** Fast compression with a moderate ratio, for levels that are rewritten often. */
+  LZ4(1),
+  /** Slower compression with a better ratio, for the bottom levels. */
+  DEFLATE(2);
+
+  private final byte id;
+
+  CompressionType(int id) {
+    this.id = (byte) id;
+  }
+
+  byte id() {
+    return id;
+  }
+
+  static CompressionType fromId(byte id) throws IOException {
+    for (CompressionType type : values()) {
+      if (type.id == id) {
+        return type;
+      }
+    }
+    throw new IOException("Unknown block compression type " + id);
+  }
+
+  byte[] compress(byte[] raw) {
+    switch (this) {
+      case LZ4:
+        return com.andrea.lsm.sstable.LZ4.compress(raw);
+      case DEFLATE:
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+          deflater.setInput(raw);
+          deflater.finish();
+          ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+          byte[] chunk = new byte[4096];
+          while (!deflater.finished()) {
+            out.write(chunk, 0, deflater.deflate(chunk));
+          }
+          return out.toByteArray();
+        } finally {
+          deflater.end();
+        }
+      default:
+        return raw;
+    }
+  }
+
+  /**
+   * @param compressed The compressed bytes, from position to limit; not modified.
+   * @param uncompressedLength The exact size of the original block.
+   */
+  byte[] decompress(ByteBuffer compressed, int uncompressedLength) throws IOException {
+    switch (this) {
+      case LZ4:
+        return com.andrea.lsm.sstable.LZ4.decompress(compressed, uncompressedLength);
+      case DEFLATE:
+        Inflater inflater = new Inflater(true);
+        try {
+          inflater.setInput(compressed.duplicate());
+          byte[] raw = new byte[uncompressedLength];
+          int n = 0;
+          while (n < uncompressedLength && !inflater.finished()) {
+            int inflated = inflater.inflate(raw, n, uncompressedLength - n);
+            if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+              break;
+            }
+            n += inflated;
+          }
+          if (n != uncompressedLength) {
+            throw new IOException("Corrupted deflate block: expected " + uncompressedLength + " bytes, got " + n);
+          }
+          return raw;
+        } catch (DataFormatException e) {
+          throw new IOException("Corrupted deflate block", e);
+        } finally {
+          inflater.end();
+        }
+      default:
+        byte[] raw = new byte[compressed.remaining()];
+        compressed.get(compressed.position(), raw);
+        return raw;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package com.andrea.lsm.sstable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed-size trailer of an SSTable file, locating its index, bloom filter and meta blocks.
+ * <pre>
+ * [data block]...[data block][index block][bloom filter block][range deletion block]
+ * [meta block][footer]
+ *
+ * footer: indexOffset(8) indexSize(8) bloomOffset(8) bloomSize(8)
+ *         metaOffset(8) metaSize(8) formatVersion(4) magic(8)
+ * </pre>
+ * The magic number comes last so a reader can tell a footer apart from the legacy format,
+ * which has no trailer at all.
+ */
+class Footer {
+  static final long MAGIC = 0x4c534d5353544142L; // "LSMSSTAB"
+  /**
+   * The only footer format: data blocks with restart points, each prefixed with its
+   * {@link CompressionType}; keys carrying a sequence number, in the data blocks and the
+   * index; a {@link BlockedBloomFilter}; a range deletion block; and a meta block ending
+   * with the global sequence number of an ingested table.
+   */
+  static final int FORMAT_VERSION = 1;
+  static final int SIZE = 6 * Long.BYTES + Integer.BYTES + Long.BYTES;
+
+  final int version;
+  final BlockInfo index;
+  final BlockInfo bloom;
+  final BlockInfo meta;
+
+  Footer(BlockInfo index, BlockInfo bloom, BlockInfo meta) {
+    this(FORMAT_VERSION, index, bloom, meta);
+  }
+
+  private Footer(int version, BlockInfo index, BlockInfo bloom, BlockInfo meta) {
+    this.version = version;
+    this.index = index;
+    this.bloom = bloom;
+    this.meta = meta;
+  }
+
+  byte[] encode() {
+    ByteBuffer buf = ByteBuffer.allocate(SIZE);
+    for (BlockInfo info : new BlockInfo[] {index, bloom, meta}) {
+      buf.putLong(info.offset);
+      buf.putLong(info.size);
+    }
+    buf.putInt(version);
+    buf.putLong(MAGIC);
+    return buf.array();
+  }
+
+  /**
+   * @return Whether {@code buf}, holding the last {@link #SIZE} bytes of a file, ends with
+   *         the footer magic number.
+   */
+  static boolean hasMagic(ByteBuffer buf) {
+    return buf.getLong(SIZE - Long.BYTES) == MAGIC;
+  }
+
+  static Footer decode(ByteBuffer buf) throws IOException {
+    int version = buf.getInt(6 * Long.BYTES);
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported sstable format version " + version);
+    }
+    BlockInfo index = new BlockInfo(buf.getLong(0), buf.getLong(8));
+    BlockInfo bloom = new BlockInfo(buf.getLong(16), buf.getLong(24));
+    BlockInfo meta = new BlockInfo(buf.getLong(32), buf.getLong(40));
+    return new Footer(version, index, bloom, meta);
+  }
+}
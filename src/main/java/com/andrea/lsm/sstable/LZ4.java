@@ -0,0 +1,147 @@
+package com.andrea.lsm.sstable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Pure-Java compressor and decompressor for the LZ4 block format.
+ * <p>
+ * The compressor is the single-pass greedy matcher of the reference implementation's
+ * fast mode: it favours speed over ratio, which suits data that is read far more often
+ * than it is written.
+ */
+final class LZ4 {
+  private static final int MIN_MATCH = 4;
+  private static final int HASH_LOG = 12;
+  private static final int MAX_OFFSET = 65535;
+  /** The format requires the last match to start at least 12 bytes before the end. */
+  private static final int MF_LIMIT = 12;
+  /** ... and the last 5 bytes to be literals. */
+  private static final int LAST_LITERALS = 5;
+
+  private LZ4() {
+  }
+
+  static byte[] compress(byte[] src) {
+    int n = src.length;
+    byte[] dst = new byte[n + n / 255 + 16];
+    int[] table = new int[1 << HASH_LOG];
+    int anchor = 0;
+    int op = 0;
+
+    if (n >= MF_LIMIT + 1) {
+      int ip = 0;
+      int matchLimit = n - MF_LIMIT;
+      while (ip < matchLimit) {
+        int sequence = readIntLE(src, ip);
+        int h = (sequence * -1640531535) >>> (32 - HASH_LOG);
+        // Table entries hold position + 1 so that 0 means empty.
+        int ref = table[h] - 1;
+        table[h] = ip + 1;
+        if (ref < 0 || ip - ref > MAX_OFFSET || readIntLE(src, ref) != sequence) {
+          ip++;
+          continue;
+        }
+        int matchLength = MIN_MATCH;
+        while (ip + matchLength < n - LAST_LITERALS && src[ref + matchLength] == src[ip + matchLength]) {
+          matchLength++;
+        }
+        op = writeSequence(dst, op, src, anchor, ip - anchor, ip - ref, matchLength);
+        ip += matchLength;
+        anchor = ip;
+      }
+    }
+    op = writeLiterals(dst, op, src, anchor, n - anchor, 0);
+    return Arrays.copyOf(dst, op);
+  }
+
+  private static int writeSequence(byte[] dst, int op, byte[] src, int literalStart,
+      int literalLength, int offset, int matchLength) {
+    int matchCode = matchLength - MIN_MATCH;
+    op = writeLiterals(dst, op, src, literalStart, literalLength, Math.min(matchCode, 15));
+    dst[op++] = (byte) offset;
+    dst[op++] = (byte) (offset >>> 8);
+    if (matchCode >= 15) {
+      op = writeLength(dst, op, matchCode - 15);
+    }
+    return op;
+  }
+
+  private static int writeLiterals(byte[] dst, int op, byte[] src, int start, int length, int matchNibble) {
+    dst[op++] = (byte) ((Math.min(length, 15) << 4) | matchNibble);
+    if (length >= 15) {
+      op = writeLength(dst, op, length - 15);
+    }
+    System.arraycopy(src, start, dst, op, length);
+    return op + length;
+  }
+
+  private static int writeLength(byte[] dst, int op, int remaining) {
+    while (remaining >= 255) {
+      dst[op++] = (byte) 255;
+      remaining -= 255;
+    }
+    dst[op++] = (byte) remaining;
+    return op;
+  }
+
+  private static int readIntLE(byte[] b, int i) {
+    return (b[i] & 0xff) | (b[i + 1] & 0xff) << 8 | (b[i + 2] & 0xff) << 16 | (b[i + 3] & 0xff) << 24;
+  }
+
+  /**
+   * @param src The compressed bytes, from position to limit; not modified.
+   * @param uncompressedLength The exact size of the original data.
+   */
+  static byte[] decompress(ByteBuffer src, int uncompressedLength) throws IOException {
+    byte[] dst = new byte[uncompressedLength];
+    int ip = src.position();
+    int end = src.limit();
+    int op = 0;
+    try {
+      while (ip < end) {
+        int token = src.get(ip++) & 0xff;
+        int literalLength = token >>> 4;
+        if (literalLength == 15) {
+          int b;
+          do {
+            b = src.get(ip++) & 0xff;
+            literalLength += b;
+          } while (b == 255);
+        }
+        src.get(ip, dst, op, literalLength);
+        ip += literalLength;
+        op += literalLength;
+        if (ip >= end) {
+          break;
+        }
+
+        int offset = (src.get(ip) & 0xff) | (src.get(ip + 1) & 0xff) << 8;
+        ip += 2;
+        int matchLength = (token & 0x0f) + MIN_MATCH;
+        if ((token & 0x0f) == 15) {
+          int b;
+          do {
+            b = src.get(ip++) & 0xff;
+            matchLength += b;
+          } while (b == 255);
+        }
+        int ref = op - offset;
+        if (offset == 0 || ref < 0) {
+          throw new IOException("Corrupted LZ4 block: bad match offset " + offset);
+        }
+        // Matches may overlap their own output, so copy byte by byte.
+        for (int i = 0; i < matchLength; i++) {
+          dst[op++] = dst[ref++];
+        }
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new IOException("Corrupted LZ4 block", e);
+    }
+    if (op != uncompressedLength) {
+      throw new IOException("Corrupted LZ4 block: expected " + uncompressedLength + " bytes, got " + op);
+    }
+    return dst;
+  }
+}
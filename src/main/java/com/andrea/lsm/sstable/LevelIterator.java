@@ -0,0 +1,100 @@
+package com.andrea.lsm.sstable;
+
+import com.andrea.lsm.iterator.InternalEntry;
+import com.andrea.lsm.iterator.RangeTombstone;
+import com.andrea.lsm.iterator.SeekingIterator;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over a sorted, non-overlapping level as if it were one table, opening each
+ * table only when the iteration reaches it.
+ */
+class LevelIterator implements SeekingIterator {
+  private final List<SSTable> tables;
+  private final Comparator<byte[]> comparator;
+  private int nextTable;
+  private SSTableIterator current;
+
+  /**
+   * @param tables The tables of a level other than 0, in key order.
+   * @param comparator The order of user keys.
+   */
+  LevelIterator(List<SSTable> tables, Comparator<byte[]> comparator) {
+    this.tables = tables;
+    this.comparator = comparator;
+    this.nextTable = 0;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (current == null || !current.hasNext()) {
+      if (nextTable >= tables.size()) {
+        return false;
+      }
+      current = open(tables.get(nextTable++));
+    }
+    return true;
+  }
+
+  @Override
+  public InternalEntry next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return current.next();
+  }
+
+  /**
+   * @return The range deletions of every table of the level.
+   */
+  @Override
+  public List<RangeTombstone> rangeTombstones() {
+    List<RangeTombstone> tombstones = new ArrayList<>();
+    for (SSTable table : tables) {
+      tombstones.addAll(table.rangeTombstones());
+    }
+    return tombstones;
+  }
+
+  @Override
+  public void seek(byte[] target) {
+    // The first table whose largest key is not below the target.
+    int low = 0;
+    int high = tables.size() - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      byte[] maxKey = tables.get(mid).getMaxKey();
+      if (maxKey == null || comparator.compare(maxKey, target) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    close();
+    nextTable = low;
+    if (nextTable < tables.size()) {
+      current = open(tables.get(nextTable++));
+      current.seek(target);
+    }
+  }
+
+  private static SSTableIterator open(SSTable table) {
+    try {
+      return new SSTableIterator(table);
+    } catch (IOException e) {
+      throw new RuntimeException("Error opening SSTable " + table.getFilePath(), e);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (current != null) {
+      current.close();
+      current = null;
+    }
+  }
+}
@@ -1,65 +1,258 @@
 package com.andrea.lsm.sstable;
 
+import com.andrea.lsm.iterator.FragmentedRangeTombstones;
+import com.andrea.lsm.iterator.InternalEntry;
+import com.andrea.lsm.iterator.InternalKey;
+import com.andrea.lsm.iterator.InternalKeyComparator;
+import com.andrea.lsm.iterator.RangeTombstone;
 import com.andrea.lsm.memtable.Memtable;
-import com.google.common.hash.BloomFilter;
-import com.google.common.hash.Funnels;
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
+import com.andrea.lsm.statistics.Statistics;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.charset.StandardCharsets;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import util.Bytes;
 import util.Constants;
 import util.IOUtils;
+import util.Options;
 
 public class SSTable {
+  /**
+   * How the data blocks of an SSTable are read.
+   */
+  public enum ReadMode {
+    /** Positional reads through a pooled file handle, with blocks kept in the {@link BlockCache}. */
+    PREAD,
+    /**
+     * The whole file is mapped read-only and blocks are decoded in place. The OS page cache
+     * takes the place of the {@link BlockCache}, and mapped tables hold no file handle.
+     */
+    MMAP
+  }
+
+  /** Source of process-unique ids, used to key this table's blocks in the {@link BlockCache}. */
+  private static final AtomicLong NEXT_FILE_ID = new AtomicLong();
+  /** The last number handed out by {@link #generateSSTablePath(Path)}. */
+  private static final AtomicLong NEXT_GENERATED_NUMBER = new AtomicLong();
+
   private final Path filePath;
-  private BloomFilter<String> bloomFilter;
-  private final TreeMap<String, BlockInfo> blocks;
-  private String maxKey;
-  private String minKey;
+  private final long fileId;
+  private final BlockCache blockCache;
+  private final TableCache tableCache;
+  /** Long-lived read handle, opened lazily and possibly closed by the {@link TableCache}. */
+  private final AtomicReference<FileChannel> channel;
+  /** CLOCK bit for the {@link TableCache}; set on every read. */
+  private volatile boolean referenced;
+  private final ReadMode readMode;
+  /** Whole-file mapping under {@link ReadMode#MMAP}, created on first read. */
+  private volatile MappedByteBuffer mapped;
+  /** Null if the table was written without a filter. */
+  private BlockedBloomFilter bloomFilter;
+  private final Options options;
+  private final Statistics statistics;
+  /** Order of the user keys, from {@link Options#getComparator()}. */
+  private final Comparator<byte[]> comparator;
+  /** Data blocks by the internal key of their first entry. */
+  private final TreeMap<InternalKey, BlockInfo> blocks;
+  private byte[] maxKey;
+  private byte[] minKey;
+  private long entryCount;
+  private long maxSequence;
+  /** Range deletions stored with the table; the key range includes them. */
+  private List<RangeTombstone> rangeTombstones;
+  /** {@link #rangeTombstones} as fragments, for point lookups. */
+  private FragmentedRangeTombstones rangeDeletions;
+  /**
+   * Sequence number of every entry of an ingested table, whose keys are all stored with
+   * sequence 0; 0 for any other table.
+   */
+  private volatile long globalSequence;
+  /** File offset of the global sequence number, or -1 if the format has none. */
+  private long globalSequenceOffset;
+  private long fileSize;
+  /**
+   * Whether the file predates the footer: its data blocks are plain entries without a
+   * compression header, restart points or sequence numbers.
+   */
+  private boolean legacyFormat;
 
-  private static final int MAX_BLOCK_SIZE = 4000;
+  static final int MAX_BLOCK_SIZE = 4000;
+  private static final int MAX_READ_ATTEMPTS = 3;
 
-  public SSTable(Path filePath, BloomFilter bloomFilter, TreeMap<String, BlockInfo> blocks, String maxKey, String minKey) {
+  SSTable(Path filePath, BlockedBloomFilter bloomFilter, TreeMap<InternalKey, BlockInfo> blocks,
+      byte[] maxKey, byte[] minKey, long entryCount, long maxSequence, long globalSequenceOffset,
+      List<RangeTombstone> rangeTombstones, Options options) {
     this.filePath = filePath;
+    this.fileId = NEXT_FILE_ID.incrementAndGet();
+    this.blockCache = options.getBlockCache();
+    this.tableCache = options.getTableCache();
+    this.options = options;
+    this.statistics = options.getStatistics();
+    this.comparator = options.getComparator();
+    this.channel = new AtomicReference<>();
+    this.readMode = options.getReadMode();
     this.bloomFilter = bloomFilter;
     this.blocks = blocks;
     this.maxKey = maxKey;
     this.minKey = minKey;
+    this.entryCount = entryCount;
+    this.maxSequence = maxSequence;
+    this.globalSequenceOffset = globalSequenceOffset;
+    this.rangeTombstones = List.copyOf(rangeTombstones);
+    this.rangeDeletions = new FragmentedRangeTombstones(this.rangeTombstones, comparator);
+    this.fileSize = filePath.toFile().length();
   }
 
   public SSTable(Path filePath) throws IOException {
+    this(filePath, new Options());
+  }
+
+  public SSTable(Path filePath, Options options) throws IOException {
     this.filePath = filePath;
-    this.blocks = new TreeMap<>();
+    this.fileId = NEXT_FILE_ID.incrementAndGet();
+    this.blockCache = options.getBlockCache();
+    this.tableCache = options.getTableCache();
+    this.options = options;
+    this.statistics = options.getStatistics();
+    this.comparator = options.getComparator();
+    this.channel = new AtomicReference<>();
+    this.readMode = options.getReadMode();
+    this.blocks = new TreeMap<>(new InternalKeyComparator(comparator));
     this.maxKey = null;
     this.minKey = null;
+    this.rangeTombstones = List.of();
+    this.rangeDeletions = new FragmentedRangeTombstones(rangeTombstones, comparator);
+    this.globalSequenceOffset = -1L;
+    this.fileSize = Files.size(filePath);
     init();
+    if (readMode == ReadMode.MMAP) {
+      // Mapped tables read through the mapping; do not hold on to the handle used by init.
+      tableCache.unregister(this);
+      closeChannel();
+    }
   }
 
+  /**
+   * Loads the block index, bloom filter, range deletions and metadata through the footer,
+   * without touching the data blocks. Files written before the footer existed are scanned.
+   */
   private void init() throws IOException {
+    if (fileSize >= Footer.SIZE) {
+      ByteBuffer trailer = ByteBuffer.allocate(Footer.SIZE);
+      read(trailer, fileSize - Footer.SIZE);
+      if (Footer.hasMagic(trailer)) {
+        Footer footer = Footer.decode(trailer);
+        loadIndex(readRange(footer.index));
+        if (footer.bloom.size > 0) {
+          this.bloomFilter = BlockedBloomFilter.readFrom(readRange(footer.bloom));
+        }
+        loadRangeDeletions(readRange(loadMeta(readRange(footer.meta))));
+        this.globalSequenceOffset = footer.meta.offset + footer.meta.size - Long.BYTES;
+        return;
+      }
+    }
+    this.legacyFormat = true;
+    initFromLegacyScan();
+  }
+
+  private ByteBuffer readRange(BlockInfo info) throws IOException {
+    if (info.offset < 0 || info.size < 0 || info.offset + info.size > fileSize - Footer.SIZE) {
+      throw new IOException("Corrupted sstable footer in " + filePath);
+    }
+    ByteBuffer buf = ByteBuffer.allocate((int) info.size);
+    read(buf, info.offset);
+    return buf.flip();
+  }
+
+  private void loadIndex(ByteBuffer index) {
+    int count = index.getInt();
+    for (int i = 0; i < count; i++) {
+      byte[] firstKey = readBytes(index);
+      long sequence = index.getLong();
+      blocks.put(new InternalKey(firstKey, sequence), new BlockInfo(index.getLong(), index.getLong()));
+    }
+  }
+
+  /**
+   * @return Where the range deletion block is.
+   */
+  private BlockInfo loadMeta(ByteBuffer meta) {
+    this.entryCount = meta.getLong();
+    this.minKey = readBytes(meta);
+    this.maxKey = readBytes(meta);
+    this.maxSequence = meta.getLong();
+    BlockInfo rangeDeletions = new BlockInfo(meta.getLong(), meta.getLong());
+    this.globalSequence = meta.getLong();
+    return rangeDeletions;
+  }
+
+  private void loadRangeDeletions(ByteBuffer block) {
+    int count = block.getInt();
+    RangeTombstone[] tombstones = new RangeTombstone[count];
+    for (int i = 0; i < count; i++) {
+      byte[] start = readBytes(block);
+      byte[] end = readBytes(block);
+      tombstones[i] = new RangeTombstone(start, block.getLong(), end);
+    }
+    this.rangeTombstones = List.of(tombstones);
+    this.rangeDeletions = new FragmentedRangeTombstones(rangeTombstones, comparator);
+  }
+
+  /**
+   * Reads a length-prefixed byte string, where length -1 stands for null.
+   */
+  private static byte[] readBytes(ByteBuffer buf) {
+    int len = buf.getInt();
+    if (len < 0) {
+      return null;
+    }
+    byte[] bytes = new byte[len];
+    buf.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Rebuilds the block index and bloom filter of a legacy, footer-less file by reading
+   * every entry. The level of such a file is unknown, so its filter uses the level-0
+   * bits per key.
+   */
+  private void initFromLegacyScan() throws IOException {
     long startOfBlock = 0L;
     long lenOfBlock = 0L;
-    String firstKeyInBlock = null;
-    this.bloomFilter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), Constants.EXPECTED_INSERTIONS, Constants.FALSE_POSITIVE_PROBABILITY);
+    byte[] firstKeyInBlock = null;
+    long[] keyHashes = new long[64];
 
     try (RandomAccessFile raf = new RandomAccessFile(String.valueOf(filePath), "r")) {
       while (raf.getFilePointer() <raf.length()) {
         long startOfCurEntry = raf.getFilePointer();
-        String key = IOUtils.readNextString(raf);
-        bloomFilter.put(key);
+        byte[] key = IOUtils.readNextBytes(raf);
+        if (entryCount == keyHashes.length) {
+          keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+        }
+        keyHashes[(int) entryCount++] = BlockedBloomFilter.hash(key);
         int lenOfValue = raf.readInt();
         raf.skipBytes(lenOfValue);
         long lenOfEntry = raf.getFilePointer() - startOfCurEntry;
 
         if (lenOfEntry + lenOfBlock > MAX_BLOCK_SIZE && firstKeyInBlock != null) {
           // Record the block.
-          this.blocks.put(firstKeyInBlock, new BlockInfo(startOfBlock, lenOfBlock));
+          this.blocks.put(new InternalKey(firstKeyInBlock, 0L), new BlockInfo(startOfBlock, lenOfBlock));
           // Update for a new block.
           startOfBlock = startOfCurEntry;
           lenOfBlock = 0L;
@@ -77,14 +270,55 @@ public class SSTable {
       }
 
       if (firstKeyInBlock != null) {
-        this.blocks.put(firstKeyInBlock, new BlockInfo(startOfBlock, lenOfBlock));
+        this.blocks.put(new InternalKey(firstKeyInBlock, 0L), new BlockInfo(startOfBlock, lenOfBlock));
       }
     }
+    int bitsPerKey = options.getBloomBitsPerKey(0);
+    if (bitsPerKey > 0) {
+      this.bloomFilter = BlockedBloomFilter.create(keyHashes, (int) entryCount, bitsPerKey);
+    }
   }
 
+  /**
+   * @return A path for a table written outside a database, numbered above every SSTable
+   *         file in {@code rootPath} and every path returned before. A database names its
+   *         tables with {@link com.andrea.lsm.manifest.Manifest#newSSTablePath()}.
+   */
   public static Path generateSSTablePath(Path rootPath) {
-    String fileName = Constants.SSTABLE_PREFIX + System.nanoTime() + Constants.SSTABLE_FILE_EXTENSION;
-    return rootPath.resolve(fileName);
+    long largest = 0L;
+    try (Stream<Path> files = Files.list(rootPath)) {
+      largest = files.mapToLong(SSTable::fileNumber).max().orElse(0L);
+    } catch (IOException e) {
+      // A directory that cannot be listed holds no table to collide with.
+    }
+    return sstablePath(rootPath, NEXT_GENERATED_NUMBER.accumulateAndGet(largest,
+        (previous, onDisk) -> Math.max(previous, onDisk) + 1));
+  }
+
+  /**
+   * @return The path of the SSTable file numbered {@code fileNumber} in {@code rootPath}.
+   */
+  public static Path sstablePath(Path rootPath, long fileNumber) {
+    return rootPath.resolve(String.format("%s%06d%s", Constants.SSTABLE_PREFIX, fileNumber,
+        Constants.SSTABLE_FILE_EXTENSION));
+  }
+
+  /**
+   * @return The number in the name of an SSTable file, or -1 if {@code path} does not
+   *         name one.
+   */
+  public static long fileNumber(Path path) {
+    String name = path.getFileName().toString();
+    if (!name.startsWith(Constants.SSTABLE_PREFIX)
+        || !name.endsWith(Constants.SSTABLE_FILE_EXTENSION)) {
+      return -1L;
+    }
+    try {
+      return Long.parseLong(name.substring(Constants.SSTABLE_PREFIX.length(),
+          name.length() - Constants.SSTABLE_FILE_EXTENSION.length()));
+    } catch (NumberFormatException e) {
+      return -1L;
+    }
   }
 
   public static SSTable createSSTableFromMemtable(Memtable memtable) throws IOException{
@@ -92,125 +326,390 @@ public class SSTable {
   }
 
   public static SSTable createSSTableFromMemtable(Memtable memtable, Path rootPath) throws IOException {
-    return createSSTableFromIterator(memtable.iterator(), generateSSTablePath(rootPath));
+    return createSSTableFromMemtable(memtable, rootPath, new Options());
   }
 
-  public static SSTable createSSTableFromIterator(Iterator<Entry<String, String>> iterator, Path filePath) throws IOException {
-    Path folder = filePath.getParent();
-    if (folder != null) {
-      Files.createDirectories(folder);
-    }
-
-    BloomFilter<String> bloomFilter = BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8),
-        Constants.EXPECTED_INSERTIONS, Constants.FALSE_POSITIVE_PROBABILITY);
-    TreeMap<String, BlockInfo> blocks = new TreeMap<>();//<firstKey, blockInfor>
-    String minKey = null;
-    String maxKey = null;
-
-    try (RandomAccessFile raf = new RandomAccessFile(String.valueOf(filePath), "rw")) {
-      long startOfBlock = 0L;
-      long lenOfBlock = 0L;
-      String firstKeyInBlock = null;
+  public static SSTable createSSTableFromMemtable(Memtable memtable, Path rootPath, Options options)
+      throws IOException {
+    return createSSTableFromIterator(memtable.iterator(), memtable.rangeTombstones(),
+        generateSSTablePath(rootPath), 0, options);
+  }
 
-      while (iterator.hasNext()) {
-        Entry<String, String> entry = iterator.next();
-        String key = entry.getKey();
-        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
-        byte[] valueBytes = entry.getValue().getBytes(StandardCharsets.UTF_8);
-        long lenOfEntry = 4 + keyBytes.length + 4 + valueBytes.length;
-
-        if (lenOfBlock + lenOfEntry > MAX_BLOCK_SIZE && firstKeyInBlock != null) {
-          // out of block capacity: store this block
-          blocks.put(firstKeyInBlock, new BlockInfo(startOfBlock, lenOfBlock));
-          // update for new block
-          startOfBlock = raf.getFilePointer();
-          firstKeyInBlock = null;
-          lenOfBlock = 0L;
-        }
+  public static SSTable createSSTableFromIterator(Iterator<InternalEntry> iterator, Path filePath) throws IOException {
+    return createSSTableFromIterator(iterator, filePath, new Options());
+  }
 
-        if (firstKeyInBlock == null) {
-          firstKeyInBlock = key;
-        }
+  public static SSTable createSSTableFromIterator(Iterator<InternalEntry> iterator,
+      Path filePath, Options options) throws IOException {
+    return createSSTableFromIterator(iterator, filePath, 0, options);
+  }
 
-        raf.writeInt(keyBytes.length);
-        raf.write(keyBytes);
-        raf.writeInt(valueBytes.length);
-        raf.write(valueBytes);
-        bloomFilter.put(key);
+  /**
+   * Writes the entries of {@code iterator}, which must be in increasing
+   * {@link InternalKey} order, into a new SSTable.
+   * @param level The level the table is written for, which selects per-level settings
+   *              such as the bloom filter bits per key.
+   */
+  public static SSTable createSSTableFromIterator(Iterator<InternalEntry> iterator,
+      Path filePath, int level, Options options) throws IOException {
+    return createSSTableFromIterator(iterator, List.of(), filePath, level, options);
+  }
 
-        if (minKey == null) {
-          minKey = key;
-        }
-        maxKey = key;
-        lenOfBlock += lenOfEntry;
+  /**
+   * Like {@link #createSSTableFromIterator(Iterator, Path, int, Options)}, storing
+   * {@code rangeTombstones} with the entries.
+   */
+  public static SSTable createSSTableFromIterator(Iterator<InternalEntry> iterator,
+      List<RangeTombstone> rangeTombstones, Path filePath, int level, Options options)
+      throws IOException {
+    SSTableWriter writer = new SSTableWriter(filePath, level, options);
+    try {
+      for (RangeTombstone tombstone : rangeTombstones) {
+        writer.addRangeTombstone(tombstone);
       }
-
-      if (firstKeyInBlock != null) {
-        // store the last block
-        blocks.put(firstKeyInBlock, new BlockInfo(startOfBlock, lenOfBlock));
+      while (iterator.hasNext()) {
+        InternalEntry entry = iterator.next();
+        writer.add(entry.getKey(), entry.getSequence(), entry.getValue());
       }
+    } catch (IOException | RuntimeException e) {
+      writer.abort();
+      throw e;
     }
-    return new SSTable(filePath, bloomFilter, blocks, maxKey, minKey);
+    return writer.finish();
   }
 
   /**
    * Search in current memtable
-   * @param key The key db asks for.
+   * @param key The key db asks for, as UTF-8.
    * @return Null if not found or val coresponding to key.
    */
   public String get(String key) {
-    if (key.compareTo(maxKey) > 0 || key.compareTo(minKey) < 0) {
+    return Bytes.string(get(Bytes.of(key), InternalKey.MAX_SEQUENCE));
+  }
+
+  /**
+   * Looks up the newest version of {@code key} written at or before {@code sequence}.
+   * @return Null if there is no such version, otherwise its raw value, which is
+   *         {@link Bytes#tombstone()} if a range deletion of this table hides the key.
+   */
+  public byte[] get(byte[] key, long sequence) {
+    if (minKey == null || globalSequence > sequence) {
+      // empty sstable, or ingested after the snapshot.
+      return null;
+    }
+    if (comparator.compare(key, maxKey) > 0 || comparator.compare(key, minKey) < 0) {
       // not in current sstable.
       return null;
     }
+    long deletedAt = rangeDeletions.newestCovering(key, sequence);
 
-    if (!bloomFilter.mightContain(key)) {
-      return null;
+    if (bloomFilter != null && !bloomFilter.mightContain(BlockedBloomFilter.hash(key))) {
+      statistics.record(Statistics.Ticker.BLOOM_FILTER_USEFUL);
+      return deletedAt >= 0 ? Bytes.tombstone() : null;
     }
 
-    Map.Entry<String, BlockInfo> entry = blocks.floorEntry(key);
+    try {
+      Block.Cursor cursor = seekCursor(key, sequence);
+      boolean found = cursor != null && cursor.keyEquals(key);
+      if (bloomFilter != null) {
+        statistics.record(found
+            ? Statistics.Ticker.BLOOM_FILTER_TRUE_POSITIVE
+            : Statistics.Ticker.BLOOM_FILTER_FALSE_POSITIVE);
+      }
+      if (deletedAt >= 0 && (!found || sequenceOf(cursor) < deletedAt)) {
+        return Bytes.tombstone();
+      }
+      return found ? cursor.value() : null;
+    } catch (IOException e) {
+      throw new RuntimeException("Error reading sstable file" + filePath, e);
+    }
+  }
+
+  /**
+   * Positions a cursor on the first entry at or after {@code (key, sequence)}. Blocks are
+   * indexed by their first key, so the entry is in the block found by the index or, if
+   * that block only holds smaller entries, at the start of the next one.
+   * @return The cursor, or null if every entry of the table comes before the target.
+   */
+  private Block.Cursor seekCursor(byte[] key, long sequence) throws IOException {
+    Map.Entry<InternalKey, BlockInfo> entry = blocks.floorEntry(new InternalKey(key, sequence));
     if (entry == null) {
-      return null;
+      entry = blocks.firstEntry();
+    }
+    while (entry != null) {
+      Block.Cursor cursor = block(entry.getValue(), true).cursor();
+      if (cursor.seek(key, sequence)) {
+        return cursor;
+      }
+      entry = blocks.higherEntry(entry.getKey());
     }
-    BlockInfo infoOfTargetBlock = entry.getValue();
+    return null;
+  }
 
-    // try-with-resources: responsible for opening file on disk.
-    try (RandomAccessFile raf = new RandomAccessFile(String.valueOf(filePath), "r")) {
-      raf.seek(infoOfTargetBlock.offset);
-      byte[] blockData = new byte[(int)infoOfTargetBlock.size];
-      raf.readFully(blockData);// Load data from disk into memory buffer.
-
-      // Wraps the byte array as an InputStream for easier access.
-      try (ByteArrayInputStream bais = new ByteArrayInputStream(blockData);
-           DataInputStream dis = new DataInputStream(bais)) {
-        while (dis.available() > 0) {
-          int lenOfKey = dis.readInt();
-          byte[] keyBytes = new byte[lenOfKey];
-          dis.readFully(keyBytes);
-          String curKey = new String(keyBytes, StandardCharsets.UTF_8);
-
-          int lenOfValue = dis.readInt();
-          byte[] valueBytes = new byte[lenOfValue];
-          dis.readFully(valueBytes);
-
-          if (curKey.equals(key)) {
-            return IOUtils.deserializeValue(valueBytes);
+  /**
+   * Returns the uncompressed contents of a data block as a buffer private to the caller,
+   * positioned at its first byte. Under {@link ReadMode#MMAP} an uncompressed block is a
+   * view of the mapping; any other block comes from the {@link BlockCache} if possible
+   * and is read and decompressed otherwise.
+   * @param fillCache Whether a block read from disk should be added to the cache;
+   *                  sequential readers such as compaction pass false.
+   */
+  ByteBuffer readBlock(BlockInfo info, boolean fillCache) throws IOException {
+    if (readMode == ReadMode.MMAP) {
+      ByteBuffer stored = mapFile().slice((int) info.offset, (int) info.size);
+      if (legacyFormat) {
+        return stored;
+      }
+      if (stored.get(0) == CompressionType.NONE.id()) {
+        return stored.slice(1, stored.limit() - 1);
+      }
+    }
+    byte[] blockData = blockCache.get(fileId, info.offset);
+    if (blockData == null) {
+      ByteBuffer stored;
+      if (readMode == ReadMode.MMAP) {
+        stored = mapFile().slice((int) info.offset, (int) info.size);
+      } else {
+        stored = ByteBuffer.allocate((int) info.size);
+        read(stored, info.offset);
+        stored.flip();
+      }
+      blockData = legacyFormat ? stored.array() : decodeBlock(stored);
+      if (fillCache) {
+        blockCache.put(fileId, info.offset, blockData);
+      }
+    }
+    return ByteBuffer.wrap(blockData);
+  }
+
+  /**
+   * Strips the block header written by {@link SSTableWriter} and decompresses the block.
+   */
+  private static byte[] decodeBlock(ByteBuffer stored) throws IOException {
+    CompressionType codec = CompressionType.fromId(stored.get(0));
+    if (codec == CompressionType.NONE) {
+      return CompressionType.NONE.decompress(stored.slice(1, stored.limit() - 1), stored.limit() - 1);
+    }
+    int uncompressedLength = stored.getInt(1);
+    int headerSize = 1 + Integer.BYTES;
+    return codec.decompress(stored.slice(headerSize, stored.limit() - headerSize), uncompressedLength);
+  }
+
+  private MappedByteBuffer mapFile() throws IOException {
+    MappedByteBuffer m = mapped;
+    if (m == null) {
+      synchronized (this) {
+        m = mapped;
+        if (m == null) {
+          // The mapping outlives the channel, so no file handle is kept open.
+          try (FileChannel ch = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) {
+              throw new IOException("SSTable too large to map: " + filePath);
+            }
+            m = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
           }
-          if (curKey.compareTo(key) > 0) {
-            return null;
+          mapped = m;
+        }
+      }
+    }
+    return m;
+  }
+
+  /**
+   * @return The data blocks of this table in key order.
+   */
+  Collection<BlockInfo> blockInfos() {
+    return blocks.values();
+  }
+
+  /**
+   * @return The internal keys the data blocks start with, in key order.
+   */
+  Collection<InternalKey> blockKeys() {
+    return blocks.keySet();
+  }
+
+  /**
+   * @return The data blocks that may hold keys greater than or equal to {@code key}, in
+   *         key order.
+   */
+  Collection<BlockInfo> blockInfosFrom(byte[] key) {
+    InternalKey floor = blocks.floorKey(new InternalKey(key, InternalKey.MAX_SEQUENCE));
+    return floor == null ? blocks.values() : blocks.tailMap(floor, true).values();
+  }
+
+  /**
+   * Reads and parses a data block.
+   */
+  Block block(BlockInfo info, boolean fillCache) throws IOException {
+    return new Block(readBlock(info, fillCache), legacyFormat, !legacyFormat, comparator);
+  }
+
+  /**
+   * Fills {@code dst} from the file starting at {@code position} using positional
+   * reads on the shared channel, which are safe to issue from many threads at once.
+   */
+  private void read(ByteBuffer dst, long position) throws IOException {
+    for (int attempt = 1; ; attempt++) {
+      FileChannel ch = openChannel();
+      referenced = true;
+      try {
+        long pos = position + dst.position();
+        while (dst.hasRemaining()) {
+          int n = ch.read(dst, pos);
+          if (n < 0) {
+            throw new EOFException("Unexpected end of sstable file " + filePath);
           }
+          pos += n;
+        }
+        return;
+      } catch (ClosedChannelException e) {
+        // The table cache closed the handle underneath us; reopen and retry.
+        if (Thread.currentThread().isInterrupted() || attempt >= MAX_READ_ATTEMPTS) {
+          throw e;
         }
       }
-    } catch (IOException e) {
-      throw new RuntimeException("Error reading sstable file" + filePath, e);
     }
-    return null;
+  }
+
+  private FileChannel openChannel() throws IOException {
+    FileChannel ch = channel.get();
+    if (ch != null && ch.isOpen()) {
+      return ch;
+    }
+    FileChannel opened = FileChannel.open(filePath, StandardOpenOption.READ);
+    if (channel.compareAndSet(ch, opened)) {
+      tableCache.register(this);
+      return opened;
+    }
+    // Another reader opened it first.
+    opened.close();
+    return openChannel();
+  }
+
+  /**
+   * Closes the file handle; the next read reopens it. Called by the {@link TableCache}.
+   */
+  void closeChannel() {
+    FileChannel ch = channel.getAndSet(null);
+    if (ch != null) {
+      try {
+        ch.close();
+      } catch (IOException e) {
+        System.err.println("Failed to close sstable file " + filePath + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Clears the CLOCK bit.
+   * @return Whether the table had been read since the last sweep.
+   */
+  boolean clearReferenced() {
+    boolean wasReferenced = referenced;
+    referenced = false;
+    return wasReferenced;
+  }
+
+  /**
+   * Releases the file handle and drops this table's blocks from the cache. Called once
+   * the table is no longer part of any live version. A mapping, if any, is released by
+   * the garbage collector once no reader refers to it.
+   */
+  public void close() {
+    tableCache.unregister(this);
+    closeChannel();
+    mapped = null;
+    blockCache.evictFile(fileId);
   }
 
   public Path getFilePath() {
     return filePath;
   }
 
+  public long getFileSize() {
+    return fileSize;
+  }
+
+  /**
+   * @return The number of entries stored in this SSTable, tombstones included.
+   */
+  public long getEntryCount() {
+    return entryCount;
+  }
+
+  /**
+   * @return The largest sequence number in this SSTable; 0 for files that predate them.
+   */
+  public long getMaxSequence() {
+    return Math.max(maxSequence, globalSequence);
+  }
+
+  /**
+   * @return The range deletions stored with this table, in no particular order.
+   */
+  List<RangeTombstone> rangeTombstones() {
+    return rangeTombstones;
+  }
+
+  /**
+   * @return The sequence number of the entry under {@code cursor}, which for an ingested
+   *         table is its global sequence number.
+   */
+  long sequenceOf(Block.Cursor cursor) {
+    long global = globalSequence;
+    return global != 0 ? global : cursor.sequence();
+  }
+
+  /**
+   * @return Whether this table was built outside a database, i.e. all its keys carry
+   *         sequence 0, in a format that can take a global sequence number.
+   */
+  boolean isIngestible() {
+    return globalSequenceOffset >= 0 && getMaxSequence() == 0 && minKey != null;
+  }
+
+  /**
+   * Gives every entry of an ingested table the sequence number of its ingestion, by
+   * overwriting the global sequence number in the file and forcing it to disk.
+   */
+  void assignGlobalSequence(long sequence) throws IOException {
+    if (globalSequenceOffset < 0) {
+      throw new IOException("SSTable format does not support ingestion: " + filePath);
+    }
+    ByteBuffer buf = ByteBuffer.allocate(Long.BYTES).putLong(sequence).flip();
+    try (FileChannel ch = FileChannel.open(filePath, StandardOpenOption.WRITE)) {
+      while (buf.hasRemaining()) {
+        ch.write(buf, globalSequenceOffset + buf.position());
+      }
+      ch.force(false);
+    }
+    this.globalSequence = sequence;
+  }
+
+  /**
+   * @return Size of the bloom filter in bytes, or 0 if the table has none.
+   */
+  int bloomFilterSize() {
+    return bloomFilter == null ? 0 : bloomFilter.sizeInBytes();
+  }
+
+  /**
+   * @return The smallest key in this SSTable, or null if it is empty. It is shared and
+   *         must not be modified.
+   */
+  public byte[] getMinKey() {
+    return minKey;
+  }
+
+  /**
+   * @return The largest key in this SSTable, or null if it is empty. It is shared and
+   *         must not be modified.
+   */
+  public byte[] getMaxKey() {
+    return maxKey;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
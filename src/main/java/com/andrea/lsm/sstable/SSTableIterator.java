@@ -1,50 +1,88 @@
 package com.andrea.lsm.sstable;
 
+import com.andrea.lsm.iterator.InternalEntry;
+import com.andrea.lsm.iterator.RangeTombstone;
+import com.andrea.lsm.iterator.SeekingIterator;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.util.AbstractMap;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.NoSuchElementException;
-import util.IOUtils;
 
-public class SSTableIterator implements Iterator<Entry<String ,String>>, AutoCloseable {
-  private final RandomAccessFile raf;
-  private long fileSize;
+/**
+ * Iterates over the entries of an SSTable in key order, every version of a key included.
+ * <p>
+ * Blocks are loaded lazily, one at a time, through the table's shared file handle, so the
+ * iterator holds at most one block in memory, or through the table's mapping under
+ * {@link SSTable.ReadMode#MMAP}. {@link #seek(byte[])} uses the block index to load only
+ * the block that may hold the target. Blocks read here are not added to the
+ * {@link BlockCache}, so that compactions and large scans do not flush out hot blocks.
+ */
+public class SSTableIterator implements SeekingIterator {
+  private final SSTable sstable;
+  private Iterator<BlockInfo> blockIterator;
+  private Block.Cursor currentBlock;
+  private boolean hasCurrent;
 
   public SSTableIterator(SSTable sstable) throws IOException {
-    this.raf = new RandomAccessFile(String.valueOf(sstable.getFilePath()), "r");
-    this.fileSize = raf.length();
+    this.sstable = sstable;
+    this.blockIterator = sstable.blockInfos().iterator();
+    this.currentBlock = null;
   }
 
   @Override
   public boolean hasNext() {
     try {
-      return raf.getFilePointer() < fileSize;
+      while (!hasCurrent) {
+        if (currentBlock != null && currentBlock.next()) {
+          hasCurrent = true;
+        } else if (blockIterator.hasNext()) {
+          currentBlock = sstable.block(blockIterator.next(), false).cursor();
+        } else {
+          return false;
+        }
+      }
+      return true;
     } catch (IOException e) {
-      return false;
+      throw new RuntimeException("Error reading from SSTable during iteration", e);
     }
   }
 
   @Override
-  public Map.Entry<String, String> next() {
+  public InternalEntry next() {
     if (!hasNext()) {
       throw new NoSuchElementException();
     }
+    hasCurrent = false;
+    return new InternalEntry(currentBlock.key(), sstable.sequenceOf(currentBlock),
+        currentBlock.value());
+  }
+
+  @Override
+  public List<RangeTombstone> rangeTombstones() {
+    return sstable.rangeTombstones();
+  }
+
+  @Override
+  public void seek(byte[] target) {
+    blockIterator = sstable.blockInfosFrom(target).iterator();
+    currentBlock = null;
+    hasCurrent = false;
+    if (!blockIterator.hasNext()) {
+      return;
+    }
     try {
-      String key = IOUtils.readNextString(raf);
-      int lenOfValue = raf.readInt();
-      byte[] buf = new byte[lenOfValue];
-      raf.readFully(buf);
-      return new AbstractMap.SimpleEntry<String, String>(key, new String(buf));
+      currentBlock = sstable.block(blockIterator.next(), false).cursor();
     } catch (IOException e) {
-      throw new RuntimeException("Error reading from SSTable during iteration", e);
+      throw new RuntimeException("Error reading from SSTable during seek", e);
     }
+    // If every key of the block is smaller, hasNext() moves on to the next block.
+    hasCurrent = currentBlock.seek(target);
   }
 
   @Override
-  public void close() throws IOException {
-    raf.close();
+  public void close() {
+    // The file handle belongs to the SSTable and is shared; only drop our block.
+    currentBlock = null;
+    hasCurrent = false;
   }
 }
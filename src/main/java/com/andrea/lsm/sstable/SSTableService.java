@@ -1,75 +1,239 @@
 package com.andrea.lsm.sstable;
 
+import com.andrea.lsm.iterator.InternalKey;
+import com.andrea.lsm.iterator.MergingIterator;
+import com.andrea.lsm.iterator.SeekingIterator;
 import com.andrea.lsm.manifest.Manifest;
+import com.andrea.lsm.manifest.Version;
 import com.andrea.lsm.memtable.Memtable;
+import com.andrea.lsm.statistics.Statistics;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import util.Bytes;
 import util.Constants;
+import util.Options;
 
 public class SSTableService {
-  private static final int L0_THRESHOLD = 4;
-  private static final int L1_THRESHOLD = 10;
   private final Manifest manifest;
+  private final Options options;
+  private final Statistics statistics;
   private final Compactor compactor;
+  private final CompactionScheduler compactionScheduler;
 
   public SSTableService(Manifest manifest) {
+    this(manifest, new Options());
+  }
+
+  public SSTableService(Manifest manifest, Options options) {
     this.manifest = manifest;
-    this.compactor = new Compactor();
+    this.options = options;
+    this.statistics = options.getStatistics();
+    this.compactor = new Compactor(options);
+    this.compactionScheduler = new CompactionScheduler(manifest, compactor, options);
   }
 
   public void flush(Memtable memTable) throws IOException {
     if (memTable.getSize() == 0) {return;}
-    SSTable sstable = SSTable.createSSTableFromMemtable(memTable, manifest.getRootPath());
+    long start = System.nanoTime();
+    SSTable sstable = SSTable.createSSTableFromIterator(memTable.iterator(),
+        memTable.rangeTombstones(), manifest.newSSTablePath(), 0, options);
+    statistics.record(Statistics.Ticker.FLUSH_BYTES_WRITTEN, sstable.getFileSize());
+    statistics.recordSince(Statistics.HistogramType.FLUSH, start);
     this.manifest.applyFlush(0, sstable);
-    checkAndCompactLevel(0);
+    // Compaction runs in the background; the flush only signals that there may be work.
+    compactionScheduler.maybeScheduleCompaction();
   }
 
-
-  private void checkAndCompactLevel(int level) throws IOException {
-    List<SSTable> tables = manifest.getSSTable(level);
-    if (!needsCompaction(level, tables)) {
-      return;
+  /**
+   * Moves externally built SSTables into the database directory and checks that they can
+   * be ingested: every file must have been written by {@link SSTableWriter#add(byte[],
+   * byte[])}, hold at least one key and not overlap the others. On failure the files are
+   * moved back.
+   * @return The opened tables, in the order of {@code files}.
+   */
+  public List<SSTable> prepareIngest(List<Path> files) throws IOException {
+    List<SSTable> tables = new ArrayList<>();
+    try {
+      for (Path file : files) {
+        Path target = manifest.newSSTablePath();
+        Files.move(file, target);
+        try {
+          tables.add(new SSTable(target, options));
+        } catch (IOException | RuntimeException e) {
+          Files.move(target, file);
+          throw e;
+        }
+        if (!tables.get(tables.size() - 1).isIngestible()) {
+          throw new IllegalArgumentException("Not an SSTable built for ingestion: " + file);
+        }
+      }
+      List<SSTable> byKey = new ArrayList<>(tables);
+      Comparator<byte[]> comparator = options.getComparator();
+      byKey.sort((a, b) -> comparator.compare(a.getMinKey(), b.getMinKey()));
+      for (int i = 1; i < byKey.size(); i++) {
+        if (comparator.compare(byKey.get(i).getMinKey(), byKey.get(i - 1).getMaxKey()) <= 0) {
+          throw new IllegalArgumentException("Ingested files overlap: "
+              + byKey.get(i - 1).getFilePath() + " and " + byKey.get(i).getFilePath());
+        }
+      }
+      return tables;
+    } catch (IOException | RuntimeException e) {
+      abortIngest(tables, files);
+      throw e;
     }
-    List<SSTable> tablesToCompact = new ArrayList<>(tables);
-    int nextLevel = level + 1;
-    Path newFilePath = SSTable.generateSSTablePath(manifest.getRootPath());
-    SSTable newSSTable = compactor.compact(tablesToCompact, newFilePath);
-    manifest.applyCompact(level, tablesToCompact, nextLevel, newSSTable);
-    for (SSTable table : tablesToCompact) {
-        Files.deleteIfExists(table.getFilePath());
+  }
+
+  /**
+   * Registers tables returned by {@link #prepareIngest(List)}, giving all of their
+   * entries the sequence number {@code sequence}.
+   */
+  public void ingest(List<SSTable> tables, long sequence) throws IOException {
+    for (SSTable table : tables) {
+      table.assignGlobalSequence(sequence);
     }
-    checkAndCompactLevel(nextLevel);
+    compactionScheduler.ingest(tables);
   }
 
-  private boolean needsCompaction(int level, List<SSTable> tables) {
-    if (level == 0) {
-      return tables.size() >= L0_THRESHOLD;
-    } else if (level == 1) {
-      return tables.size() >= L1_THRESHOLD;
+  /**
+   * Moves tables of a failed ingestion back to where they came from, unless they were
+   * registered after all.
+   */
+  public void abortIngest(List<SSTable> tables, List<Path> files) {
+    Version version = manifest.acquireVersion();
+    try {
+      for (int i = 0; i < tables.size(); i++) {
+        SSTable table = tables.get(i);
+        if (version.allTables().contains(table)) {
+          continue;
+        }
+        table.close();
+        try {
+          Files.move(table.getFilePath(), files.get(i));
+        } catch (IOException e) {
+          System.err.println("Failed to move back ingested SSTable: " + table.getFilePath());
+        }
+      }
+    } finally {
+      manifest.releaseVersion(version);
     }
-    return false;
   }
 
+  /**
+   * Blocks until background compaction has caught up with all flushes so far.
+   */
+  public void awaitCompactions() throws IOException {
+    compactionScheduler.awaitIdle();
+  }
+
+  /**
+   * Looks the key up level by level, stopping at the first level that knows it.
+   * <p>
+   * Level 0 tables may overlap, so they are all checked, newest first. Deeper levels
+   * hold sorted, non-overlapping tables, so at most one table per level is probed.
+   * @param key The key db asks for.
+   * @return Null if not found or deleted, otherwise the newest value.
+   */
+  public byte[] get(byte[] key) {
+    return get(key, InternalKey.MAX_SEQUENCE);
+  }
 
-  public String get(String key) {
-    for (int i = 0; i < Constants.MAX_LEVEL; i++) {
-      List<SSTable> levelList = manifest.getSSTable(i);
-      if (i == 0) {
-        for (int j = levelList.size() - 1; j >= 0; j--) {
-          String val = levelList.get(j).get(key);
-            if (val != null) {
-              return handleTombstone(val);
-            }
-          }
+  /**
+   * Like {@link #get(byte[])}, but only sees versions written at or before {@code sequence}.
+   */
+  public byte[] get(byte[] key, long sequence) {
+    Version version = manifest.acquireVersion();
+    int probes = 0;
+    try {
+      List<SSTable> level0 = version.getSSTable(0);
+      for (int j = level0.size() - 1; j >= 0; j--) {
+        probes++;
+        byte[] val = level0.get(j).get(key, sequence);
+        if (val != null) {
+          return handleTombstone(val);
         }
       }
-    return null;
+      for (int i = 1; i < Constants.MAX_LEVEL; i++) {
+        SSTable table = findTable(version.getSSTable(i), key, options.getComparator());
+        if (table == null) {
+          continue;
+        }
+        probes++;
+        byte[] val = table.get(key, sequence);
+        if (val != null) {
+          return handleTombstone(val);
+        }
+      }
+      return null;
+    } finally {
+      manifest.releaseVersion(version);
+      statistics.record(Statistics.Ticker.SSTABLE_READS, probes);
+      statistics.record(Statistics.HistogramType.SSTABLES_PER_GET, probes);
+    }
+  }
+
+  /**
+   * Binary-searches a sorted, non-overlapping level for the only table whose key
+   * range can contain {@code key}.
+   * @return The candidate table, or null if the key falls outside every table.
+   */
+  static SSTable findTable(List<SSTable> levelList, byte[] key, Comparator<byte[]> comparator) {
+    int low = 0;
+    int high = levelList.size() - 1;
+    // Find the first table whose maxKey >= key.
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      byte[] maxKey = levelList.get(mid).getMaxKey();
+      if (maxKey == null || comparator.compare(maxKey, key) < 0) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    if (low >= levelList.size()) {
+      return null;
+    }
+    SSTable candidate = levelList.get(low);
+    return comparator.compare(candidate.getMinKey(), key) <= 0 ? candidate : null;
+  }
+
+  /**
+   * Returns an iterator over every SSTable of the current version, with the newest entry
+   * of each key written at or before {@code sequence}. Tombstones are kept so that the
+   * caller can merge in newer sources. The version stays pinned, and its files on disk,
+   * until the iterator is closed.
+   */
+  public MergingIterator newIterator(long sequence) {
+    Version version = manifest.acquireVersion();
+    List<SeekingIterator> sources = new ArrayList<>();
+    // Oldest data first: the deepest level, up to the newest level-0 table.
+    for (int i = Constants.MAX_LEVEL - 1; i >= 1; i--) {
+      List<SSTable> level = version.getSSTable(i);
+      if (!level.isEmpty()) {
+        sources.add(new LevelIterator(level, options.getComparator()));
+      }
+    }
+    try {
+      for (SSTable table : version.getSSTable(0)) {
+        sources.add(new SSTableIterator(table));
+      }
+      return new MergingIterator(sources, options.getComparator(), sequence, false,
+          () -> manifest.releaseVersion(version));
+    } catch (IOException | RuntimeException e) {
+      manifest.releaseVersion(version);
+      throw (e instanceof RuntimeException) ? (RuntimeException) e
+          : new RuntimeException("Error opening SSTable iterators", e);
+    }
+  }
+
+  private byte[] handleTombstone(byte[] val) {
+      return Bytes.isTombstone(val) ? null : val;
   }
 
-  private String handleTombstone(String val) {
-      return val.equals(Constants.TOMBSTONE) ? null : val;
+  public void close() throws IOException {
+    compactionScheduler.close();
   }
 }
@@ -0,0 +1,332 @@
+package com.andrea.lsm.sstable;
+
+import com.andrea.lsm.iterator.InternalKey;
+import com.andrea.lsm.iterator.InternalKeyComparator;
+import com.andrea.lsm.iterator.RangeTombstone;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import util.Bytes;
+import util.Constants;
+import util.Options;
+
+/**
+ * Writes a new SSTable file from entries added in strictly increasing {@link InternalKey}
+ * order, with user keys ordered by {@link Options#getComparator()}; a key may appear in
+ * several versions, newest first.
+ * <p>
+ * Data blocks are followed by an index block, a bloom filter block, a range deletion
+ * block, a meta block and a fixed-size {@link Footer}, so that {@link SSTable} can be
+ * opened without scanning the data. A writer must end with either {@link #finish()} or {@link #abort()}.
+ * <p>
+ * Outside a database the writer builds tables for
+ * {@link com.andrea.lsm.core.DB#ingest(java.util.List)} from sorted input:
+ * <pre>{@code
+ * SSTableWriter writer = new SSTableWriter(path, new Options());
+ * for (...) {
+ *   writer.add(key, value); // strictly increasing keys
+ * }
+ * writer.finish().close();
+ * }</pre>
+ */
+public class SSTableWriter {
+  private final Path filePath;
+  private final Options options;
+  private final InternalKeyComparator comparator;
+  private final int level;
+  private final DataOutputStream out;
+  private final BlockBuilder block;
+  private final CompressionType compression;
+  /** Bloom filter hashes of the distinct keys written so far; the filter is sized at the end. */
+  private long[] keyHashes;
+  private int keyCount;
+  private final TreeMap<InternalKey, BlockInfo> blocks;
+  private long offset;
+  private long entryCount;
+  private BlockedBloomFilter bloomFilter;
+  private InternalKey firstKeyInBlock;
+  private byte[] minKey;
+  private byte[] maxKey;
+  private long lastSequence;
+  private long maxSequence;
+  private long globalSequenceOffset;
+  private final List<RangeTombstone> rangeTombstones;
+  private boolean closed;
+
+  /**
+   * Creates a writer for a table to be ingested. It uses the settings of the last level,
+   * where bulk loads into an empty key range end up.
+   */
+  public SSTableWriter(Path filePath, Options options) throws IOException {
+    this(filePath, Constants.MAX_LEVEL - 1, options);
+  }
+
+  /**
+   * @param level The level the table is written for, which selects its bloom filter
+   *              bits per key and compression.
+   * @throws java.nio.file.FileAlreadyExistsException If {@code filePath} already exists.
+   */
+  public SSTableWriter(Path filePath, int level, Options options) throws IOException {
+    Path folder = filePath.getParent();
+    if (folder != null) {
+      Files.createDirectories(folder);
+    }
+    this.filePath = filePath;
+    this.options = options;
+    this.comparator = new InternalKeyComparator(options.getComparator());
+    this.level = level;
+    // Never replaces a file: a name collision would otherwise destroy a live table.
+    this.out = new DataOutputStream(new BufferedOutputStream(
+        Files.newOutputStream(filePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)));
+    this.block = new BlockBuilder(options.getBlockRestartInterval());
+    this.compression = options.getCompression(level);
+    this.keyHashes = new long[64];
+    this.blocks = new TreeMap<>(comparator);
+    this.rangeTombstones = new ArrayList<>();
+  }
+
+  /**
+   * Appends a key for ingestion, i.e. without a sequence number, with the key and value
+   * stored in UTF-8. Keys must be added in strictly increasing order.
+   */
+  public void add(String key, String value) throws IOException {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("key and value must not be null");
+    }
+    add(Bytes.of(key), 0L, Bytes.of(value));
+  }
+
+  /**
+   * Appends a key for ingestion, i.e. without a sequence number. Keys must be added in
+   * strictly increasing order.
+   */
+  public void add(byte[] key, byte[] value) throws IOException {
+    if (key == null || value == null) {
+      throw new IllegalArgumentException("key and value must not be null");
+    }
+    // The writer keeps the last key; the caller may reuse its array.
+    add(key.clone(), 0L, value);
+  }
+
+  /**
+   * Appends a version of a key. Entries must be added in strictly increasing
+   * {@link InternalKey} order.
+   */
+  void add(byte[] key, long sequence, byte[] value) throws IOException {
+    boolean newKey = maxKey == null || !Arrays.equals(key, maxKey);
+    if (maxKey != null && comparator.compare(key, sequence, maxKey, lastSequence) <= 0) {
+      throw new IllegalArgumentException("Keys must be added in increasing order: "
+          + new InternalKey(key, sequence) + " after " + new InternalKey(maxKey, lastSequence));
+    }
+    byte[] keyBytes = InternalKey.encode(key, sequence);
+    int lenOfEntry = BlockBuilder.maxEntrySize(keyBytes.length, value.length);
+
+    if (block.estimatedSize() + lenOfEntry > SSTable.MAX_BLOCK_SIZE && firstKeyInBlock != null) {
+      // out of block capacity: store this block
+      flushBlock();
+    }
+    if (firstKeyInBlock == null) {
+      firstKeyInBlock = new InternalKey(key, sequence);
+    }
+
+    block.add(keyBytes, value);
+    if (newKey) {
+      if (keyCount == keyHashes.length) {
+        keyHashes = Arrays.copyOf(keyHashes, keyHashes.length * 2);
+      }
+      keyHashes[keyCount++] = BlockedBloomFilter.hash(key);
+    }
+
+    if (minKey == null) {
+      minKey = key;
+    }
+    maxKey = key;
+    lastSequence = sequence;
+    maxSequence = Math.max(maxSequence, sequence);
+    entryCount++;
+  }
+
+  /**
+   * Adds a range deletion, in any order relative to the entries. The table's key range
+   * grows to include it.
+   */
+  void addRangeTombstone(RangeTombstone tombstone) {
+    rangeTombstones.add(tombstone);
+    maxSequence = Math.max(maxSequence, tombstone.getSequence());
+  }
+
+  /**
+   * @return Bytes of entries written so far, including the block being built.
+   */
+  long estimatedSize() {
+    return offset + block.estimatedSize();
+  }
+
+  /**
+   * Writes the current block as {@code codec(1) [uncompressedLength(int32)] contents}.
+   * Blocks that do not shrink by at least an eighth are stored uncompressed.
+   */
+  private void flushBlock() throws IOException {
+    byte[] contents = block.finish();
+    long size;
+    byte[] compressed = compression.compress(contents);
+    if (compression != CompressionType.NONE && compressed.length < contents.length - contents.length / 8) {
+      out.writeByte(compression.id());
+      out.writeInt(contents.length);
+      out.write(compressed);
+      size = 1 + Integer.BYTES + compressed.length;
+    } else {
+      out.writeByte(CompressionType.NONE.id());
+      out.write(contents);
+      size = 1 + contents.length;
+    }
+    blocks.put(firstKeyInBlock, new BlockInfo(offset, size));
+    offset += size;
+    block.reset();
+    firstKeyInBlock = null;
+  }
+
+  private long writeOut(ByteArrayOutputStream buffer) throws IOException {
+    buffer.writeTo(out);
+    return buffer.size();
+  }
+
+  /**
+   * Writes the remaining block, the index, bloom filter, range deletion and meta blocks
+   * and the footer.
+   * @return The finished table, ready for reads. It must be closed.
+   */
+  public SSTable finish() throws IOException {
+    try {
+      if (firstKeyInBlock != null) {
+        flushBlock();
+      }
+      BlockInfo index = writeMetaBlock(encodeIndex());
+      int bitsPerKey = options.getBloomBitsPerKey(level);
+      if (bitsPerKey > 0) {
+        bloomFilter = BlockedBloomFilter.create(keyHashes, keyCount, bitsPerKey);
+      }
+      keyHashes = null;
+      ByteArrayOutputStream bloomBytes = new ByteArrayOutputStream();
+      if (bloomFilter != null) {
+        bloomFilter.writeTo(new DataOutputStream(bloomBytes));
+      }
+      BlockInfo bloom = writeMetaBlock(bloomBytes);
+      BlockInfo rangeDeletions = writeMetaBlock(encodeRangeDeletions());
+      widenKeyRange();
+      BlockInfo meta = writeMetaBlock(encodeMeta(rangeDeletions));
+      globalSequenceOffset = meta.offset + meta.size - Long.BYTES;
+      out.write(new Footer(index, bloom, meta).encode());
+      out.flush();
+    } catch (IOException | RuntimeException e) {
+      abort();
+      throw e;
+    }
+    close();
+    return new SSTable(filePath, bloomFilter, blocks, maxKey, minKey, entryCount, maxSequence,
+        globalSequenceOffset, rangeTombstones, options);
+  }
+
+  private BlockInfo writeMetaBlock(ByteArrayOutputStream buffer) throws IOException {
+    BlockInfo info = new BlockInfo(offset, buffer.size());
+    offset += writeOut(buffer);
+    return info;
+  }
+
+  private ByteArrayOutputStream encodeIndex() throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream index = new DataOutputStream(buffer);
+    index.writeInt(blocks.size());
+    for (Entry<InternalKey, BlockInfo> entry : blocks.entrySet()) {
+      writeBytes(index, entry.getKey().getUserKey());
+      index.writeLong(entry.getKey().getSequence());
+      index.writeLong(entry.getValue().offset);
+      index.writeLong(entry.getValue().size);
+    }
+    return buffer;
+  }
+
+  /**
+   * Encodes the range deletions as {@code count(4)} and then {@code count} times
+   * {@code startLen(4) start endLen(4) end sequence(8)}.
+   */
+  private ByteArrayOutputStream encodeRangeDeletions() throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream block = new DataOutputStream(buffer);
+    block.writeInt(rangeTombstones.size());
+    for (RangeTombstone tombstone : rangeTombstones) {
+      writeBytes(block, tombstone.getStart());
+      writeBytes(block, tombstone.getEnd());
+      block.writeLong(tombstone.getSequence());
+    }
+    return buffer;
+  }
+
+  /**
+   * Extends the key range from the entries to the range deletions, so that lookups and
+   * compactions of the deleted keys find this table. The end key is exclusive, but is
+   * included: no other key can be named in between.
+   */
+  private void widenKeyRange() {
+    Comparator<byte[]> userComparator = options.getComparator();
+    for (RangeTombstone tombstone : rangeTombstones) {
+      if (minKey == null || userComparator.compare(tombstone.getStart(), minKey) < 0) {
+        minKey = tombstone.getStart();
+      }
+      if (maxKey == null || userComparator.compare(tombstone.getEnd(), maxKey) > 0) {
+        maxKey = tombstone.getEnd();
+      }
+    }
+  }
+
+  private ByteArrayOutputStream encodeMeta(BlockInfo rangeDeletions) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream meta = new DataOutputStream(buffer);
+    meta.writeLong(entryCount);
+    writeBytes(meta, minKey);
+    writeBytes(meta, maxKey);
+    meta.writeLong(maxSequence);
+    meta.writeLong(rangeDeletions.offset);
+    meta.writeLong(rangeDeletions.size);
+    // Global sequence number, assigned in place when the table is ingested.
+    meta.writeLong(0L);
+    return buffer;
+  }
+
+  /**
+   * Writes a length-prefixed byte string; null is written as length -1.
+   */
+  private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+    if (bytes == null) {
+      out.writeInt(-1);
+      return;
+    }
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Discards the partially written file.
+   */
+  public void abort() throws IOException {
+    close();
+    Files.deleteIfExists(filePath);
+  }
+
+  private void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      out.close();
+    }
+  }
+}
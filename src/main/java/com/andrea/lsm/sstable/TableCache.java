@@ -0,0 +1,83 @@
+package com.andrea.lsm.sstable;
+
+import java.util.ArrayDeque;
+import util.Constants;
+
+/**
+ * Bounds the number of SSTables that keep an open file handle.
+ * <p>
+ * Every {@link SSTable} opens its {@link java.nio.channels.FileChannel} lazily and
+ * registers here. Once more than {@code maxOpenFiles} tables are open, the cache closes
+ * handles using the CLOCK approximation of LRU: reads only set a per-table "referenced"
+ * bit, and the eviction sweep gives every referenced table a second chance before
+ * closing the first unreferenced one. A closed table simply reopens its file on the
+ * next read.
+ */
+public class TableCache {
+  private static final TableCache SHARED = new TableCache(Constants.DEFAULT_MAX_OPEN_FILES);
+
+  private final int maxOpenFiles;
+  // Guarded by this. The head is the CLOCK hand.
+  private final ArrayDeque<SSTable> openTables;
+
+  /**
+   * @return The process-wide table cache used unless configured otherwise.
+   */
+  public static TableCache shared() {
+    return SHARED;
+  }
+
+  public TableCache(int maxOpenFiles) {
+    if (maxOpenFiles < 1) {
+      throw new IllegalArgumentException("maxOpenFiles must be at least 1: " + maxOpenFiles);
+    }
+    this.maxOpenFiles = maxOpenFiles;
+    this.openTables = new ArrayDeque<>();
+  }
+
+  /**
+   * Records that {@code table} has just opened its file, closing other tables' files
+   * if the limit is exceeded.
+   */
+  void register(SSTable table) {
+    SSTable victim;
+    synchronized (this) {
+      openTables.addLast(table);
+      if (openTables.size() <= maxOpenFiles) {
+        return;
+      }
+      victim = pickVictim(table);
+    }
+    if (victim != null) {
+      victim.closeChannel();
+    }
+  }
+
+  private SSTable pickVictim(SSTable newcomer) {
+    // Each table is visited at most twice: once to clear its bit, once to evict it.
+    for (int sweeps = 0; sweeps < 2 * openTables.size(); sweeps++) {
+      SSTable candidate = openTables.pollFirst();
+      if (candidate == newcomer || candidate.clearReferenced()) {
+        openTables.addLast(candidate);
+        continue;
+      }
+      return candidate;
+    }
+    return null;
+  }
+
+  /**
+   * Forgets a table whose file handle was closed by the table itself.
+   */
+  synchronized void unregister(SSTable table) {
+    openTables.remove(table);
+  }
+
+  public synchronized int getOpenFileCount() {
+    return openTables.size();
+  }
+
+  public int getMaxOpenFiles() {
+    return maxOpenFiles;
+  }
+}
@@ -0,0 +1,127 @@
+package com.andrea.lsm.statistics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values with a bounded relative error, in the
+ * manner of HdrHistogram.
+ * <p>
+ * Values below 64 are counted exactly. Larger values fall into one of 32 equally wide
+ * buckets per power of two, so a percentile is reported with an error below 1/32 (about
+ * 3%) of its value, whatever its magnitude. Recording a value is a few atomic additions
+ * and never allocates.
+ */
+public class Histogram {
+  private static final int SUB_BUCKET_BITS = 5;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  /** Values below this are counted in a bucket of their own. */
+  private static final long EXACT_LIMIT = 2 * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets;
+  private final LongAdder count;
+  private final LongAdder sum;
+  private final LongAccumulator max;
+
+  public Histogram() {
+    this.buckets = new AtomicLongArray((Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS);
+    this.count = new LongAdder();
+    this.sum = new LongAdder();
+    this.max = new LongAccumulator(Math::max, 0L);
+  }
+
+  /**
+   * @param value The value to count; negative values count as 0.
+   */
+  public void record(long value) {
+    long v = Math.max(value, 0L);
+    buckets.incrementAndGet(bucketIndex(v));
+    count.increment();
+    sum.add(v);
+    max.accumulate(v);
+  }
+
+  static int bucketIndex(long value) {
+    if (value < EXACT_LIMIT) {
+      return (int) value;
+    }
+    int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+    return shift * SUB_BUCKETS + (int) (value >>> shift);
+  }
+
+  /**
+   * @return The largest value counted in bucket {@code index}.
+   */
+  static long bucketUpperBound(int index) {
+    if (index < EXACT_LIMIT) {
+      return index;
+    }
+    int shift = index / SUB_BUCKETS - 1;
+    long top = index % SUB_BUCKETS + SUB_BUCKETS;
+    return ((top + 1) << shift) - 1;
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getSum() {
+    return sum.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  /**
+   * @return The mean of the recorded values, or 0 if there are none.
+   */
+  public double getMean() {
+    long n = count.sum();
+    return n == 0 ? 0.0 : (double) sum.sum() / n;
+  }
+
+  /**
+   * @param percentile Between 0 and 100, e.g. 99.9.
+   * @return A value that {@code percentile} percent of the recorded values do not exceed,
+   *         or 0 if there are none.
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile out of range: " + percentile);
+    }
+    long total = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      total += buckets.get(i);
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    for (int i = 0; i < buckets.length(); i++) {
+      seen += buckets.get(i);
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(i), getMax());
+      }
+    }
+    return 0L;
+  }
+
+  /**
+   * Forgets every recorded value. Values recorded concurrently may be partly kept.
+   */
+  public void reset() {
+    for (int i = 0; i < buckets.length(); i++) {
+      buckets.set(i, 0L);
+    }
+    count.reset();
+    sum.reset();
+    max.reset();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("count=%d mean=%.1f p50=%d p95=%d p99=%d p99.9=%d max=%d",
+        getCount(), getMean(), getPercentile(50), getPercentile(95), getPercentile(99),
+        getPercentile(99.9), getMax());
+  }
+}
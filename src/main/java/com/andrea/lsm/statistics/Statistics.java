@@ -0,0 +1,179 @@
+package com.andrea.lsm.statistics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and histograms of what a database does, cheap enough to be always on.
+ * <p>
+ * Counters are striped ({@link LongAdder}), so concurrent threads do not contend on
+ * them, and histograms are lock-free (see {@link Histogram}). Readings taken while the
+ * database is busy are not a consistent cut across counters.
+ * <p>
+ * One instance is created per {@link util.Options}; databases opened with the same
+ * options share it.
+ */
+public class Statistics implements StatisticsMXBean {
+
+  /**
+   * Event counts and byte totals.
+   */
+  public enum Ticker {
+    /** Keys written by puts, removes and batches. */
+    KEYS_WRITTEN,
+    /**
+     * Key and value bytes written by users; a removal counts its key and a range deletion
+     * its start and end keys.
+     */
+    BYTES_WRITTEN,
+    /** Point lookups. */
+    KEYS_READ,
+    /** Value bytes returned by point lookups. */
+    BYTES_READ,
+    /** Point lookups answered by a Memtable, including deletions found there. */
+    MEMTABLE_HIT,
+    /** Point lookups that had to go on to the SSTables. */
+    MEMTABLE_MISS,
+    /** SSTables probed by point lookups. */
+    SSTABLE_READS,
+    /** Probes that the bloom filter answered without reading a block. */
+    BLOOM_FILTER_USEFUL,
+    /** Probes that passed the bloom filter and found the key. */
+    BLOOM_FILTER_TRUE_POSITIVE,
+    /** Probes that passed the bloom filter but did not find the key. */
+    BLOOM_FILTER_FALSE_POSITIVE,
+    /** Bytes of the SSTables written by Memtable flushes. */
+    FLUSH_BYTES_WRITTEN,
+    /** Bytes of the SSTables read by compactions. */
+    COMPACTION_BYTES_READ,
+    /** Bytes of the SSTables written by compactions. */
+    COMPACTION_BYTES_WRITTEN,
+    /** Times a writer was stalled because too many Memtables were waiting to be flushed. */
+    WRITE_STALLS,
+    /** Nanoseconds writers spent stalled. */
+    WRITE_STALL_NANOS
+  }
+
+  /**
+   * Distributions; latencies are in nanoseconds.
+   */
+  public enum HistogramType {
+    DB_GET,
+    DB_PUT,
+    DB_REMOVE,
+    DB_DELETE_RANGE,
+    /** Latency of {@code DB.write} with a batch. */
+    DB_WRITE,
+    /** Latency of writing a Memtable to an SSTable. */
+    FLUSH,
+    /** Latency of merging the inputs of a compaction into its outputs. */
+    COMPACTION,
+    /** Number of SSTables probed by a point lookup that missed the Memtables. */
+    SSTABLES_PER_GET
+  }
+
+  private final LongAdder[] tickers;
+  private final Histogram[] histograms;
+
+  public Statistics() {
+    this.tickers = new LongAdder[Ticker.values().length];
+    for (int i = 0; i < tickers.length; i++) {
+      tickers[i] = new LongAdder();
+    }
+    this.histograms = new Histogram[HistogramType.values().length];
+    for (int i = 0; i < histograms.length; i++) {
+      histograms[i] = new Histogram();
+    }
+  }
+
+  public void record(Ticker ticker) {
+    tickers[ticker.ordinal()].increment();
+  }
+
+  public void record(Ticker ticker, long amount) {
+    tickers[ticker.ordinal()].add(amount);
+  }
+
+  public long getTickerCount(Ticker ticker) {
+    return tickers[ticker.ordinal()].sum();
+  }
+
+  public void record(HistogramType type, long value) {
+    histograms[type.ordinal()].record(value);
+  }
+
+  /**
+   * Records the time elapsed since {@code startNanos}, a reading of {@link System#nanoTime()}.
+   */
+  public void recordSince(HistogramType type, long startNanos) {
+    histograms[type.ordinal()].record(System.nanoTime() - startNanos);
+  }
+
+  public Histogram getHistogram(HistogramType type) {
+    return histograms[type.ordinal()];
+  }
+
+  @Override
+  public Map<String, Long> getTickers() {
+    Map<String, Long> values = new LinkedHashMap<>();
+    for (Ticker ticker : Ticker.values()) {
+      values.put(ticker.name(), getTickerCount(ticker));
+    }
+    return values;
+  }
+
+  @Override
+  public Map<String, Double> getHistograms() {
+    Map<String, Double> values = new LinkedHashMap<>();
+    for (HistogramType type : HistogramType.values()) {
+      Histogram histogram = getHistogram(type);
+      values.put(type.name() + ".count", (double) histogram.getCount());
+      values.put(type.name() + ".mean", histogram.getMean());
+      values.put(type.name() + ".p50", (double) histogram.getPercentile(50));
+      values.put(type.name() + ".p95", (double) histogram.getPercentile(95));
+      values.put(type.name() + ".p99", (double) histogram.getPercentile(99));
+      values.put(type.name() + ".p99.9", (double) histogram.getPercentile(99.9));
+      values.put(type.name() + ".max", (double) histogram.getMax());
+    }
+    return values;
+  }
+
+  /**
+   * Bytes written to SSTables by flushes and compactions per key and value byte written
+   * by users. WAL writes are not included.
+   */
+  @Override
+  public double getWriteAmplification() {
+    long userBytes = getTickerCount(Ticker.BYTES_WRITTEN);
+    if (userBytes == 0) {
+      return 0.0;
+    }
+    long tableBytes = getTickerCount(Ticker.FLUSH_BYTES_WRITTEN)
+        + getTickerCount(Ticker.COMPACTION_BYTES_WRITTEN);
+    return (double) tableBytes / userBytes;
+  }
+
+  @Override
+  public void reset() {
+    for (LongAdder ticker : tickers) {
+      ticker.reset();
+    }
+    for (Histogram histogram : histograms) {
+      histogram.reset();
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder();
+    for (Ticker ticker : Ticker.values()) {
+      builder.append(ticker).append(": ").append(getTickerCount(ticker)).append('\n');
+    }
+    for (HistogramType type : HistogramType.values()) {
+      builder.append(type).append(": ").append(getHistogram(type)).append('\n');
+    }
+    builder.append(String.format("WRITE_AMPLIFICATION: %.2f%n", getWriteAmplification()));
+    return builder.toString();
+  }
+}
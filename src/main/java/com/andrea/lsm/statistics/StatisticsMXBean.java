@@ -0,0 +1,32 @@
+package com.andrea.lsm.statistics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link Statistics} of a database, registered by
+ * {@link com.andrea.lsm.core.DB} under {@code com.andrea.lsm:type=Statistics,path=<dir>}.
+ */
+public interface StatisticsMXBean {
+
+  /**
+   * @return Every {@link Statistics.Ticker} by name.
+   */
+  Map<String, Long> getTickers();
+
+  /**
+   * @return For every {@link Statistics.HistogramType}, its count, mean, p50, p95, p99,
+   *         p99.9 and max, keyed as {@code <type>.<measure>}, e.g. {@code DB_GET.p99}.
+   *         Latencies are in nanoseconds.
+   */
+  Map<String, Double> getHistograms();
+
+  /**
+   * @return Bytes written to SSTables per byte written by users, or 0 before any write.
+   */
+  double getWriteAmplification();
+
+  /**
+   * Sets every ticker and histogram back to zero.
+   */
+  void reset();
+}
@@ -0,0 +1,68 @@
+package util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Helpers for keys and values held as byte arrays.
+ */
+public final class Bytes {
+
+  /**
+   * Orders arrays lexicographically, comparing bytes as unsigned values. This is the
+   * default key order, and for UTF-8 strings the order of their code points.
+   */
+  public static final Comparator<byte[]> BYTEWISE_COMPARATOR = Arrays::compareUnsigned;
+
+  private static final byte[] TOMBSTONE = Constants.TOMBSTONE.getBytes(StandardCharsets.UTF_8);
+
+  private Bytes() {}
+
+  /**
+   * @return The UTF-8 encoding of {@code s}, or null if it is null.
+   */
+  public static byte[] of(String s) {
+    return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return {@code bytes} decoded as UTF-8, or null if it is null.
+   */
+  public static String string(byte[] bytes) {
+    return bytes == null ? null : new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * @return A copy of the remaining bytes of {@code buffer}, whose position is left as it is.
+   */
+  public static byte[] copyOf(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(buffer.position(), bytes);
+    return bytes;
+  }
+
+  /**
+   * @return The value stored for deletions, {@link Constants#TOMBSTONE} in UTF-8. It is
+   *         shared and must not be modified.
+   */
+  public static byte[] tombstone() {
+    return TOMBSTONE;
+  }
+
+  public static boolean isTombstone(byte[] value) {
+    return Arrays.equals(value, TOMBSTONE);
+  }
+
+  /**
+   * Rejects a value equal to {@link #tombstone()}, which would be stored as a deletion.
+   * @throws IllegalArgumentException If {@code value} is the tombstone.
+   */
+  public static void checkValue(byte[] value) {
+    if (isTombstone(value)) {
+      throw new IllegalArgumentException(
+          "value must not equal the reserved tombstone " + Constants.TOMBSTONE);
+    }
+  }
+}
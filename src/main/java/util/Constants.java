@@ -1,5 +1,9 @@
 package util;
 
+import com.andrea.lsm.memtable.Memtable;
+import com.andrea.lsm.sstable.CompressionType;
+import com.andrea.lsm.sstable.SSTable;
+
 public class Constants {
 
   public static final String DEFAULT_DATA_DIR = "./data";
@@ -13,9 +17,27 @@ public class Constants {
   public static final String TOMBSTONE = "<TOMBSTONE>";
 
   public static final int MAX_LEVEL = 7;
+  public static final int L0_COMPACTION_TRIGGER = 4;
+  public static final long DEFAULT_MAX_BYTES_FOR_LEVEL_BASE = 16 * 1024;
+  public static final int DEFAULT_LEVEL_SIZE_MULTIPLIER = 10;
+  public static final long DEFAULT_TARGET_FILE_SIZE = 4 * 1024;
+  public static final long DEFAULT_MAX_MANIFEST_FILE_SIZE = 64 * 1024;
+  public static final int DEFAULT_COMPACTION_THREADS = 2;
+  public static final int DEFAULT_MAX_SUBCOMPACTIONS = 4;
   public static final int MAXSIZE_MEMTABLE = 1024;
-  public static final long EXPECTED_INSERTIONS = 10_000;
-  public static final double FALSE_POSITIVE_PROBABILITY = 0.03;
+  public static final Memtable.Storage DEFAULT_MEMTABLE_STORAGE = Memtable.Storage.HEAP;
+  public static final int DEFAULT_MAX_IMMUTABLE_MEMTABLES = 4;
+  public static final int DEFAULT_BLOOM_BITS_PER_KEY = 10;
+  public static final int DEFAULT_BLOCK_RESTART_INTERVAL = 16;
+  public static final CompressionType DEFAULT_COMPRESSION = CompressionType.NONE;
+
+  public static final long DEFAULT_BLOCK_CACHE_CAPACITY = 64L * 1024 * 1024;
+  public static final int DEFAULT_BLOCK_CACHE_SHARDS = 16;
+  public static final int DEFAULT_MAX_OPEN_FILES = 1000;
+  public static final SSTable.ReadMode DEFAULT_READ_MODE = SSTable.ReadMode.PREAD;
+
+  public static final WAL.SyncPolicy DEFAULT_WAL_SYNC_POLICY = WAL.SyncPolicy.NO_SYNC;
+  public static final long DEFAULT_WAL_SYNC_INTERVAL_MS = 100;
 
   private Constants() {}
 }
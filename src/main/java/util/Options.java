@@ -0,0 +1,398 @@
+package util;
+
+import com.andrea.lsm.memtable.Memtable;
+import com.andrea.lsm.sstable.BlockCache;
+import com.andrea.lsm.sstable.CompressionType;
+import com.andrea.lsm.sstable.SSTable;
+import com.andrea.lsm.sstable.TableCache;
+import com.andrea.lsm.statistics.Statistics;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Tunable settings of a single database instance.
+ * <p>
+ * Every setting starts at its default from {@link Constants}. Setters return
+ * {@code this} so that options can be chained:
+ * <pre>{@code
+ * Options options = new Options()
+ *     .setWalSyncPolicy(WAL.SyncPolicy.SYNC_INTERVAL)
+ *     .setWalSyncIntervalMillis(50);
+ * }</pre>
+ */
+public class Options {
+  private WAL.SyncPolicy walSyncPolicy = Constants.DEFAULT_WAL_SYNC_POLICY;
+  private long walSyncIntervalMillis = Constants.DEFAULT_WAL_SYNC_INTERVAL_MS;
+  private long writeBufferSize = Constants.MAXSIZE_MEMTABLE;
+  private Memtable.Storage memtableStorage = Constants.DEFAULT_MEMTABLE_STORAGE;
+  private int maxImmutableMemtables = Constants.DEFAULT_MAX_IMMUTABLE_MEMTABLES;
+  private int compactionThreads = Constants.DEFAULT_COMPACTION_THREADS;
+  private int maxSubcompactions = Constants.DEFAULT_MAX_SUBCOMPACTIONS;
+  private long maxBytesForLevelBase = Constants.DEFAULT_MAX_BYTES_FOR_LEVEL_BASE;
+  private int levelSizeMultiplier = Constants.DEFAULT_LEVEL_SIZE_MULTIPLIER;
+  private long targetFileSize = Constants.DEFAULT_TARGET_FILE_SIZE;
+  private long maxManifestFileSize = Constants.DEFAULT_MAX_MANIFEST_FILE_SIZE;
+  private BlockCache blockCache = BlockCache.shared();
+  private TableCache tableCache = TableCache.shared();
+  private SSTable.ReadMode readMode = Constants.DEFAULT_READ_MODE;
+  private int blockRestartInterval = Constants.DEFAULT_BLOCK_RESTART_INTERVAL;
+  private final int[] bloomBitsPerKey = filled(Constants.DEFAULT_BLOOM_BITS_PER_KEY);
+  private final CompressionType[] compression = filled(Constants.DEFAULT_COMPRESSION);
+  private Comparator<byte[]> comparator = Bytes.BYTEWISE_COMPARATOR;
+  private Statistics statistics = new Statistics();
+
+  public Comparator<byte[]> getComparator() {
+    return comparator;
+  }
+
+  /**
+   * @param comparator The order of keys. Keys it finds equal must be equal byte for byte,
+   *                   as bloom filters hash the bytes. Tables are written in this order,
+   *                   so a database must always be opened with the same comparator.
+   */
+  public Options setComparator(Comparator<byte[]> comparator) {
+    if (comparator == null) {
+      throw new IllegalArgumentException("comparator must not be null");
+    }
+    this.comparator = comparator;
+    return this;
+  }
+
+  public Statistics getStatistics() {
+    return statistics;
+  }
+
+  /**
+   * @param statistics Where databases opened with these options count their activity.
+   *                   Each Options starts with its own instance.
+   */
+  public Options setStatistics(Statistics statistics) {
+    if (statistics == null) {
+      throw new IllegalArgumentException("statistics must not be null");
+    }
+    this.statistics = statistics;
+    return this;
+  }
+
+  public WAL.SyncPolicy getWalSyncPolicy() {
+    return walSyncPolicy;
+  }
+
+  /**
+   * @param walSyncPolicy When WAL writes are forced to stable storage.
+   */
+  public Options setWalSyncPolicy(WAL.SyncPolicy walSyncPolicy) {
+    if (walSyncPolicy == null) {
+      throw new IllegalArgumentException("walSyncPolicy must not be null");
+    }
+    this.walSyncPolicy = walSyncPolicy;
+    return this;
+  }
+
+  public long getWalSyncIntervalMillis() {
+    return walSyncIntervalMillis;
+  }
+
+  /**
+   * @param walSyncIntervalMillis Maximum time between two fsyncs under
+   *                              {@link WAL.SyncPolicy#SYNC_INTERVAL}.
+   */
+  public Options setWalSyncIntervalMillis(long walSyncIntervalMillis) {
+    if (walSyncIntervalMillis <= 0) {
+      throw new IllegalArgumentException("walSyncIntervalMillis must be positive: " + walSyncIntervalMillis);
+    }
+    this.walSyncIntervalMillis = walSyncIntervalMillis;
+    return this;
+  }
+
+  public long getWriteBufferSize() {
+    return writeBufferSize;
+  }
+
+  /**
+   * @param writeBufferSize Size past which the active Memtable is retired and flushed.
+   *                        Large buffers are best combined with
+   *                        {@link Memtable.Storage#OFF_HEAP}.
+   */
+  public Options setWriteBufferSize(long writeBufferSize) {
+    if (writeBufferSize <= 0) {
+      throw new IllegalArgumentException("writeBufferSize must be positive: " + writeBufferSize);
+    }
+    this.writeBufferSize = writeBufferSize;
+    return this;
+  }
+
+  public Memtable.Storage getMemtableStorage() {
+    return memtableStorage;
+  }
+
+  /**
+   * @param memtableStorage Whether Memtables keep their entries on the heap or off-heap.
+   */
+  public Options setMemtableStorage(Memtable.Storage memtableStorage) {
+    if (memtableStorage == null) {
+      throw new IllegalArgumentException("memtableStorage must not be null");
+    }
+    this.memtableStorage = memtableStorage;
+    return this;
+  }
+
+  public int getMaxImmutableMemtables() {
+    return maxImmutableMemtables;
+  }
+
+  /**
+   * @param maxImmutableMemtables How many full Memtables may wait for the background
+   *                              flusher before writers are stalled.
+   */
+  public Options setMaxImmutableMemtables(int maxImmutableMemtables) {
+    if (maxImmutableMemtables < 1) {
+      throw new IllegalArgumentException("maxImmutableMemtables must be at least 1: " + maxImmutableMemtables);
+    }
+    this.maxImmutableMemtables = maxImmutableMemtables;
+    return this;
+  }
+
+  public int getCompactionThreads() {
+    return compactionThreads;
+  }
+
+  /**
+   * @param compactionThreads Size of the background pool running compactions.
+   */
+  public Options setCompactionThreads(int compactionThreads) {
+    if (compactionThreads < 1) {
+      throw new IllegalArgumentException("compactionThreads must be at least 1: " + compactionThreads);
+    }
+    this.compactionThreads = compactionThreads;
+    return this;
+  }
+
+  public int getMaxSubcompactions() {
+    return maxSubcompactions;
+  }
+
+  /**
+   * @param maxSubcompactions Most key ranges one compaction is split into and merged in
+   *        parallel; 1 merges every compaction on a single thread.
+   */
+  public Options setMaxSubcompactions(int maxSubcompactions) {
+    if (maxSubcompactions < 1) {
+      throw new IllegalArgumentException("maxSubcompactions must be at least 1: " + maxSubcompactions);
+    }
+    this.maxSubcompactions = maxSubcompactions;
+    return this;
+  }
+
+  public long getMaxBytesForLevelBase() {
+    return maxBytesForLevelBase;
+  }
+
+  /**
+   * @param maxBytesForLevelBase Byte budget of level 1. Level {@code n} may hold
+   *                             {@code maxBytesForLevelBase * levelSizeMultiplier^(n-1)} bytes.
+   */
+  public Options setMaxBytesForLevelBase(long maxBytesForLevelBase) {
+    if (maxBytesForLevelBase <= 0) {
+      throw new IllegalArgumentException("maxBytesForLevelBase must be positive: " + maxBytesForLevelBase);
+    }
+    this.maxBytesForLevelBase = maxBytesForLevelBase;
+    return this;
+  }
+
+  public int getLevelSizeMultiplier() {
+    return levelSizeMultiplier;
+  }
+
+  /**
+   * @param levelSizeMultiplier Growth factor of the byte budget from one level to the next.
+   */
+  public Options setLevelSizeMultiplier(int levelSizeMultiplier) {
+    if (levelSizeMultiplier < 2) {
+      throw new IllegalArgumentException("levelSizeMultiplier must be at least 2: " + levelSizeMultiplier);
+    }
+    this.levelSizeMultiplier = levelSizeMultiplier;
+    return this;
+  }
+
+  public long getTargetFileSize() {
+    return targetFileSize;
+  }
+
+  /**
+   * @param targetFileSize Size at which compaction output is split into a new SSTable.
+   */
+  public Options setTargetFileSize(long targetFileSize) {
+    if (targetFileSize <= 0) {
+      throw new IllegalArgumentException("targetFileSize must be positive: " + targetFileSize);
+    }
+    this.targetFileSize = targetFileSize;
+    return this;
+  }
+
+  public long getMaxManifestFileSize() {
+    return maxManifestFileSize;
+  }
+
+  /**
+   * @param maxManifestFileSize Size past which the manifest log is rolled over to a new
+   *                            file holding only a snapshot of the current layout.
+   */
+  public Options setMaxManifestFileSize(long maxManifestFileSize) {
+    if (maxManifestFileSize <= 0) {
+      throw new IllegalArgumentException("maxManifestFileSize must be positive: " + maxManifestFileSize);
+    }
+    this.maxManifestFileSize = maxManifestFileSize;
+    return this;
+  }
+
+  /**
+   * @return The byte budget of {@code level} (level 1 and deeper).
+   */
+  public long getMaxBytesForLevel(int level) {
+    long bytes = maxBytesForLevelBase;
+    for (int l = 1; l < level; l++) {
+      bytes *= levelSizeMultiplier;
+    }
+    return bytes;
+  }
+
+  public BlockCache getBlockCache() {
+    return blockCache;
+  }
+
+  /**
+   * @param blockCache Cache for SSTable data blocks. Defaults to the process-wide
+   *                   {@link BlockCache#shared()}; pass the same instance to several
+   *                   databases to let them share one memory budget.
+   */
+  public Options setBlockCache(BlockCache blockCache) {
+    if (blockCache == null) {
+      throw new IllegalArgumentException("blockCache must not be null");
+    }
+    this.blockCache = blockCache;
+    return this;
+  }
+
+  public TableCache getTableCache() {
+    return tableCache;
+  }
+
+  /**
+   * @param tableCache Bounds how many SSTable files are kept open. Defaults to the
+   *                   process-wide {@link TableCache#shared()}.
+   */
+  public Options setTableCache(TableCache tableCache) {
+    if (tableCache == null) {
+      throw new IllegalArgumentException("tableCache must not be null");
+    }
+    this.tableCache = tableCache;
+    return this;
+  }
+
+  public SSTable.ReadMode getReadMode() {
+    return readMode;
+  }
+
+  /**
+   * @param readMode How SSTable blocks are read: positional reads into the block cache,
+   *                 or decoding straight from a memory mapping of the file.
+   */
+  public Options setReadMode(SSTable.ReadMode readMode) {
+    if (readMode == null) {
+      throw new IllegalArgumentException("readMode must not be null");
+    }
+    this.readMode = readMode;
+    return this;
+  }
+
+  public int getBloomBitsPerKey(int level) {
+    return bloomBitsPerKey[checkLevel(level)];
+  }
+
+  /**
+   * @param bitsPerKey Bloom filter bits per key for SSTables on every level; 0 disables
+   *                   the filter. 10 bits per key give a false positive rate of about 1%.
+   */
+  public Options setBloomBitsPerKey(int bitsPerKey) {
+    for (int level = 0; level < Constants.MAX_LEVEL; level++) {
+      setBloomBitsPerKey(level, bitsPerKey);
+    }
+    return this;
+  }
+
+  /**
+   * @param bitsPerKey Bloom filter bits per key for SSTables written to {@code level};
+   *                   0 disables the filter on that level.
+   */
+  public Options setBloomBitsPerKey(int level, int bitsPerKey) {
+    if (bitsPerKey < 0) {
+      throw new IllegalArgumentException("bitsPerKey must not be negative: " + bitsPerKey);
+    }
+    bloomBitsPerKey[checkLevel(level)] = bitsPerKey;
+    return this;
+  }
+
+  public int getBlockRestartInterval() {
+    return blockRestartInterval;
+  }
+
+  /**
+   * @param blockRestartInterval Number of keys between restart points in an SSTable data
+   *                             block. Larger intervals compress shared key prefixes
+   *                             better; smaller ones shorten the scan after the binary search.
+   */
+  public Options setBlockRestartInterval(int blockRestartInterval) {
+    if (blockRestartInterval < 1) {
+      throw new IllegalArgumentException("blockRestartInterval must be at least 1: " + blockRestartInterval);
+    }
+    this.blockRestartInterval = blockRestartInterval;
+    return this;
+  }
+
+  public CompressionType getCompression(int level) {
+    return compression[checkLevel(level)];
+  }
+
+  /**
+   * @param compressionType Codec for SSTable data blocks on every level.
+   */
+  public Options setCompression(CompressionType compressionType) {
+    for (int level = 0; level < Constants.MAX_LEVEL; level++) {
+      setCompression(level, compressionType);
+    }
+    return this;
+  }
+
+  /**
+   * @param compressionType Codec for SSTable data blocks written to {@code level}, e.g.
+   *                        none for level 0, LZ4 for the middle levels and deflate for
+   *                        the bottom level.
+   */
+  public Options setCompression(int level, CompressionType compressionType) {
+    if (compressionType == null) {
+      throw new IllegalArgumentException("compressionType must not be null");
+    }
+    compression[checkLevel(level)] = compressionType;
+    return this;
+  }
+
+  private static int checkLevel(int level) {
+    if (level < 0 || level >= Constants.MAX_LEVEL) {
+      throw new IllegalArgumentException("level out of range: " + level);
+    }
+    return level;
+  }
+
+  private static int[] filled(int value) {
+    int[] perLevel = new int[Constants.MAX_LEVEL];
+    Arrays.fill(perLevel, value);
+    return perLevel;
+  }
+
+  private static CompressionType[] filled(CompressionType value) {
+    CompressionType[] perLevel = new CompressionType[Constants.MAX_LEVEL];
+    Arrays.fill(perLevel, value);
+    return perLevel;
+  }
+}
@@ -1,39 +1,350 @@
 package util;
 
+import com.andrea.lsm.iterator.RangeTombstone;
 import com.andrea.lsm.memtable.Memtable;
-import com.andrea.lsm.sstable.Compactor;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
 
-public class WAL implements AutoCloseable{
-  private Path filePath;
-  private DataOutputStream out;
+/**
+ * Write-ahead log with group commit.
+ * <p>
+ * Callers of {@link #writeBatch(long, List)} only enqueue their record. A single
+ * writer thread drains whatever has accumulated, writes it with one
+ * {@link FileChannel#write(ByteBuffer)} call, syncs according to the {@link SyncPolicy}
+ * and then releases every caller of the batch together. A caller returns only once its
+ * record has been handed to the operating system (and forced to disk, if the policy
+ * says so).
+ * <p>
+ * A log file starts with {@link #MAGIC} and is divided into {@link #BLOCK_SIZE} blocks,
+ * counted from the start of the file. Each batch of writes is one logical record,
+ * {@code sequence(8) count(4)} followed by {@code count} times
+ * {@code entryType(1) keyLen(4) key valueLen(4) value}, whose entries take the sequence
+ * numbers from {@code sequence} upwards. An entry is a put ({@link #VALUE_ENTRY}) or a
+ * range deletion ({@link #RANGE_DELETION_ENTRY}) whose key and value are the start and
+ * end of the range. A record is stored as one or more fragments
+ * {@code crc32c(4) length(2) type(1) data}: {@link #FULL} if it fits into the rest of the
+ * block, otherwise {@link #FIRST}, any number of {@link #MIDDLE} and a {@link #LAST}
+ * fragment, one per block. A fragment never straddles a block boundary; when fewer than
+ * {@link #FRAGMENT_HEADER_SIZE} bytes are left in a block they are zero-filled. The
+ * checksum covers the type and the data, so a torn or damaged record is detected and
+ * its batch is dropped as a whole, and a reader can always resynchronise at the next
+ * block.
+ * <p>
+ * Logs of the original format carry no magic and hold one unframed
+ * {@code keyLen(4) key valueLen(4) value} record per write; {@link WALReader} still
+ * replays them.
+ */
+public class WAL implements AutoCloseable {
+
+  /**
+   * When the writer thread forces written records to stable storage.
+   */
+  public enum SyncPolicy {
+    /** Never call fsync; records survive a process crash but not an OS crash. */
+    NO_SYNC,
+    /** fsync after every batch before the callers are released. */
+    SYNC_PER_BATCH,
+    /** fsync at most once per configured interval; callers never wait for it. */
+    SYNC_INTERVAL
+  }
+
+  private static final int MAX_BATCH_RECORDS = 1024;
+  static final long MAGIC = 0x4c534d57414c3034L; // "LSMWAL04"
+
+  static final int BLOCK_SIZE = 32 * 1024;
+  static final int FRAGMENT_HEADER_SIZE = 4 + 2 + 1;
+  /** Fragment types: a whole record, or its first, middle or last part. */
+  static final byte FULL = 1;
+  static final byte FIRST = 2;
+  static final byte MIDDLE = 3;
+  static final byte LAST = 4;
+  /** Entry types within a record. */
+  static final byte VALUE_ENTRY = 0;
+  static final byte RANGE_DELETION_ENTRY = 1;
+
+  /** Marker telling the writer thread to finish pending work and exit. */
+  private static final PendingWrite CLOSE_MARKER = new PendingWrite(new byte[0]);
+
+  private final Path filePath;
+  private final FileChannel channel;
+  private final SyncPolicy syncPolicy;
+  private final long syncIntervalNanos;
+  private final LinkedBlockingQueue<PendingWrite> queue;
+  private final Thread writerThread;
+  private boolean closed;
+  private volatile IOException failure;
+
+  // Only touched by the writer thread.
+  private long lastSyncNanos;
+  private boolean hasUnsyncedData;
+  /** Bytes already used in the current block. */
+  private int blockOffset;
+
+  private static class PendingWrite {
+    final byte[] record;
+    final CompletableFuture<Void> done;
+
+    PendingWrite(byte[] record) {
+      this.record = record;
+      this.done = new CompletableFuture<>();
+    }
+  }
 
   public WAL(Path filePath) throws IOException {
+    this(filePath, Constants.DEFAULT_WAL_SYNC_POLICY, Constants.DEFAULT_WAL_SYNC_INTERVAL_MS);
+  }
+
+  public WAL(Path filePath, SyncPolicy syncPolicy, long syncIntervalMillis) throws IOException {
     this.filePath = filePath;
-    this.out = new DataOutputStream(
-        new BufferedOutputStream(Files.newOutputStream(filePath, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    this.syncPolicy = syncPolicy;
+    this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+    this.channel = FileChannel.open(filePath,
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    if (channel.size() == 0) {
+      ByteBuffer header = ByteBuffer.allocate(Long.BYTES).putLong(MAGIC).flip();
+      while (header.hasRemaining()) {
+        channel.write(header);
+      }
+    }
+    this.queue = new LinkedBlockingQueue<>();
+    this.closed = false;
+    this.lastSyncNanos = System.nanoTime();
+    this.hasUnsyncedData = false;
+    this.blockOffset = (int) (channel.size() % BLOCK_SIZE);
+    this.writerThread = new Thread(this::runWriter, "wal-writer-" + filePath.getFileName());
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  /**
+   * Appends a single write of UTF-8 strings.
+   */
+  public void writeEntry(String key, long sequence, String value) throws IOException {
+    writeEntry(Bytes.of(key), sequence, Bytes.of(value));
+  }
+
+  public void writeEntry(byte[] key, long sequence, byte[] value) throws IOException {
+    writeBatch(sequence, List.of(new AbstractMap.SimpleImmutableEntry<>(key, value)));
   }
 
-  public void writeEntry(String key, String value) throws IOException {
-    // append : KeyLen(4) + Key + ValLen(4) + Value
-    byte[] keyBytes = key.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-    byte[] valueBytes = value.getBytes(java.nio.charset.StandardCharsets.UTF_8);
-    out.writeInt(keyBytes.length);
-    out.write(keyBytes);
-    out.writeInt(valueBytes.length);
-    out.write(valueBytes);
+  /**
+   * Appends {@code entries} as a single record, which recovery replays all or nothing.
+   * @param firstSequence Sequence number of the first entry; the others follow it.
+   * @param entries Puts and {@link RangeTombstone}s.
+   */
+  public void writeBatch(long firstSequence, List<? extends Map.Entry<byte[], byte[]>> entries)
+      throws IOException {
+    int length = 8 + 4;
+    for (Map.Entry<byte[], byte[]> entry : entries) {
+      length += 1 + 4 + entry.getKey().length + 4 + entry.getValue().length;
+    }
+    ByteBuffer record = ByteBuffer.allocate(length);
+    record.putLong(firstSequence);
+    record.putInt(entries.size());
+    for (Map.Entry<byte[], byte[]> entry : entries) {
+      record.put(entry instanceof RangeTombstone ? RANGE_DELETION_ENTRY : VALUE_ENTRY);
+      record.putInt(entry.getKey().length);
+      record.put(entry.getKey());
+      record.putInt(entry.getValue().length);
+      record.put(entry.getValue());
+    }
+    append(record.array());
+  }
+
+  /**
+   * @return The CRC32C of a fragment's type and data.
+   */
+  static int fragmentChecksum(byte type, byte[] data, int offset, int length) {
+    CRC32C crc = new CRC32C();
+    crc.update(type);
+    crc.update(data, offset, length);
+    return (int) crc.getValue();
+  }
 
-    out.flush();
+  /**
+   * Enqueues an encoded record and blocks until the writer thread has committed the
+   * batch containing it.
+   */
+  private void append(byte[] record) throws IOException {
+    PendingWrite write = new PendingWrite(record);
+    synchronized (this) {
+      if (closed) {
+        throw new IOException("WAL is closed: " + filePath);
+      }
+      if (failure != null) {
+        throw new IOException("WAL is unusable after a failed write: " + filePath, failure);
+      }
+      queue.add(write);
+    }
+    awaitQuietly(write.done);
+  }
+
+  private void runWriter() {
+    List<PendingWrite> batch = new ArrayList<>();
+    boolean stop = false;
+    while (!stop) {
+      try {
+        PendingWrite first = nextWrite();
+        if (first == null) {
+          // The sync interval expired while idle.
+          sync();
+          continue;
+        }
+        batch.add(first);
+        queue.drainTo(batch, MAX_BATCH_RECORDS - 1);
+        stop = batch.remove(CLOSE_MARKER);
+        commit(batch);
+      } catch (InterruptedException e) {
+        stop = true;
+      } catch (IOException e) {
+        // A partial write leaves the log and the block offset out of step, so nothing
+        // after it could be recovered: fail this batch and everything queued behind it.
+        failure = e;
+        for (PendingWrite write : batch) {
+          write.done.completeExceptionally(e);
+        }
+        stop = true;
+      } finally {
+        batch.clear();
+      }
+    }
+    if (failure == null) {
+      try {
+        if (hasUnsyncedData || syncPolicy != SyncPolicy.NO_SYNC) {
+          channel.force(false);
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+    // Anything still queued can no longer be written. Appends check the failure under the
+    // same lock, so none is queued after this.
+    synchronized (this) {
+      IOException leftoverException = failure != null
+          ? new IOException("WAL is unusable after a failed write: " + filePath, failure)
+          : new IOException("WAL is closed: " + filePath);
+      PendingWrite leftover;
+      while ((leftover = queue.poll()) != null) {
+        leftover.done.completeExceptionally(leftoverException);
+      }
+    }
+  }
+
+  private PendingWrite nextWrite() throws InterruptedException, IOException {
+    if (syncPolicy == SyncPolicy.SYNC_INTERVAL && hasUnsyncedData) {
+      long waitNanos = syncIntervalNanos - (System.nanoTime() - lastSyncNanos);
+      if (waitNanos <= 0) {
+        sync();
+        return queue.take();
+      }
+      return queue.poll(waitNanos, TimeUnit.NANOSECONDS);
+    }
+    return queue.take();
+  }
+
+  private void commit(List<PendingWrite> batch) throws IOException {
+    if (!batch.isEmpty()) {
+      int totalBytes = 0;
+      for (PendingWrite write : batch) {
+        totalBytes += write.record.length;
+      }
+      // Room for the fragment headers and block trailers of typical records; grows if not.
+      ByteArrayOutputStream framed = new ByteArrayOutputStream(
+          totalBytes + batch.size() * FRAGMENT_HEADER_SIZE + 2 * FRAGMENT_HEADER_SIZE);
+      for (PendingWrite write : batch) {
+        frame(write.record, framed);
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(framed.toByteArray());
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      hasUnsyncedData = true;
+
+      if (syncPolicy == SyncPolicy.SYNC_PER_BATCH) {
+        sync();
+      } else if (syncPolicy == SyncPolicy.SYNC_INTERVAL
+          && System.nanoTime() - lastSyncNanos >= syncIntervalNanos) {
+        sync();
+      }
+    }
+    for (PendingWrite write : batch) {
+      write.done.complete(null);
+    }
+  }
+
+  /**
+   * Splits {@code record} into fragments that fill up the current block and continue in
+   * the following ones.
+   */
+  private void frame(byte[] record, ByteArrayOutputStream out) {
+    int offset = 0;
+    boolean begin = true;
+    do {
+      int leftover = BLOCK_SIZE - blockOffset;
+      if (leftover < FRAGMENT_HEADER_SIZE) {
+        out.write(new byte[leftover], 0, leftover);
+        blockOffset = 0;
+        leftover = BLOCK_SIZE;
+      }
+      int length = Math.min(record.length - offset, leftover - FRAGMENT_HEADER_SIZE);
+      boolean end = offset + length == record.length;
+      byte type = begin ? (end ? FULL : FIRST) : (end ? LAST : MIDDLE);
+
+      ByteBuffer header = ByteBuffer.allocate(FRAGMENT_HEADER_SIZE);
+      header.putInt(fragmentChecksum(type, record, offset, length));
+      header.putShort((short) length);
+      header.put(type);
+      out.write(header.array(), 0, FRAGMENT_HEADER_SIZE);
+      out.write(record, offset, length);
+
+      offset += length;
+      blockOffset += FRAGMENT_HEADER_SIZE + length;
+      begin = false;
+    } while (offset < record.length);
+  }
+
+  private void sync() throws IOException {
+    if (hasUnsyncedData) {
+      channel.force(false);
+      hasUnsyncedData = false;
+    }
+    lastSyncNanos = System.nanoTime();
+  }
+
+  private static void awaitQuietly(CompletableFuture<Void> future) throws IOException {
+    try {
+      future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for WAL commit");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("WAL write failed", cause);
+    }
   }
 
   public void delete() throws IOException {
@@ -43,41 +354,115 @@ public class WAL implements AutoCloseable{
 
   @Override
   public void close() throws IOException {
-    out.close();
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      queue.add(CLOSE_MARKER);
+    }
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing WAL " + filePath);
+    } finally {
+      if (!writerThread.isAlive()) {
+        channel.close();
+      }
+    }
+    if (failure != null) {
+      throw new IOException("WAL closed after a failed write: " + filePath, failure);
+    }
+  }
+
+  public Path getFilePath() {
+    return filePath;
   }
 
-  public static void recoverAll(Path rootPath, Memtable memtable) throws IOException {
+  /**
+   * Replays every WAL under {@code rootPath}, oldest first, into {@code memtable}.
+   * <p>
+   * Files are decoded and checksummed in parallel, a few ahead of the one being
+   * replayed, while the replay itself stays in log order.
+   * @return The largest sequence number recovered, or 0 if there was none.
+   */
+  public static long recoverAll(Path rootPath, Memtable memtable) throws IOException {
+    List<Path> walFiles;
     try(var stream = Files.list(rootPath)){
-      List<Path> walFiles = stream
+      walFiles = stream
           .filter(path -> path.getFileName().toString().startsWith(Constants.WAL_PREFIX))
           .filter(path -> path.getFileName().toString().endsWith(Constants.WAL_FILE_EXTENSION))
           .sorted(Comparator.comparing(path -> path.getFileName().toString()))
           .collect(Collectors.toList());
-      for (Path walFile : walFiles){
-        recoverMemtableFromWal(walFile, memtable);
+    }
+    if (walFiles.size() <= 1) {
+      long lastSequence = 0L;
+      for (Path walFile : walFiles) {
+        lastSequence = Math.max(lastSequence, recoverMemtableFromWal(walFile, memtable));
+      }
+      return lastSequence;
+    }
+
+    int parallelism = Math.min(walFiles.size(), Runtime.getRuntime().availableProcessors());
+    ExecutorService decoders = Executors.newFixedThreadPool(parallelism, runnable -> {
+      Thread thread = new Thread(runnable, "wal-recovery-" + rootPath.getFileName());
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      // Bounded look-ahead, so that at most parallelism + 1 decoded files are in memory.
+      ArrayDeque<Future<List<WALReader.Record>>> decoded = new ArrayDeque<>();
+      int submitted = 0;
+      long lastSequence = 0L;
+      while (submitted < walFiles.size() || !decoded.isEmpty()) {
+        while (submitted < walFiles.size() && decoded.size() <= parallelism) {
+          Path walFile = walFiles.get(submitted++);
+          decoded.add(decoders.submit(() -> WALReader.read(walFile)));
+        }
+        lastSequence = Math.max(lastSequence, replay(awaitDecoded(decoded.poll()), memtable));
       }
+      return lastSequence;
+    } finally {
+      decoders.shutdownNow();
     }
   }
 
-  public static void recoverMemtableFromWal(Path walPath, Memtable memtable) throws IOException {
-    if (!Files.exists(walPath)) {return;}
+  private static List<WALReader.Record> awaitDecoded(Future<List<WALReader.Record>> future)
+      throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted during WAL recovery");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("WAL recovery failed", cause);
+    }
+  }
 
-    try (DataInputStream in = new DataInputStream(
-        new BufferedInputStream(Files.newInputStream(walPath)))) {
-      while (in.available() > 0) {
-        int keyLen = in.readInt();
-        byte[] keyBytes = new byte[keyLen];
-        in.readFully(keyBytes);
-        int valueLen = in.readInt();
-        byte[] valueBytes = new byte[valueLen];
-        in.readFully(valueBytes);
+  /**
+   * Replays one WAL into {@code memtable}. Replay stops at the first truncated or
+   * corrupt record, which is what a crash in the middle of a write leaves behind.
+   * @return The largest sequence number recovered, or 0 if there was none.
+   */
+  public static long recoverMemtableFromWal(Path walPath, Memtable memtable) throws IOException {
+    return replay(WALReader.read(walPath), memtable);
+  }
 
-        memtable.put(new String(keyBytes, java.nio.charset.StandardCharsets.UTF_8),
-            new String(valueBytes, java.nio.charset.StandardCharsets.UTF_8));
+  private static long replay(List<WALReader.Record> records, Memtable memtable) {
+    long lastSequence = 0L;
+    for (WALReader.Record record : records) {
+      long sequence = record.firstSequence;
+      for (Map.Entry<byte[], byte[]> entry : record.entries) {
+        memtable.apply(entry, sequence++);
       }
-    } catch (IOException e) {
-      System.err.println("Warning: WAL file ended unexpectedly (truncated). Recovered data up to the break.");
+      lastSequence = Math.max(lastSequence, record.lastSequence());
     }
+    return lastSequence;
   }
 
   public static Path generateWALPath(Path rootPath) {
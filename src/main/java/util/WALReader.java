@@ -0,0 +1,221 @@
+package util;
+
+import com.andrea.lsm.iterator.RangeTombstone;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes a WAL file into its logical records, without touching a Memtable, so that
+ * several files can be decoded in parallel and then replayed in order.
+ * <p>
+ * Decoding stops at the first fragment that is truncated, fails its checksum or does not
+ * fit the fragment sequence: everything before it is returned, nothing after it. A crash
+ * only ever tears the tail of the log, so this recovers every write that completed.
+ */
+final class WALReader {
+
+  /**
+   * A batch of writes as logged by {@link WAL#writeBatch(long, List)}: its entries, puts
+   * and {@link RangeTombstone}s, take the sequence numbers from {@code firstSequence}
+   * upwards.
+   */
+  static final class Record {
+    final long firstSequence;
+    final List<Map.Entry<byte[], byte[]>> entries;
+
+    Record(long firstSequence, List<Map.Entry<byte[], byte[]>> entries) {
+      this.firstSequence = firstSequence;
+      this.entries = entries;
+    }
+
+    long lastSequence() {
+      return firstSequence + entries.size() - 1;
+    }
+  }
+
+  private final Path walPath;
+  private final InputStream in;
+  private final byte[] block = new byte[WAL.BLOCK_SIZE];
+  private int position;
+  private int limit;
+
+  private WALReader(Path walPath, InputStream in) {
+    this.walPath = walPath;
+    this.in = in;
+  }
+
+  /**
+   * @return The intact records of {@code walPath} in log order; empty if it does not exist.
+   */
+  static List<Record> read(Path walPath) throws IOException {
+    List<Record> records = new ArrayList<>();
+    if (!Files.exists(walPath)) {
+      return records;
+    }
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(walPath))) {
+      WALReader reader = new WALReader(walPath, in);
+      reader.nextBlock();
+      long magic = reader.limit >= Long.BYTES ? ByteBuffer.wrap(reader.block).getLong() : 0L;
+      if (magic == WAL.MAGIC) {
+        reader.position = Long.BYTES;
+        reader.readFragments(records);
+      } else {
+        // The original format is not block-framed: decode it from a fresh stream.
+        try (DataInputStream legacy = new DataInputStream(
+            new BufferedInputStream(Files.newInputStream(walPath)))) {
+          readLegacy(legacy, records);
+        }
+      }
+    }
+    return records;
+  }
+
+  private boolean nextBlock() throws IOException {
+    position = 0;
+    limit = in.readNBytes(block, 0, block.length);
+    return limit > 0;
+  }
+
+  private void readFragments(List<Record> records) throws IOException {
+    ByteArrayOutputStream pending = null;
+    while (true) {
+      if (limit - position < WAL.FRAGMENT_HEADER_SIZE) {
+        // Either the zero trailer of a full block or the end of the file.
+        if (limit < block.length || !nextBlock()) {
+          break;
+        }
+        continue;
+      }
+      ByteBuffer header = ByteBuffer.wrap(block, position, WAL.FRAGMENT_HEADER_SIZE);
+      int expectedCrc = header.getInt();
+      int length = Short.toUnsignedInt(header.getShort());
+      byte type = header.get();
+      int dataStart = position + WAL.FRAGMENT_HEADER_SIZE;
+      if (dataStart + length > limit) {
+        corrupt("truncated fragment");
+        return;
+      }
+      if (WAL.fragmentChecksum(type, block, dataStart, length) != expectedCrc) {
+        corrupt("checksum mismatch");
+        return;
+      }
+      position = dataStart + length;
+
+      switch (type) {
+        case WAL.FULL:
+          if (pending != null) {
+            corrupt("record interrupted by a new one");
+            return;
+          }
+          if (!decode(ByteBuffer.wrap(block, dataStart, length), records)) {
+            return;
+          }
+          break;
+        case WAL.FIRST:
+          if (pending != null) {
+            corrupt("record interrupted by a new one");
+            return;
+          }
+          pending = new ByteArrayOutputStream();
+          pending.write(block, dataStart, length);
+          break;
+        case WAL.MIDDLE:
+        case WAL.LAST:
+          if (pending == null) {
+            corrupt("fragment without its start");
+            return;
+          }
+          pending.write(block, dataStart, length);
+          if (type == WAL.LAST) {
+            if (!decode(ByteBuffer.wrap(pending.toByteArray()), records)) {
+              return;
+            }
+            pending = null;
+          }
+          break;
+        default:
+          corrupt("unknown fragment type " + type);
+          return;
+      }
+    }
+    if (pending != null) {
+      corrupt("truncated record");
+    }
+  }
+
+  /**
+   * Decodes a record payload: {@code sequence(8) count(4)} and then {@code count} times
+   * {@code entryType(1) keyLen(4) key valueLen(4) value}.
+   */
+  private boolean decode(ByteBuffer payload, List<Record> records) {
+    try {
+      long sequence = payload.getLong();
+      int count = payload.getInt();
+      if (count <= 0) {
+        corrupt("invalid entry count " + count);
+        return false;
+      }
+      List<Map.Entry<byte[], byte[]>> entries = new ArrayList<>(Math.min(count, 1024));
+      for (int i = 0; i < count; i++) {
+        byte type = payload.get();
+        byte[] key = readBytes(payload);
+        byte[] value = readBytes(payload);
+        if (type == WAL.VALUE_ENTRY) {
+          entries.add(new AbstractMap.SimpleImmutableEntry<>(key, value));
+        } else if (type == WAL.RANGE_DELETION_ENTRY) {
+          entries.add(new RangeTombstone(key, 0L, value));
+        } else {
+          corrupt("unknown entry type " + type);
+          return false;
+        }
+      }
+      records.add(new Record(sequence, entries));
+      return true;
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      corrupt("malformed record");
+      return false;
+    }
+  }
+
+  private static byte[] readBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private void corrupt(String reason) {
+    System.err.println("Warning: WAL " + walPath + " is damaged (" + reason
+        + "). Recovered data up to the break.");
+  }
+
+  /**
+   * Decodes the original format, which has no magic: one unchecked
+   * {@code keyLen(4) key valueLen(4) value} record per write, with sequence 0.
+   */
+  private static void readLegacy(DataInputStream in, List<Record> records) throws IOException {
+    try {
+      while (in.available() > 0) {
+        byte[] keyBytes = new byte[in.readInt()];
+        in.readFully(keyBytes);
+        byte[] valueBytes = new byte[in.readInt()];
+        in.readFully(valueBytes);
+        records.add(new Record(0L,
+            List.of(new AbstractMap.SimpleImmutableEntry<>(keyBytes, valueBytes))));
+      }
+    } catch (EOFException e) {
+      System.err.println("Warning: WAL file ended unexpectedly (truncated). Recovered data up to the break.");
+    }
+  }
+}
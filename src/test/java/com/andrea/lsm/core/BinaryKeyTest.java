@@ -0,0 +1,134 @@
+package com.andrea.lsm.core;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Constants;
+import util.Options;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for the {@code byte[]} and {@code ByteBuffer} API of {@link DB} and
+ * for {@link Options#setComparator(Comparator)}.
+ */
+class BinaryKeyTest {
+
+  @TempDir
+  Path tempDir;
+
+  /** A composite id whose bytes cover the whole unsigned range. */
+  private static byte[] key(int i) {
+    return ByteBuffer.allocate(5).put((byte) (i * 37)).putInt(i).array();
+  }
+
+  private static List<byte[]> keys(DBIterator<byte[], byte[]> iterator) {
+    List<byte[]> keys = new ArrayList<>();
+    while (iterator.hasNext()) {
+      keys.add(iterator.next().getKey());
+    }
+    return keys;
+  }
+
+  /**
+   * Writes enough keys to reach level 0 and deeper levels, reopens the database and
+   * checks that every key is found and iterated in {@code comparator} order.
+   */
+  private void assertOrderedAcrossLevels(Comparator<byte[]> comparator) throws IOException {
+    Options options = new Options().setComparator(comparator);
+    TreeMap<byte[], byte[]> expected = new TreeMap<>(comparator);
+    try (DB db = new DB(tempDir.toString(), options)) {
+      for (int i = 0; i < 2000; i++) {
+        byte[] value = ("v" + i).getBytes();
+        db.put(key(i % 700), value);
+        expected.put(key(i % 700), value);
+      }
+      db.remove(key(3));
+      expected.remove(key(3));
+    }
+    try (DB db = new DB(tempDir.toString(), options)) {
+      for (Entry<byte[], byte[]> entry : expected.entrySet()) {
+        assertArrayEquals(entry.getValue(), db.get(entry.getKey()));
+      }
+      assertNull(db.get(key(3)));
+      try (DBIterator<byte[], byte[]> iterator = db.scan((byte[]) null, null)) {
+        List<byte[]> keys = keys(iterator);
+        assertEquals(expected.size(), keys.size());
+        assertTrue(Arrays.deepEquals(expected.keySet().toArray(), keys.toArray()),
+            "Keys must be iterated in comparator order");
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Binary keys are ordered as unsigned bytes through flushes and compactions")
+  void testUnsignedOrder() throws IOException {
+    assertOrderedAcrossLevels(Arrays::compareUnsigned);
+  }
+
+  @Test
+  @DisplayName("A custom comparator orders the Memtable, SSTables and iterators")
+  void testCustomComparator() throws IOException {
+    Comparator<byte[]> reversed = Arrays::compareUnsigned;
+    assertOrderedAcrossLevels(reversed.reversed());
+  }
+
+  @Test
+  @DisplayName("Arrays and buffers passed in are copied; scans honour binary bounds")
+  void testCopiesAndBounds() throws IOException {
+    try (DB db = new DB(tempDir.toString())) {
+      byte[] key = {(byte) 0x80, 1};
+      byte[] value = {1, 2, 3};
+      db.put(key, value);
+      key[1] = 2;
+      value[0] = 9;
+      assertArrayEquals(new byte[] {1, 2, 3}, db.get(new byte[] {(byte) 0x80, 1}));
+      assertNull(db.get(key));
+
+      ByteBuffer bufferKey = ByteBuffer.wrap(new byte[] {0, (byte) 0xff, 7}).position(1);
+      db.put(bufferKey, ByteBuffer.wrap(new byte[] {4}));
+      assertEquals(1, bufferKey.position(), "The buffer position is left as it is");
+      assertEquals(ByteBuffer.wrap(new byte[] {4}), db.get(ByteBuffer.wrap(new byte[] {(byte) 0xff, 7})));
+
+      db.put(new byte[] {0x7f}, new byte[] {5});
+      // 0x80 sorts after 0x7f unsigned, and 0xff after both.
+      try (DBIterator<byte[], byte[]> iterator = db.scan(new byte[] {0x7f}, new byte[] {(byte) 0xff})) {
+        List<byte[]> keys = keys(iterator);
+        assertEquals(2, keys.size());
+        assertArrayEquals(new byte[] {0x7f}, keys.get(0));
+        assertArrayEquals(new byte[] {(byte) 0x80, 1}, keys.get(1));
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("The reserved tombstone value is rejected instead of being stored as a deletion")
+  void testTombstoneValueIsRejected() throws IOException {
+    byte[] tombstone = Constants.TOMBSTONE.getBytes(StandardCharsets.UTF_8);
+    try (DB db = new DB(tempDir.toString())) {
+      db.put(new byte[] {1}, new byte[] {2});
+      assertThrows(IllegalArgumentException.class, () -> db.put(new byte[] {1}, tombstone));
+      assertThrows(IllegalArgumentException.class,
+          () -> db.put(ByteBuffer.wrap(new byte[] {1}), ByteBuffer.wrap(tombstone)));
+      assertThrows(IllegalArgumentException.class, () -> db.put("key", Constants.TOMBSTONE));
+      assertThrows(IllegalArgumentException.class,
+          () -> new WriteBatch().put(new byte[] {1}, tombstone));
+      assertArrayEquals(new byte[] {2}, db.get(new byte[] {1}), "The old value is untouched");
+
+      // Removals still store the tombstone.
+      db.remove(new byte[] {1});
+      assertNull(db.get(new byte[] {1}));
+    }
+  }
+}
@@ -0,0 +1,109 @@
+package com.andrea.lsm.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for {@link DB#newIterator()} and {@link DB#scan(String, String)}.
+ */
+class DBIteratorTest {
+
+  @TempDir
+  Path tempDir;
+
+  private DB db;
+  private TreeMap<String, String> expected;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    db = new DB(tempDir.toString());
+    expected = new TreeMap<>();
+    // Enough writes to spread the data over Memtables, level 0 and deeper levels,
+    // with overwrites and deletions shadowing older entries.
+    Random random = new Random(7);
+    for (int i = 0; i < 3000; i++) {
+      String key = String.format("key%04d", random.nextInt(800));
+      if (random.nextInt(5) == 0) {
+        db.remove(key);
+        expected.remove(key);
+      } else {
+        String value = "v" + i;
+        db.put(key, value);
+        expected.put(key, value);
+      }
+    }
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    db.close();
+  }
+
+  private static List<Entry<String, String>> drain(DBIterator<String, String> iterator) {
+    List<Entry<String, String>> entries = new ArrayList<>();
+    while (iterator.hasNext()) {
+      entries.add(iterator.next());
+    }
+    return entries;
+  }
+
+  @Test
+  @DisplayName("A full iteration returns the newest value of every live key in order")
+  void testFullIteration() {
+    try (DBIterator<String, String> iterator = db.newIterator()) {
+      assertEquals(new ArrayList<>(expected.entrySet()), drain(iterator));
+    }
+  }
+
+  @Test
+  @DisplayName("Scans honour an inclusive start and exclusive end key")
+  void testScanBounds() {
+    try (DBIterator<String, String> iterator = db.scan("key0100", "key0200")) {
+      assertEquals(new ArrayList<>(expected.subMap("key0100", "key0200").entrySet()), drain(iterator));
+    }
+    try (DBIterator<String, String> iterator = db.scan("key0750", null)) {
+      assertEquals(new ArrayList<>(expected.tailMap("key0750").entrySet()), drain(iterator));
+    }
+    try (DBIterator<String, String> iterator = db.scan("zzz", null)) {
+      assertFalse(iterator.hasNext());
+    }
+  }
+
+  @Test
+  @DisplayName("Seek repositions an open iterator, backwards and forwards")
+  void testSeek() {
+    try (DBIterator<String, String> iterator = db.newIterator()) {
+      iterator.seek("key0500x");
+      assertEquals(expected.ceilingEntry("key0500x"), iterator.next());
+      iterator.seek("key0001");
+      assertEquals(expected.ceilingEntry("key0001"), iterator.next());
+    }
+  }
+
+  @Test
+  @DisplayName("An open iterator keeps its view while new writes and compactions happen")
+  void testIteratorOutlivesCompaction() throws IOException {
+    Map<String, String> before = new TreeMap<>(expected);
+    try (DBIterator<String, String> iterator = db.scan("key0000", "key0100")) {
+      for (int i = 0; i < 2000; i++) {
+        db.put(String.format("key%04d", 100 + i % 700), "late" + i);
+      }
+      List<Entry<String, String>> seen = drain(iterator);
+      assertEquals(new ArrayList<>(((TreeMap<String, String>) before).subMap("key0000", "key0100").entrySet()), seen);
+    }
+  }
+}
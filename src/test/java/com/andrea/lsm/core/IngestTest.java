@@ -0,0 +1,166 @@
+package com.andrea.lsm.core;
+
+import com.andrea.lsm.manifest.Manifest;
+import com.andrea.lsm.manifest.Snapshot;
+import com.andrea.lsm.sstable.SSTableWriter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Constants;
+import util.Options;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for {@link DB#ingest(List)} of tables built with {@link SSTableWriter}.
+ */
+class IngestTest {
+
+  @TempDir
+  Path tempDir;
+
+  private Path dbDir;
+  private Path externalDir;
+  private DB db;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    dbDir = tempDir.resolve("db");
+    externalDir = Files.createDirectories(tempDir.resolve("external"));
+    db = new DB(dbDir.toString());
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    db.close();
+  }
+
+  private static String key(int i) {
+    return String.format("key%05d", i);
+  }
+
+  /**
+   * Builds an external table holding keys {@code [from, to)} with values {@code prefix + i}.
+   */
+  private Path buildTable(String name, int from, int to, String prefix) throws IOException {
+    Path path = externalDir.resolve(name);
+    SSTableWriter writer = new SSTableWriter(path, new Options());
+    for (int i = from; i < to; i++) {
+      writer.add(key(i), prefix + i);
+    }
+    writer.finish().close();
+    return path;
+  }
+
+  @Test
+  @DisplayName("Ingested tables are readable, survive a restart and land on the last level")
+  void testIngestIntoEmptyDatabase() throws IOException {
+    Path first = buildTable("first.sst", 0, 1000, "v");
+    Path second = buildTable("second.sst", 1000, 2000, "v");
+    db.ingest(List.of(second, first));
+
+    assertFalse(Files.exists(first), "Ingested files are moved into the database");
+    assertEquals("v0", db.get(key(0)));
+    assertEquals("v1999", db.get(key(1999)));
+    int count = 0;
+    try (DBIterator<String, String> iterator = db.scan(key(990), key(1010))) {
+      while (iterator.hasNext()) {
+        Entry<String, String> entry = iterator.next();
+        assertEquals(key(990 + count), entry.getKey());
+        count++;
+      }
+    }
+    assertEquals(20, count);
+
+    db.close();
+    assertEquals(2, new Manifest(dbDir.toString()).getSSTable(Constants.MAX_LEVEL - 1).size());
+    db = new DB(dbDir.toString());
+    assertEquals("v1500", db.get(key(1500)));
+  }
+
+  @Test
+  @DisplayName("Ingested data is newer than earlier writes but older than later ones")
+  void testIngestOrdersAfterExistingWrites() throws IOException {
+    db.put(key(5), "memtable");
+    db.put(key(500), "untouched");
+    try (Snapshot before = db.getSnapshot()) {
+      db.ingest(List.of(buildTable("t.sst", 0, 100, "ingested")));
+
+      assertEquals("ingested5", db.get(key(5)));
+      assertEquals("untouched", db.get(key(500)));
+      assertEquals("memtable", db.get(key(5), before));
+      assertNull(db.get(key(6), before), "A snapshot must not see ingested data");
+
+      db.put(key(6), "later");
+      db.remove(key(7));
+      assertEquals("later", db.get(key(6)));
+      assertNull(db.get(key(7)));
+    }
+
+    db.close();
+    db = new DB(dbDir.toString());
+    assertEquals("ingested5", db.get(key(5)));
+    assertEquals("later", db.get(key(6)));
+    assertNull(db.get(key(7)));
+  }
+
+  @Test
+  @DisplayName("Invalid input is rejected and the files are left in place")
+  void testRejectsInvalidInput() throws IOException {
+    Path a = buildTable("a.sst", 0, 100, "a");
+    Path b = buildTable("b.sst", 50, 150, "b");
+    assertThrows(IllegalArgumentException.class, () -> db.ingest(List.of(a, b)));
+    assertTrue(Files.exists(a));
+    assertTrue(Files.exists(b));
+    assertNull(db.get(key(0)));
+
+    // A table written by the database itself carries sequence numbers.
+    db.put("x", "1");
+    db.close();
+    Path own;
+    try (var files = Files.list(dbDir)) {
+      own = files.filter(p -> p.getFileName().toString().startsWith(Constants.SSTABLE_PREFIX))
+          .findFirst().orElseThrow();
+    }
+    Path copy = Files.copy(own, externalDir.resolve("own.sst"));
+    db = new DB(dbDir.toString());
+    assertThrows(IllegalArgumentException.class, () -> db.ingest(List.of(copy)));
+    assertTrue(Files.exists(copy));
+  }
+
+  @Test
+  @DisplayName("Ingested entries are kept correctly when compacted with older data")
+  void testCompactionAfterIngest() throws IOException {
+    for (int i = 0; i < 300; i++) {
+      db.put(key(i), "old" + i);
+    }
+    db.ingest(List.of(buildTable("t.sst", 100, 200, "new")));
+    for (int i = 0; i < 300; i++) {
+      db.put(key(i + 300), "filler" + i);
+    }
+    db.close();
+    db = new DB(dbDir.toString());
+
+    Map<String, String> expected = Map.of(key(99), "old99", key(100), "new100",
+        key(199), "new199", key(200), "old200");
+    for (Entry<String, String> entry : expected.entrySet()) {
+      assertEquals(entry.getValue(), db.get(entry.getKey()));
+    }
+    List<String> values = new ArrayList<>();
+    try (DBIterator<String, String> iterator = db.scan(key(98), key(202))) {
+      iterator.forEachRemaining(entry -> values.add(entry.getValue()));
+    }
+    assertEquals(List.of("old98", "old99", "new100"), values.subList(0, 3));
+    assertEquals(List.of("new199", "old200", "old201"), values.subList(101, 104));
+  }
+}
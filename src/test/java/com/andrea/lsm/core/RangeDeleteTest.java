@@ -0,0 +1,133 @@
+package com.andrea.lsm.core;
+
+import com.andrea.lsm.manifest.Snapshot;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Options;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for {@link DB#deleteRange(String, String)}: a single write that hides
+ * every older key of a range from gets, scans and compactions.
+ */
+class RangeDeleteTest {
+
+  @TempDir
+  Path tempDir;
+
+  private static String key(int i) {
+    return String.format("key%04d", i);
+  }
+
+  private static List<String> keys(DBIterator<String, String> iterator) {
+    List<String> keys = new ArrayList<>();
+    while (iterator.hasNext()) {
+      keys.add(iterator.next().getKey());
+    }
+    return keys;
+  }
+
+  private static List<String> expectedKeys(int count, int deletedFrom, int deletedTo,
+      int... rewritten) {
+    List<String> keys = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      boolean deleted = i >= deletedFrom && i < deletedTo;
+      for (int r : rewritten) {
+        deleted &= i != r;
+      }
+      if (!deleted) {
+        keys.add(key(i));
+      }
+    }
+    return keys;
+  }
+
+  @Test
+  @DisplayName("A range deletion hides older keys from gets and scans, but not from snapshots")
+  void testGetAndScan() throws IOException {
+    try (DB db = new DB(tempDir.toString())) {
+      for (int i = 0; i < 100; i++) {
+        db.put(key(i), "value" + i);
+      }
+      try (Snapshot snapshot = db.getSnapshot()) {
+        db.deleteRange(key(20), key(80));
+        db.put(key(50), "rewritten");
+
+        assertEquals("value19", db.get(key(19)));
+        assertNull(db.get(key(20)));
+        assertNull(db.get(key(79)));
+        assertEquals("value80", db.get(key(80)), "The end key is not deleted");
+        assertEquals("rewritten", db.get(key(50)));
+        assertEquals("value30", db.get(key(30), snapshot));
+
+        try (DBIterator<String, String> iterator = db.newIterator()) {
+          assertEquals(expectedKeys(100, 20, 80, 50), keys(iterator));
+        }
+        try (DBIterator<String, String> iterator = db.scan(key(10), key(60))) {
+          assertEquals(expectedKeys(60, 20, 80, 50).subList(10, 21), keys(iterator));
+        }
+        try (DBIterator<String, String> iterator = db.newIterator(snapshot)) {
+          assertEquals(100, keys(iterator).size());
+        }
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Range deletions survive flushes, compactions and reopening")
+  void testPersistence() throws IOException {
+    Options options = new Options().setWriteBufferSize(16 * 1024);
+    try (DB db = new DB(tempDir.toString(), options)) {
+      for (int i = 0; i < 3000; i++) {
+        db.put(key(i), "value" + i);
+      }
+      db.deleteRange(key(500), key(2500));
+      db.put(key(1000), "rewritten");
+      // Enough writes elsewhere to flush the deletion and compact it with the keys.
+      for (int round = 0; round < 3; round++) {
+        for (int i = 3000; i < 4000; i++) {
+          db.put(key(i), "value" + round);
+        }
+      }
+      assertNull(db.get(key(1500)));
+      assertEquals("rewritten", db.get(key(1000)));
+    }
+    try (DB db = new DB(tempDir.toString(), options)) {
+      for (int i = 0; i < 3000; i++) {
+        String expected = i == 1000 ? "rewritten"
+            : i >= 500 && i < 2500 ? null : "value" + i;
+        assertEquals(expected, db.get(key(i)), key(i));
+      }
+      try (DBIterator<String, String> iterator = db.scan(key(0), key(3000))) {
+        assertEquals(expectedKeys(3000, 500, 2500, 1000), keys(iterator));
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("A batch applies a range deletion in order with its other operations")
+  void testWriteBatch() throws IOException {
+    try (DB db = new DB(tempDir.toString())) {
+      db.write(new WriteBatch()
+          .put("a1", "1")
+          .put("b", "1")
+          .deleteRange("a", "b")
+          .put("a2", "2"));
+      assertNull(db.get("a1"));
+      assertEquals("2", db.get("a2"));
+      assertEquals("1", db.get("b"));
+
+      assertThrows(IllegalArgumentException.class, () -> db.deleteRange("b", "a"));
+      assertThrows(IllegalArgumentException.class, () -> db.deleteRange("a", "a"));
+      assertThrows(IllegalArgumentException.class,
+          () -> db.write(new WriteBatch().deleteRange("b", "a")));
+    }
+  }
+}
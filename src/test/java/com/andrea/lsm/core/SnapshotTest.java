@@ -0,0 +1,114 @@
+package com.andrea.lsm.core;
+
+import com.andrea.lsm.manifest.Snapshot;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for {@link DB#getSnapshot()}: reads at a snapshot must not see later
+ * writes, even after those are flushed and compacted.
+ */
+class SnapshotTest {
+
+  @TempDir
+  Path tempDir;
+
+  private DB db;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    db = new DB(tempDir.toString());
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    db.close();
+  }
+
+  private static String key(int i) {
+    return String.format("key%04d", i);
+  }
+
+  @Test
+  @DisplayName("Gets at a snapshot ignore later overwrites and deletions")
+  void testGetAtSnapshot() throws IOException {
+    db.put("a", "1");
+    db.put("b", "1");
+    try (Snapshot snapshot = db.getSnapshot()) {
+      db.put("a", "2");
+      db.remove("b");
+      db.put("c", "2");
+
+      assertEquals("1", db.get("a", snapshot));
+      assertEquals("1", db.get("b", snapshot));
+      assertNull(db.get("c", snapshot));
+
+      assertEquals("2", db.get("a"));
+      assertNull(db.get("b"));
+    }
+  }
+
+  @Test
+  @DisplayName("A snapshot survives flushes and compactions of the versions it sees")
+  void testSnapshotSurvivesCompaction() throws IOException {
+    TreeMap<String, String> before = new TreeMap<>();
+    for (int i = 0; i < 300; i++) {
+      db.put(key(i), "old" + i);
+      before.put(key(i), "old" + i);
+    }
+    try (Snapshot snapshot = db.getSnapshot()) {
+      // Enough overwrites to flush many Memtables and push data down several levels.
+      for (int round = 0; round < 5; round++) {
+        for (int i = 0; i < 300; i++) {
+          if (i % 3 == 0) {
+            db.remove(key(i));
+          } else {
+            db.put(key(i), "new" + round + "_" + i);
+          }
+        }
+      }
+
+      for (int i = 0; i < 300; i++) {
+        assertEquals("old" + i, db.get(key(i), snapshot), key(i));
+      }
+      List<Entry<String, String>> seen = new ArrayList<>();
+      try (DBIterator<String, String> iterator = db.newIterator(snapshot)) {
+        iterator.forEachRemaining(seen::add);
+      }
+      assertEquals(new ArrayList<>(before.entrySet()), seen);
+      assertNull(db.get(key(0)));
+      assertEquals("new4_1", db.get(key(1)));
+    }
+  }
+
+  @Test
+  @DisplayName("Sequence numbers keep increasing across a restart")
+  void testSequenceSurvivesRestart() throws IOException {
+    db.put("k", "v1");
+    long before;
+    try (Snapshot snapshot = db.getSnapshot()) {
+      before = snapshot.getSequence();
+    }
+    db.close();
+
+    db = new DB(tempDir.toString());
+    try (Snapshot snapshot = db.getSnapshot()) {
+      assertTrue(snapshot.getSequence() >= before);
+      db.put("k", "v2");
+      assertEquals("v1", db.get("k", snapshot));
+      assertEquals("v2", db.get("k"));
+    }
+  }
+}
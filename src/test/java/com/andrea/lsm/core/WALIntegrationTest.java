@@ -10,6 +10,8 @@ import util.Constants;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -23,6 +25,8 @@ class WALIntegrationTest {
   Path tempDir;
 
   private DB db;
+  /** Databases abandoned to simulate a crash, closed once the test is done. */
+  private final List<DB> crashed = new ArrayList<>();
 
   @BeforeEach
   void setUp() throws IOException {
@@ -34,6 +38,9 @@ class WALIntegrationTest {
     if (db != null) {
       db.close();
     }
+    for (DB abandoned : crashed) {
+      abandoned.close();
+    }
   }
 
   /**
@@ -53,7 +60,8 @@ class WALIntegrationTest {
     db.put("key1", "val1");
     assertTrue(hasWalFile(), "WAL file should be created after a write operation");
 
-    // 2. Simulate a crash (nullify the object without calling close() to preserve volatile state)
+    // 2. Simulate a crash (drop the object without calling close() to preserve volatile state)
+    crashed.add(db);
     db = null;
 
     // 3. Restart the database
@@ -64,6 +72,7 @@ class WALIntegrationTest {
 
     // 5. Perform subsequent write and simulate another restart to test multi-WAL replay
     newDb.put("key2", "val2");
+    crashed.add(newDb);
     newDb = null;
 
     DB thirdDb = new DB(tempDir.toString());
@@ -81,6 +90,7 @@ class WALIntegrationTest {
     assertTrue(hasWalFile());
 
     // 2. Simulate a crash
+    crashed.add(db);
     db = null;
 
     // 3. Restart. Logic: recoverAll() -> sstableService.flush() -> cleanupOldWalFiles()
@@ -99,6 +109,7 @@ class WALIntegrationTest {
     db.put("durability_key", "standard_val");
 
     // Intentionally bypass close() and restart to test durability
+    crashed.add(db);
     db = null;
 
     DB restartedDb = new DB(tempDir.toString());
@@ -0,0 +1,107 @@
+package com.andrea.lsm.core;
+
+import com.andrea.lsm.manifest.Snapshot;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Integration tests for {@link DB#write(WriteBatch)}.
+ */
+class WriteBatchTest {
+
+  @TempDir
+  Path tempDir;
+
+  private DB db;
+  /** Databases abandoned to simulate a crash, closed once the test is done. */
+  private final List<DB> crashed = new ArrayList<>();
+
+  @BeforeEach
+  void setUp() throws IOException {
+    db = new DB(tempDir.toString());
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    if (db != null) {
+      db.close();
+    }
+    for (DB abandoned : crashed) {
+      abandoned.close();
+    }
+  }
+
+  @Test
+  @DisplayName("Operations of a batch are applied in order")
+  void testBatchAppliesInOrder() throws IOException {
+    db.put("gone", "old");
+    db.write(new WriteBatch()
+        .put("a", "1")
+        .put("b", "1")
+        .put("a", "2")
+        .remove("gone")
+        .remove("b"));
+
+    assertEquals("2", db.get("a"));
+    assertNull(db.get("b"));
+    assertNull(db.get("gone"));
+
+    // An empty batch is a no-op.
+    db.write(new WriteBatch());
+    assertEquals("2", db.get("a"));
+  }
+
+  @Test
+  @DisplayName("A batch is recovered from the WAL after a crash")
+  void testBatchIsRecovered() throws IOException {
+    db.write(new WriteBatch().put("a", "1").put("b", "2").remove("a"));
+    db.put("c", "3");
+
+    // Simulate a crash: skip close() so that only the WAL holds the data.
+    crashed.add(db);
+    db = new DB(tempDir.toString());
+    assertNull(db.get("a"));
+    assertEquals("2", db.get("b"));
+    assertEquals("3", db.get("c"));
+  }
+
+  @Test
+  @DisplayName("Readers never see part of a batch")
+  void testReadersSeeWholeBatches() throws Exception {
+    int batches = 2000;
+    ExecutorService writer = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> writes = writer.submit(() -> {
+        WriteBatch batch = new WriteBatch();
+        for (int i = 1; i <= batches; i++) {
+          db.write(batch.clear().put("x", String.valueOf(i)).put("y", String.valueOf(i)));
+        }
+        return null;
+      });
+
+      while (!writes.isDone()) {
+        try (Snapshot snapshot = db.getSnapshot()) {
+          assertEquals(db.get("x", snapshot), db.get("y", snapshot));
+        }
+      }
+      writes.get();
+    } finally {
+      writer.shutdownNow();
+    }
+    assertEquals(String.valueOf(batches), db.get("x"));
+    assertEquals(String.valueOf(batches), db.get("y"));
+  }
+}
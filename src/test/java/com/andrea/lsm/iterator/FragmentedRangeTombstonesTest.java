@@ -0,0 +1,85 @@
+package com.andrea.lsm.iterator;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import util.Bytes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link FragmentedRangeTombstones}, checked against a scan of every
+ * deletion.
+ */
+class FragmentedRangeTombstonesTest {
+
+  private static byte[] key(int i) {
+    return Bytes.of(String.format("key%03d", i));
+  }
+
+  private static long newestCovering(List<RangeTombstone> tombstones, byte[] key,
+      long readSequence) {
+    long newest = -1L;
+    for (RangeTombstone tombstone : tombstones) {
+      if (tombstone.getSequence() <= readSequence && tombstone.getSequence() > newest
+          && tombstone.covers(key, Bytes.BYTEWISE_COMPARATOR)) {
+        newest = tombstone.getSequence();
+      }
+    }
+    return newest;
+  }
+
+  @Test
+  @DisplayName("Overlapping, nested and adjacent deletions are found as a scan finds them")
+  void testMatchesScan() {
+    Random random = new Random(42);
+    List<RangeTombstone> tombstones = new ArrayList<>();
+    for (int i = 0; i < 200; i++) {
+      int start = random.nextInt(500);
+      int end = start + 1 + random.nextInt(i % 10 == 0 ? 300 : 20);
+      tombstones.add(new RangeTombstone(key(start), random.nextInt(1000), key(end)));
+    }
+    tombstones.add(new RangeTombstone(key(900), 5, key(910)));
+    tombstones.add(new RangeTombstone(key(910), 7, key(920)));
+    FragmentedRangeTombstones fragments =
+        new FragmentedRangeTombstones(tombstones, Bytes.BYTEWISE_COMPARATOR);
+
+    for (long readSequence : new long[] {0, 250, 999, InternalKey.MAX_SEQUENCE}) {
+      FragmentedRangeTombstones.Cursor cursor = fragments.cursor();
+      for (int i = 0; i < 1000; i++) {
+        byte[] key = key(i);
+        long expected = newestCovering(tombstones, key, readSequence);
+        assertEquals(expected, fragments.newestCovering(key, readSequence), "key" + i);
+
+        long[] covering = cursor.covering(key);
+        long newest = -1L;
+        for (long sequence : covering) {
+          if (sequence <= readSequence) {
+            newest = sequence;
+          }
+        }
+        assertEquals(expected, newest, "cursor at key" + i);
+      }
+    }
+
+    FragmentedRangeTombstones.Cursor cursor = fragments.cursor();
+    cursor.covering(key(990));
+    cursor.seek(key(905));
+    assertArrayEquals(new long[] {5}, cursor.covering(key(909)));
+    assertArrayEquals(new long[] {7}, cursor.covering(key(910)));
+    assertEquals(0, cursor.covering(key(920)).length, "The end key is not deleted");
+  }
+
+  @Test
+  @DisplayName("No deletions cover no key")
+  void testEmpty() {
+    FragmentedRangeTombstones fragments =
+        new FragmentedRangeTombstones(List.of(), Bytes.BYTEWISE_COMPARATOR);
+    assertTrue(fragments.isEmpty());
+    assertEquals(-1L, fragments.newestCovering(key(1), InternalKey.MAX_SEQUENCE));
+    assertEquals(0, fragments.cursor().covering(key(1)).length);
+  }
+}
@@ -6,10 +6,20 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import util.Constants;
+import util.Options;
 
 import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -109,4 +119,124 @@ class ManifestTest {
     assertEquals(1, l1.size(), "Level 1 should recover 1 file.");
     assertEquals("2", l1.get(0).get("b"), "Data should be reachable via recovered SSTable metadata.");
   }
-}
\ No newline at end of file
+
+  private SSTable table(String key) throws IOException {
+    Memtable mem = new Memtable();
+    mem.put(key, "v");
+    return SSTable.createSSTableFromMemtable(mem, tempDir);
+  }
+
+  private long countManifests() throws IOException {
+    try (Stream<Path> files = Files.list(tempDir)) {
+      return files.filter(p -> p.getFileName().toString().startsWith(Constants.MANIFEST_PREFIX)).count();
+    }
+  }
+
+  /**
+   * Replays a log of flushes and compactions, including one rollover, and checks that
+   * only the live manifest file is kept.
+   */
+  @Test
+  void testLogReplayAcrossRollover() throws IOException {
+    manifest.close();
+    manifest = new Manifest(tempDir.toString(), new Options().setMaxManifestFileSize(256));
+    List<SSTable> level1 = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      SSTable flushed = table(String.format("k%02d", i));
+      manifest.applyFlush(0, flushed);
+      // Move every other table down, as a trivial-move compaction would.
+      if (i % 2 == 0) {
+        manifest.applyCompact(0, List.of(flushed), 1, List.of(), List.of(flushed));
+        level1.add(flushed);
+      }
+    }
+    manifest.setLastSequence(42);
+    manifest.applyFlush(0, table("z"));
+    assertEquals(1, countManifests(), "Rolled-over manifests are deleted");
+    manifest.close();
+
+    Manifest recovered = new Manifest(tempDir.toString());
+    assertEquals(11, recovered.getSSTable(0).size());
+    assertEquals(level1.size(), recovered.getSSTable(1).size());
+    for (int i = 0; i < level1.size(); i++) {
+      assertEquals(level1.get(i).getFilePath(), recovered.getSSTable(1).get(i).getFilePath(),
+          "Deeper levels stay sorted by key");
+    }
+    assertEquals(42, recovered.getLastSequence());
+    recovered.close();
+  }
+
+  /**
+   * An append torn by a crash is ignored; everything logged before it is recovered.
+   */
+  @Test
+  void testTornAppendIsIgnored() throws IOException {
+    manifest.applyFlush(0, table("a"));
+    manifest.applyFlush(0, table("b"));
+    manifest.close();
+    Path log = tempDir.resolve(Files.readString(tempDir.resolve(Constants.CURRENT_FILENAME)).trim());
+    try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    Manifest recovered = new Manifest(tempDir.toString());
+    assertEquals(1, recovered.getSSTable(0).size());
+    assertEquals("v", recovered.getSSTable(0).get(0).get("a"));
+    recovered.close();
+  }
+
+  /**
+   * A manifest of the serialized format written before the log is still read, and
+   * replaced by a log.
+   */
+  @Test
+  void testLegacyManifestIsUpgraded() throws IOException {
+    manifest.close();
+    SSTable sst = table("legacy");
+    Path legacy = tempDir.resolve(Constants.MANIFEST_PREFIX + "1");
+    Map<Integer, List<String>> diskData = new HashMap<>();
+    diskData.put(0, new ArrayList<>(List.of(sst.getFilePath().getFileName().toString())));
+    try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(legacy))) {
+      out.writeObject(diskData);
+    }
+    Files.writeString(tempDir.resolve(Constants.CURRENT_FILENAME), legacy.getFileName().toString());
+
+    Manifest recovered = new Manifest(tempDir.toString());
+    assertEquals("v", recovered.getSSTable(0).get(0).get("legacy"));
+    assertFalse(Files.exists(legacy));
+    recovered.close();
+
+    Manifest reopened = new Manifest(tempDir.toString());
+    assertEquals(1, reopened.getSSTable(0).size());
+    reopened.close();
+  }
+
+  /**
+   * SSTable numbers keep growing across restarts, past tables that were written but never
+   * logged, and past files already in the directory.
+   */
+  @Test
+  void testFileNumbersAreNeverReused() throws IOException {
+    Path first = manifest.newSSTablePath();
+    Path second = manifest.newSSTablePath();
+    assertEquals(SSTable.fileNumber(first) + 1, SSTable.fileNumber(second));
+    manifest.applyFlush(0, table("a"));
+    long logged = SSTable.fileNumber(manifest.newSSTablePath());
+    manifest.close();
+
+    Manifest reopened = new Manifest(tempDir.toString());
+    assertTrue(SSTable.fileNumber(reopened.newSSTablePath()) > logged);
+    Path orphan = reopened.newSSTablePath();
+    Files.createFile(orphan);
+    Path taken = SSTable.sstablePath(tempDir, SSTable.fileNumber(orphan) + 1);
+    Files.createFile(taken);
+    assertTrue(SSTable.fileNumber(reopened.newSSTablePath()) > SSTable.fileNumber(taken),
+        "A number already on disk is skipped");
+    reopened.close();
+
+    Manifest recovered = new Manifest(tempDir.toString());
+    assertTrue(SSTable.fileNumber(recovered.newSSTablePath()) > SSTable.fileNumber(taken),
+        "An unlogged table is not overwritten after a restart");
+    recovered.close();
+  }
+}
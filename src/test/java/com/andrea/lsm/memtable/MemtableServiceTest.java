@@ -7,11 +7,17 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import util.Bytes;
 import util.Constants;
+import util.Options;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -48,8 +54,8 @@ class MemtableServiceTest {
   @Test
   void testPutAndGetInMemory() throws IOException {
     // Validate basic volatile storage operations (Read-Your-Writes consistency)
-    memtableService.put("key1", "value1");
-    String val = memtableService.get("key1");
+    put(memtableService, "key1", "value1");
+    String val = get(memtableService, "key1");
 
     assertEquals("value1", val, "Data should be retrievable from the Active Memtable");
 
@@ -66,8 +72,16 @@ class MemtableServiceTest {
     // Generate a payload that exceeds the threshold (Key size + Value size > threshold)
     String bigValue = "x".repeat(threshold);
 
-    // 1. Write the large payload to trigger an immediate background/synchronous flush
-    memtableService.put("bigKey", bigValue);
+    // 1. Write the large payload to trigger a rotation and a background flush
+    put(memtableService, "bigKey", bigValue);
+
+    // Until the flusher is done the rotated Memtable must still serve reads
+    String inFlight = get(memtableService, "bigKey");
+    if (inFlight == null) {
+      inFlight = get(sstableService, "bigKey");
+    }
+    assertEquals(bigValue, inFlight, "Rotated data must stay readable while it is being flushed");
+    memtableService.awaitPendingFlushes();
 
     // 2. Verify that the Manifest has registered the new L0 SSTable
     List<SSTable> tables = manifest.getSSTable(0);
@@ -75,7 +89,7 @@ class MemtableServiceTest {
 
     // 3. Verify Memtable reset
     // Once flushed, the active Memtable is rotated; older data now resides in persistent storage
-    assertNull(memtableService.get("bigKey"), "The active Memtable should be cleared post-flush");
+    assertNull(get(memtableService, "bigKey"), "The active Memtable should be cleared post-flush");
 
     // 4. Validate file placement
     // Ensure the SSTable is physically located within the managed environment
@@ -88,7 +102,7 @@ class MemtableServiceTest {
   @Test
   void testCloseTriggersFlush() throws IOException {
     // 1. Perform a small write that does not trigger the threshold
-    memtableService.put("k_close", "v_close");
+    put(memtableService, "k_close", "v_close");
 
     // Verify data remains exclusively in memory
     assertEquals(0, manifest.getSSTable(0).size());
@@ -104,4 +118,96 @@ class MemtableServiceTest {
     SSTable sst = tables.get(0);
     assertEquals("v_close", sst.get("k_close"), "Flushed data must maintain integrity and be readable from disk");
   }
-}
\ No newline at end of file
+
+  @Test
+  void testConcurrentWritersAndReaders() throws Exception {
+    // Objective: many writers and readers share the service while rotations happen underneath
+    int threads = 8;
+    int writesPerThread = 300;
+    ExecutorService pool = Executors.newFixedThreadPool(threads * 2);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final String prefix = "t" + t + "_";
+        futures.add(pool.submit(() -> {
+          for (int i = 0; i < writesPerThread; i++) {
+            put(memtableService, prefix + i, "v" + i);
+          }
+          return null;
+        }));
+        futures.add(pool.submit(() -> {
+          for (int i = 0; i < writesPerThread; i++) {
+            // Readers must never observe a value that was not written for this key
+            String val = get(memtableService, prefix + i);
+            if (val == null) {
+              val = get(sstableService, prefix + i);
+            }
+            assertTrue(val == null || val.equals("v" + i), "Unexpected value for " + prefix + i);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    memtableService.awaitPendingFlushes();
+    sstableService.awaitCompactions();
+
+    // Every acknowledged write is readable either from memory or from a flushed SSTable
+    // on any level (each key is written once, so any hit is the latest value)
+    for (int t = 0; t < threads; t++) {
+      for (int i = 0; i < writesPerThread; i++) {
+        String key = "t" + t + "_" + i;
+        assertEquals("v" + i, findAnywhere(memtableService, key), "Lost write for key " + key);
+      }
+    }
+  }
+
+  @Test
+  void testWriteStallKeepsEveryWrite() throws IOException {
+    // With room for a single immutable Memtable every rotation waits for the previous flush
+    MemtableService stalling = new MemtableService(manifest, sstableService,
+        new Options().setMaxImmutableMemtables(1));
+    String bigValue = "y".repeat(Constants.MAXSIZE_MEMTABLE);
+    for (int i = 0; i < 10; i++) {
+      put(stalling, "stall_" + i, bigValue + i);
+    }
+    stalling.awaitPendingFlushes();
+    sstableService.awaitCompactions();
+
+    for (int i = 0; i < 10; i++) {
+      String key = "stall_" + i;
+      assertEquals(bigValue + i, findAnywhere(stalling, key), "Stalled writes must not be lost: " + key);
+    }
+    stalling.close();
+  }
+
+  private String findAnywhere(MemtableService service, String key) {
+    String val = get(service, key);
+    for (int level = 0; val == null && level < Constants.MAX_LEVEL; level++) {
+      for (SSTable table : manifest.getSSTable(level)) {
+        val = table.get(key);
+        if (val != null) {
+          break;
+        }
+      }
+    }
+    return val;
+  }
+
+  private static void put(MemtableService service, String key, String value) throws IOException {
+    service.put(Bytes.of(key), Bytes.of(value));
+  }
+
+  private static String get(MemtableService service, String key) {
+    return Bytes.string(service.get(Bytes.of(key)));
+  }
+
+  private static String get(SSTableService service, String key) {
+    return Bytes.string(service.get(Bytes.of(key)));
+  }
+}
@@ -0,0 +1,168 @@
+package com.andrea.lsm.memtable;
+
+import com.andrea.lsm.core.DB;
+import com.andrea.lsm.iterator.InternalEntry;
+import com.andrea.lsm.iterator.InternalKey;
+import com.andrea.lsm.iterator.SeekingIterator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Bytes;
+import util.Options;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link Memtable} with {@link Memtable.Storage#OFF_HEAP}, whose entries
+ * live in an {@link Arena} rather than on the heap.
+ */
+class OffHeapMemtableTest {
+
+  @TempDir
+  Path tempDir;
+
+  private static Memtable offHeap() {
+    return new Memtable(new Options().setMemtableStorage(Memtable.Storage.OFF_HEAP));
+  }
+
+  private static List<String> keys(Iterator<InternalEntry> iterator) {
+    List<String> keys = new ArrayList<>();
+    while (iterator.hasNext()) {
+      InternalEntry entry = iterator.next();
+      keys.add(Bytes.string(entry.getKey()) + "@" + entry.getSequence());
+    }
+    return keys;
+  }
+
+  @Test
+  @DisplayName("Versions are read at a sequence and iterated newest first per key")
+  void testVersions() {
+    Memtable memtable = offHeap();
+    memtable.put(Bytes.of("b"), 1, Bytes.of("b1"));
+    memtable.put(Bytes.of("a"), 2, Bytes.of("a2"));
+    memtable.put(Bytes.of("b"), 3, Bytes.of("b3"));
+    memtable.put(Bytes.of("c"), 4, Bytes.tombstone());
+
+    assertEquals("b3", Bytes.string(memtable.get(Bytes.of("b"), InternalKey.MAX_SEQUENCE)));
+    assertEquals("b1", Bytes.string(memtable.get(Bytes.of("b"), 2)));
+    assertNull(memtable.get(Bytes.of("b"), 0));
+    assertNull(memtable.get(Bytes.of("ab"), InternalKey.MAX_SEQUENCE));
+    assertArrayEquals(Bytes.tombstone(), memtable.get(Bytes.of("c"), InternalKey.MAX_SEQUENCE));
+
+    assertEquals(List.of("a@2", "b@3", "b@1", "c@4"), keys(memtable.iterator()));
+    SeekingIterator iterator = memtable.newIterator();
+    iterator.seek(Bytes.of("ab"));
+    assertEquals(List.of("b@3", "b@1", "c@4"), keys(iterator));
+
+    assertTrue(memtable.hasKeyInRange(Bytes.of("a1"), Bytes.of("b")));
+    assertFalse(memtable.hasKeyInRange(Bytes.of("a1"), Bytes.of("az")));
+    assertTrue(memtable.getSize() > 0);
+  }
+
+  @Test
+  @DisplayName("Writes without a sequence number replace one another")
+  void testReplaceWithoutSequence() {
+    Memtable memtable = offHeap();
+    memtable.put("k", "v1");
+    memtable.put("k", "v2");
+    assertEquals("v2", memtable.get("k"));
+    assertEquals(List.of("k@0"), keys(memtable.iterator()));
+  }
+
+  @Test
+  @DisplayName("Entries of any size across many chunks match a sorted map, in comparator order")
+  void testManyChunks() {
+    Comparator<byte[]> reversed = Bytes.BYTEWISE_COMPARATOR.reversed();
+    Memtable memtable = new Memtable(new Options()
+        .setComparator(reversed)
+        .setMemtableStorage(Memtable.Storage.OFF_HEAP));
+    TreeMap<byte[], byte[]> expected = new TreeMap<>(reversed);
+    for (int i = 0; i < 5000; i++) {
+      byte[] key = Bytes.of("key" + (i * 7919 % 5000));
+      // Every 100th value is larger than a chunk.
+      byte[] value = Bytes.of("v".repeat(i % 100 == 0 ? 10_000 : i % 50) + i);
+      memtable.put(key, i + 1, value);
+      expected.put(key, value);
+    }
+
+    Iterator<InternalEntry> iterator = memtable.iterator();
+    for (Entry<byte[], byte[]> entry : expected.entrySet()) {
+      assertArrayEquals(entry.getValue(), memtable.get(entry.getKey(), InternalKey.MAX_SEQUENCE));
+      InternalEntry next = iterator.next();
+      assertArrayEquals(entry.getKey(), next.getKey());
+      assertArrayEquals(entry.getValue(), next.getValue());
+    }
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  @DisplayName("Concurrent writers never lose an entry")
+  void testConcurrentWriters() throws Exception {
+    Memtable memtable = offHeap();
+    AtomicLong sequence = new AtomicLong();
+    int threads = 8;
+    int perThread = 2000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        int thread = t;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < perThread; i++) {
+            byte[] key = Bytes.of(String.format("%05d", i * threads + thread));
+            memtable.put(key, sequence.incrementAndGet(), key);
+            assertArrayEquals(key, memtable.get(key, InternalKey.MAX_SEQUENCE));
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    Iterator<InternalEntry> iterator = memtable.iterator();
+    for (int i = 0; i < threads * perThread; i++) {
+      InternalEntry entry = iterator.next();
+      assertEquals(String.format("%05d", i), Bytes.string(entry.getKey()));
+      assertTrue(Arrays.equals(entry.getKey(), entry.getValue()));
+    }
+    assertFalse(iterator.hasNext());
+  }
+
+  @Test
+  @DisplayName("A database with large off-heap Memtables flushes and recovers them")
+  void testDatabase() throws IOException {
+    Options options = new Options()
+        .setMemtableStorage(Memtable.Storage.OFF_HEAP)
+        .setWriteBufferSize(64 * 1024);
+    try (DB db = new DB(tempDir.toString(), options)) {
+      for (int i = 0; i < 3000; i++) {
+        db.put("key" + i, "value" + i);
+      }
+      db.remove("key7");
+      assertEquals("value42", db.get("key42"));
+      assertNull(db.get("key7"));
+    }
+    try (DB db = new DB(tempDir.toString(), options)) {
+      for (int i = 0; i < 3000; i++) {
+        assertEquals(i == 7 ? null : "value" + i, db.get("key" + i));
+      }
+    }
+  }
+}
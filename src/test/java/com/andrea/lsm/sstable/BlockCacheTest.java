@@ -0,0 +1,80 @@
+package com.andrea.lsm.sstable;
+
+import com.andrea.lsm.memtable.Memtable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Options;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link BlockCache} and its use by {@link SSTable#get(String)}.
+ */
+class BlockCacheTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  @DisplayName("Cached blocks are returned and usage never exceeds the capacity")
+  void testCapacityIsRespected() {
+    BlockCache cache = new BlockCache(10_000, 1);
+    for (int i = 0; i < 100; i++) {
+      cache.put(1, i * 1000L, new byte[900]);
+      assertTrue(cache.getUsage() <= cache.getCapacity(), "Usage must stay within the capacity");
+    }
+    assertNotNull(cache.get(1, 99 * 1000L), "The most recent block should still be cached");
+    assertNull(cache.get(1, 0), "The oldest block should have been evicted");
+  }
+
+  @Test
+  @DisplayName("A one-off scan does not evict blocks that were hit repeatedly")
+  void testScanResistance() {
+    BlockCache cache = new BlockCache(20_000, 1);
+    cache.put(7, 0, new byte[1000]);
+    // Second access promotes the block into the protected segment.
+    assertNotNull(cache.get(7, 0));
+
+    for (int i = 1; i <= 200; i++) {
+      cache.put(8, i * 1000L, new byte[1000]);
+    }
+    assertNotNull(cache.get(7, 0), "A hot block must survive a scan of cold blocks");
+  }
+
+  @Test
+  @DisplayName("Evicting a file drops only that file's blocks")
+  void testEvictFile() {
+    BlockCache cache = new BlockCache(1_000_000, 4);
+    cache.put(1, 0, new byte[10]);
+    cache.put(1, 4000, new byte[10]);
+    cache.put(2, 0, new byte[10]);
+
+    cache.evictFile(1);
+
+    assertNull(cache.get(1, 0));
+    assertNull(cache.get(1, 4000));
+    assertNotNull(cache.get(2, 0));
+  }
+
+  @Test
+  @DisplayName("Repeated SSTable lookups are served from the cache")
+  void testSSTableReadsGoThroughCache() throws IOException {
+    BlockCache cache = new BlockCache(1_000_000);
+    Memtable memtable = new Memtable();
+    memtable.put("apple", "red");
+    memtable.put("banana", "yellow");
+    SSTable sstable = SSTable.createSSTableFromMemtable(memtable, tempDir,
+        new Options().setBlockCache(cache));
+
+    assertEquals("red", sstable.get("apple"));
+    assertEquals(1, cache.getMissCount(), "The first lookup has to read from disk");
+
+    assertEquals("red", sstable.get("apple"));
+    assertEquals("yellow", sstable.get("banana"));
+    assertEquals(2, cache.getHitCount(), "Later lookups in the same block should hit the cache");
+  }
+}
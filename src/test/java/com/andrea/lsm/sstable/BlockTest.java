@@ -0,0 +1,84 @@
+package com.andrea.lsm.sstable;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link BlockBuilder} and {@link Block}.
+ */
+class BlockTest {
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String key(int i) {
+    return String.format("user/profile/%06d", i);
+  }
+
+  private static Block build(int count, int restartInterval) throws IOException {
+    BlockBuilder builder = new BlockBuilder(restartInterval);
+    for (int i = 0; i < count; i++) {
+      builder.add(bytes(key(i)), bytes("value" + i));
+    }
+    return new Block(ByteBuffer.wrap(builder.finish()), false);
+  }
+
+  @Test
+  @DisplayName("Every key is found through the restart points, absent keys are not")
+  void testGet() throws IOException {
+    for (int interval : new int[] {1, 3, 16, 1000}) {
+      Block block = build(100, interval);
+      for (int i = 0; i < 100; i++) {
+        assertArrayEquals(bytes("value" + i), block.get(bytes(key(i))), "interval " + interval);
+      }
+      assertNull(block.get(bytes("a")), "Key before the first entry");
+      assertNull(block.get(bytes(key(5) + "x")), "Key between entries");
+      assertNull(block.get(bytes("z")), "Key after the last entry");
+    }
+  }
+
+  @Test
+  @DisplayName("The cursor returns every entry in order")
+  void testCursor() throws IOException {
+    Block.Cursor cursor = build(50, 4).cursor();
+    for (int i = 0; i < 50; i++) {
+      assertTrue(cursor.next());
+      assertArrayEquals(bytes(key(i)), cursor.key());
+      assertArrayEquals(bytes("value" + i), cursor.value());
+    }
+    assertFalse(cursor.next());
+  }
+
+  @Test
+  @DisplayName("Shared key prefixes are stored once per restart interval")
+  void testPrefixCompression() {
+    BlockBuilder builder = new BlockBuilder(16);
+    int raw = 0;
+    for (int i = 0; i < 100; i++) {
+      builder.add(bytes(key(i)), bytes("v"));
+      raw += 4 + key(i).length() + 4 + 1;
+    }
+    assertTrue(builder.finish().length < raw / 2, "Prefix compression should at least halve the block");
+  }
+
+  @Test
+  @DisplayName("Blocks in the legacy layout are read as a single restart interval")
+  void testLegacyBlock() throws IOException {
+    ByteBuffer legacy = ByteBuffer.allocate(64);
+    for (String k : new String[] {"a", "b"}) {
+      legacy.putInt(1).put(bytes(k)).putInt(2).put(bytes(k + k));
+    }
+    legacy.flip();
+
+    Block block = new Block(legacy, true);
+    assertArrayEquals(bytes("bb"), block.get(bytes("b")));
+    assertNull(block.get(bytes("c")));
+  }
+}
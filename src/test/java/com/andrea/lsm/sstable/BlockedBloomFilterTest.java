@@ -0,0 +1,78 @@
+package com.andrea.lsm.sstable;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link BlockedBloomFilter}.
+ */
+class BlockedBloomFilterTest {
+
+  private static long[] hashes(String prefix, int count) {
+    long[] hashes = new long[count];
+    for (int i = 0; i < count; i++) {
+      hashes[i] = BlockedBloomFilter.hash((prefix + i).getBytes(StandardCharsets.UTF_8));
+    }
+    return hashes;
+  }
+
+  @Test
+  @DisplayName("Every inserted key is reported as possibly present")
+  void testNoFalseNegatives() {
+    long[] keys = hashes("key", 10_000);
+    BlockedBloomFilter filter = BlockedBloomFilter.create(keys, keys.length, 10);
+    for (long hash : keys) {
+      assertTrue(filter.mightContain(hash));
+    }
+  }
+
+  @Test
+  @DisplayName("The false positive rate at 10 bits per key stays around 1%")
+  void testFalsePositiveRate() {
+    long[] keys = hashes("key", 10_000);
+    BlockedBloomFilter filter = BlockedBloomFilter.create(keys, keys.length, 10);
+    int falsePositives = 0;
+    long[] absent = hashes("absent", 100_000);
+    for (long hash : absent) {
+      if (filter.mightContain(hash)) {
+        falsePositives++;
+      }
+    }
+    assertTrue(falsePositives < absent.length * 0.02, "False positives: " + falsePositives);
+  }
+
+  @Test
+  @DisplayName("The filter is sized from the key count and bits per key")
+  void testSizing() {
+    long[] keys = hashes("key", 1000);
+    int small = BlockedBloomFilter.create(keys, 10, 10).sizeInBytes();
+    int large = BlockedBloomFilter.create(keys, 1000, 10).sizeInBytes();
+    int wide = BlockedBloomFilter.create(keys, 1000, 20).sizeInBytes();
+    assertTrue(small < large, "More keys should need a larger filter");
+    assertTrue(large < wide, "More bits per key should need a larger filter");
+    assertTrue(large <= 1000 * 10 / 8 + 64 + 8, "Filter should use about bitsPerKey bits per key");
+  }
+
+  @Test
+  @DisplayName("A serialized filter answers exactly like the original")
+  void testSerializationRoundTrip() throws IOException {
+    long[] keys = hashes("key", 500);
+    BlockedBloomFilter filter = BlockedBloomFilter.create(keys, keys.length, 8);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    filter.writeTo(new DataOutputStream(bytes));
+    assertEquals(filter.sizeInBytes(), bytes.size());
+
+    BlockedBloomFilter restored = BlockedBloomFilter.readFrom(ByteBuffer.wrap(bytes.toByteArray()));
+    for (long hash : hashes("probe", 5000)) {
+      assertEquals(filter.mightContain(hash), restored.mightContain(hash));
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package com.andrea.lsm.sstable;
+
+import com.andrea.lsm.manifest.Manifest;
+import com.andrea.lsm.manifest.Version;
+import com.andrea.lsm.memtable.Memtable;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Bytes;
+import util.Constants;
+import util.Options;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for {@link CompactionScheduler}: background scheduling, manifest commits
+ * and deferred deletion of compacted files.
+ */
+class CompactionSchedulerTest {
+
+  @TempDir
+  Path tempDir;
+
+  private Manifest manifest;
+  private CompactionScheduler scheduler;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    manifest = new Manifest(tempDir.toString());
+    scheduler = new CompactionScheduler(manifest, new Compactor(), new Options());
+  }
+
+  @AfterEach
+  void tearDown() throws IOException {
+    scheduler.close();
+  }
+
+  private SSTable flushTable(String key, String value) throws IOException {
+    Memtable memtable = new Memtable();
+    memtable.put(key, value);
+    memtable.put(key + "_unique", value);
+    SSTable sstable = SSTable.createSSTableFromMemtable(memtable, tempDir);
+    manifest.applyFlush(0, sstable);
+    return sstable;
+  }
+
+  @Test
+  @DisplayName("Level 0 is compacted in the background once it reaches the trigger")
+  void testLevel0CompactionRunsInBackground() throws IOException {
+    List<SSTable> flushed = new ArrayList<>();
+    for (int i = 0; i < Constants.L0_COMPACTION_TRIGGER; i++) {
+      flushed.add(flushTable("shared", "v" + i));
+    }
+
+    scheduler.maybeScheduleCompaction();
+    scheduler.awaitIdle();
+
+    assertTrue(manifest.getSSTable(0).isEmpty(), "Level 0 should be drained by compaction");
+    List<SSTable> level1 = manifest.getSSTable(1);
+    assertEquals(1, level1.size());
+    assertEquals("v" + (Constants.L0_COMPACTION_TRIGGER - 1), level1.get(0).get("shared"),
+        "The newest level-0 value must win");
+    for (SSTable table : flushed) {
+      assertFalse(Files.exists(table.getFilePath()), "Compacted inputs should be deleted");
+    }
+  }
+
+  @Test
+  @DisplayName("Nothing is compacted below the trigger")
+  void testNoCompactionBelowTrigger() throws IOException {
+    for (int i = 0; i < Constants.L0_COMPACTION_TRIGGER - 1; i++) {
+      flushTable("k" + i, "v" + i);
+    }
+    scheduler.maybeScheduleCompaction();
+    scheduler.awaitIdle();
+
+    assertEquals(Constants.L0_COMPACTION_TRIGGER - 1, manifest.getSSTable(0).size());
+    assertTrue(manifest.getSSTable(1).isEmpty());
+  }
+
+  @Test
+  @DisplayName("Files of a pinned Version survive compaction until the Version is released")
+  void testPinnedVersionDefersDeletion() throws IOException {
+    List<SSTable> flushed = new ArrayList<>();
+    for (int i = 0; i < Constants.L0_COMPACTION_TRIGGER; i++) {
+      flushed.add(flushTable("k" + i, "v" + i));
+    }
+    Version pinned = manifest.acquireVersion();
+
+    scheduler.maybeScheduleCompaction();
+    scheduler.awaitIdle();
+
+    for (SSTable table : flushed) {
+      assertTrue(Files.exists(table.getFilePath()), "Pinned files must stay readable");
+    }
+    assertEquals("v0", pinned.getSSTable(0).get(0).get("k0"));
+
+    manifest.releaseVersion(pinned);
+    for (SSTable table : flushed) {
+      assertFalse(Files.exists(table.getFilePath()), "Released files should be deleted");
+    }
+  }
+
+  @Test
+  @DisplayName("Compaction output is split at the target file size into non-overlapping tables")
+  void testOutputIsSplitAndNonOverlapping() throws IOException {
+    scheduler.close();
+    scheduler = new CompactionScheduler(manifest, new Compactor(),
+        new Options().setTargetFileSize(256).setMaxBytesForLevelBase(1024 * 1024));
+    for (int t = 0; t < Constants.L0_COMPACTION_TRIGGER; t++) {
+      Memtable memtable = new Memtable();
+      for (int i = 0; i < 50; i++) {
+        memtable.put(String.format("key%03d", i * Constants.L0_COMPACTION_TRIGGER + t), "value" + t);
+      }
+      manifest.applyFlush(0, SSTable.createSSTableFromMemtable(memtable, tempDir));
+    }
+
+    scheduler.maybeScheduleCompaction();
+    scheduler.awaitIdle();
+
+    List<SSTable> level1 = manifest.getSSTable(1);
+    assertTrue(level1.size() > 1, "Output should be split into several tables");
+    assertLevelIsSortedAndDisjoint(level1);
+  }
+
+  @Test
+  @DisplayName("Deep levels stay sorted and disjoint and keep every key under cascading compactions")
+  void testCascadingCompactionsKeepLevelsDisjoint() throws IOException {
+    scheduler.close();
+    scheduler = new CompactionScheduler(manifest, new Compactor(),
+        new Options().setTargetFileSize(512).setMaxBytesForLevelBase(2048).setLevelSizeMultiplier(2));
+    int rounds = 40;
+    for (int round = 0; round < rounds; round++) {
+      Memtable memtable = new Memtable();
+      for (int i = 0; i < 20; i++) {
+        memtable.put(String.format("key%04d", (i * 37 + round * 11) % 500), "r" + round);
+      }
+      manifest.applyFlush(0, SSTable.createSSTableFromMemtable(memtable, tempDir));
+      scheduler.maybeScheduleCompaction();
+    }
+    scheduler.awaitIdle();
+
+    boolean cascaded = false;
+    for (int level = 2; level < Constants.MAX_LEVEL; level++) {
+      cascaded |= !manifest.getSSTable(level).isEmpty();
+    }
+    assertTrue(cascaded, "Data should have cascaded below level 1");
+    for (int level = 1; level < Constants.MAX_LEVEL; level++) {
+      assertLevelIsSortedAndDisjoint(manifest.getSSTable(level));
+    }
+    // The latest round that wrote a key must be the value found first from the top.
+    for (int round = 0; round < rounds; round++) {
+      for (int i = 0; i < 20; i++) {
+        String key = String.format("key%04d", (i * 37 + round * 11) % 500);
+        int latest = round;
+        for (int later = round + 1; later < rounds; later++) {
+          for (int j = 0; j < 20; j++) {
+            if (String.format("key%04d", (j * 37 + later * 11) % 500).equals(key)) {
+              latest = later;
+            }
+          }
+        }
+        assertEquals("r" + latest, findTopDown(key), "Wrong version for " + key);
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Tombstones survive compaction while older data for the key exists deeper")
+  void testTombstoneKeptAboveOlderData() throws IOException {
+    Memtable deep = new Memtable();
+    deep.put("doomed", "old");
+    manifest.applyFlush(2, SSTable.createSSTableFromMemtable(deep, tempDir));
+
+    flushTable("doomed", Constants.TOMBSTONE);
+    for (int i = 1; i < Constants.L0_COMPACTION_TRIGGER; i++) {
+      flushTable("other" + i, "v" + i);
+    }
+    scheduler.maybeScheduleCompaction();
+    scheduler.awaitIdle();
+
+    assertEquals(Constants.TOMBSTONE, findTopDown("doomed"),
+        "Dropping the tombstone would resurrect the value in level 2");
+  }
+
+  private String findTopDown(String key) {
+    List<SSTable> level0 = manifest.getSSTable(0);
+    for (int j = level0.size() - 1; j >= 0; j--) {
+      String val = level0.get(j).get(key);
+      if (val != null) {
+        return val;
+      }
+    }
+    for (int level = 1; level < Constants.MAX_LEVEL; level++) {
+      for (SSTable table : manifest.getSSTable(level)) {
+        String val = table.get(key);
+        if (val != null) {
+          return val;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static void assertLevelIsSortedAndDisjoint(List<SSTable> tables) {
+    for (int i = 1; i < tables.size(); i++) {
+      assertTrue(Arrays.compareUnsigned(tables.get(i - 1).getMaxKey(), tables.get(i).getMinKey()) < 0,
+          "Tables must be ordered and must not overlap: " + Bytes.string(tables.get(i - 1).getMaxKey())
+              + " >= " + Bytes.string(tables.get(i).getMinKey()));
+    }
+  }
+
+  @Test
+  @DisplayName("A failed compaction is retried after a backoff and the failure is then cleared")
+  void testFailedCompactionIsRetried() throws Exception {
+    scheduler.close();
+    AtomicInteger attempts = new AtomicInteger();
+    scheduler = new CompactionScheduler(manifest, new Compactor() {
+      @Override
+      public List<SSTable> compact(List<SSTable> inputs, Supplier<Path> newTablePath,
+          int outputLevel, long targetFileSize, boolean dropTombstones, long[] snapshots)
+          throws IOException {
+        if (attempts.incrementAndGet() == 1) {
+          throw new IOException("Disk full");
+        }
+        return super.compact(inputs, newTablePath, outputLevel, targetFileSize,
+            dropTombstones, snapshots);
+      }
+    }, new Options());
+    for (int i = 0; i < Constants.L0_COMPACTION_TRIGGER; i++) {
+      flushTable("shared", "v" + i);
+    }
+
+    scheduler.maybeScheduleCompaction();
+    assertThrows(IOException.class, scheduler::awaitIdle);
+    assertEquals(Constants.L0_COMPACTION_TRIGGER, manifest.getSSTable(0).size());
+
+    // The retry needs no further call to maybeScheduleCompaction().
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!manifest.getSSTable(0).isEmpty() && System.nanoTime() < deadline) {
+      Thread.sleep(20);
+    }
+    scheduler.awaitIdle();
+    assertEquals(2, attempts.get());
+    assertTrue(manifest.getSSTable(0).isEmpty());
+    assertEquals("v" + (Constants.L0_COMPACTION_TRIGGER - 1),
+        manifest.getSSTable(1).get(0).get("shared"));
+  }
+}
@@ -1,14 +1,17 @@
 package com.andrea.lsm.sstable;
 
+import com.andrea.lsm.iterator.InternalEntry;
 import com.andrea.lsm.memtable.Memtable;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import util.Bytes;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -46,8 +49,8 @@ public class CompactorTest {
     Map<String, String> map = new TreeMap<>();
     try (SSTableIterator iterator = new SSTableIterator(sstable)) {
       while (iterator.hasNext()) {
-        Map.Entry<String, String> entry = iterator.next();
-        map.put(entry.getKey(), entry.getValue());
+        InternalEntry entry = iterator.next();
+        map.put(Bytes.string(entry.getKey()), Bytes.string(entry.getValue()));
       }
     }
     return map;
@@ -261,4 +264,177 @@ public class CompactorTest {
     assertEquals(expected, actual);
     assertTrue(Files.exists(compactedSSTable.getFilePath()));
   }
-}
\ No newline at end of file
+
+  @Test
+  @DisplayName("Compaction keeps the versions live snapshots can see and drops the rest")
+  void testCompactKeepsSnapshotVersions() throws IOException {
+    String tombstone = util.Constants.TOMBSTONE;
+    Memtable memtable = new Memtable();
+    for (long seq = 1; seq <= 5; seq++) {
+      memtable.put(Bytes.of("key"), seq, Bytes.of("v" + seq));
+    }
+    memtable.put(Bytes.of("gone"), 1, Bytes.of("old"));
+    memtable.put(Bytes.of("gone"), 2, Bytes.tombstone());
+    memtable.put(Bytes.of("held"), 3, Bytes.of("old"));
+    memtable.put(Bytes.of("held"), 8, Bytes.tombstone());
+    SSTable input = SSTable.createSSTableFromMemtable(memtable, tempDir);
+
+    // Snapshots at 2 and 4, i.e. stripes (..2] (2..4] (4..].
+    List<SSTable> outputs = compactor.compact(List.of(input), tempDir, 1, Long.MAX_VALUE, true,
+        new long[] {4, 2});
+    assertEquals(1, outputs.size());
+    SSTable output = outputs.get(0);
+
+    assertEquals("v5", output.get("key"));
+    assertEquals("v4", get(output, "key", 4));
+    assertEquals("v2", get(output, "key", 3));
+    assertNull(get(output, "key", 1));
+    assertNull(get(output, "gone", 2), "A tombstone no snapshot predates is dropped");
+    assertEquals(tombstone, output.get("held"), "A tombstone newer than a snapshot is kept");
+    assertEquals("old", get(output, "held", 4));
+    // Only the newest version of each stripe is written.
+    assertEquals(3 + 2, output.getEntryCount());
+  }
+
+  @Test
+  @DisplayName("Compaction drops the keys a range deletion covers and keeps its range in one table")
+  void testCompactRangeDeletion() throws IOException {
+    Memtable memtable = new Memtable();
+    for (int i = 0; i < 200; i++) {
+      memtable.put(Bytes.of(String.format("key%03d", i)), i + 1, Bytes.of("value" + i));
+    }
+    memtable.deleteRange(Bytes.of("key050"), 300, Bytes.of("key150"));
+    memtable.put(Bytes.of("key100"), 400, Bytes.of("rewritten"));
+    SSTable input = SSTable.createSSTableFromMemtable(memtable, tempDir);
+    assertEquals(util.Constants.TOMBSTONE, input.get("key060"));
+
+    // Small output tables, cut only outside the deleted range.
+    List<SSTable> outputs = compactor.compact(List.of(input), tempDir, 1, 200, false,
+        new long[0]);
+    assertTrue(outputs.size() > 2);
+    long entries = 0;
+    int withTombstone = 0;
+    for (int i = 0; i < outputs.size(); i++) {
+      SSTable output = outputs.get(i);
+      entries += output.getEntryCount();
+      if (!output.rangeTombstones().isEmpty()) {
+        withTombstone++;
+        assertTrue(Bytes.string(output.getMinKey()).compareTo("key050") <= 0);
+        assertTrue(Bytes.string(output.getMaxKey()).compareTo("key150") >= 0);
+      }
+      if (i > 0) {
+        assertTrue(Bytes.string(outputs.get(i - 1).getMaxKey())
+            .compareTo(Bytes.string(output.getMinKey())) < 0, "Output tables overlap");
+      }
+    }
+    assertEquals(1, withTombstone);
+    assertEquals(200 - 100 + 1, entries);
+    SSTable holder = SSTableService.findTable(outputs, Bytes.of("key060"), Bytes.BYTEWISE_COMPARATOR);
+    assertEquals(util.Constants.TOMBSTONE, holder.get("key060"));
+    assertEquals("rewritten", holder.get("key100"));
+
+    // At the bottom the deletion itself goes, unless a snapshot predates it.
+    List<SSTable> bottom = compactor.compact(List.of(input), tempDir, 1, Long.MAX_VALUE, true,
+        new long[0]);
+    assertTrue(bottom.get(0).rangeTombstones().isEmpty());
+    assertNull(bottom.get(0).get("key060"));
+    List<SSTable> held = compactor.compact(List.of(input), tempDir, 1, Long.MAX_VALUE, true,
+        new long[] {250});
+    assertEquals("value60", get(held.get(0), "key060", 250));
+    assertEquals(util.Constants.TOMBSTONE, held.get(0).get("key060"));
+  }
+
+  @Test
+  @DisplayName("Sub-compactions over disjoint key ranges write what a single merge writes")
+  void testSubcompactions() throws IOException {
+    List<SSTable> inputs = new ArrayList<>();
+    long sequence = 1;
+    for (int table = 0; table < 4; table++) {
+      Memtable memtable = new Memtable();
+      for (int i = table; i < 4000; i += 2) {
+        memtable.put(Bytes.of(String.format("key%05d", i)), sequence++,
+            Bytes.of("value" + table + "-" + i));
+      }
+      if (table == 3) {
+        memtable.deleteRange(Bytes.of("key01000"), sequence++, Bytes.of("key02000"));
+      }
+      inputs.add(SSTable.createSSTableFromMemtable(memtable, tempDir));
+    }
+    Compactor parallel = new Compactor(new util.Options().setMaxSubcompactions(4));
+    List<byte[]> boundaries = parallel.subcompactionBoundaries(inputs, 4);
+    assertEquals(3, boundaries.size());
+    for (byte[] boundary : boundaries) {
+      String key = Bytes.string(boundary);
+      assertFalse(key.compareTo("key01000") > 0 && key.compareTo("key02000") <= 0,
+          "A boundary splits the range deletion: " + key);
+    }
+    assertTrue(new Compactor(new util.Options().setMaxSubcompactions(1))
+        .subcompactionBoundaries(inputs, 4).isEmpty());
+
+    long targetFileSize = 16 * 1024;
+    Map<String, String> expected = new TreeMap<>();
+    for (SSTable output : new Compactor(new util.Options().setMaxSubcompactions(1))
+        .compact(inputs, tempDir, 1, targetFileSize, true, new long[0])) {
+      expected.putAll(readSSTableToMap(output));
+    }
+    List<SSTable> outputs = parallel.compact(inputs, tempDir, 1, targetFileSize, true,
+        new long[0]);
+    assertEquals(outputs.size(), outputs.stream().map(SSTable::getFilePath).distinct().count(),
+        "Sub-compactions name their outputs apart");
+    assertThrows(java.nio.file.FileAlreadyExistsException.class,
+        () -> new SSTableWriter(outputs.get(0).getFilePath(), 1, new util.Options()),
+        "An existing table is never overwritten");
+    Map<String, String> actual = new TreeMap<>();
+    for (int i = 0; i < outputs.size(); i++) {
+      actual.putAll(readSSTableToMap(outputs.get(i)));
+      if (i > 0) {
+        assertTrue(Bytes.string(outputs.get(i - 1).getMaxKey())
+            .compareTo(Bytes.string(outputs.get(i).getMinKey())) < 0, "Output tables overlap");
+      }
+    }
+    assertEquals(expected, actual);
+    assertEquals(4000 - 1000, actual.size());
+    assertNull(actual.get("key01500"));
+    assertNull(actual.get("key01999"));
+    assertEquals("value2-2000", actual.get("key02000"));
+    assertEquals("value3-2001", actual.get("key02001"), "The newest table wins");
+  }
+
+  @Test
+  @DisplayName("Inputs holding only range deletions are split at the deletions' starts")
+  void testSubcompactionsOfRangeDeletionsOnly() throws IOException {
+    List<SSTable> inputs = new ArrayList<>();
+    long sequence = 1;
+    for (int table = 0; table < 2; table++) {
+      Memtable memtable = new Memtable();
+      for (int i = table; i < 2000; i += 2) {
+        memtable.deleteRange(Bytes.of(String.format("key%05d", 10 * i)), sequence++,
+            Bytes.of(String.format("key%05d", 10 * i + 5)));
+      }
+      inputs.add(SSTable.createSSTableFromMemtable(memtable, tempDir));
+    }
+    long targetFileSize = 8 * 1024;
+    assertTrue(inputs.get(0).getFileSize() + inputs.get(1).getFileSize() > 2 * targetFileSize);
+    Compactor parallel = new Compactor(new util.Options().setMaxSubcompactions(4));
+    assertEquals(3, parallel.subcompactionBoundaries(inputs, 4).size());
+    assertTrue(parallel.subcompactionBoundaries(List.of(createSSTableFromMap(Map.of(), tempDir)), 4)
+        .isEmpty(), "An empty table has nothing to split");
+
+    List<SSTable> outputs = parallel.compact(inputs, tempDir, 1, targetFileSize, false,
+        new long[0]);
+    assertTrue(outputs.size() > 1);
+    int tombstones = 0;
+    for (int i = 0; i < outputs.size(); i++) {
+      tombstones += outputs.get(i).rangeTombstones().size();
+      if (i > 0) {
+        assertTrue(Bytes.string(outputs.get(i - 1).getMaxKey())
+            .compareTo(Bytes.string(outputs.get(i).getMinKey())) < 0, "Output tables overlap");
+      }
+    }
+    assertEquals(2000, tombstones);
+  }
+
+  private static String get(SSTable table, String key, long sequence) {
+    return Bytes.string(table.get(Bytes.of(key), sequence));
+  }
+}
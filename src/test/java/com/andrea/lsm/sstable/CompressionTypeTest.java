@@ -0,0 +1,103 @@
+package com.andrea.lsm.sstable;
+
+import com.andrea.lsm.memtable.Memtable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Options;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link CompressionType} and compressed SSTable blocks.
+ */
+class CompressionTypeTest {
+
+  @TempDir
+  Path tempDir;
+
+  private static byte[] compressible(int size) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; sb.length() < size; i++) {
+      sb.append("{\"id\":").append(i).append(",\"name\":\"user").append(i % 17).append("\"}");
+    }
+    return sb.substring(0, size).getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  @DisplayName("Every codec restores the original bytes for edge-case and large inputs")
+  void testRoundTrip() throws IOException {
+    Random random = new Random(42);
+    byte[] noise = new byte[5000];
+    random.nextBytes(noise);
+    byte[][] inputs = {new byte[0], new byte[1], new byte[13], new byte[100_000],
+        compressible(4000), noise, "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa".getBytes(StandardCharsets.UTF_8)};
+
+    for (CompressionType codec : CompressionType.values()) {
+      for (byte[] input : inputs) {
+        byte[] compressed = codec.compress(input);
+        byte[] restored = codec.decompress(ByteBuffer.wrap(compressed), input.length);
+        assertArrayEquals(input, restored, codec + " with " + input.length + " bytes");
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Compressible data shrinks")
+  void testRatio() {
+    byte[] input = compressible(4000);
+    assertTrue(CompressionType.LZ4.compress(input).length < input.length / 2);
+    assertTrue(CompressionType.DEFLATE.compress(input).length < input.length / 3);
+  }
+
+  @Test
+  @DisplayName("Truncated input is reported as corruption")
+  void testCorruptionIsDetected() {
+    byte[] input = compressible(4000);
+    for (CompressionType codec : new CompressionType[] {CompressionType.LZ4, CompressionType.DEFLATE}) {
+      byte[] compressed = codec.compress(input);
+      ByteBuffer truncated = ByteBuffer.wrap(compressed, 0, compressed.length / 2).slice();
+      assertThrows(IOException.class, () -> codec.decompress(truncated, input.length), codec.name());
+    }
+  }
+
+  @Test
+  @DisplayName("Tables written with per-level codecs read back in both read modes")
+  void testCompressedTables() throws IOException {
+    Options options = new Options().setBlockCache(new BlockCache(1024 * 1024))
+        .setCompression(1, CompressionType.LZ4).setCompression(2, CompressionType.DEFLATE);
+    Memtable memtable = new Memtable();
+    for (int i = 0; i < 500; i++) {
+      memtable.put(String.format("key%04d", i), "{\"id\":" + i + ",\"payload\":\"" + "x".repeat(50) + "\"}");
+    }
+
+    long[] sizes = new long[3];
+    for (int level = 0; level < 3; level++) {
+      SSTable table = SSTable.createSSTableFromIterator(memtable.iterator(),
+          SSTable.generateSSTablePath(tempDir), level, options);
+      sizes[level] = table.getFileSize();
+      for (SSTable.ReadMode mode : SSTable.ReadMode.values()) {
+        SSTable reopened = new SSTable(table.getFilePath(), new Options().setReadMode(mode));
+        assertEquals(memtable.get("key0123"), reopened.get("key0123"), "level " + level + ", " + mode);
+        assertNull(reopened.get("key0123x"));
+        int count = 0;
+        try (SSTableIterator iterator = new SSTableIterator(reopened)) {
+          while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+          }
+        }
+        assertEquals(500, count, "level " + level + ", " + mode);
+        reopened.close();
+      }
+    }
+    assertTrue(sizes[1] < sizes[0] / 2, "LZ4 should shrink the table");
+    assertTrue(sizes[2] < sizes[1], "Deflate should compress better than LZ4");
+  }
+}
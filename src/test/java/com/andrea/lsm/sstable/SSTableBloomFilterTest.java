@@ -5,6 +5,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import util.Constants;
+import util.Options;
 
 import java.io.IOException;
 import java.nio.file.Path;
@@ -78,4 +79,24 @@ class SSTableBloomFilterTest {
     assertNull(sstable.get("aaaaa"), "Should return null for keys smaller than minKey.");
     assertNull(sstable.get("zzzzz"), "Should return null for keys larger than maxKey.");
   }
-}
\ No newline at end of file
+
+  @Test
+  void testBitsPerKeyIsChosenPerLevel() throws IOException {
+    Options options = new Options().setBloomBitsPerKey(0, 0).setBloomBitsPerKey(1, 20);
+    Memtable mem = new Memtable();
+    for (int i = 0; i < 200; i++) {
+      mem.put(String.format("key%03d", i), "value" + i);
+    }
+
+    SSTable level0 = SSTable.createSSTableFromIterator(mem.iterator(),
+        SSTable.generateSSTablePath(tempDir), 0, options);
+    SSTable level1 = SSTable.createSSTableFromIterator(mem.iterator(),
+        SSTable.generateSSTablePath(tempDir), 1, options);
+
+    assertEquals(0, level0.bloomFilterSize(), "Level 0 was configured without a filter");
+    assertTrue(level1.bloomFilterSize() >= 200 * 20 / 8, "Level 1 filter should use 20 bits per key");
+    assertEquals("value7", level0.get("key007"), "Lookups must work without a filter");
+    assertEquals(level1.bloomFilterSize(), new SSTable(level1.getFilePath()).bloomFilterSize(),
+        "The filter should be read back from the file");
+  }
+}
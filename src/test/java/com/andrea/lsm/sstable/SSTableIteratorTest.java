@@ -1,12 +1,15 @@
 package com.andrea.lsm.sstable;
 
+import com.andrea.lsm.iterator.InternalEntry;
 import com.andrea.lsm.memtable.Memtable;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import util.Bytes;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.AbstractMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.TreeMap;
@@ -47,7 +50,7 @@ class SSTableIteratorTest {
       int count = 0;
       for (Map.Entry<String, String> entry : expectedData.entrySet()) {
         assertTrue(iterator.hasNext(), "Iterator should have more elements");
-        Map.Entry<String, String> actualEntry = iterator.next();
+        Map.Entry<String, String> actualEntry = decode(iterator.next());
 
         assertEquals(entry.getKey(), actualEntry.getKey(), "Key mismatch during iteration");
         assertEquals(entry.getValue(), actualEntry.getValue(), "Value mismatch for key: " + entry.getKey());
@@ -97,9 +100,44 @@ class SSTableIteratorTest {
 
     try (SSTableIterator iterator = new SSTableIterator(sst)) {
       assertTrue(iterator.hasNext());
-      Map.Entry<String, String> entry = iterator.next();
+      Map.Entry<String, String> entry = decode(iterator.next());
       assertEquals(largeKey, entry.getKey());
       assertEquals(largeValue, entry.getValue());
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  void testSeekAcrossBlocks() throws IOException {
+    // Enough entries for many blocks and restart intervals.
+    Memtable mem = new Memtable();
+    TreeMap<String, String> data = new TreeMap<>();
+    for (int i = 0; i < 2000; i += 2) {
+      String key = String.format("key%05d", i);
+      mem.put(key, "value" + i);
+      data.put(key, "value" + i);
+    }
+    SSTable large = SSTable.createSSTableFromMemtable(mem, tempDir);
+
+    try (SSTableIterator iterator = new SSTableIterator(large)) {
+      for (String target : new String[] {"a", "key00000", "key00777", "key01000", "key01998", "key00010"}) {
+        iterator.seek(Bytes.of(target));
+        Map.Entry<String, String> expected = data.ceilingEntry(target);
+        assertTrue(iterator.hasNext(), "Seek to " + target);
+        assertEquals(expected, decode(iterator.next()), "Seek to " + target);
+        // Iteration continues in order after a seek.
+        Map.Entry<String, String> following = data.higherEntry(expected.getKey());
+        assertEquals(following != null, iterator.hasNext());
+        if (following != null) {
+          assertEquals(following, decode(iterator.next()));
+        }
+      }
+      iterator.seek(Bytes.of("key01999"));
+      assertFalse(iterator.hasNext(), "Seeking past the last key exhausts the iterator");
+    }
+  }
+
+  private static Map.Entry<String, String> decode(InternalEntry entry) {
+    return new AbstractMap.SimpleImmutableEntry<>(Bytes.string(entry.getKey()),
+        Bytes.string(entry.getValue()));
+  }
+}
@@ -9,6 +9,10 @@ import org.junit.jupiter.api.io.TempDir;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+import util.Bytes;
+import util.Constants;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -59,7 +63,7 @@ class SSTableServiceTest {
   void testGetOverwrite() {
     // Verify shadowing logic in L0: The most recent version must be returned.
     // Since sstNew is at the head of the list, it should be hit first.
-    String val = ssTableService.get("a");
+    String val = get("a");
     assertEquals("new_val", val, "Should retrieve the most recent value (shadowing check)");
   }
 
@@ -67,21 +71,55 @@ class SSTableServiceTest {
   void testGetFallThrough() {
     // Verify fall-through lookup: If a key is missing in newer SSTables,
     // the search should continue into older files.
-    String val = ssTableService.get("c");
+    String val = get("c");
     assertEquals("val_c", val, "Should fall through to the older SSTable to find the value");
   }
 
   @Test
   void testGetNewKey() {
     // Verify lookup for a key existing only in the most recent SSTable.
-    String val = ssTableService.get("b");
+    String val = get("b");
     assertEquals("val_b", val, "Should retrieve value from the most recent SSTable");
   }
 
   @Test
   void testGetNonExistent() {
     // Verify behavior when a key is absent across all SSTable tiers.
-    String val = ssTableService.get("z");
+    String val = get("z");
     assertNull(val, "Lookup for a non-existent key should return null");
   }
-}
\ No newline at end of file
+
+  private String get(String key) {
+    return Bytes.string(ssTableService.get(Bytes.of(key)));
+  }
+
+  // Helper: registers a table with the given entries directly on a level
+  private void addTable(int level, Map<String, String> data) throws IOException {
+    Memtable mem = new Memtable();
+    data.forEach(mem::put);
+    manifest.applyFlush(level, SSTable.createSSTableFromMemtable(mem, tempDir));
+  }
+
+  @Test
+  void testGetFromDeepLevels() throws IOException {
+    // Level 1 holds two disjoint tables, level 3 one more; lookups must binary-search them
+    addTable(1, new TreeMap<>(Map.of("d", "val_d1", "f", "val_f1")));
+    addTable(1, new TreeMap<>(Map.of("m", "val_m1", "p", "val_p1")));
+    addTable(3, new TreeMap<>(Map.of("d", "val_d3", "n", "val_n3", "x", "val_x3")));
+
+    assertEquals("val_f1", get("f"), "Should find keys in the second half of level 1");
+    assertEquals("val_p1", get("p"), "Should find keys in the last table of level 1");
+    assertEquals("val_d1", get("d"), "Level 1 must shadow level 3");
+    assertEquals("val_n3", get("n"), "Keys inside a level-1 range but absent must fall through");
+    assertEquals("val_x3", get("x"), "Keys beyond every level-1 table must fall through");
+    assertNull(get("g"), "Keys between tables of a level are absent");
+  }
+
+  @Test
+  void testTombstoneShadowsDeeperLevels() throws IOException {
+    addTable(2, new TreeMap<>(Map.of("k", "old")));
+    addTable(1, new TreeMap<>(Map.of("k", Constants.TOMBSTONE)));
+
+    assertNull(get("k"), "A tombstone in a higher level hides older values below it");
+  }
+}
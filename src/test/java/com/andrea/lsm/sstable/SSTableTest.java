@@ -7,9 +7,14 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import util.Bytes;
 import util.Constants;
+import util.Options;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -110,4 +115,69 @@ class SSTableTest {
     // Verify non-existent keys
     assertNull(recoveredSSTable.get("zebra"), "Lookup should return null for non-existent key after recovery");
   }
-}
\ No newline at end of file
+
+  @Test
+  void testMmapReadMode() throws IOException {
+    // Reopen the same file with reads served from a memory mapping.
+    SSTable mapped = new SSTable(sstable.getFilePath(), new Options().setReadMode(SSTable.ReadMode.MMAP));
+
+    assertEquals("red_fruit", mapped.get("apple"));
+    assertEquals("purple_fruit", mapped.get("elderberry"));
+    assertEquals(LARGE_VAL, mapped.get("fig"));
+    assertNull(mapped.get("coconut"), "Lookup should return null for a key between stored keys");
+
+    int count = 0;
+    try (SSTableIterator iterator = new SSTableIterator(mapped)) {
+      while (iterator.hasNext()) {
+        iterator.next();
+        count++;
+      }
+    }
+    assertEquals(6, count, "Iteration over the mapping should see every entry");
+    mapped.close();
+  }
+
+  @Test
+  void testFooterMetadataSurvivesReopen() throws IOException {
+    SSTable reopened = new SSTable(sstable.getFilePath());
+
+    assertEquals(6, reopened.getEntryCount());
+    assertEquals("apple", Bytes.string(reopened.getMinKey()));
+    assertEquals("fig", Bytes.string(reopened.getMaxKey()));
+    assertEquals(Files.size(sstable.getFilePath()), reopened.getFileSize());
+  }
+
+  @Test
+  void testLegacyFormatIsStillReadable() throws IOException {
+    // Files written before the footer existed hold only length-prefixed entries.
+    Path legacy = tempDir.resolve("legacy" + Constants.SSTABLE_FILE_EXTENSION);
+    try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(legacy))) {
+      for (String key : new String[] {"a", "b", "c"}) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = ("value_" + key).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(keyBytes.length);
+        out.write(keyBytes);
+        out.writeInt(valueBytes.length);
+        out.write(valueBytes);
+      }
+    }
+
+    SSTable table = new SSTable(legacy);
+    assertEquals(3, table.getEntryCount());
+    assertEquals("value_b", table.get("b"));
+    assertNull(table.get("d"));
+  }
+
+  @Test
+  void testUnsupportedFormatVersionIsRejected() throws IOException {
+    Path path = sstable.getFilePath();
+    byte[] bytes = Files.readAllBytes(path);
+    // The format version sits right before the trailing 8-byte magic number.
+    ByteBuffer.wrap(bytes).putInt(bytes.length - Long.BYTES - Integer.BYTES, 99);
+    Path corrupted = tempDir.resolve("corrupted" + Constants.SSTABLE_FILE_EXTENSION);
+    Files.write(corrupted, bytes);
+
+    IOException e = assertThrows(IOException.class, () -> new SSTable(corrupted));
+    assertTrue(e.getMessage().contains("99"));
+  }
+}
@@ -0,0 +1,91 @@
+package com.andrea.lsm.sstable;
+
+import com.andrea.lsm.memtable.Memtable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Options;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link TableCache} and the pooled file handles of {@link SSTable}.
+ */
+class TableCacheTest {
+
+  @TempDir
+  Path tempDir;
+
+  private List<SSTable> createTables(int count, Options options) throws IOException {
+    List<SSTable> tables = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Memtable memtable = new Memtable();
+      memtable.put("key" + i, "value" + i);
+      tables.add(SSTable.createSSTableFromMemtable(memtable, tempDir, options));
+    }
+    return tables;
+  }
+
+  @Test
+  @DisplayName("The number of open files never exceeds the limit and evicted tables reopen")
+  void testOpenFilesAreBounded() throws IOException {
+    TableCache tableCache = new TableCache(3);
+    Options options = new Options().setBlockCache(new BlockCache(0)).setTableCache(tableCache);
+    List<SSTable> tables = createTables(10, options);
+
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < tables.size(); i++) {
+        assertEquals("value" + i, tables.get(i).get("key" + i));
+        assertTrue(tableCache.getOpenFileCount() <= 3, "Open files must stay within the limit");
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("Closing a table releases its file handle")
+  void testCloseReleasesHandle() throws IOException {
+    TableCache tableCache = new TableCache(10);
+    Options options = new Options().setBlockCache(new BlockCache(0)).setTableCache(tableCache);
+    SSTable table = createTables(1, options).get(0);
+
+    assertEquals("value0", table.get("key0"));
+    assertEquals(1, tableCache.getOpenFileCount());
+    table.close();
+    assertEquals(0, tableCache.getOpenFileCount());
+  }
+
+  @Test
+  @DisplayName("Concurrent readers survive handles being closed underneath them")
+  void testConcurrentReadsWithEviction() throws Exception {
+    TableCache tableCache = new TableCache(1);
+    Options options = new Options().setBlockCache(new BlockCache(0)).setTableCache(tableCache);
+    List<SSTable> tables = createTables(4, options);
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+        futures.add(pool.submit(() -> {
+          for (int n = 0; n < 500; n++) {
+            int i = n % tables.size();
+            assertEquals("value" + i, tables.get(i).get("key" + i));
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+}
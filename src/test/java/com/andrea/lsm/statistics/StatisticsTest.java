@@ -0,0 +1,122 @@
+package com.andrea.lsm.statistics;
+
+import com.andrea.lsm.core.DB;
+import com.andrea.lsm.statistics.Statistics.HistogramType;
+import com.andrea.lsm.statistics.Statistics.Ticker;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import util.Options;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.Map;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for {@link Histogram} and {@link Statistics}, and for the statistics a
+ * {@link DB} records and publishes over JMX.
+ */
+class StatisticsTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  @DisplayName("Percentiles are within the relative error at every magnitude")
+  void testHistogramPercentiles() {
+    Histogram histogram = new Histogram();
+    for (long value = 1; value <= 100_000; value++) {
+      histogram.record(value * 1000);
+    }
+    assertEquals(100_000, histogram.getCount());
+    assertEquals(100_000_000L, histogram.getMax());
+    assertEquals(50_000_500.0, histogram.getMean(), 1.0);
+    for (double percentile : new double[] {1, 50, 90, 99, 99.9}) {
+      double expected = percentile * 1_000_000;
+      long actual = histogram.getPercentile(percentile);
+      assertTrue(actual >= expected && actual <= expected * (1 + 1.0 / 32),
+          percentile + "th percentile was " + actual);
+    }
+    assertEquals(100_000_000L, histogram.getPercentile(100));
+
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentile(99));
+  }
+
+  @Test
+  @DisplayName("Small values are counted exactly and buckets cover the whole range")
+  void testHistogramBuckets() {
+    Histogram histogram = new Histogram();
+    histogram.record(-5);
+    histogram.record(3);
+    histogram.record(3);
+    histogram.record(63);
+    assertEquals(0, histogram.getPercentile(25));
+    assertEquals(3, histogram.getPercentile(50));
+    assertEquals(63, histogram.getPercentile(100));
+
+    long previous = -1;
+    for (int shift = 0; shift < 63; shift++) {
+      long value = 1L << shift;
+      int index = Histogram.bucketIndex(value);
+      assertTrue(Histogram.bucketUpperBound(index) >= value);
+      assertTrue(index > previous);
+      previous = index;
+    }
+    int last = Histogram.bucketIndex(Long.MAX_VALUE);
+    assertEquals(Long.MAX_VALUE, Histogram.bucketUpperBound(last));
+  }
+
+  @Test
+  @DisplayName("A database counts its reads, writes and flushes and publishes them over JMX")
+  void testDatabaseStatistics() throws Exception {
+    Options options = new Options();
+    Statistics statistics = options.getStatistics();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("com.andrea.lsm:type=Statistics,path="
+        + ObjectName.quote(tempDir.toAbsolutePath().normalize().toString()));
+    try (DB db = new DB(tempDir.toString(), options)) {
+      assertSame(statistics, db.getStatistics());
+      for (int i = 0; i < 500; i++) {
+        db.put("key" + i, "value" + i);
+      }
+      db.remove("key1");
+      assertEquals(501, statistics.getTickerCount(Ticker.KEYS_WRITTEN));
+      assertEquals(500, statistics.getHistogram(HistogramType.DB_PUT).getCount());
+      assertEquals(1, statistics.getHistogram(HistogramType.DB_REMOVE).getCount());
+
+      assertNull(db.get("key1"));
+      assertEquals(1, statistics.getTickerCount(Ticker.MEMTABLE_HIT),
+          "The latest write is still in a Memtable");
+      // Flushed keys are found in the SSTables; absent keys within their range are mostly
+      // stopped by the bloom filters.
+      assertEquals("value0", db.get("key0"));
+      for (int i = 0; i < 100; i++) {
+        assertNull(db.get("key" + i + "x"));
+      }
+      assertEquals(102, statistics.getTickerCount(Ticker.KEYS_READ));
+      assertEquals(101, statistics.getTickerCount(Ticker.MEMTABLE_MISS));
+      assertTrue(statistics.getTickerCount(Ticker.BLOOM_FILTER_TRUE_POSITIVE) >= 1);
+      assertTrue(statistics.getTickerCount(Ticker.BLOOM_FILTER_USEFUL) > 0);
+      assertEquals(101, statistics.getHistogram(HistogramType.SSTABLES_PER_GET).getCount());
+      assertTrue(statistics.getTickerCount(Ticker.FLUSH_BYTES_WRITTEN) > 0);
+      assertTrue(statistics.getHistogram(HistogramType.FLUSH).getCount() > 0);
+      assertTrue(statistics.getWriteAmplification() > 0);
+
+      assertTrue(server.isRegistered(name));
+      TabularData tickers = (TabularData) server.getAttribute(name, "Tickers");
+      assertEquals(501L, tickers.get(new Object[] {"KEYS_WRITTEN"}).get("value"));
+      assertEquals(statistics.getWriteAmplification(),
+          (Double) server.getAttribute(name, "WriteAmplification"));
+      Map<String, Double> histograms = statistics.getHistograms();
+      assertEquals(500.0, histograms.get("DB_PUT.count"));
+    }
+    assertFalse(server.isRegistered(name), "The MBean is unregistered on close");
+  }
+}
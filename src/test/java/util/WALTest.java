@@ -0,0 +1,226 @@
+package util;
+
+import com.andrea.lsm.iterator.RangeTombstone;
+import com.andrea.lsm.memtable.Memtable;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for the group-commit {@link WAL} writer.
+ */
+class WALTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  @DisplayName("Concurrent writers are all committed and replayable under every sync policy")
+  void testConcurrentWritersAreRecovered() throws Exception {
+    for (WAL.SyncPolicy policy : WAL.SyncPolicy.values()) {
+      assertConcurrentWritersAreRecovered(policy);
+    }
+  }
+
+  private void assertConcurrentWritersAreRecovered(WAL.SyncPolicy policy) throws Exception {
+    Path walPath = WAL.generateWALPath(tempDir);
+    int threads = 8;
+    int writesPerThread = 200;
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try (WAL wal = new WAL(walPath, policy, 5)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        final int thread = t;
+        futures.add(pool.submit(() -> {
+          for (int i = 0; i < writesPerThread; i++) {
+            wal.writeEntry("t" + thread + "_k" + i, thread * writesPerThread + i + 1, "v" + i);
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+
+    Memtable recovered = new Memtable();
+    WAL.recoverMemtableFromWal(walPath, recovered);
+    for (int t = 0; t < threads; t++) {
+      for (int i = 0; i < writesPerThread; i++) {
+        assertEquals("v" + i, recovered.get("t" + t + "_k" + i),
+            "Every acknowledged write must be in the log (" + policy + ")");
+      }
+    }
+  }
+
+  @Test
+  @DisplayName("A write acknowledged by writeEntry is readable before the WAL is closed")
+  void testWriteIsVisibleBeforeClose() throws IOException {
+    Path walPath = WAL.generateWALPath(tempDir);
+    WAL wal = new WAL(walPath);
+    wal.writeEntry("key", 1, "value");
+
+    Memtable recovered = new Memtable();
+    WAL.recoverMemtableFromWal(walPath, recovered);
+    assertEquals("value", recovered.get("key"));
+    wal.close();
+  }
+
+  @Test
+  @DisplayName("Writing to a closed WAL fails instead of silently dropping data")
+  void testWriteAfterCloseFails() throws IOException {
+    WAL wal = new WAL(WAL.generateWALPath(tempDir));
+    wal.close();
+    assertThrows(IOException.class, () -> wal.writeEntry("key", 1, "value"));
+    // Closing twice is harmless.
+    wal.close();
+  }
+
+  @Test
+  @DisplayName("A batch torn by a crash is dropped as a whole, earlier records survive")
+  void testTornBatchIsDropped() throws IOException {
+    Path walPath = WAL.generateWALPath(tempDir);
+    try (WAL wal = new WAL(walPath)) {
+      wal.writeEntry("before", 1, "value");
+      wal.writeBatch(2, List.of(Map.entry(Bytes.of("a"), Bytes.of("1")),
+          Map.entry(Bytes.of("b"), Bytes.of("2"))));
+    }
+    // Cut the last value short, as if the process died in the middle of the write.
+    try (FileChannel channel = FileChannel.open(walPath, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 1);
+    }
+
+    Memtable recovered = new Memtable();
+    assertEquals(1, WAL.recoverMemtableFromWal(walPath, recovered));
+    assertEquals("value", recovered.get("before"));
+    assertNull(recovered.get("a"));
+    assertNull(recovered.get("b"));
+  }
+
+  @Test
+  @DisplayName("A batch with a corrupted byte fails its checksum and is not replayed")
+  void testCorruptBatchIsDropped() throws IOException {
+    Path walPath = WAL.generateWALPath(tempDir);
+    try (WAL wal = new WAL(walPath)) {
+      wal.writeBatch(1, List.of(Map.entry(Bytes.of("a"), Bytes.of("1")),
+          Map.entry(Bytes.of("b"), Bytes.of("2"))));
+    }
+    byte[] bytes = Files.readAllBytes(walPath);
+    bytes[bytes.length - 1] ^= 1;
+    Files.write(walPath, bytes);
+
+    Memtable recovered = new Memtable();
+    assertEquals(0, WAL.recoverMemtableFromWal(walPath, recovered));
+    assertNull(recovered.get("a"));
+    assertNull(recovered.get("b"));
+  }
+
+  @Test
+  @DisplayName("Records larger than a block are fragmented across blocks and reassembled")
+  void testRecordsSpanningBlocks() throws IOException {
+    Path walPath = WAL.generateWALPath(tempDir);
+    String large = "x".repeat(3 * WAL.BLOCK_SIZE + 123);
+    try (WAL wal = new WAL(walPath)) {
+      // Sizes chosen so that records and headers keep landing near block boundaries.
+      for (int i = 0; i < 200; i++) {
+        wal.writeEntry("k" + i, i + 1, "v".repeat(i * 37 % 1000));
+      }
+      wal.writeBatch(201, List.of(Map.entry(Bytes.of("large"), Bytes.of(large)),
+          Map.entry(Bytes.of("after"), Bytes.of("1"))));
+      wal.writeEntry("tail", 203, "value");
+    }
+
+    Memtable recovered = new Memtable();
+    assertEquals(203, WAL.recoverMemtableFromWal(walPath, recovered));
+    for (int i = 0; i < 200; i++) {
+      assertEquals("v".repeat(i * 37 % 1000), recovered.get("k" + i));
+    }
+    assertEquals(large, recovered.get("large"));
+    assertEquals("1", recovered.get("after"));
+    assertEquals("value", recovered.get("tail"));
+  }
+
+  @Test
+  @DisplayName("Several WALs are recovered together and replayed oldest first")
+  void testRecoverAllReplaysInOrder() throws IOException {
+    int files = 6;
+    for (int f = 0; f < files; f++) {
+      try (WAL wal = new WAL(WAL.generateWALPath(tempDir))) {
+        for (int i = 0; i < 100; i++) {
+          // Unsequenced, as in a standalone Memtable: only the replay order decides.
+          wal.writeEntry("k" + i, 0, "file" + f);
+        }
+        wal.writeEntry("only" + f, 0, "present");
+      }
+    }
+
+    Memtable recovered = new Memtable();
+    WAL.recoverAll(tempDir, recovered);
+    for (int i = 0; i < 100; i++) {
+      assertEquals("file" + (files - 1), recovered.get("k" + i));
+    }
+    for (int f = 0; f < files; f++) {
+      assertEquals("present", recovered.get("only" + f));
+    }
+  }
+
+  @Test
+  @DisplayName("Range deletions are logged as typed entries and replayed in order")
+  void testRangeDeletionsAreReplayed() throws IOException {
+    Path walPath = WAL.generateWALPath(tempDir);
+    try (WAL wal = new WAL(walPath)) {
+      wal.writeEntry("b", 1, "old");
+      wal.writeEntry("d", 2, "old");
+      wal.writeBatch(3, List.of(new RangeTombstone(Bytes.of("a"), 0L, Bytes.of("c")),
+          Map.entry(Bytes.of("a"), Bytes.of("new"))));
+    }
+
+    Memtable recovered = new Memtable();
+    assertEquals(4, WAL.recoverMemtableFromWal(walPath, recovered));
+    assertEquals("new", recovered.get("a"));
+    assertEquals(Constants.TOMBSTONE, recovered.get("b"));
+    assertEquals("old", recovered.get("d"));
+    assertEquals("old", Bytes.string(recovered.get(Bytes.of("b"), 2)));
+    assertEquals(3, recovered.rangeTombstones().get(0).getSequence());
+  }
+
+  @Test
+  @DisplayName("Logs of the original format, without a magic or framing, are still replayed")
+  void testOriginalLogIsReplayed() throws IOException {
+    Path walPath = WAL.generateWALPath(tempDir);
+    try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(walPath))) {
+      for (String[] entry : new String[][] {{"k", "v1"}, {"k", "v2"}, {"other", "x"}}) {
+        byte[] key = Bytes.of(entry[0]);
+        byte[] value = Bytes.of(entry[1]);
+        out.writeInt(key.length);
+        out.write(key);
+        out.writeInt(value.length);
+        out.write(value);
+      }
+    }
+
+    Memtable recovered = new Memtable();
+    WAL.recoverMemtableFromWal(walPath, recovered);
+    assertEquals("v2", recovered.get("k"), "Unsequenced writes replace one another");
+    assertEquals("x", recovered.get("other"));
+  }
+}